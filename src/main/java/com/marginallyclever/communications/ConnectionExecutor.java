@@ -0,0 +1,66 @@
+package com.marginallyclever.communications;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A few threads that pass what every robot says on to its listeners, so the thread that reads a port only puts
+ * each line in a {@link ListenerQueue} and goes back to reading.  A slow listener holds up its own robot's
+ * listeners and one of these threads, never a port.
+ * <p>
+ * Thread safe.
+ */
+public class ConnectionExecutor {
+	private static ConnectionExecutor shared;
+
+	private ExecutorService executor;
+	private int threads;
+
+
+	/**
+	 * @param threads to share between every connection
+	 */
+	public ConnectionExecutor(int threads) {
+		this.threads = Math.max(1,threads);
+		final AtomicInteger count = new AtomicInteger();
+		executor = Executors.newFixedThreadPool(this.threads,new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r,"Connection listeners #"+count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+
+	/**
+	 * @return the executor used by {@link NetworkConnectionManager}, with a thread for each processor and at least two.
+	 */
+	public static synchronized ConnectionExecutor getShared() {
+		if(shared==null) {
+			shared = new ConnectionExecutor(Math.max(2,Runtime.getRuntime().availableProcessors()));
+		}
+		return shared;
+	}
+
+
+	public int getThreadCount() {
+		return threads;
+	}
+
+
+	protected void execute(Runnable task) {
+		executor.execute(task);
+	}
+
+
+	/**
+	 * Stop once the work already given is done.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+}
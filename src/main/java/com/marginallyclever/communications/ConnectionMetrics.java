@@ -0,0 +1,317 @@
+package com.marginallyclever.communications;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * How fast lines go to and from one robot, to find out what holds a long plot or an arm program back.
+ * <p>
+ * The {@link LineStreamer} and the {@link LineConnection} record into it as lines are sent, acknowledged and
+ * received.  Recording never takes a lock.  The round trip of a line is from when it is written to the cue that
+ * acknowledges it.  A stall is a time the next line was ready but had to wait for a cue.
+ * <p>
+ * An open connection is registered with JMX as
+ * <code>com.marginallyclever.communications:type=(class),name=(connection),id=(n)</code>.
+ * <p>
+ * Thread safe.
+ */
+public class ConnectionMetrics implements ConnectionMetricsMBean {
+	public static final String DOMAIN = "com.marginallyclever.communications";
+
+	private static AtomicInteger nextId = new AtomicInteger();
+
+	protected LongAdder linesSent = new LongAdder();
+	protected LongAdder bytesSent = new LongAdder();
+	protected LongAdder linesReceived = new LongAdder();
+	protected LongAdder bytesReceived = new LongAdder();
+	protected LongAdder linesAcknowledged = new LongAdder();
+	protected LongAdder errors = new LongAdder();
+	protected LongAdder resends = new LongAdder();
+	protected LongAdder linesResent = new LongAdder();
+	protected LongAdder stalls = new LongAdder();
+	protected LongAdder stallNanos = new LongAdder();
+	protected LatencyHistogram roundTrip = new LatencyHistogram();
+
+	protected volatile int queueDepth;
+	protected volatile int bytesInFlight;
+	protected AtomicInteger mostQueued = new AtomicInteger();
+	// when the current stall started, or 0.  only touched by the streamer, which holds its lock.
+	protected long stallStart;
+
+	// for getLinesPerSecond()
+	private long rateTime = System.nanoTime();
+	private long rateLines;
+	private double rate;
+
+	private String connectionName = "";
+	private int id = nextId.incrementAndGet();
+	private ObjectName objectName;
+
+
+	public void lineSent(int bytes) {
+		linesSent.increment();
+		bytesSent.add(bytes);
+	}
+
+
+	/**
+	 * @param roundTripNanos from write to cue, or less than 0 if not known.
+	 */
+	public void lineAcknowledged(long roundTripNanos) {
+		linesAcknowledged.increment();
+		if(roundTripNanos>=0) roundTrip.record(roundTripNanos);
+	}
+
+
+	public void bytesReceived(int bytes) {
+		bytesReceived.add(bytes);
+	}
+
+
+	public void lineReceived() {
+		linesReceived.increment();
+	}
+
+
+	/**
+	 * @param depth lines waiting to be sent
+	 * @param inFlight bytes sent and not acknowledged
+	 */
+	public void queued(int depth,int inFlight) {
+		queueDepth = depth;
+		bytesInFlight = inFlight;
+		int most;
+		while((most=mostQueued.get())<depth && !mostQueued.compareAndSet(most,depth));
+	}
+
+
+	/**
+	 * The next line must wait for a cue.  Only one caller at a time.
+	 */
+	public void stallStarted(long now) {
+		if(stallStart!=0) return;
+		stallStart = now;
+		stalls.increment();
+	}
+
+
+	/**
+	 * A cue came.  Only one caller at a time.
+	 */
+	public void stallEnded(long now) {
+		if(stallStart==0) return;
+		stallNanos.add(now-stallStart);
+		stallStart = 0;
+	}
+
+
+	public void error() {
+		errors.increment();
+	}
+
+
+	public void resent(int lines) {
+		resends.increment();
+		linesResent.add(lines);
+	}
+
+
+	/**
+	 * Show these metrics through JMX.  Registered again under the new name if already registered.
+	 * @param type what kind of connection
+	 * @param name the port or address
+	 */
+	public synchronized void register(String type,String name) {
+		unregister();
+		connectionName = name;
+		try {
+			ObjectName on = new ObjectName(DOMAIN+":type="+ObjectName.quote(type)+",name="+ObjectName.quote(name)+",id="+id);
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			server.registerMBean(this,on);
+			objectName = on;
+		} catch(Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+
+	public synchronized void unregister() {
+		if(objectName==null) return;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+		} catch(Exception e) {
+			e.printStackTrace();
+		}
+		objectName = null;
+	}
+
+
+	/**
+	 * @return the name this is registered under with JMX, or null if it is not.
+	 */
+	public synchronized ObjectName getObjectName() {
+		return objectName;
+	}
+
+
+	public LatencyHistogram getRoundTripHistogram() {
+		return roundTrip;
+	}
+
+
+	@Override
+	public synchronized String getConnectionName() {
+		return connectionName;
+	}
+
+
+	@Override
+	public long getLinesSent() {
+		return linesSent.sum();
+	}
+
+
+	@Override
+	public long getBytesSent() {
+		return bytesSent.sum();
+	}
+
+
+	@Override
+	public long getLinesReceived() {
+		return linesReceived.sum();
+	}
+
+
+	@Override
+	public long getBytesReceived() {
+		return bytesReceived.sum();
+	}
+
+
+	@Override
+	public long getLinesAcknowledged() {
+		return linesAcknowledged.sum();
+	}
+
+
+	/**
+	 * @return lines acknowledged per second since the last time this was asked.
+	 */
+	@Override
+	public synchronized double getLinesPerSecond() {
+		long now = System.nanoTime();
+		long lines = linesAcknowledged.sum();
+		// too soon to say anything new
+		if(now-rateTime<100000000L) return rate;
+		rate = (lines-rateLines)/((now-rateTime)*1e-9);
+		rateTime = now;
+		rateLines = lines;
+		return rate;
+	}
+
+
+	@Override
+	public int getQueueDepth() {
+		return queueDepth;
+	}
+
+
+	@Override
+	public int getMostQueued() {
+		return mostQueued.get();
+	}
+
+
+	@Override
+	public int getBytesInFlight() {
+		return bytesInFlight;
+	}
+
+
+	@Override
+	public long getStalls() {
+		return stalls.sum();
+	}
+
+
+	@Override
+	public double getStallSeconds() {
+		return stallNanos.sum()*1e-9;
+	}
+
+
+	@Override
+	public long getErrors() {
+		return errors.sum();
+	}
+
+
+	@Override
+	public long getResends() {
+		return resends.sum();
+	}
+
+
+	@Override
+	public long getLinesResent() {
+		return linesResent.sum();
+	}
+
+
+	@Override
+	public long getRoundTrips() {
+		return roundTrip.getCount();
+	}
+
+
+	@Override
+	public double getRoundTripMeanMillis() {
+		return roundTrip.getMeanMicros()/1000.0;
+	}
+
+
+	@Override
+	public double getRoundTripMaxMillis() {
+		return roundTrip.getMaxMicros()/1000.0;
+	}
+
+
+	@Override
+	public double getRoundTripP50Millis() {
+		return roundTrip.getPercentileMicros(0.5)/1000.0;
+	}
+
+
+	@Override
+	public double getRoundTripP99Millis() {
+		return roundTrip.getPercentileMicros(0.99)/1000.0;
+	}
+
+
+	/**
+	 * Start counting again from 0.
+	 */
+	@Override
+	public synchronized void reset() {
+		linesSent.reset();
+		bytesSent.reset();
+		linesReceived.reset();
+		bytesReceived.reset();
+		linesAcknowledged.reset();
+		errors.reset();
+		resends.reset();
+		linesResent.reset();
+		stalls.reset();
+		stallNanos.reset();
+		roundTrip.reset();
+		mostQueued.set(queueDepth);
+		rateTime = System.nanoTime();
+		rateLines = 0;
+		rate = 0;
+	}
+}
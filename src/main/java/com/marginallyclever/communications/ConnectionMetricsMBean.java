@@ -0,0 +1,48 @@
+package com.marginallyclever.communications;
+
+/**
+ * What {@link ConnectionMetrics} shows through JMX, in jconsole or VisualVM.
+ */
+public interface ConnectionMetricsMBean {
+	public String getConnectionName();
+
+	public long getLinesSent();
+
+	public long getBytesSent();
+
+	public long getLinesReceived();
+
+	public long getBytesReceived();
+
+	public long getLinesAcknowledged();
+
+	public double getLinesPerSecond();
+
+	public int getQueueDepth();
+
+	public int getMostQueued();
+
+	public int getBytesInFlight();
+
+	public long getStalls();
+
+	public double getStallSeconds();
+
+	public long getErrors();
+
+	public long getResends();
+
+	public long getLinesResent();
+
+	public long getRoundTrips();
+
+	public double getRoundTripMeanMillis();
+
+	public double getRoundTripMaxMillis();
+
+	public double getRoundTripP50Millis();
+
+	public double getRoundTripP99Millis();
+
+	public void reset();
+}
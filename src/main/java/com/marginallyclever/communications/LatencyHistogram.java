@@ -0,0 +1,98 @@
+package com.marginallyclever.communications;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts times in buckets that double in width: under 1us, under 2us, under 4us, and so on up to about half an hour.
+ * Good enough to tell a 2ms round trip from a 20ms one, and recording never takes a lock.
+ * <p>
+ * Thread safe.
+ */
+public class LatencyHistogram {
+	public static final int BUCKETS = 32;
+
+	protected AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	protected LongAdder count = new LongAdder();
+	protected LongAdder totalNanos = new LongAdder();
+	protected AtomicLong maxNanos = new AtomicLong();
+
+
+	/**
+	 * @param nanos one time, in nanoseconds.
+	 */
+	public void record(long nanos) {
+		if(nanos<0) nanos=0;
+		counts.incrementAndGet(bucket(nanos/1000));
+		count.increment();
+		totalNanos.add(nanos);
+		long max;
+		while((max=maxNanos.get())<nanos && !maxNanos.compareAndSet(max,nanos));
+	}
+
+
+	/**
+	 * @return the bucket for a time in microseconds.  Bucket b holds times under 2^b microseconds.
+	 */
+	protected static int bucket(long micros) {
+		int b = 64-Long.numberOfLeadingZeros(micros);
+		return Math.min(b,BUCKETS-1);
+	}
+
+
+	public long getCount() {
+		return count.sum();
+	}
+
+
+	/**
+	 * @return the mean in microseconds, or 0 if nothing has been recorded.
+	 */
+	public double getMeanMicros() {
+		long n = count.sum();
+		return n==0 ? 0 : totalNanos.sum()/1000.0/n;
+	}
+
+
+	public double getMaxMicros() {
+		return maxNanos.get()/1000.0;
+	}
+
+
+	/**
+	 * @param fraction from 0 to 1, such as 0.99
+	 * @return the top of the bucket the fraction of times fall under, in microseconds.  At most twice too high.
+	 */
+	public long getPercentileMicros(double fraction) {
+		long [] c = new long[BUCKETS];
+		long n=0;
+		for(int i=0;i<BUCKETS;++i) n += c[i] = counts.get(i);
+		if(n==0) return 0;
+		long wanted = (long)Math.ceil(fraction*n);
+		long sum=0;
+		for(int i=0;i<BUCKETS;++i) {
+			sum += c[i];
+			if(sum>=wanted && c[i]>0) return 1L<<i;
+		}
+		return 1L<<(BUCKETS-1);
+	}
+
+
+	/**
+	 * @return times in each bucket.  Bucket b holds times under 2^b microseconds.
+	 */
+	public long [] getCounts() {
+		long [] c = new long[BUCKETS];
+		for(int i=0;i<BUCKETS;++i) c[i] = counts.get(i);
+		return c;
+	}
+
+
+	public void reset() {
+		for(int i=0;i<BUCKETS;++i) counts.set(i,0);
+		count.reset();
+		totalNanos.reset();
+		maxNanos.set(0);
+	}
+}
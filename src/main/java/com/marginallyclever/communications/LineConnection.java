@@ -0,0 +1,373 @@
+package com.marginallyclever.communications;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.marginallyclever.robotOverlord.Log;
+
+/**
+ * What every connection to a robot that talks in lines has in common, whatever carries the bytes.
+ * <p>
+ * Lines to send go to a {@link LineStreamer}, which calls {@link #write(byte[])} when the firmware has room for
+ * them.  Bytes from the robot are given to {@link #received(byte[],int,int)}, gathered into lines in a
+ * {@link LineRing}, and passed to the listeners.  Each cue from the firmware acknowledges a line.  A refused line is
+ * sent again from a {@link ResendBuffer} if it can be.  How fast it all goes is recorded in {@link ConnectionMetrics},
+ * which are shown through JMX while the connection is open.  Both directions can be captured to a file with
+ * {@link #startCapture(File)}.
+ * <p>
+ * Listeners are called by the thread that reads the robot, unless a {@link ConnectionExecutor} is given to
+ * {@link #setListenerExecutor(ConnectionExecutor)}.
+ */
+public abstract class LineConnection implements NetworkConnection {
+	public static final String CUE = "> ";
+	public static final String NOCHECKSUM = "NOCHECKSUM ";
+	public static final String BADCHECKSUM = "BADCHECKSUM ";
+	public static final String BADLINENUM = "BADLINENUM ";
+
+	protected String connectionName = "";
+	protected volatile boolean portOpened = false;
+
+	// parsing input from the robot
+	protected LineRing inputBuffer = new LineRing();
+	protected LineStreamer streamer = new LineStreamer(new LineStreamer.Output() {
+		@Override
+		public boolean write(byte [] data) throws Exception {
+			boolean written = LineConnection.this.write(data);
+			SessionRecorder r = recorder;
+			if(written && r!=null) r.sent(data,0,data.length);
+			return written;
+		}
+	});
+	protected ConnectionMetrics metrics = new ConnectionMetrics();
+	protected volatile SessionRecorder recorder;
+	// true while sendQueuedCommand() is at work.
+	private AtomicBoolean sending = new AtomicBoolean(false);
+
+	// Listeners which should be notified of a change to the percentage.
+	private CopyOnWriteArrayList<NetworkConnectionListener> listeners = new CopyOnWriteArrayList<NetworkConnectionListener>();
+	// null to call the listeners from the thread that reads the robot.
+	private volatile ListenerQueue listenerQueue;
+
+
+	protected LineConnection() {
+		streamer.setResendBuffer(new ResendBuffer());
+		streamer.setMetrics(metrics);
+	}
+
+
+	/**
+	 * Send one whole line.
+	 * @param data the line, with the newline.
+	 * @return false if the line can't be taken now.  It will be offered again after the next send.
+	 * @throws Exception if it can't be sent.
+	 */
+	protected abstract boolean write(byte [] data) throws Exception;
+
+
+	/**
+	 * Call when the connection is open, before any bytes arrive.  Nothing is sent until the firmware gives its cue.
+	 * @param name to reconnect with
+	 */
+	protected void opened(String name) {
+		connectionName = name;
+		streamer.reset();
+		inputBuffer.clear();
+		metrics.register(getClass().getSimpleName(),name);
+		portOpened = true;
+	}
+
+
+	/**
+	 * Call when the connection is closed.
+	 */
+	protected void closed() {
+		metrics.unregister();
+		stopCapture();
+	}
+
+
+	/**
+	 * @param executor to call the listeners from, so they never hold up the port.  null to call them from the thread
+	 * that reads the robot.
+	 */
+	public void setListenerExecutor(ConnectionExecutor executor) {
+		listenerQueue = executor==null ? null : new ListenerQueue(this,listeners,executor,ListenerQueue.DEFAULT_CAPACITY);
+	}
+
+
+	/**
+	 * @return what waits for the listeners, or null if they are called from the thread that reads the robot.
+	 */
+	public ListenerQueue getListenerQueue() {
+		return listenerQueue;
+	}
+
+
+	/**
+	 * Write everything sent and received to a file until {@link #stopCapture()} or the connection is closed.
+	 * @param file to write.  See {@link SessionRecorder}.
+	 * @throws IOException if the file can't be written.
+	 */
+	public void startCapture(File file) throws IOException {
+		stopCapture();
+		recorder = new SessionRecorder(file);
+	}
+
+
+	public void stopCapture() {
+		SessionRecorder r = recorder;
+		recorder = null;
+		if(r!=null) r.close();
+	}
+
+
+	public boolean isCapturing() {
+		return recorder!=null;
+	}
+
+
+	@Override
+	public void sendMessage(String msg) throws Exception {
+		streamer.add(msg);
+		sendQueuedCommand();
+	}
+
+
+	/**
+	 * Keep the firmware's receive buffer full instead of waiting for the cue after every line.
+	 * The firmware must answer every line with a cue.
+	 * @param bufferSize bytes the firmware can receive before it takes a line.  0 to send one line and wait for
+	 * the cue.
+	 */
+	public void setStreaming(int bufferSize) {
+		streamer.setWindow(bufferSize);
+		sendQueuedCommand();
+	}
+
+
+	public boolean isStreaming() {
+		return streamer.isStreaming();
+	}
+
+
+	/**
+	 * @return the lines in flight and how many have been sent.
+	 */
+	public LineStreamer getStreamer() {
+		return streamer;
+	}
+
+
+	/**
+	 * @return how fast lines go to and from the robot.
+	 */
+	public ConnectionMetrics getMetrics() {
+		return metrics;
+	}
+
+
+	public void deleteAllQueuedCommands() {
+		streamer.clear();
+	}
+
+
+	/**
+	 * Bytes have arrived from the robot.  Whole lines are passed on, then anything that can be sent is.
+	 */
+	protected void received(byte [] data,int offset,int length) {
+		metrics.bytesReceived(length);
+		SessionRecorder r = recorder;
+		if(r!=null) r.received(data,offset,length);
+		int done=0;
+		while(done<length) {
+			done += inputBuffer.write(data,offset+done,length-done);
+			// each line ends with a \n.
+			String oneLine;
+			while((oneLine=inputBuffer.nextLine())!=null) {
+				lineReceived(oneLine);
+			}
+		}
+		sendQueuedCommand();
+	}
+
+
+	protected void lineReceived(String oneLine) {
+		metrics.lineReceived();
+		// check for error
+		int error_line = errorReported(oneLine);
+		if(error_line != -1) {
+			metrics.error();
+			// listeners only hear of it if the line can't be sent again from here.
+			if(!streamer.resend(error_line)) {
+				notifyLineError(error_line);
+			}
+		} else {
+			// no error
+			if(!oneLine.trim().equals(CUE.trim())) {
+				notifyDataAvailable(oneLine);
+			}
+		}
+
+		// each cue means the oldest line in flight has been taken.
+		if(oneLine.indexOf(CUE)==0) {
+			streamer.acknowledge();
+		}
+	}
+
+
+	/**
+	 * Check if the robot reports an error and if so what line number.
+	 * @param line the message from the robot to be parsed
+	 * @return -1 if there was no error, otherwise the line number containing the error.
+	 */
+	protected int errorReported(String line) {
+		if (line.lastIndexOf(NOCHECKSUM) != -1) {
+			String after_error = line.substring(line.lastIndexOf(NOCHECKSUM) + NOCHECKSUM.length());
+			String x = getNumberPortion(after_error);
+			int err = 0;
+			try {
+				err = Integer.decode(x);
+				Log.error("NOCHECKSUM "+err);
+			} catch (Exception e) {}
+
+			return err;
+		}
+		if (line.lastIndexOf(BADCHECKSUM) != -1) {
+			String after_error = line.substring(line.lastIndexOf(BADCHECKSUM) + BADCHECKSUM.length());
+			String x = getNumberPortion(after_error);
+			int err = 0;
+			try {
+				err = Integer.decode(x);
+				Log.error("BADCHECKSUM "+err);
+			} catch (Exception e) {}
+
+			return err;
+		}
+		if (line.lastIndexOf(BADLINENUM) != -1) {
+			String after_error = line.substring(line.lastIndexOf(BADLINENUM) + BADLINENUM.length());
+			String x = getNumberPortion(after_error);
+			int err = 0;
+			try {
+				err = Integer.decode(x);
+				Log.error("BADLINENUM "+err);
+			} catch (Exception e) {}
+
+			return err;
+		}
+
+		return -1;
+	}
+
+
+	/**
+	 * Send what fits.  When nothing is left to send and there is room, the listeners are asked for more.
+	 * Listeners are called with no lock held, as they may send from another thread.
+	 */
+	protected void sendQueuedCommand() {
+		if(!portOpened) return;
+
+		while(sending.compareAndSet(false,true)) {
+			try {
+				while(true) {
+					streamer.send();
+					if(!streamer.wantsMore()) break;
+					long before = streamer.getLinesSent()+streamer.getQueueSize();
+					notifySendBufferEmpty();
+					// stop when no listener had anything to add.
+					if(streamer.getLinesSent()+streamer.getQueueSize()==before) break;
+				}
+			} finally {
+				sending.set(false);
+			}
+			// another thread may have added a line after the last send().
+			if(!streamer.canSend()) break;
+		}
+	}
+
+
+	// connect to the last port
+	@Override
+	public void reconnect() throws Exception {
+		openConnection(connectionName);
+	}
+
+
+	/**
+	 * Java string to int is very picky.  this method is slightly less picky.  Only works with positive whole numbers.
+	 *
+	 * @param src
+	 * @return the portion of the string that is actually a number
+	 */
+	private String getNumberPortion(String src) {
+		src = src.trim();
+		int length = src.length();
+		String result = "";
+		for (int i = 0; i < length; i++) {
+			Character character = src.charAt(i);
+			if (Character.isDigit(character)) {
+				result += character;
+			}
+		}
+		return result;
+	}
+
+
+	/**
+	 * @return true if the connection is open.
+	 */
+	@Override
+	public boolean isOpen() {
+		return portOpened;
+	}
+
+	@Override
+	public String getRecentConnection() {
+		return connectionName;
+	}
+
+	@Override
+	public void addListener(NetworkConnectionListener listener) {
+		listeners.add(listener);
+	}
+
+	@Override
+	public void removeListener(NetworkConnectionListener listener) {
+		listeners.remove(listener);
+	}
+
+	protected void notifyLineError(int lineNumber) {
+		ListenerQueue q = listenerQueue;
+		if(q!=null) {
+			q.lineError(lineNumber);
+			return;
+		}
+		for (NetworkConnectionListener listener : listeners) {
+			listener.lineError(this,lineNumber);
+		}
+	}
+
+	protected void notifySendBufferEmpty() {
+		ListenerQueue q = listenerQueue;
+		if(q!=null) {
+			q.sendBufferEmpty();
+			return;
+		}
+		for (NetworkConnectionListener listener : listeners) {
+			listener.sendBufferEmpty(this);
+		}
+	}
+
+	// tell all listeners data has arrived
+	protected void notifyDataAvailable(String line) {
+		ListenerQueue q = listenerQueue;
+		if(q!=null) {
+			q.dataAvailable(line);
+			return;
+		}
+		for (NetworkConnectionListener listener : listeners) {
+			listener.dataAvailable(this,line);
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package com.marginallyclever.communications;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Bytes from a robot, kept in a fixed ring until they make a whole line.
+ * <p>
+ * Bytes are copied in as they arrive.  {@link #nextLine()} looks for the end of a line only in bytes it has not
+ * looked at before, and makes a String only of whole lines, so nothing is copied or scanned twice.  A line longer
+ * than the ring is passed on in pieces.
+ * <p>
+ * One thread may {@link #write(byte[],int,int)} while another takes lines, without locking.
+ */
+public class LineRing {
+	public static final int DEFAULT_CAPACITY = 8192;
+
+	protected final byte [] ring;
+	protected final int mask;
+	// bytes written and bytes taken, since the start.  each is written by one thread only.
+	protected volatile long written;
+	protected volatile long taken;
+	// where the search for the end of a line goes on from.  only the taking thread touches it.
+	protected long scanned;
+
+
+	public LineRing() {
+		this(DEFAULT_CAPACITY);
+	}
+
+
+	/**
+	 * @param capacity rounded up to a power of two
+	 */
+	public LineRing(int capacity) {
+		if(capacity<2) throw new IllegalArgumentException("capacity must be at least 2.");
+		int size = Integer.highestOneBit(capacity-1)<<1;
+		ring = new byte[size];
+		mask = size-1;
+	}
+
+
+	public int getCapacity() {
+		return ring.length;
+	}
+
+
+	/**
+	 * @return bytes waiting to be taken
+	 */
+	public int size() {
+		return (int)(written-taken);
+	}
+
+
+	/**
+	 * Copy in as many bytes as there is room for.
+	 * @return bytes copied.  Less than length when the ring is full; take lines and write the rest.
+	 */
+	public int write(byte [] data,int offset,int length) {
+		long w = written;
+		int room = ring.length-(int)(w-taken);
+		int n = Math.min(room,length);
+		int start = (int)(w & mask);
+		int first = Math.min(n,ring.length-start);
+		System.arraycopy(data,offset,ring,start,first);
+		System.arraycopy(data,offset+first,ring,0,n-first);
+		written = w+n;
+		return n;
+	}
+
+
+	/**
+	 * @return the next whole line with its newline, or null if there isn't one yet.
+	 */
+	public String nextLine() {
+		long w = written;
+		long t = taken;
+		if(scanned<t) scanned=t;
+		while(scanned<w) {
+			if(ring[(int)(scanned & mask)]=='\n') {
+				return take(t,++scanned);
+			}
+			scanned++;
+		}
+		// full and no end in sight.
+		if(w-t==ring.length) return take(t,w);
+		return null;
+	}
+
+
+	/**
+	 * Forget everything waiting.  Only from the taking thread.
+	 */
+	public void clear() {
+		taken = scanned = written;
+	}
+
+
+	protected String take(long from,long to) {
+		int start = (int)(from & mask);
+		int length = (int)(to-from);
+		String line;
+		if(start+length<=ring.length) {
+			line = new String(ring,start,length,StandardCharsets.UTF_8);
+		} else {
+			byte [] joined = new byte[length];
+			int first = ring.length-start;
+			System.arraycopy(ring,start,joined,0,first);
+			System.arraycopy(ring,0,joined,first,length-first);
+			line = new String(joined,StandardCharsets.UTF_8);
+		}
+		taken = to;
+		return line;
+	}
+}
@@ -0,0 +1,386 @@
+package com.marginallyclever.communications;
+
+import java.util.ArrayDeque;
+
+/**
+ * Decides when the next queued line may be sent to a robot.
+ * <p>
+ * The firmware prints a cue ("> ") each time it has taken one line out of its receive buffer.  Sending one line and
+ * then waiting for the cue leaves the firmware idle for a whole round trip between lines.  With a window set, lines
+ * are sent while the bytes of every line not yet acknowledged fit in the firmware's receive buffer, so the buffer
+ * stays full.  This is how character counting streamers do it.  Each cue still acknowledges the oldest line, in the
+ * order they were sent, so the lines in flight are always known.
+ * <p>
+ * With no window only one line is in flight at a time, which is how it has always been done.
+ * <p>
+ * With a {@link ResendBuffer} a line the firmware refuses is sent again by {@link #resend(int)}, followed by every
+ * numbered line sent after it.
+ * <p>
+ * With {@link ConnectionMetrics} the round trip of every line, stalls and queue depth are recorded.
+ * <p>
+ * Thread safe.  {@link #add(String)} takes no lock, so the threads that make lines never wait for the thread
+ * that reads the robot.
+ */
+public class LineStreamer {
+	/**
+	 * Where lines go.
+	 */
+	public interface Output {
+		/**
+		 * @param data one whole line, with the newline.
+		 * @return false if the output is too busy to take it now.  The line waits for the next send().
+		 * @throws Exception if it can't be sent.
+		 */
+		public boolean write(byte [] data) throws Exception;
+	}
+
+	public static final String NEWLINE = "\n";
+	public static final String COMMENT_START = ";";
+	// times in a row the same line may be sent again before giving up
+	public static final int MAX_RESENDS = 5;
+
+	protected Output output;
+	// bytes the firmware can hold.  0 for one line at a time.
+	protected int window;
+
+	// lines added and not yet seen by the streamer
+	protected MPSCQueue<String> incoming = new MPSCQueue<String>();
+	// lines waiting to be sent, including lines to send again.
+	protected ArrayDeque<String> queue = new ArrayDeque<String>();
+	// lines sent and not acknowledged, oldest first.
+	protected ArrayDeque<String> inFlight = new ArrayDeque<String>();
+	protected int bytesInFlight;
+	// when each line in flight was written, oldest at sentHead.
+	protected long [] sentTimes = new long[16];
+	protected int sentHead;
+	// false until the firmware first says it is ready.
+	protected boolean ready;
+	// true if the output would not take the last line.
+	protected boolean outputBusy;
+
+	protected long linesSent;
+	protected long bytesSent;
+	protected long linesAcknowledged;
+	protected int mostBytesInFlight;
+	protected long writeErrors;
+
+	protected ResendBuffer resendBuffer;
+	// errors about lines sent before this many lines had been sent are old news.
+	protected long resendMark;
+	protected int lastRefused=-1;
+	protected int refusedInARow;
+	protected long resends;
+	protected long linesResent;
+	protected long errorsIgnored;
+
+	protected ConnectionMetrics metrics;
+
+
+	public LineStreamer(Output output) {
+		this.output = output;
+	}
+
+
+	/**
+	 * @param bytes the size of the firmware's receive buffer, to keep it full.  0 to send one line at a time.
+	 */
+	public synchronized void setWindow(int bytes) {
+		window = Math.max(0,bytes);
+	}
+
+
+	public synchronized int getWindow() {
+		return window;
+	}
+
+
+	public synchronized boolean isStreaming() {
+		return window>0;
+	}
+
+
+	/**
+	 * @param buffer keeps numbered lines as they are sent, for {@link #resend(int)}.  null to keep none.
+	 */
+	public synchronized void setResendBuffer(ResendBuffer buffer) {
+		resendBuffer = buffer;
+	}
+
+
+	public synchronized ResendBuffer getResendBuffer() {
+		return resendBuffer;
+	}
+
+
+	/**
+	 * @param metrics to record into.  null to record nothing.
+	 */
+	public synchronized void setMetrics(ConnectionMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+
+	public synchronized ConnectionMetrics getMetrics() {
+		return metrics;
+	}
+
+
+	/**
+	 * Forget everything.  Call when a connection is opened.  Nothing is sent until the first {@link #acknowledge()}.
+	 */
+	public synchronized void reset() {
+		incoming.clear();
+		queue.clear();
+		inFlight.clear();
+		sentHead=0;
+		bytesInFlight=0;
+		ready=false;
+		outputBusy=false;
+		resendMark=linesSent;
+		lastRefused=-1;
+		if(resendBuffer!=null) resendBuffer.clear();
+	}
+
+
+	/**
+	 * Add a line to send.  Comments are removed and it ends with exactly one newline, as an extra newline would be
+	 * an empty line the firmware answers with a cue of its own.
+	 * @param line the line
+	 */
+	public void add(String line) {
+		int comment = line.indexOf(COMMENT_START);
+		if(comment!=-1) line = line.substring(0,comment);
+		int end = line.length();
+		while(end>0 && (line.charAt(end-1)=='\n' || line.charAt(end-1)=='\r')) end--;
+		incoming.offer(line.substring(0,end)+NEWLINE);
+	}
+
+
+	/**
+	 * Move added lines to the back of the queue.  Only while holding the lock, so one thread takes at a time.
+	 */
+	protected void takeIncoming() {
+		String line;
+		while((line=incoming.poll())!=null) queue.add(line);
+	}
+
+
+	/**
+	 * Forget the lines not yet sent.  Lines in flight are still acknowledged.
+	 */
+	public synchronized void clear() {
+		incoming.clear();
+		queue.clear();
+	}
+
+
+	/**
+	 * The firmware has taken a line.
+	 * @return true if that acknowledged a line in flight, false if the firmware was only saying it is ready.
+	 */
+	public synchronized boolean acknowledge() {
+		ready=true;
+		String line = inFlight.poll();
+		if(line==null) return false;
+		bytesInFlight -= line.length();
+		linesAcknowledged++;
+		long sentTime = sentTimes[sentHead];
+		sentHead = (sentHead+1)%sentTimes.length;
+		if(metrics!=null) {
+			long now = System.nanoTime();
+			metrics.lineAcknowledged(now-sentTime);
+			metrics.stallEnded(now);
+		}
+		return true;
+	}
+
+
+	/**
+	 * Send queued lines while there is room for them.
+	 * @return the number of lines sent
+	 */
+	public synchronized int send() {
+		takeIncoming();
+		int sent=0;
+		String line;
+		while((line=queue.peek())!=null && fits(line.length())) {
+			try {
+				outputBusy = !output.write(line.getBytes());
+				if(outputBusy) break;
+			} catch(Exception e) {
+				// as before, a line that can't be written is lost.
+				queue.poll();
+				writeErrors++;
+				continue;
+			}
+			queue.poll();
+			if(inFlight.size()==sentTimes.length) growSentTimes();
+			sentTimes[(sentHead+inFlight.size())%sentTimes.length] = System.nanoTime();
+			inFlight.add(line);
+			if(resendBuffer!=null) resendBuffer.sent(line);
+			bytesInFlight += line.length();
+			if(mostBytesInFlight<bytesInFlight) mostBytesInFlight=bytesInFlight;
+			linesSent++;
+			bytesSent += line.length();
+			if(metrics!=null) metrics.lineSent(line.length());
+			sent++;
+		}
+		if(metrics!=null) {
+			metrics.queued(queue.size(),bytesInFlight);
+			// a line is ready and the firmware has no room for it.
+			if(line!=null && ready && !outputBusy) metrics.stallStarted(System.nanoTime());
+		}
+		return sent;
+	}
+
+
+	protected void growSentTimes() {
+		long [] bigger = new long[sentTimes.length*2];
+		for(int i=0;i<inFlight.size();++i) bigger[i] = sentTimes[(sentHead+i)%sentTimes.length];
+		sentTimes = bigger;
+		sentHead = 0;
+	}
+
+
+	/**
+	 * The output can take lines again after refusing one.  Call before send().
+	 */
+	public synchronized void outputReady() {
+		outputBusy=false;
+	}
+
+
+	/**
+	 * The firmware refused a line.  Call before the cue that comes with the refusal.  The line and every numbered
+	 * line sent after it are put at the front of the queue, in order.  While streaming, the lines that were in
+	 * flight behind the refused one are refused too; those errors are ignored.
+	 * @param lineNumber the line the firmware wants next
+	 * @return true if taken care of, false if the line is forgotten or keeps being refused.
+	 */
+	public synchronized boolean resend(int lineNumber) {
+		if(resendBuffer==null) return false;
+
+		// the oldest line in flight is the one refused.
+		long refused = linesSent-inFlight.size();
+		if(refused<resendMark) {
+			errorsIgnored++;
+			return true;
+		}
+
+		if(lineNumber==lastRefused) {
+			if(++refusedInARow>MAX_RESENDS) {
+				lastRefused=-1;
+				return false;
+			}
+		} else {
+			lastRefused=lineNumber;
+			refusedInARow=1;
+		}
+
+		String [] lines = resendBuffer.getLinesFrom(lineNumber);
+		if(lines==null) return false;
+		takeIncoming();
+		for(int i=lines.length-1;i>=0;--i) queue.addFirst(lines[i]);
+		resendMark=linesSent;
+		resends++;
+		linesResent+=lines.length;
+		if(metrics!=null) metrics.resent(lines.length);
+		return true;
+	}
+
+
+	/**
+	 * A line longer than the window is sent when nothing else is in flight.
+	 */
+	protected boolean fits(int length) {
+		if(!ready) return false;
+		if(inFlight.isEmpty()) return true;
+		return window>0 && bytesInFlight+length<=window;
+	}
+
+
+	/**
+	 * @return true if nothing is waiting to be sent and the firmware could take another line.
+	 */
+	public synchronized boolean wantsMore() {
+		takeIncoming();
+		return queue.isEmpty() && ready && (inFlight.isEmpty() || (window>0 && bytesInFlight<window));
+	}
+
+
+	/**
+	 * @return true if a queued line could be sent now.  False while the output is busy.
+	 */
+	public synchronized boolean canSend() {
+		takeIncoming();
+		String line = queue.peek();
+		return line!=null && !outputBusy && fits(line.length());
+	}
+
+
+	/**
+	 * @return the lines in flight, oldest first, to resend after an error.
+	 */
+	public synchronized String [] getLinesInFlight() {
+		return inFlight.toArray(new String[inFlight.size()]);
+	}
+
+
+	public synchronized int getQueueSize() {
+		return queue.size()+incoming.size();
+	}
+
+
+	public synchronized int getBytesInFlight() {
+		return bytesInFlight;
+	}
+
+
+	public synchronized int getMostBytesInFlight() {
+		return mostBytesInFlight;
+	}
+
+
+	public synchronized long getLinesSent() {
+		return linesSent;
+	}
+
+
+	public synchronized long getBytesSent() {
+		return bytesSent;
+	}
+
+
+	public synchronized long getLinesAcknowledged() {
+		return linesAcknowledged;
+	}
+
+
+	public synchronized long getWriteErrors() {
+		return writeErrors;
+	}
+
+
+	/**
+	 * @return times a refused line was sent again
+	 */
+	public synchronized long getResendCount() {
+		return resends;
+	}
+
+
+	/**
+	 * @return lines sent more than once
+	 */
+	public synchronized long getLinesResent() {
+		return linesResent;
+	}
+
+
+	/**
+	 * @return refusals of lines that were already being sent again
+	 */
+	public synchronized long getErrorsIgnored() {
+		return errorsIgnored;
+	}
+}
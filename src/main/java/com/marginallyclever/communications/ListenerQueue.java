@@ -0,0 +1,147 @@
+package com.marginallyclever.communications;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.marginallyclever.robotOverlord.Log;
+
+/**
+ * What one connection has to tell its listeners, waiting for a thread of a {@link ConnectionExecutor}.
+ * <p>
+ * Lines and errors are passed on in the order they came, by one thread at a time, so listeners see the same
+ * order as before.  Telling them the send buffer is empty is only done once for any number of times it was asked
+ * while waiting.  The queue has a limit: when a listener falls that far behind, more lines are dropped and counted
+ * instead of holding up the port.
+ * <p>
+ * Thread safe.
+ */
+public class ListenerQueue implements Runnable {
+	public static final int DEFAULT_CAPACITY = 1024;
+	// events passed on before letting other connections have the thread
+	protected static final int BATCH = 256;
+
+	/**
+	 * A line or an error.
+	 */
+	static class Event {
+		String line;
+		int lineNumber;
+
+		Event(String line,int lineNumber) {
+			this.line = line;
+			this.lineNumber = lineNumber;
+		}
+	}
+
+	protected NetworkConnection connection;
+	protected List<NetworkConnectionListener> listeners;
+	protected ConnectionExecutor executor;
+	protected ArrayBlockingQueue<Event> events;
+	protected AtomicBoolean sendBufferEmpty = new AtomicBoolean();
+	// true while this is waiting for or using a thread.
+	protected AtomicBoolean scheduled = new AtomicBoolean();
+	protected AtomicLong dropped = new AtomicLong();
+
+
+	/**
+	 * @param connection passed to the listeners
+	 * @param listeners of the connection.  Must be safe to read while it changes.
+	 * @param executor to run on
+	 * @param capacity lines and errors that may wait
+	 */
+	public ListenerQueue(NetworkConnection connection,List<NetworkConnectionListener> listeners,ConnectionExecutor executor,int capacity) {
+		this.connection = connection;
+		this.listeners = listeners;
+		this.executor = executor;
+		events = new ArrayBlockingQueue<Event>(capacity);
+	}
+
+
+	public void dataAvailable(String line) {
+		offer(new Event(line,-1));
+	}
+
+
+	public void lineError(int lineNumber) {
+		offer(new Event(null,lineNumber));
+	}
+
+
+	public void sendBufferEmpty() {
+		sendBufferEmpty.set(true);
+		schedule();
+	}
+
+
+	protected void offer(Event e) {
+		if(!events.offer(e)) {
+			if(dropped.getAndIncrement()==0) {
+				Log.error("Listeners of "+connection.getRecentConnection()+" are too slow.  Lines are being dropped.");
+			}
+		}
+		schedule();
+	}
+
+
+	protected void schedule() {
+		if(scheduled.compareAndSet(false,true)) {
+			executor.execute(this);
+		}
+	}
+
+
+	@Override
+	public void run() {
+		while(true) {
+			int n=0;
+			Event e;
+			while(n<BATCH && (e=events.poll())!=null) {
+				n++;
+				for(NetworkConnectionListener listener : listeners) {
+					try {
+						if(e.line!=null) listener.dataAvailable(connection,e.line);
+						else listener.lineError(connection,e.lineNumber);
+					} catch(Exception ex) {
+						ex.printStackTrace();
+					}
+				}
+			}
+			if(n==BATCH) {
+				// still scheduled.  go to the back of the line.
+				executor.execute(this);
+				return;
+			}
+			if(sendBufferEmpty.getAndSet(false)) {
+				for(NetworkConnectionListener listener : listeners) {
+					try {
+						listener.sendBufferEmpty(connection);
+					} catch(Exception ex) {
+						ex.printStackTrace();
+					}
+				}
+			}
+			scheduled.set(false);
+			// something may have come after the last look.
+			if(events.isEmpty() && !sendBufferEmpty.get()) return;
+			if(!scheduled.compareAndSet(false,true)) return;
+		}
+	}
+
+
+	/**
+	 * @return lines and errors waiting
+	 */
+	public int size() {
+		return events.size();
+	}
+
+
+	/**
+	 * @return lines and errors dropped because the queue was full
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+}
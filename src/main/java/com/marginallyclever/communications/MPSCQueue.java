@@ -0,0 +1,99 @@
+package com.marginallyclever.communications;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * A first in, first out queue that many threads may add to without locking, and one thread at a time takes from.
+ * <p>
+ * Each item is held by a node linked to the one added before it.  Adding swaps the new node into the tail with one
+ * atomic exchange and then links the old tail to it.  Between those two steps the queue may look shorter than it
+ * is to the thread taking, which only means that thread sees the new item a moment later.
+ * <p>
+ * Any number of threads may call {@link #offer(Object)}.  {@link #poll()}, {@link #peek()} and {@link #clear()} must
+ * not be called by two threads at once, for example by holding a lock around them.
+ */
+public class MPSCQueue<E> {
+	static final class Node<E> {
+		E value;
+		volatile Node<E> next;
+
+		Node(E value) {
+			this.value = value;
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	static final AtomicReferenceFieldUpdater<Node,Node> NEXT = AtomicReferenceFieldUpdater.newUpdater(Node.class,Node.class,"next");
+
+	// the last node added
+	protected AtomicReference<Node<E>> tail;
+	// the node before the oldest item.  only the taking thread touches it.
+	protected Node<E> head;
+	protected AtomicInteger size = new AtomicInteger();
+
+
+	public MPSCQueue() {
+		head = new Node<E>(null);
+		tail = new AtomicReference<Node<E>>(head);
+	}
+
+
+	/**
+	 * Add an item.  Safe from any thread.
+	 * @param value not null
+	 */
+	public void offer(E value) {
+		if(value==null) throw new NullPointerException();
+		Node<E> n = new Node<E>(value);
+		size.incrementAndGet();
+		Node<E> previous = tail.getAndSet(n);
+		NEXT.lazySet(previous,n);
+	}
+
+
+	/**
+	 * @return the oldest item, or null if there is none.
+	 */
+	public E poll() {
+		Node<E> next = head.next;
+		if(next==null) return null;
+		E value = next.value;
+		// the node becomes the new head, which holds nothing.
+		next.value = null;
+		head = next;
+		size.decrementAndGet();
+		return value;
+	}
+
+
+	/**
+	 * @return the oldest item without taking it, or null if there is none.
+	 */
+	public E peek() {
+		Node<E> next = head.next;
+		return next==null ? null : next.value;
+	}
+
+
+	/**
+	 * Take everything.
+	 */
+	public void clear() {
+		while(poll()!=null) {}
+	}
+
+
+	public boolean isEmpty() {
+		return head.next==null;
+	}
+
+
+	/**
+	 * @return about how many items are waiting.  Items being added may or may not be counted.
+	 */
+	public int size() {
+		return Math.max(0,size.get());
+	}
+}
@@ -0,0 +1,142 @@
+package com.marginallyclever.communications;
+
+import java.util.Base64;
+
+/**
+ * Setpoints for every joint of a robot in a few bytes, for arms that move many times a second.
+ * <p>
+ * "G0 X.. Y.. Z.. U.. V.. W.. F.." takes about 60 bytes.  A frame holds each value as a 24 bit whole number of
+ * thousandths, the same precision the G-code is written with, and can hold several setpoints at once.  The
+ * bytes are:
+ * <pre>
+ * version, flags, sequence number, axes, setpoints,
+ * (setpoints x (axes + feed rate if flagged) x 3 byte values, high byte first),
+ * CRC-16/CCITT of everything before it, high byte first
+ * </pre>
+ * The firmware and everything between it and here work in lines, so a frame is sent as one line: {@link #MARKER}
+ * and the bytes in base 64.  Six joints take 36 bytes with the newline, and two setpoints of six joints take 60.
+ * <p>
+ * Which protocol to use is agreed when connecting.  See {@link MotionProtocol}.
+ */
+public class MotionFrame {
+	public static final char MARKER = '@';
+	public static final int VERSION = 1;
+	public static final int FLAG_FEED_RATE = 1;
+	protected static final int HEADER = 5;
+	protected static final int CRC = 2;
+	protected static final double SCALE = 1000.0;
+	protected static final int MAX_VALUE = (1<<23)-1;
+
+	public int flags;
+	public int sequence;
+	public int axes;
+	// [setpoint][axis], and the feed rate last if flagged
+	public double [][] setpoints;
+
+
+	public boolean hasFeedRate() {
+		return (flags & FLAG_FEED_RATE)!=0;
+	}
+
+
+	/**
+	 * @param axes in each setpoint
+	 * @param feedRate true if each setpoint has a feed rate too
+	 * @param maxLineLength the longest line the firmware can take, with the newline
+	 * @return the most setpoints that fit in one line, at least 1.
+	 */
+	public static int getMaxSetpoints(int axes,boolean feedRate,int maxLineLength) {
+		int bytes = (maxLineLength-2)/4*3;
+		int each = (axes+(feedRate?1:0))*3;
+		return Math.max(1,(bytes-HEADER-CRC)/each);
+	}
+
+
+	/**
+	 * @param sequence 0...255, one more than the frame before
+	 * @param setpoints [setpoint][axis].  All the same length.  When there is a feed rate it is the last value
+	 * of each setpoint.
+	 * @param feedRate true if the last value of each setpoint is a feed rate.
+	 * @return the line to send, without the newline.
+	 */
+	public static String encode(int sequence,double [][] setpoints,boolean feedRate) {
+		int values = setpoints[0].length;
+		int axes = values-(feedRate?1:0);
+		byte [] b = new byte[HEADER+setpoints.length*values*3+CRC];
+		int i=0;
+		b[i++] = VERSION;
+		b[i++] = (byte)(feedRate?FLAG_FEED_RATE:0);
+		b[i++] = (byte)sequence;
+		b[i++] = (byte)axes;
+		b[i++] = (byte)setpoints.length;
+		for(double [] setpoint : setpoints) {
+			if(setpoint.length!=values) throw new IllegalArgumentException("every setpoint must have "+values+" values.");
+			for(double v : setpoint) {
+				long n = Math.round(v*SCALE);
+				if(n>MAX_VALUE || n<-MAX_VALUE) throw new IllegalArgumentException(v+" is too big for a frame.");
+				b[i++] = (byte)(n>>16);
+				b[i++] = (byte)(n>>8);
+				b[i++] = (byte)n;
+			}
+		}
+		int crc = crc16(b,0,i);
+		b[i++] = (byte)(crc>>8);
+		b[i++] = (byte)crc;
+		return MARKER+Base64.getEncoder().withoutPadding().encodeToString(b);
+	}
+
+
+	/**
+	 * @param line starting with {@link #MARKER}, with or without the newline.
+	 * @return the frame, or null if the line is not a whole frame with a good CRC.
+	 */
+	public static MotionFrame decode(String line) {
+		line = line.trim();
+		if(line.isEmpty() || line.charAt(0)!=MARKER) return null;
+		byte [] b;
+		try {
+			b = Base64.getDecoder().decode(line.substring(1));
+		} catch(IllegalArgumentException e) {
+			return null;
+		}
+		if(b.length<HEADER+CRC) return null;
+		int crc = ((b[b.length-2]&0xFF)<<8) | (b[b.length-1]&0xFF);
+		if(crc!=crc16(b,0,b.length-CRC)) return null;
+		if(b[0]!=VERSION) return null;
+
+		MotionFrame f = new MotionFrame();
+		f.flags = b[1]&0xFF;
+		f.sequence = b[2]&0xFF;
+		f.axes = b[3]&0xFF;
+		int count = b[4]&0xFF;
+		int values = f.axes+(f.hasFeedRate()?1:0);
+		if(b.length!=HEADER+count*values*3+CRC) return null;
+		f.setpoints = new double[count][values];
+		int i=HEADER;
+		for(int s=0;s<count;++s) {
+			for(int v=0;v<values;++v) {
+				// sign extend the top byte
+				int n = (b[i]<<16) | ((b[i+1]&0xFF)<<8) | (b[i+2]&0xFF);
+				f.setpoints[s][v] = n/SCALE;
+				i+=3;
+			}
+		}
+		return f;
+	}
+
+
+	/**
+	 * CRC-16/CCITT-FALSE: polynomial 0x1021, starting at 0xFFFF.
+	 */
+	public static int crc16(byte [] data,int offset,int length) {
+		int crc = 0xFFFF;
+		for(int i=offset;i<offset+length;++i) {
+			crc ^= (data[i]&0xFF)<<8;
+			for(int j=0;j<8;++j) {
+				crc = (crc & 0x8000)!=0 ? ((crc<<1) ^ 0x1021) : (crc<<1);
+			}
+			crc &= 0xFFFF;
+		}
+		return crc;
+	}
+}
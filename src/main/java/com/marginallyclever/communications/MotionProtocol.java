@@ -0,0 +1,179 @@
+package com.marginallyclever.communications;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Agrees with the firmware whether setpoints go as G-code or as {@link MotionFrame}s, and numbers the frames.
+ * <p>
+ * {@link #negotiate()} sends {@link #REQUEST}.  Firmware that knows frames answers with the same line before its
+ * cue.  Older firmware only gives the cue, and G-code it stays.  Until an answer comes, G-code is used.
+ * <p>
+ * The cue is not passed to listeners, and an empty send buffer may be heard of before the lines that came ahead
+ * of it, so neither decides.  Instead the request counts as taken without an answer once the {@link LineStreamer}
+ * has had as many cues as lines were sent up to and including it, and every line that came before that cue has
+ * been passed on.  Other connections only ever agree by answering.
+ * <p>
+ * Thread safe.
+ */
+public class MotionProtocol implements NetworkConnectionListener {
+	public static final String REQUEST = "D20 B"+MotionFrame.VERSION;
+
+	protected NetworkConnection connection;
+	protected boolean asked;
+	protected boolean negotiated;
+	protected boolean binary;
+	// cues to wait for before the request is taken, and resends seen while waiting.
+	protected long requestTicket;
+	protected long resendsSeen;
+	protected int sequence;
+	protected long framesSent;
+	protected long setpointsSent;
+
+
+	public MotionProtocol(NetworkConnection connection) {
+		this.connection = connection;
+	}
+
+
+	/**
+	 * Ask the firmware if it takes frames.  Call once the robot has said hello.
+	 */
+	public void negotiate() {
+		synchronized(this) {
+			asked = false;
+			negotiated = false;
+			binary = false;
+		}
+		connection.addListener(this);
+		try {
+			connection.sendMessage(REQUEST);
+		} catch(Exception e) {
+			e.printStackTrace();
+			finish(false);
+			return;
+		}
+		synchronized(this) {
+			if(connection instanceof LineConnection) {
+				// lines added since by another thread only make this later than it has to be.
+				LineStreamer streamer = ((LineConnection)connection).getStreamer();
+				requestTicket = streamer.getLinesSent()+streamer.getQueueSize();
+				resendsSeen = streamer.getResendCount();
+			}
+			asked = true;
+		}
+		checkTaken();
+	}
+
+
+	protected void finish(boolean binary) {
+		synchronized(this) {
+			if(negotiated) return;
+			this.binary = binary;
+			negotiated = true;
+		}
+		connection.removeListener(this);
+	}
+
+
+	/**
+	 * @return true once the firmware has answered, or has taken the request without answering.
+	 */
+	public synchronized boolean isNegotiated() {
+		return negotiated;
+	}
+
+
+	/**
+	 * @return true to send frames, false to send G-code.
+	 */
+	public synchronized boolean isBinary() {
+		return binary;
+	}
+
+
+	/**
+	 * @param setpoints [setpoint][axis], with the feed rate last if there is one.  Every setpoint goes in this frame.
+	 * @param feedRate true if each setpoint ends with a feed rate
+	 * @return the next frame as a line, without the newline.
+	 */
+	public synchronized String encode(double [][] setpoints,boolean feedRate) {
+		String line = MotionFrame.encode(sequence,setpoints,feedRate);
+		sequence = (sequence+1) & 0xFF;
+		framesSent++;
+		setpointsSent += setpoints.length;
+		return line;
+	}
+
+
+	/**
+	 * @param setpoints [setpoint][axis], with the feed rate last if there is one.
+	 * @param feedRate true if each setpoint ends with a feed rate
+	 * @param maxLineLength the longest line the firmware can take, with the newline
+	 * @return as few frames as will hold every setpoint, in order.
+	 */
+	public List<String> encodeAll(double [][] setpoints,boolean feedRate,int maxLineLength) {
+		List<String> frames = new ArrayList<String>();
+		if(setpoints.length==0) return frames;
+		int axes = setpoints[0].length-(feedRate?1:0);
+		int most = MotionFrame.getMaxSetpoints(axes,feedRate,maxLineLength);
+		for(int i=0;i<setpoints.length;i+=most) {
+			double [][] some = new double[Math.min(most,setpoints.length-i)][];
+			System.arraycopy(setpoints,i,some,0,some.length);
+			frames.add(encode(some,feedRate));
+		}
+		return frames;
+	}
+
+
+	public synchronized long getFramesSent() {
+		return framesSent;
+	}
+
+
+	public synchronized long getSetpointsSent() {
+		return setpointsSent;
+	}
+
+
+	@Override
+	public void dataAvailable(NetworkConnection arg0,String data) {
+		if(arg0!=connection) return;
+		if(data.trim().startsWith(REQUEST)) finish(true);
+		else checkTaken();
+	}
+
+
+	@Override
+	public void sendBufferEmpty(NetworkConnection arg0) {
+		if(arg0!=connection) return;
+		checkTaken();
+	}
+
+
+	/**
+	 * Settle for G-code if the request has had its cue and no answer is left waiting for the listeners.
+	 */
+	protected void checkTaken() {
+		if(!(connection instanceof LineConnection)) return;
+		LineConnection lc = (LineConnection)connection;
+		LineStreamer streamer = lc.getStreamer();
+		synchronized(this) {
+			if(!asked || negotiated) return;
+			if(streamer.getResendCount()!=resendsSeen) {
+				// lines from before the request may have been sent again, and the request with them.
+				resendsSeen = streamer.getResendCount();
+				requestTicket = Math.max(requestTicket,streamer.getLinesSent()+streamer.getQueueSize());
+			}
+			if(streamer.getLinesAcknowledged()<requestTicket) return;
+		}
+		// lines are queued before their cue is counted, so an answer would be here by now.
+		ListenerQueue q = lc.getListenerQueue();
+		if(q!=null && q.size()>0) return;
+		finish(false);
+	}
+
+
+	@Override
+	public void lineError(NetworkConnection arg0,int lineNumber) {}
+}
@@ -8,6 +8,7 @@ package com.marginallyclever.communications;
 public interface NetworkConnectionListener {
 	/**
 	 * Transmission of message number 'lineNumber' has failed on a NetworkConnection.
+	 * A connection that keeps the lines it sent resends them itself and only calls this when it can't.
 	 * @param arg0  connection involved
 	 * @param lineNumber the number of the command line sent that failed to receive.  all messages after this point will also fail until this line is resent.
 	 */
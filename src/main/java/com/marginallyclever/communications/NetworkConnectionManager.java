@@ -2,24 +2,58 @@ package com.marginallyclever.communications;
 
 import java.awt.Component;
 import java.awt.GridLayout;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import javax.swing.JCheckBox;
+import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JTabbedPane;
 
+import com.marginallyclever.communications.replay.ReplayTransportLayer;
 import com.marginallyclever.communications.serial.SerialTransportLayer;
 import com.marginallyclever.communications.tcp.TCPTransportLayer;
+import com.marginallyclever.communications.virtual.VirtualTransportLayer;
 //import com.marginallyclever.communications.tcp.TCPTransportLayer;
+import com.marginallyclever.robotOverlord.Log;
 import com.marginallyclever.robotOverlord.Translator;
 
 /**
  * Handles requests between the UI and the various transport layers 
+ * <p>
+ * Every connection opened here is remembered by its address until it is closed, so one program can drive many
+ * robots and find them again by name.  An address is the name of a transport layer, a colon, and the connection
+ * name that layer understands: "serial:COM3", "tcp:192.168.1.183:9999", "virtual:robot1" or
+ * "replay:session.bin".  Listeners of these connections are called from the shared {@link ConnectionExecutor},
+ * so a slow one never holds up a port.
  * @author Dan Royer
  *
  */
 public class NetworkConnectionManager {
 	static private SerialTransportLayer serial = new SerialTransportLayer();
 	static private TCPTransportLayer tcp = new TCPTransportLayer();
+	static private VirtualTransportLayer virtual = new VirtualTransportLayer();
+	static private ReplayTransportLayer replay = new ReplayTransportLayer();
+
+	static private Map<String,TransportLayer> layers = new LinkedHashMap<String,TransportLayer>();
+	static {
+		layers.put("serial", serial);
+		layers.put("tcp", tcp);
+		layers.put("virtual", virtual);
+		layers.put("replay", replay);
+	}
+
+	// open connections by address
+	static private ConcurrentHashMap<String,NetworkConnection> registry = new ConcurrentHashMap<String,NetworkConnection>();
+	// the capture box is ticked the way it was last time.
+	static private boolean captureNext = false;
+	static private File captureFolder = null;
 	
 	/**
 	 * create a GUI to give the user transport layer options.
@@ -35,15 +69,144 @@ public class NetworkConnectionManager {
 		tabs.addTab("USB", serial.getTransportLayerPanel());
 		// TODO translate me?
 		tabs.addTab("TCP/IP", tcp.getTransportLayerPanel());
+		// TODO translate me?
+		tabs.addTab("Simulator", virtual.getTransportLayerPanel());
+		// TODO translate me?
+		tabs.addTab("Replay", replay.getTransportLayerPanel());
+		// TODO translate me?
+		JCheckBox captureBox = new JCheckBox("Capture the session to a file, to replay later");
+		captureBox.setSelected(captureNext);
+		top.add(captureBox);
 
 		int result = JOptionPane.showConfirmDialog(parent, top, Translator.get("MenuConnect"), JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
 		if (result == JOptionPane.OK_OPTION) {
 			Component c = tabs.getSelectedComponent();
 			if(c instanceof TransportLayerPanel) {
-				return ((TransportLayerPanel)c).openConnection();
+				captureNext = captureBox.isSelected();
+				// asked before opening so the robot's hello is in the file.
+				File captureFile = null;
+				if(captureNext) {
+					JFileChooser chooser = new JFileChooser(captureFolder);
+					if(chooser.showSaveDialog(parent) == JFileChooser.APPROVE_OPTION) {
+						captureFile = chooser.getSelectedFile();
+						captureFolder = captureFile.getParentFile();
+					}
+				}
+				NetworkConnection connection = ((TransportLayerPanel)c).openConnection();
+				if(connection!=null) {
+					String layerName = getTransportLayerName(connection.getTransportLayer());
+					register(layerName+":"+connection.getRecentConnection(),connection);
+					if(captureFile!=null) startCapture(connection,captureFile);
+				}
+				return connection;
 			}
 		}
 		// cancelled connect
 		return null;
 	}
+
+
+	/**
+	 * Open a connection without asking anyone, or find the one already open.
+	 * @param address such as "serial:COM3" or "tcp:192.168.1.183:9999"
+	 * @return the open connection, or null on failure.
+	 */
+	static public NetworkConnection openConnection(String address) {
+		NetworkConnection connection = getConnection(address);
+		if(connection!=null) return connection;
+
+		int colon = address.indexOf(':');
+		TransportLayer layer = colon<0 ? null : layers.get(address.substring(0,colon));
+		if(layer==null) {
+			Log.error("No transport layer for "+address);
+			return null;
+		}
+		connection = layer.openConnection(address.substring(colon+1));
+		if(connection==null || !connection.isOpen()) return null;
+		register(address,connection);
+		return connection;
+	}
+
+
+	/**
+	 * Write everything sent and received on a connection to a file until it is closed.
+	 * @param connection to capture.  Only a {@link LineConnection} can be captured.
+	 * @param file to write.  Replay it with the "replay" transport layer.
+	 * @return true if capture started.
+	 */
+	static public boolean startCapture(NetworkConnection connection,File file) {
+		if(!(connection instanceof LineConnection)) {
+			Log.error("Can't capture "+connection.getRecentConnection());
+			return false;
+		}
+		try {
+			((LineConnection)connection).startCapture(file);
+			return true;
+		} catch(IOException e) {
+			Log.error("Can't capture to "+file+": "+e.getLocalizedMessage());
+			return false;
+		}
+	}
+
+
+	static protected void register(String address,NetworkConnection connection) {
+		if(connection instanceof LineConnection) {
+			((LineConnection)connection).setListenerExecutor(ConnectionExecutor.getShared());
+		}
+		registry.put(address,connection);
+	}
+
+
+	/**
+	 * @param address as given to {@link #openConnection(String)}
+	 * @return the open connection at that address, or null.
+	 */
+	static public NetworkConnection getConnection(String address) {
+		NetworkConnection connection = registry.get(address);
+		if(connection!=null && !connection.isOpen()) {
+			registry.remove(address,connection);
+			return null;
+		}
+		return connection;
+	}
+
+
+	/**
+	 * @return the addresses of every open connection.
+	 */
+	static public List<String> getOpenAddresses() {
+		List<String> list = new ArrayList<String>();
+		for(String address : registry.keySet()) {
+			if(getConnection(address)!=null) list.add(address);
+		}
+		return list;
+	}
+
+
+	/**
+	 * Close every connection opened here.
+	 */
+	static public void closeAll() {
+		for(NetworkConnection connection : registry.values()) {
+			connection.closeConnection();
+		}
+		registry.clear();
+	}
+
+
+	/**
+	 * @param name such as "serial" or "virtual"
+	 * @return the layer, to change its settings before opening, or null.
+	 */
+	static public TransportLayer getTransportLayer(String name) {
+		return layers.get(name);
+	}
+
+
+	static public String getTransportLayerName(TransportLayer layer) {
+		for(Map.Entry<String,TransportLayer> e : layers.entrySet()) {
+			if(e.getValue()==layer) return e.getKey();
+		}
+		return layer==null ? "" : layer.getClass().getSimpleName();
+	}
 }
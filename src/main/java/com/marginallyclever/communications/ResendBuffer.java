@@ -0,0 +1,108 @@
+package com.marginallyclever.communications;
+
+/**
+ * The most recent numbered lines sent to a robot, so a line the firmware refused can be sent again without
+ * going back to where it came from.
+ * <p>
+ * A numbered line starts with "N" and its number, as made by MakelangeloRobot.tweakAndSendLine().  Lines are kept
+ * in the order they were sent, including lines sent again, so line numbers that start over after an M110 are no
+ * trouble.  The oldest is forgotten when the buffer is full.
+ * <p>
+ * Thread safe.
+ */
+public class ResendBuffer {
+	public static final int DEFAULT_CAPACITY = 256;
+
+	protected String [] lines;
+	protected int [] numbers;
+	// index of the next slot to fill
+	protected int next;
+	protected int size;
+
+
+	public ResendBuffer() {
+		this(DEFAULT_CAPACITY);
+	}
+
+
+	/**
+	 * @param capacity numbered lines to keep
+	 */
+	public ResendBuffer(int capacity) {
+		if(capacity<1) throw new IllegalArgumentException("capacity must be at least 1.");
+		lines = new String[capacity];
+		numbers = new int[capacity];
+	}
+
+
+	/**
+	 * @param line a line to the robot
+	 * @return the number after the leading N, or -1 if the line is not numbered.
+	 */
+	public static int getLineNumber(String line) {
+		int i=0;
+		int length = line.length();
+		while(i<length && line.charAt(i)==' ') ++i;
+		if(i>=length || line.charAt(i)!='N') return -1;
+		++i;
+		int start=i;
+		long n=0;
+		while(i<length && i-start<10) {
+			char c = line.charAt(i);
+			if(c<'0' || c>'9') break;
+			n = n*10+(c-'0');
+			++i;
+		}
+		if(i==start || n>Integer.MAX_VALUE) return -1;
+		return (int)n;
+	}
+
+
+	/**
+	 * Keep a line if it is numbered.
+	 * @param line a line sent to the robot
+	 */
+	public synchronized void sent(String line) {
+		int n = getLineNumber(line);
+		if(n<0) return;
+		lines[next] = line;
+		numbers[next] = n;
+		next = (next+1)%lines.length;
+		if(size<lines.length) size++;
+	}
+
+
+	/**
+	 * @param lineNumber the line refused
+	 * @return the last line sent with that number and every numbered line sent after it, oldest first, or null if
+	 * the line has been forgotten.
+	 */
+	public synchronized String [] getLinesFrom(int lineNumber) {
+		int capacity = lines.length;
+		for(int age=1;age<=size;++age) {
+			int i = (next-age+capacity)%capacity;
+			if(numbers[i]!=lineNumber) continue;
+			String [] list = new String[age];
+			for(int j=0;j<age;++j) list[j] = lines[(i+j)%capacity];
+			return list;
+		}
+		return null;
+	}
+
+
+	public synchronized void clear() {
+		for(int i=0;i<lines.length;++i) lines[i]=null;
+		next=0;
+		size=0;
+	}
+
+
+	public synchronized int size() {
+		return size;
+	}
+
+
+	public int getCapacity() {
+		return lines.length;
+	}
+}
@@ -0,0 +1,98 @@
+package com.marginallyclever.communications;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a file written by {@link SessionRecorder}, one record at a time.
+ * <p>
+ * Not thread safe.
+ */
+public class SessionReader {
+	/**
+	 * Bytes that went one way at one time.
+	 */
+	public static class Record {
+		public byte direction;
+		// since the recording started
+		public long nanos;
+		public byte [] data;
+
+		public boolean isFromRobot() {
+			return direction==SessionRecorder.FROM_ROBOT;
+		}
+	}
+
+	protected DataInputStream in;
+	protected long startMillis;
+	protected long nanos;
+
+
+	public SessionReader(File file) throws IOException {
+		this(new FileInputStream(file));
+	}
+
+
+	public SessionReader(InputStream stream) throws IOException {
+		in = new DataInputStream(new BufferedInputStream(stream));
+		if(in.readInt()!=SessionRecorder.MAGIC) {
+			in.close();
+			throw new IOException("Not a recorded session.");
+		}
+		int version = in.readInt();
+		if(version!=SessionRecorder.VERSION) {
+			in.close();
+			throw new IOException("Recorded session version "+version+" is not supported.");
+		}
+		startMillis = in.readLong();
+	}
+
+
+	/**
+	 * @return when the recording started, in milliseconds since 1970.
+	 */
+	public long getStartMillis() {
+		return startMillis;
+	}
+
+
+	/**
+	 * @return the next record, or null at the end of the file.
+	 * @throws IOException if the file is cut short or can't be read.
+	 */
+	public Record next() throws IOException {
+		int direction = in.read();
+		if(direction<0) return null;
+		Record r = new Record();
+		r.direction = (byte)direction;
+		nanos += readVarLong();
+		r.nanos = nanos;
+		long length = readVarLong();
+		if(length>Integer.MAX_VALUE) throw new IOException("Record too long: "+length);
+		r.data = new byte[(int)length];
+		in.readFully(r.data);
+		return r;
+	}
+
+
+	protected long readVarLong() throws IOException {
+		long v=0;
+		for(int shift=0;shift<64;shift+=7) {
+			int b = in.read();
+			if(b<0) throw new EOFException();
+			v |= (long)(b & 0x7F)<<shift;
+			if((b & 0x80)==0) return v;
+		}
+		throw new IOException("Bad number in recorded session.");
+	}
+
+
+	public void close() throws IOException {
+		in.close();
+	}
+}
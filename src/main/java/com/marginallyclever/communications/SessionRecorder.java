@@ -0,0 +1,111 @@
+package com.marginallyclever.communications;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes everything that goes to and from a robot to a file, with the time it happened, to play back later with
+ * {@link com.marginallyclever.communications.replay.ReplayTransportLayer} or read with {@link SessionReader}.
+ * <p>
+ * The file starts with {@link #MAGIC}, the format version and the time it was started in milliseconds since 1970.
+ * After that each record is one byte for the direction, the nanoseconds since the record before and the number of
+ * bytes, both as unsigned variable length numbers of 7 bits a byte, then the bytes.
+ * <p>
+ * Thread safe.  Lines sent and bytes received may come from different threads.
+ */
+public class SessionRecorder {
+	public static final int MAGIC = 0x524f5343;  // "ROSC"
+	public static final int VERSION = 1;
+	public static final byte TO_ROBOT = 0;
+	public static final byte FROM_ROBOT = 1;
+
+	protected DataOutputStream out;
+	protected long lastTime;
+	protected long records;
+
+
+	public SessionRecorder(File file) throws IOException {
+		this(new FileOutputStream(file));
+	}
+
+
+	public SessionRecorder(OutputStream stream) throws IOException {
+		out = new DataOutputStream(new BufferedOutputStream(stream));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(System.currentTimeMillis());
+		lastTime = System.nanoTime();
+	}
+
+
+	public void sent(byte [] data,int offset,int length) {
+		record(TO_ROBOT,data,offset,length);
+	}
+
+
+	public void received(byte [] data,int offset,int length) {
+		record(FROM_ROBOT,data,offset,length);
+	}
+
+
+	protected synchronized void record(byte direction,byte [] data,int offset,int length) {
+		if(out==null) return;
+		long now = System.nanoTime();
+		try {
+			out.writeByte(direction);
+			writeVarLong(Math.max(0,now-lastTime));
+			writeVarLong(length);
+			out.write(data,offset,length);
+			records++;
+		} catch(IOException e) {
+			e.printStackTrace();
+			close();
+		}
+		lastTime = now;
+	}
+
+
+	protected void writeVarLong(long v) throws IOException {
+		while((v & ~0x7FL)!=0) {
+			out.writeByte((int)((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		out.writeByte((int)v);
+	}
+
+
+	/**
+	 * @return records written so far
+	 */
+	public synchronized long getRecordCount() {
+		return records;
+	}
+
+
+	public synchronized void flush() {
+		if(out==null) return;
+		try {
+			out.flush();
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+
+	/**
+	 * Finish the file.  Nothing more is recorded.
+	 */
+	public synchronized void close() {
+		if(out==null) return;
+		try {
+			out.close();
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+		out=null;
+	}
+}
@@ -0,0 +1,155 @@
+package com.marginallyclever.communications.replay;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.marginallyclever.communications.LineConnection;
+import com.marginallyclever.communications.SessionReader;
+import com.marginallyclever.communications.TransportLayer;
+
+/**
+ * Plays back what a robot said in a session captured with {@link LineConnection#startCapture(java.io.File)}.
+ * <p>
+ * Bytes from the robot are passed on at the time they were recorded, divided by the speed of the layer.  What is
+ * sent to the robot is counted and thrown away; the replay does not wait for it.  The connection stays open after
+ * the last record so the listeners can finish.
+ * <p>
+ * Each connection has a thread that plays the robot.  Bytes are passed on from that thread.
+ */
+public class ReplayConnection extends LineConnection implements Runnable {
+	private ReplayTransportLayer transportLayer;
+	private SessionReader reader;
+	private double speed;
+	private volatile Thread thread;
+	private volatile boolean finished;
+
+	private AtomicLong bytesWritten = new AtomicLong();
+	private long bytesRecordedToRobot;
+	private long bytesPlayed;
+
+
+	public ReplayConnection(ReplayTransportLayer layer) {
+		transportLayer = layer;
+	}
+
+
+	/**
+	 * @param fileName the captured session
+	 */
+	@Override
+	public void openConnection(String fileName) throws Exception {
+		if(portOpened) return;
+		reader = new SessionReader(new File(fileName));
+		speed = transportLayer.getSpeed();
+		finished = false;
+		bytesWritten.set(0);
+		bytesRecordedToRobot = 0;
+		bytesPlayed = 0;
+
+		opened(fileName);
+		thread = new Thread(this,"Replay "+fileName);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+
+	@Override
+	public void closeConnection() {
+		if(!portOpened) return;
+		portOpened = false;
+		closed();
+		Thread t = thread;
+		if(t!=null) {
+			LockSupport.unpark(t);
+			if(t!=Thread.currentThread()) {
+				try {
+					t.join(1000);
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+		thread = null;
+	}
+
+
+	@Override
+	protected boolean write(byte [] data) {
+		bytesWritten.addAndGet(data.length);
+		return true;
+	}
+
+
+	@Override
+	public void run() {
+		long start = System.nanoTime();
+		try {
+			SessionReader.Record r;
+			while(portOpened && (r=reader.next())!=null) {
+				if(!r.isFromRobot()) {
+					bytesRecordedToRobot += r.data.length;
+					continue;
+				}
+				if(speed>0) {
+					long due = start+(long)(r.nanos/speed);
+					long wait;
+					while(portOpened && (wait=due-System.nanoTime())>0) {
+						LockSupport.parkNanos(this,wait);
+					}
+					if(!portOpened) break;
+				}
+				received(r.data,0,r.data.length);
+				bytesPlayed += r.data.length;
+			}
+		} catch(IOException e) {
+			e.printStackTrace();
+		} finally {
+			try {
+				reader.close();
+			} catch(IOException e) {
+				e.printStackTrace();
+			}
+			finished = true;
+		}
+	}
+
+
+	/**
+	 * @return true when every record has been played.
+	 */
+	public boolean isFinished() {
+		return finished;
+	}
+
+
+	/**
+	 * @return bytes from the robot passed on so far.
+	 */
+	public long getBytesPlayed() {
+		return bytesPlayed;
+	}
+
+
+	/**
+	 * @return bytes sent to the robot in this replay.
+	 */
+	public long getBytesWritten() {
+		return bytesWritten.get();
+	}
+
+
+	/**
+	 * @return bytes sent to the robot in the records played so far, to compare with {@link #getBytesWritten()}.
+	 */
+	public long getBytesRecordedToRobot() {
+		return bytesRecordedToRobot;
+	}
+
+
+	@Override
+	public TransportLayer getTransportLayer() {
+		return transportLayer;
+	}
+}
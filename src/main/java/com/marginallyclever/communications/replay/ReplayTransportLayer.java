@@ -0,0 +1,52 @@
+package com.marginallyclever.communications.replay;
+
+import com.marginallyclever.communications.NetworkConnection;
+import com.marginallyclever.communications.TransportLayer;
+import com.marginallyclever.communications.TransportLayerPanel;
+import com.marginallyclever.robotOverlord.Log;
+
+/**
+ * Opens a captured session as if it were a robot.  See {@link ReplayConnection}.
+ */
+public class ReplayTransportLayer implements TransportLayer {
+	private double speed = 1;
+
+	public ReplayTransportLayer() {}
+
+	/**
+	 * @param speed 1 to play at the speed it was recorded, 10 for ten times faster, 0 for as fast as it can go.
+	 */
+	public void setSpeed(double speed) {
+		this.speed = speed;
+	}
+
+	public double getSpeed() {
+		return speed;
+	}
+
+	/**
+	 * @param connectionName the file of a captured session
+	 * @return the connection if it opened.  <code>null</code> on failure.
+	 */
+	@Override
+	public NetworkConnection openConnection(String connectionName) {
+		Log.message("Replaying "+connectionName);
+		ReplayConnection connection = new ReplayConnection(this);
+
+		try {
+			connection.openConnection(connectionName);
+			Log.message("Connect OK");
+		} catch (Exception e) {
+			Log.message("Connect FAILED");
+			e.printStackTrace();
+			return null;
+		}
+
+		return connection;
+	}
+
+	@Override
+	public TransportLayerPanel getTransportLayerPanel() {
+		return new ReplayTransportLayerPanel(this);
+	}
+}
@@ -0,0 +1,43 @@
+package com.marginallyclever.communications.replay;
+
+import java.awt.GridLayout;
+
+import javax.swing.JLabel;
+import javax.swing.JTextField;
+
+import com.marginallyclever.communications.NetworkConnection;
+import com.marginallyclever.communications.TransportLayerPanel;
+
+public class ReplayTransportLayerPanel extends TransportLayerPanel {
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = -3389512085711424071L;
+	private ReplayTransportLayer layer;
+	private JTextField fileField;
+	private JTextField speedField;
+	private static String fileName = "";
+
+	ReplayTransportLayerPanel(ReplayTransportLayer replayLayer) {
+		this.layer=replayLayer;
+
+		this.setLayout(new GridLayout(0, 1));
+		this.add(new JLabel("Captured session"));  // TODO translate me?
+		this.add(fileField = new JTextField());
+		this.add(new JLabel("Speed (1=as recorded, 0=fastest)"));  // TODO translate me?
+		this.add(speedField = new JTextField());
+
+		fileField.setText(fileName);
+		speedField.setText(Double.toString(layer.getSpeed()));
+	}
+
+	public NetworkConnection openConnection() {
+		fileName = fileField.getText();
+		try {
+			layer.setSpeed(Double.parseDouble(speedField.getText().trim()));
+		} catch(NumberFormatException e) {
+			e.printStackTrace();
+		}
+		return layer.openConnection(fileName);
+	}
+}
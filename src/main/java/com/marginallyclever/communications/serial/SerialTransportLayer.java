@@ -14,9 +14,26 @@ import jssc.SerialPortList;
  */
 public class SerialTransportLayer implements TransportLayer {
 	private String[] portsDetected;
+	// keep the firmware's receive buffer full on connections opened from now on.
+	private boolean streaming;
 
 	public SerialTransportLayer() {}
 
+
+	/**
+	 * @param streaming true to keep {@link SerialConnection#ARDUINO_RX_BUFFER} bytes in flight on every connection
+	 * opened after this, false to send one line and wait for the cue.  Only for firmware that answers every line
+	 * with a cue.
+	 */
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
+
+
+	public boolean isStreaming() {
+		return streaming;
+	}
+
 	/**
 	 * find all available serial ports
 	 *
@@ -48,6 +65,7 @@ public class SerialTransportLayer implements TransportLayer {
 		//if(connectionName.equals(recentPort)) return null;
 
 		SerialConnection serialConnection = new SerialConnection(this);
+		configure(serialConnection);
 
 		try {
 			serialConnection.openConnection(connectionName);
@@ -59,6 +77,13 @@ public class SerialTransportLayer implements TransportLayer {
 		return serialConnection;
 	}
 
+	/**
+	 * Apply this layer's settings before the connection sends anything.
+	 */
+	protected void configure(SerialConnection serialConnection) {
+		serialConnection.setStreaming(streaming ? SerialConnection.ARDUINO_RX_BUFFER : 0);
+	}
+
 	/**
 	 * @return a panel with the gui options for this transport layer
 	 */
@@ -2,6 +2,7 @@ package com.marginallyclever.communications.serial;
 
 import java.awt.GridLayout;
 
+import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
 
 import com.marginallyclever.communications.NetworkConnection;
@@ -14,6 +15,7 @@ public class SerialTransportLayerPanel extends TransportLayerPanel {
 	private static final long serialVersionUID = -5048852192781164326L;
 	private SerialTransportLayer layer;
 	private JComboBox<String> connectionComboBox;
+	private JCheckBox streamingCheckBox;
 	
 	public SerialTransportLayerPanel(SerialTransportLayer serialTransportLayer) {
 		this.layer = serialTransportLayer;
@@ -27,10 +29,15 @@ public class SerialTransportLayerPanel extends TransportLayerPanel {
 	    	connectionComboBox.addItem(portsDetected[i]);
 	    }
     	//connectionComboBox.setSelectedIndex(i+1);
+
+		// TODO translate me?
+		add(streamingCheckBox = new JCheckBox("Fill the firmware's receive buffer (firmware must cue every line)"));
+		streamingCheckBox.setSelected(layer.isStreaming());
 	}
 
 	@Override
 	public NetworkConnection openConnection() {
+		layer.setStreaming(streamingCheckBox.isSelected());
 		return layer.openConnection(connectionComboBox.getItemAt(connectionComboBox.getSelectedIndex()));
 	}
 }
@@ -2,74 +2,69 @@ package com.marginallyclever.communications.tcp;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
 import java.net.URL;
 import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
-import java.util.ArrayList;
+import java.util.ArrayDeque;
 
 
-import com.marginallyclever.communications.NetworkConnectionListener;
-import com.marginallyclever.communications.NetworkConnection;
+import com.marginallyclever.communications.LineConnection;
+import com.marginallyclever.communications.LineRing;
 import com.marginallyclever.communications.TransportLayer;
-import com.marginallyclever.robotOverlord.Log;
 
 
 /**
- * Created on 4/12/15.  Encapsulate all jssc serial receive/transmit implementation
+ * Created on 4/12/15.  A robot on the network.
+ * <p>
+ * Reading and writing is done by the {@link TCPSelector} of the transport layer, one thread for every robot.
+ * Bytes read are gathered into lines in a {@link LineRing}.  Writes never block: what the socket
+ * won't take at once waits until it can, and no more lines are sent while {@link #MAX_PENDING_BYTES} are waiting.
  *
  * @author Peter Colapietro
  * @since v7
  */
-public final class TCPConnection implements Runnable, NetworkConnection {
+public final class TCPConnection extends LineConnection {
 	private SocketChannel socket;
-	private TransportLayer transportLayer;
-	private String connectionName = "";
-	private boolean portOpened = false;
-	private boolean waitingForCue = false;
-	private Thread thread;
-	private boolean keepPolling;
+	private TCPTransportLayer transportLayer;
+	private TCPSelector selector;
+	private SelectionKey key;
 
-
-	static final String CUE = "> ";
-	static final String NOCHECKSUM = "NOCHECKSUM ";
-	static final String BADCHECKSUM = "BADCHECKSUM ";
-	static final String BADLINENUM = "BADLINENUM ";
-	static final String NEWLINE = "\n";
-	static final String COMMENT_START = ";";
 	private static final int DEFAULT_TCP_PORT = 9999;
-	
-	// parsing input from Makelangelo
-	private String inputBuffer = "";
-	ArrayList<String> commandQueue = new ArrayList<String>();
+	// bytes read at once
+	static final int READ_BUFFER_SIZE = 4096;
+	// no more lines are sent while this many bytes wait for the socket
+	public static final int MAX_PENDING_BYTES = 16384;
 
-	// Listeners which should be notified of a change to the percentage.
-	private ArrayList<NetworkConnectionListener> listeners = new ArrayList<NetworkConnectionListener>();
+	// parsing input from Makelangelo
+	private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
 
+	// bytes the socket has not taken yet.  only touched while holding pending.
+	private ArrayDeque<ByteBuffer> pending = new ArrayDeque<ByteBuffer>();
+	private int pendingBytes;
 
-	public TCPConnection(TransportLayer layer) {
+	public TCPConnection(TCPTransportLayer layer) {
 		transportLayer = layer;
+		selector = layer.getSelector();
 	}
 
-	@Override
-	public void sendMessage(String msg) throws Exception {
-		commandQueue.add(msg);
-		sendQueuedCommand();
-	}
-
-
 	@Override
 	public void closeConnection() {
 		if (!portOpened) return;
+		portOpened = false;
+		closed();
 		if (socket != null) {
-			keepPolling=false;
-			
 			try {
 				socket.close();
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
 		}
-		portOpened = false;
+		synchronized(pending) {
+			pending.clear();
+			pendingBytes=0;
+		}
 	}
 
 	/** 
@@ -92,219 +87,116 @@ public final class TCPConnection implements Runnable, NetworkConnection {
 		if(port==-1) port = DEFAULT_TCP_PORT;
 		socket = SocketChannel.open();
 		socket.connect(new InetSocketAddress(host,port));
-		thread = new Thread(this);
-		
-		connectionName = ipAddress;
-		portOpened = true;
-		waitingForCue = true;
-		keepPolling=true;
-		thread.start();
-	}
-	
-	public void run() {
-		ByteBuffer buf = ByteBuffer.allocate(256);
-		while(keepPolling) {
-			try {
-				int bytesRead = socket.read(buf);
-				if(bytesRead>0) {
-					String line = new String(buf.array());
-					dataAvailable(bytesRead,line);
-					buf.rewind();
-				}
-			}
-			catch (IOException e) {
-				if(keepPolling) {
-					e.printStackTrace();
-					closeConnection();
-				}
-			}
-		}
-	}
-	
-	
-	/**
-	 * Check if the robot reports an error and if so what line number.
-	 * @param line the message from the robot to be parsed
-	 * @return -1 if there was no error, otherwise the line number containing the error.
-	 */
-	protected int errorReported(String line) {
-		if (line.lastIndexOf(NOCHECKSUM) != -1) {
-			String after_error = line.substring(line.lastIndexOf(NOCHECKSUM) + NOCHECKSUM.length());
-			String x = getNumberPortion(after_error);
-			int err = 0;
-			try {
-				err = Integer.decode(x);
-				Log.error("NOCHECKSUM "+err);
-			} catch (Exception e) {}
-
-			return err;
-		}
-		if (line.lastIndexOf(BADCHECKSUM) != -1) {
-			String after_error = line.substring(line.lastIndexOf(BADCHECKSUM) + BADCHECKSUM.length());
-			String x = getNumberPortion(after_error);
-			int err = 0;
-			try {
-				err = Integer.decode(x);
-				Log.error("BADCHECKSUM "+err);
-			} catch (Exception e) {}
-
-			return err;
-		}
-		if (line.lastIndexOf(BADLINENUM) != -1) {
-			String after_error = line.substring(line.lastIndexOf(BADLINENUM) + BADLINENUM.length());
-			String x = getNumberPortion(after_error);
-			int err = 0;
-			try {
-				err = Integer.decode(x);
-				Log.error("BADLINENUM "+err);
-			} catch (Exception e) {}
+		// lines are short and each waits for an answer.
+		socket.setOption(StandardSocketOptions.TCP_NODELAY,true);
 
-			return err;
-		}
-
-		return -1;
+		readBuffer.clear();
+		// wait for the firmware to say it is ready.
+		opened(ipAddress);
+		selector.register(socket,this);
 	}
 
 
-	public void dataAvailable(int len,String message) {
-		if(!portOpened) return;
-		String rawInput = message.substring(0,len);
-		if( len==0 ) return;
-		
-		inputBuffer+=rawInput;
-		// each line ends with a \n.
-		int x;
-
-		for( x=inputBuffer.indexOf("\n"); x!=-1; x=inputBuffer.indexOf("\n") ) {
-			x=x+1;
-			String oneLine = inputBuffer.substring(0,x);
-			inputBuffer = inputBuffer.substring(x);
-
-			// check for error
-			int error_line = errorReported(oneLine);
-			if(error_line != -1) {
-				notifyLineError(error_line);
-			} else {
-				// no error
-				if(!oneLine.trim().equals(CUE.trim())) 
-				{
-					notifyDataAvailable(oneLine);
-				}
-			}
-
-			// wait for the cue to send another command
-			if(oneLine.indexOf(CUE)==0) {
-				waitingForCue=false;
-			}
-		}
-		if(waitingForCue==false) {
-			sendQueuedCommand();
+	void setKey(SelectionKey key) {
+		this.key = key;
+		// lines may have been sent before the channel was registered.
+		synchronized(pending) {
+			if(!pending.isEmpty()) selector.setWriteInterest(key,true);
 		}
 	}
 
 
-	protected void sendQueuedCommand() {
-		if(!portOpened || waitingForCue) return;
-
-		if(commandQueue.isEmpty()==true) {
-			notifySendBufferEmpty();
-			return;
-		}
-
-		String command;
+	/**
+	 * Called by the selector thread when there is something to read.
+	 */
+	void readReady() {
+		int bytesRead;
 		try {
-			command=commandQueue.remove(0);
-			String line = command;
-			if(line.contains(COMMENT_START)) {
-				String [] lines = line.split(COMMENT_START);
-				command = lines[0];
-			}
-			if(line.endsWith("\n") == false) {
-				line+=NEWLINE;
+			bytesRead = socket.read(readBuffer);
+		} catch(IOException e) {
+			if(portOpened) {
+				e.printStackTrace();
+				closeConnection();
 			}
-			byte[] lineBytes = line.getBytes();
-			ByteBuffer buf = ByteBuffer.allocate(lineBytes.length);
-			buf.clear();
-			buf.put(lineBytes);
-			buf.rewind();
-			socket.write(buf);
-			waitingForCue=true;
+			return;
 		}
-		catch(IndexOutOfBoundsException e1) {}
-		catch(IOException e1) {}
-	}
-
-	public void deleteAllQueuedCommands() {
-		commandQueue.clear();
+		if(bytesRead<0) {
+			// the robot hung up.
+			closeConnection();
+			return;
+		}
+		received(readBuffer.array(),0,bytesRead);
+		readBuffer.clear();
 	}
 
-	// connect to the last port
-	@Override
-	public void reconnect() throws Exception {
-		openConnection(connectionName);
-	}
 
 	/**
-	 * Java string to int is very picky.  this method is slightly less picky.  Only works with positive whole numbers.
-	 *
-	 * @param src
-	 * @return the portion of the string that is actually a number
+	 * Called by the selector thread when bytes are waiting and the socket can take them.
 	 */
-	private String getNumberPortion(String src) {
-		src = src.trim();
-		int length = src.length();
-		String result = "";
-		for (int i = 0; i < length; i++) {
-			Character character = src.charAt(i);
-			if (Character.isDigit(character)) {
-				result += character;
+	void writeReady() {
+		boolean drained;
+		synchronized(pending) {
+			try {
+				flush();
+			} catch(IOException e) {
+				e.printStackTrace();
+				closeConnection();
+				return;
 			}
+			drained = pending.isEmpty();
+			if(drained) selector.setWriteInterest(key,false);
+		}
+		// lines held back may go now.
+		if(drained) {
+			streamer.outputReady();
+			sendQueuedCommand();
 		}
-		return result;
 	}
 
+
 	/**
-	 * @return the port open for this serial connection.
+	 * Write what the socket will take now and keep the rest.
+	 * @return false if too much is waiting already.
 	 */
 	@Override
-	public boolean isOpen() {
-		return portOpened;
-	}
-
-	@Override
-	public String getRecentConnection() {
-		return connectionName;
+	protected boolean write(byte [] data) throws IOException {
+		synchronized(pending) {
+			if(pendingBytes>=MAX_PENDING_BYTES) return false;
+			ByteBuffer buf = ByteBuffer.wrap(data);
+			if(pending.isEmpty()) {
+				socket.write(buf);
+				if(!buf.hasRemaining()) return true;
+				if(key!=null) selector.setWriteInterest(key,true);
+			}
+			pending.add(buf);
+			pendingBytes += buf.remaining();
+			return true;
+		}
 	}
 
-	@Override
-	public void addListener(NetworkConnectionListener listener) {
-		listeners.add(listener);
-	}
 
-	@Override
-	public void removeListener(NetworkConnectionListener listener) {
-		listeners.remove(listener);
-	}
-
-	private void notifyLineError(int lineNumber) {
-		for (NetworkConnectionListener listener : listeners) {
-			listener.lineError(this,lineNumber);
+	protected void flush() throws IOException {
+		ByteBuffer buf;
+		while((buf=pending.peek())!=null) {
+			int before = buf.remaining();
+			socket.write(buf);
+			pendingBytes -= before-buf.remaining();
+			if(buf.hasRemaining()) return;
+			pending.poll();
 		}
 	}
 
-	private void notifySendBufferEmpty() {
-		for (NetworkConnectionListener listener : listeners) {
-			listener.sendBufferEmpty(this);
-		}
-	}
 
-	// tell all listeners data has arrived
-	private void notifyDataAvailable(String line) {
-		for (NetworkConnectionListener listener : listeners) {
-			listener.dataAvailable(this,line);
+	/**
+	 * @return bytes the socket has not taken yet
+	 */
+	public int getPendingBytes() {
+		synchronized(pending) {
+			return pendingBytes;
 		}
 	}
-
+	
+	
 	@Override
 	public TransportLayer getTransportLayer() {
 		return this.transportLayer;
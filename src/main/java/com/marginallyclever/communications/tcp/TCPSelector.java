@@ -0,0 +1,149 @@
+package com.marginallyclever.communications.tcp;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * One thread that reads and writes every {@link TCPConnection} of a {@link TCPTransportLayer}.
+ * <p>
+ * Each connection's channel is registered with one {@link Selector}.  The thread waits until any of them can be
+ * read, or written while a connection has bytes the socket would not take at once, and then lets the connection do
+ * it.  Listeners of every connection are called from this thread, so a slow listener slows every robot.
+ * <p>
+ * Changes to the selector from other threads are queued and done by the selector thread, which is woken to do them.
+ */
+public class TCPSelector implements Runnable {
+	public static final String THREAD_NAME = "TCP selector";
+
+	protected Selector selector;
+	protected Thread thread;
+	protected ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+	protected volatile boolean running;
+
+
+	/**
+	 * The thread starts with the first connection.
+	 */
+	public TCPSelector() {}
+
+
+	protected synchronized void start() throws IOException {
+		if(running) return;
+		selector = Selector.open();
+		running = true;
+		thread = new Thread(this,THREAD_NAME);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+
+	/**
+	 * Close the selector.  Connections are not closed, but nothing more is read from them.
+	 */
+	public synchronized void stop() {
+		if(!running) return;
+		running = false;
+		selector.wakeup();
+		try {
+			thread.join(1000);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+
+	public boolean isRunning() {
+		return running;
+	}
+
+
+	/**
+	 * @return true if called from the selector thread
+	 */
+	public boolean isSelectorThread() {
+		return Thread.currentThread()==thread;
+	}
+
+
+	/**
+	 * @param channel a connected channel.  It is made non-blocking.
+	 * @param connection reads and writes the channel when it is ready.
+	 */
+	void register(final SocketChannel channel,final TCPConnection connection) throws IOException {
+		start();
+		channel.configureBlocking(false);
+		later(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					connection.setKey(channel.register(selector,SelectionKey.OP_READ,connection));
+				} catch(IOException e) {
+					e.printStackTrace();
+					connection.closeConnection();
+				}
+			}
+		});
+	}
+
+
+	/**
+	 * Ask to be told when a connection can be written, or stop asking.
+	 */
+	void setWriteInterest(final SelectionKey key,final boolean wantsWrite) {
+		later(new Runnable() {
+			@Override
+			public void run() {
+				if(!key.isValid()) return;
+				int ops = SelectionKey.OP_READ | (wantsWrite ? SelectionKey.OP_WRITE : 0);
+				if(key.interestOps()!=ops) key.interestOps(ops);
+			}
+		});
+	}
+
+
+	protected void later(Runnable task) {
+		tasks.add(task);
+		if(isSelectorThread()) return;
+		selector.wakeup();
+	}
+
+
+	@Override
+	public void run() {
+		try {
+			while(running) {
+				Runnable task;
+				while((task=tasks.poll())!=null) task.run();
+
+				selector.select();
+
+				Iterator<SelectionKey> i = selector.selectedKeys().iterator();
+				while(i.hasNext()) {
+					SelectionKey key = i.next();
+					i.remove();
+					TCPConnection connection = (TCPConnection)key.attachment();
+					try {
+						if(key.isReadable()) connection.readReady();
+						if(key.isValid() && key.isWritable()) connection.writeReady();
+					} catch(CancelledKeyException e) {
+						// closed by a listener while being read.
+					}
+				}
+			}
+		} catch(IOException e) {
+			e.printStackTrace();
+		} finally {
+			running = false;
+			try {
+				selector.close();
+			} catch(IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
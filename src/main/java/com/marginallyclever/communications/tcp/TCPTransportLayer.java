@@ -6,14 +6,24 @@ import com.marginallyclever.communications.TransportLayerPanel;
 import com.marginallyclever.robotOverlord.Log;
 
 /**
- * Lists available TCP connections and opens a connection of that type to a robot
+ * Lists available TCP connections and opens a connection of that type to a robot.
+ * Every connection it opens is read and written by one {@link TCPSelector} thread.
  *
  * @author Dan
  * @since v7.1.0.0
  */
 public class TCPTransportLayer implements TransportLayer {
+	private TCPSelector selector = new TCPSelector();
+
 	public TCPTransportLayer() {}
 
+	/**
+	 * @return the thread shared by every connection of this layer.
+	 */
+	public TCPSelector getSelector() {
+		return selector;
+	}
+
 	/**
 	 * @return <code>serialConnection</code> if connection successful.  <code>null</code> on failure.
 	 */
@@ -0,0 +1,224 @@
+package com.marginallyclever.communications.virtual;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.LockSupport;
+
+import com.marginallyclever.communications.LineConnection;
+import com.marginallyclever.communications.LineRing;
+import com.marginallyclever.communications.TransportLayer;
+
+/**
+ * A connection to a {@link VirtualFirmware} in this program, with the timing of a serial line.
+ * <p>
+ * Bytes take the latency of a USB adapter plus ten bits each at the baud rate to cross, one after another, in each
+ * direction.  The firmware holds what arrives in a receive buffer of a few bytes and loses whatever does not fit,
+ * takes one line at a time, and spends a while on each before it answers.  Everything is sent and received through
+ * the same {@link LineConnection} as a real robot, so the whole pipeline can be timed and tested without one.
+ * <p>
+ * Each connection has a thread that plays the robot.  Answers are passed on from that thread.
+ */
+public class VirtualConnection extends LineConnection implements Runnable {
+	/**
+	 * Bytes on their way, and when the last of them arrives.
+	 */
+	static class Chunk {
+		long arrives;
+		byte [] data;
+
+		Chunk(long arrives,byte [] data) {
+			this.arrives = arrives;
+			this.data = data;
+		}
+	}
+
+	private VirtualTransportLayer transportLayer;
+	private VirtualFirmware firmware;
+
+	// copied from the layer when opened
+	private long byteNanos;
+	private long latencyNanos;
+	private long workNanos;
+	private long bootNanos;
+	private int receiveBufferSize;
+
+	// to the robot.  guarded by toRobot.
+	private ArrayDeque<Chunk> toRobot = new ArrayDeque<Chunk>();
+	private long toRobotWireFree;
+
+	// the rest is only touched by the robot thread.
+	private ArrayDeque<Chunk> toHost = new ArrayDeque<Chunk>();
+	private long toHostWireFree;
+	private LineRing receiveBuffer = new LineRing(4096);
+	private String answer;
+	private long busyUntil;
+	private long bytesLost;
+	private int mostInBuffer;
+
+	private volatile Thread thread;
+
+
+	public VirtualConnection(VirtualTransportLayer layer) {
+		transportLayer = layer;
+		firmware = layer.createFirmware();
+	}
+
+
+	/**
+	 * @return the robot.  Only look at it while the connection is closed or quiet.
+	 */
+	public VirtualFirmware getFirmware() {
+		return firmware;
+	}
+
+
+	@Override
+	public void openConnection(String connectionName) throws Exception {
+		if(portOpened) return;
+		byteNanos = transportLayer.getBaudRate()>0 ? 10000000000L/transportLayer.getBaudRate() : 0;
+		latencyNanos = (long)(transportLayer.getLatency()*1e9);
+		workNanos = (long)(transportLayer.getWorkTime()*1e9);
+		bootNanos = (long)(transportLayer.getBootTime()*1e9);
+		receiveBufferSize = Math.min(transportLayer.getReceiveBufferSize(),receiveBuffer.getCapacity());
+
+		synchronized(toRobot) {
+			toRobot.clear();
+			toRobotWireFree = 0;
+		}
+		toHost.clear();
+		toHostWireFree = 0;
+		receiveBuffer.clear();
+		answer = null;
+		busyUntil = 0;
+
+		opened(connectionName);
+		thread = new Thread(this,"Virtual robot "+connectionName);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+
+	@Override
+	public void closeConnection() {
+		if(!portOpened) return;
+		portOpened = false;
+		closed();
+		Thread t = thread;
+		if(t==null) return;
+		LockSupport.unpark(t);
+		if(t!=Thread.currentThread()) {
+			try {
+				t.join(1000);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		thread = null;
+	}
+
+
+	/**
+	 * Put a line on the wire to the robot.
+	 */
+	@Override
+	protected boolean write(byte [] data) {
+		long now = System.nanoTime();
+		synchronized(toRobot) {
+			long start = Math.max(now+latencyNanos,toRobotWireFree);
+			toRobotWireFree = start+data.length*byteNanos;
+			toRobot.add(new Chunk(toRobotWireFree,data.clone()));
+		}
+		LockSupport.unpark(thread);
+		return true;
+	}
+
+
+	protected void toHost(String text,long now) {
+		byte [] data = text.getBytes(StandardCharsets.UTF_8);
+		long start = Math.max(now+latencyNanos,toHostWireFree);
+		toHostWireFree = start+data.length*byteNanos;
+		toHost.add(new Chunk(toHostWireFree,data));
+	}
+
+
+	@Override
+	public void run() {
+		// an Arduino starts again when the port is opened.
+		toHost(firmware.hello(),System.nanoTime()+bootNanos);
+
+		while(portOpened) {
+			long now = System.nanoTime();
+
+			// bytes arrive at the robot.  what doesn't fit in the buffer is lost.
+			while(true) {
+				Chunk c;
+				synchronized(toRobot) {
+					c = toRobot.peek();
+					if(c==null || c.arrives-now>0) break;
+					toRobot.poll();
+				}
+				int room = receiveBufferSize-receiveBuffer.size();
+				int n = Math.min(room,c.data.length);
+				receiveBuffer.write(c.data,0,n);
+				bytesLost += c.data.length-n;
+				mostInBuffer = Math.max(mostInBuffer,receiveBuffer.size());
+			}
+
+			// the firmware finishes a line and takes the next.
+			if(busyUntil-now<=0) {
+				if(answer!=null) {
+					toHost(answer,now);
+					answer=null;
+				}
+				String line = receiveBuffer.nextLine();
+				if(line!=null) {
+					answer = firmware.process(line);
+					busyUntil = now+workNanos;
+					continue;
+				}
+			}
+
+			// bytes arrive at the host.
+			Chunk c;
+			while((c=toHost.peek())!=null && c.arrives-now<=0) {
+				toHost.poll();
+				received(c.data,0,c.data.length);
+			}
+
+			// wait for the next thing to happen.
+			long next = Long.MAX_VALUE;
+			synchronized(toRobot) {
+				if(!toRobot.isEmpty()) next = toRobot.peek().arrives;
+			}
+			if(answer!=null && busyUntil-next<0) next = busyUntil;
+			if(!toHost.isEmpty() && toHost.peek().arrives-next<0) next = toHost.peek().arrives;
+			if(next==Long.MAX_VALUE) {
+				LockSupport.park(this);
+			} else if(next-now>0) {
+				LockSupport.parkNanos(this,next-now);
+			}
+		}
+	}
+
+
+	/**
+	 * @return bytes the robot lost because its receive buffer was full.
+	 */
+	public long getBytesLost() {
+		return bytesLost;
+	}
+
+
+	/**
+	 * @return the most bytes in the robot's receive buffer at once.
+	 */
+	public int getMostInBuffer() {
+		return mostInBuffer;
+	}
+
+
+	@Override
+	public TransportLayer getTransportLayer() {
+		return transportLayer;
+	}
+}
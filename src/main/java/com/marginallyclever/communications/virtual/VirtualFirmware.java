@@ -0,0 +1,277 @@
+package com.marginallyclever.communications.virtual;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.marginallyclever.communications.LineConnection;
+import com.marginallyclever.communications.MotionFrame;
+import com.marginallyclever.communications.MotionProtocol;
+import com.marginallyclever.communications.ResendBuffer;
+
+/**
+ * What the firmware of a robot says back to each line it is sent, without the robot.
+ * <p>
+ * Like the Makelangelo firmware, it says hello with its UID and firmware version, answers D10 with its hardware
+ * version, and ends every answer with the cue.  A numbered line must have the right number and a correct checksum,
+ * or it is refused with BADLINENUM, BADCHECKSUM or NOCHECKSUM and the number wanted.  Good lines can be refused at
+ * random with BADCHECKSUM, to test recovery.  Nothing moves.
+ * <p>
+ * Unless told not to, it agrees to {@link MotionProtocol#REQUEST} and takes {@link MotionFrame}s.  A frame with a bad
+ * CRC is refused with BADFRAME and the sequence number wanted.  Frames skipped are counted as lost.
+ * <p>
+ * Not thread safe.  {@link VirtualConnection} calls it from one thread.
+ */
+public class VirtualFirmware {
+	public static final String NEWLINE = "\r\n";
+	public static final String HELLO = "HELLO WORLD! I AM DRAWBOT #";
+	public static final String FIRMWARE = "Firmware v";
+	public static final String BADFRAME = "BADFRAME ";
+
+	protected long uid = 1;
+	protected int firmwareVersion = 7;
+	protected int hardwareVersion = 2;
+	protected double errorRate;
+	protected Random random = new Random(0);
+
+	// the line number wanted next
+	protected int expected;
+	protected boolean keepCommands;
+	protected List<String> commands = new ArrayList<String>();
+	protected boolean takesFrames = true;
+	protected boolean framesAgreed;
+	protected int expectedSequence;
+	protected List<double[]> setpoints = new ArrayList<double[]>();
+
+	protected long linesReceived;
+	protected long commandsDone;
+	protected long badChecksums;
+	protected long badLineNumbers;
+	protected long missingChecksums;
+	protected long errorsInjected;
+	protected long framesReceived;
+	protected long setpointsReceived;
+	protected long badFrames;
+	protected long framesLost;
+
+
+	/**
+	 * @param uid reported in the hello.  0 makes MakelangeloRobot ask a server for a new one.
+	 */
+	public void setUID(long uid) {
+		this.uid = uid;
+	}
+
+
+	public void setFirmwareVersion(int version) {
+		firmwareVersion = version;
+	}
+
+
+	public void setHardwareVersion(int version) {
+		hardwareVersion = version;
+	}
+
+
+	/**
+	 * @param rate chance from 0 to 1 that a good numbered line is refused anyway.
+	 * @param seed for the same refusals every run
+	 */
+	public void setErrorRate(double rate,long seed) {
+		errorRate = rate;
+		random = new Random(seed);
+	}
+
+
+	/**
+	 * @param keep true to remember every command done, for {@link #getCommands()}.
+	 */
+	public void setKeepCommands(boolean keep) {
+		keepCommands = keep;
+	}
+
+
+	/**
+	 * @param takes false to act like firmware that only knows G-code.
+	 */
+	public void setTakesFrames(boolean takes) {
+		takesFrames = takes;
+	}
+
+
+	/**
+	 * @return what the firmware says when it starts.
+	 */
+	public String hello() {
+		expected = 0;
+		framesAgreed = false;
+		expectedSequence = 0;
+		return HELLO+uid+NEWLINE
+				+FIRMWARE+firmwareVersion+NEWLINE
+				+LineConnection.CUE+NEWLINE;
+	}
+
+
+	/**
+	 * @param line one line as it arrived, with or without the newline.
+	 * @return the answer, ending with the cue.
+	 */
+	public String process(String line) {
+		linesReceived++;
+		StringBuilder out = new StringBuilder();
+		String s = line.trim();
+		int n = ResendBuffer.getLineNumber(s);
+		if(framesAgreed && !s.isEmpty() && s.charAt(0)==MotionFrame.MARKER) {
+			frame(s,out);
+		} else if(n<0) {
+			execute(s,out);
+		} else {
+			int star = s.lastIndexOf('*');
+			if(star<0) {
+				missingChecksums++;
+				out.append(LineConnection.NOCHECKSUM).append(expected).append(NEWLINE);
+			} else if(!checksumMatches(s,star)) {
+				badChecksums++;
+				out.append(LineConnection.BADCHECKSUM).append(expected).append(NEWLINE);
+			} else if(n!=expected) {
+				badLineNumbers++;
+				out.append(LineConnection.BADLINENUM).append(expected).append(NEWLINE);
+			} else if(errorRate>0 && random.nextDouble()<errorRate) {
+				errorsInjected++;
+				out.append(LineConnection.BADCHECKSUM).append(expected).append(NEWLINE);
+			} else {
+				expected = n+1;
+				int space = s.indexOf(' ');
+				String command = (space<0 || space>star) ? "" : s.substring(space+1,star).trim();
+				execute(command,out);
+			}
+		}
+		out.append(LineConnection.CUE).append(NEWLINE);
+		return out.toString();
+	}
+
+
+	protected void frame(String s,StringBuilder out) {
+		MotionFrame f = MotionFrame.decode(s);
+		if(f==null) {
+			badFrames++;
+			out.append(BADFRAME).append(expectedSequence).append(NEWLINE);
+			return;
+		}
+		framesLost += (f.sequence-expectedSequence) & 0xFF;
+		expectedSequence = (f.sequence+1) & 0xFF;
+		framesReceived++;
+		setpointsReceived += f.setpoints.length;
+		if(keepCommands) {
+			for(double [] p : f.setpoints) setpoints.add(p);
+		}
+	}
+
+
+	protected boolean checksumMatches(String s,int star) {
+		byte checksum = 0;
+		for(int i=0;i<star;++i) checksum ^= s.charAt(i);
+		try {
+			return Integer.parseInt(s.substring(star+1).trim())==checksum;
+		} catch(NumberFormatException e) {
+			return false;
+		}
+	}
+
+
+	protected void execute(String command,StringBuilder out) {
+		if(command.isEmpty()) return;
+		commandsDone++;
+		if(keepCommands) commands.add(command);
+
+		String [] tokens = command.split("\\s+");
+		if(tokens[0].equals("D10")) {
+			out.append("D10 V").append(hardwareVersion).append(NEWLINE);
+		} else if(command.equals(MotionProtocol.REQUEST)) {
+			if(takesFrames) {
+				framesAgreed = true;
+				out.append(MotionProtocol.REQUEST).append(NEWLINE);
+			}
+		} else if(tokens[0].equals("M110")) {
+			// start numbering again
+			for(String t : tokens) {
+				if(t.startsWith("N")) {
+					try {
+						expected = Integer.parseInt(t.substring(1))+1;
+					} catch(NumberFormatException e) {}
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * @return every command done, without line numbers or checksums, if {@link #setKeepCommands(boolean)}.
+	 */
+	public List<String> getCommands() {
+		return commands;
+	}
+
+
+	/**
+	 * @return every setpoint in every frame, if {@link #setKeepCommands(boolean)}.
+	 */
+	public List<double[]> getSetpoints() {
+		return setpoints;
+	}
+
+
+	public long getFramesReceived() {
+		return framesReceived;
+	}
+
+
+	public long getSetpointsReceived() {
+		return setpointsReceived;
+	}
+
+
+	public long getBadFrameCount() {
+		return badFrames;
+	}
+
+
+	public long getFramesLost() {
+		return framesLost;
+	}
+
+
+	public int getExpectedLineNumber() {
+		return expected;
+	}
+
+
+	public long getLinesReceived() {
+		return linesReceived;
+	}
+
+
+	public long getCommandsDone() {
+		return commandsDone;
+	}
+
+
+	public long getBadChecksumCount() {
+		return badChecksums;
+	}
+
+
+	public long getBadLineNumberCount() {
+		return badLineNumbers;
+	}
+
+
+	public long getMissingChecksumCount() {
+		return missingChecksums;
+	}
+
+
+	public long getErrorsInjected() {
+		return errorsInjected;
+	}
+}
@@ -0,0 +1,134 @@
+package com.marginallyclever.communications.virtual;
+
+import com.marginallyclever.communications.NetworkConnection;
+import com.marginallyclever.communications.TransportLayer;
+import com.marginallyclever.communications.TransportLayerPanel;
+import com.marginallyclever.robotOverlord.Log;
+
+/**
+ * Opens connections to robots that only exist in this program.  See {@link VirtualConnection}.
+ * <p>
+ * The defaults are an Arduino on a USB serial adapter at 57600 baud.  Change them before opening a connection.
+ */
+public class VirtualTransportLayer implements TransportLayer {
+	private int baudRate = 57600;
+	private double latency = 0.002;
+	private int receiveBufferSize = 64;
+	private double workTime = 0.001;
+	private double bootTime = 1.0;
+	private double errorRate = 0;
+	private long seed = 0;
+	private long uid = 1;
+	private int hardwareVersion = 2;
+
+	public VirtualTransportLayer() {}
+
+	/**
+	 * @param baudRate bits per second.  0 for bytes that arrive at once.
+	 */
+	public void setBaudRate(int baudRate) {
+		this.baudRate = baudRate;
+	}
+
+	public int getBaudRate() {
+		return baudRate;
+	}
+
+	/**
+	 * @param seconds before the first byte of a write or an answer starts to cross.
+	 */
+	public void setLatency(double seconds) {
+		latency = seconds;
+	}
+
+	public double getLatency() {
+		return latency;
+	}
+
+	/**
+	 * @param bytes the firmware can hold before it takes a line.  Bytes past that are lost.
+	 */
+	public void setReceiveBufferSize(int bytes) {
+		receiveBufferSize = bytes;
+	}
+
+	public int getReceiveBufferSize() {
+		return receiveBufferSize;
+	}
+
+	/**
+	 * @param seconds the firmware spends on each line before it answers.
+	 */
+	public void setWorkTime(double seconds) {
+		workTime = seconds;
+	}
+
+	public double getWorkTime() {
+		return workTime;
+	}
+
+	/**
+	 * @param seconds from opening the connection to the hello, as an Arduino starts again when its port is opened.
+	 */
+	public void setBootTime(double seconds) {
+		bootTime = seconds;
+	}
+
+	public double getBootTime() {
+		return bootTime;
+	}
+
+	/**
+	 * @param rate chance from 0 to 1 that a good numbered line is refused with BADCHECKSUM.
+	 * @param seed for the same refusals every run
+	 */
+	public void setErrorRate(double rate,long seed) {
+		errorRate = rate;
+		this.seed = seed;
+	}
+
+	public double getErrorRate() {
+		return errorRate;
+	}
+
+	public void setUID(long uid) {
+		this.uid = uid;
+	}
+
+	public void setHardwareVersion(int version) {
+		hardwareVersion = version;
+	}
+
+	protected VirtualFirmware createFirmware() {
+		VirtualFirmware firmware = new VirtualFirmware();
+		firmware.setUID(uid);
+		firmware.setHardwareVersion(hardwareVersion);
+		firmware.setErrorRate(errorRate,seed);
+		return firmware;
+	}
+
+	/**
+	 * @return the connection if it opened.  <code>null</code> on failure.
+	 */
+	@Override
+	public NetworkConnection openConnection(String connectionName) {
+		Log.message("Connecting to "+connectionName);
+		VirtualConnection connection = new VirtualConnection(this);
+
+		try {
+			connection.openConnection(connectionName);
+			Log.message("Connect OK");
+		} catch (Exception e) {
+			Log.message("Connect FAILED");
+			e.printStackTrace();
+			return null;
+		}
+
+		return connection;
+	}
+
+	@Override
+	public TransportLayerPanel getTransportLayerPanel() {
+		return new VirtualTransportLayerPanel(this);
+	}
+}
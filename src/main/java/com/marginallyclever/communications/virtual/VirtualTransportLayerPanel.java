@@ -0,0 +1,42 @@
+package com.marginallyclever.communications.virtual;
+
+import java.awt.GridLayout;
+
+import javax.swing.JLabel;
+import javax.swing.JTextField;
+
+import com.marginallyclever.communications.NetworkConnection;
+import com.marginallyclever.communications.TransportLayerPanel;
+
+public class VirtualTransportLayerPanel extends TransportLayerPanel {
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 6914417738241386602L;
+	private VirtualTransportLayer layer;
+	private JTextField baudField;
+	private JTextField errorField;
+
+	VirtualTransportLayerPanel(VirtualTransportLayer virtualLayer) {
+		this.layer=virtualLayer;
+
+		this.setLayout(new GridLayout(0, 1));
+		this.add(new JLabel("Baud rate"));  // TODO translate me?
+		this.add(baudField = new JTextField());
+		this.add(new JLabel("Error rate (0...1)"));  // TODO translate me?
+		this.add(errorField = new JTextField());
+
+		baudField.setText(Integer.toString(layer.getBaudRate()));
+		errorField.setText(Double.toString(layer.getErrorRate()));
+	}
+
+	public NetworkConnection openConnection() {
+		try {
+			layer.setBaudRate(Integer.parseInt(baudField.getText().trim()));
+			layer.setErrorRate(Double.parseDouble(errorField.getText().trim()),System.nanoTime());
+		} catch(NumberFormatException e) {
+			e.printStackTrace();
+		}
+		return layer.openConnection("Simulator");
+	}
+}
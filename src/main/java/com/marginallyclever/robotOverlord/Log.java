@@ -1,30 +1,35 @@
 package com.marginallyclever.robotOverlord;
 
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.io.Writer;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.FileSystems;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.io.File;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Calendar;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * static log methods available everywhere
+ * <p>
+ * Messages are written to log.html and passed to listeners by a {@link LogWriter} thread.  Nothing here waits for
+ * the disk.  Listeners are called from that thread.
  * @author danroyer
  * @since 7.3.0
  * @see org.slf4j.Logger
  */
 public class Log {
-	private static final Logger logger = LoggerFactory.getLogger(RobotOverlord.class);
-	private static ArrayList<LogListener> listeners = new ArrayList<LogListener>();
+	private static List<LogListener> listeners = new CopyOnWriteArrayList<LogListener>();
+	private static LogWriter writer = new LogWriter(new File("log.html"),
+			LogWriter.DEFAULT_CAPACITY,LogWriter.DEFAULT_MAX_BYTES,LogWriter.DEFAULT_BACKUPS,listeners);
+
+	static {
+		writer.start();
+		// write what is left before the program ends.
+		Runtime.getRuntime().addShutdownHook(new Thread("Log flush") {
+			@Override
+			public void run() {
+				writer.stop();
+			}
+		});
+	}
 
 	
 	public static void addListener(LogListener listener) {
@@ -39,13 +44,8 @@ public class Log {
 	 * @author dan royer
 	 */
 	public static void clear() {
-		Path p = FileSystems.getDefault().getPath("log.html");
-		try {
-			Files.deleteIfExists(p);
-		} catch (IOException e1) {
-			e1.printStackTrace();
-		}
-		
+		writer.clear();
+
 		// print starting time
 		Calendar cal = Calendar.getInstance();
 		SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
@@ -54,21 +54,29 @@ public class Log {
 
 
 	/**
-	 * Appends a message to the log file
+	 * Appends a message to the log file.  Returns at once; the message is written soon after.
 	 * @param msg HTML to put in the log file
 	 */
 	public static void write(String msg) {
-		try (Writer fileWriter = new OutputStreamWriter(new FileOutputStream("log.html", true), StandardCharsets.UTF_8)) {
-			PrintWriter logToFile = new PrintWriter(fileWriter);
-			logToFile.write(msg);
-			logToFile.flush();
-		} catch (IOException e) {
-			logger.error("{}", e);
-		}
-		
-		for( LogListener listener : listeners ) {
-			listener.logEvent(msg);
-		}
+		writer.write(msg);
+	}
+
+
+	/**
+	 * Wait for everything logged so far to reach the file.
+	 * @param timeoutMillis give up after this long
+	 * @return true if it all did
+	 */
+	public static boolean flush(long timeoutMillis) {
+		return writer.flush(timeoutMillis);
+	}
+
+
+	/**
+	 * @return the thread that writes the log file
+	 */
+	public static LogWriter getWriter() {
+		return writer;
 	}
 
 
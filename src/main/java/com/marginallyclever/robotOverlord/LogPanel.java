@@ -14,6 +14,7 @@ import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTextField;
 import javax.swing.JTextPane;
+import javax.swing.SwingUtilities;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.DefaultCaret;
 import javax.swing.text.html.HTMLDocument;
@@ -138,7 +139,7 @@ public class LogPanel extends JPanel implements LogListener, ActionListener, Key
 		}
 	}
 
-	// appends a message to the log tab and system out.
+	// appends a message to the log tab.  called from the log writer thread, so the document is changed on the EDT.
 	@Override
 	public void logEvent(String msg) {
 		// remove the 
@@ -148,6 +149,16 @@ public class LogPanel extends JPanel implements LogListener, ActionListener, Key
 		msg = msg.replace("\n\n", "\n");
 		if(msg.length()==0) return;
 		
+		final String html = msg;
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				appendToLog(html);
+			}
+		});
+	}
+
+	protected void appendToLog(String msg) {
 		try {
 			long docLen = doc.getLength();
 			long caretPosition = log.getCaretPosition();
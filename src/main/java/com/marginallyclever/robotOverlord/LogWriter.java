@@ -0,0 +1,352 @@
+package com.marginallyclever.robotOverlord;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes log messages to a file from a thread of its own, so that whoever logs never waits for the disk.
+ * <p>
+ * {@link #write(String)} puts the message in a ring and returns.  The ring takes no lock: each writer claims a slot
+ * with one compare and set.  When the ring is full the message is dropped and counted, and the count is written
+ * to the log once there is room.  The writer thread keeps the file open, writes whatever has gathered in one go,
+ * and flushes when the ring is empty or {@link #FLUSH_INTERVAL_MS} have passed.  Listeners are called from the
+ * writer thread, in order.
+ * <p>
+ * When the file grows past its limit it is renamed to name.1.ext, name.1.ext to name.2.ext, and so on, and a new
+ * file is started.
+ * <p>
+ * Thread safe.
+ */
+public class LogWriter implements Runnable {
+	private static final Logger logger = LoggerFactory.getLogger(LogWriter.class);
+
+	public static final int DEFAULT_CAPACITY = 8192;
+	public static final long DEFAULT_MAX_BYTES = 5*1024*1024;
+	public static final int DEFAULT_BACKUPS = 3;
+	public static final long FLUSH_INTERVAL_MS = 200;
+	// messages written between looks at the file size
+	protected static final int BATCH = 512;
+
+	// in the ring to mean "start the file again".  compared by identity.
+	private static final String CLEAR = new String("clear");
+
+	protected File file;
+	protected long maxBytes;
+	protected int backups;
+	protected List<LogListener> listeners;
+
+	// a slot may be filled when its sequence equals the ticket, and emptied when it is one more.
+	private AtomicReferenceArray<String> slots;
+	private AtomicLongArray sequences;
+	private int mask;
+	private AtomicLong tail = new AtomicLong();
+	// only moved by the writer thread
+	private volatile long head;
+
+	private AtomicLong dropped = new AtomicLong();
+	private long droppedReported;
+	private volatile long written;
+	private volatile Thread thread;
+	private volatile boolean running = true;
+
+	private Writer out;
+	private long fileBytes;
+
+
+	/**
+	 * @param file to write
+	 * @param capacity messages that may wait.  Rounded up to a power of two.
+	 * @param maxBytes start a new file after this many.  0 to never.
+	 * @param backups old files to keep
+	 * @param listeners told of every message.  Must be safe to read while it changes.
+	 */
+	public LogWriter(File file,int capacity,long maxBytes,int backups,List<LogListener> listeners) {
+		this.file = file;
+		this.maxBytes = maxBytes;
+		this.backups = backups;
+		this.listeners = listeners;
+		int size = Integer.highestOneBit(Math.max(2,capacity)-1)<<1;
+		slots = new AtomicReferenceArray<String>(size);
+		sequences = new AtomicLongArray(size);
+		for(int i=0;i<size;++i) sequences.set(i,i);
+		mask = size-1;
+	}
+
+
+	public LogWriter(File file) {
+		this(file,DEFAULT_CAPACITY,DEFAULT_MAX_BYTES,DEFAULT_BACKUPS,new CopyOnWriteArrayList<LogListener>());
+	}
+
+
+	/**
+	 * Start the writer thread.  Messages written before this wait for it.
+	 */
+	public synchronized void start() {
+		if(thread!=null) return;
+		thread = new Thread(this,"Log writer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+
+	/**
+	 * @param msg to write.  Never waits.
+	 * @return false if the ring was full and the message was dropped.
+	 */
+	public boolean write(String msg) {
+		if(offer(msg)) return true;
+		dropped.incrementAndGet();
+		wake();
+		return false;
+	}
+
+
+	protected boolean offer(String msg) {
+		long ticket;
+		int slot;
+		while(true) {
+			ticket = tail.get();
+			slot = (int)ticket & mask;
+			long seq = sequences.get(slot);
+			if(seq==ticket) {
+				if(tail.compareAndSet(ticket,ticket+1)) break;
+			} else if(seq<ticket) {
+				// full
+				return false;
+			}
+			// another writer took this ticket.  try the next.
+		}
+		slots.set(slot,msg);
+		sequences.set(slot,ticket+1);
+		// wake the writer before the ring fills up
+		if(ticket-head==(mask+1)/2) wake();
+		return true;
+	}
+
+
+	/**
+	 * Start the file again after everything already written.
+	 */
+	public void clear() {
+		while(!offer(CLEAR)) {
+			wake();
+			Thread.yield();
+		}
+	}
+
+
+	protected void wake() {
+		Thread t = thread;
+		if(t!=null) LockSupport.unpark(t);
+	}
+
+
+	/**
+	 * Wait until everything written before this call is on disk.
+	 * @param timeoutMillis give up after this long
+	 * @return true if it was all written in time.
+	 */
+	public boolean flush(long timeoutMillis) {
+		long target = tail.get();
+		long end = System.currentTimeMillis()+timeoutMillis;
+		while(written<target) {
+			if(System.currentTimeMillis()>end) return false;
+			wake();
+			LockSupport.parkNanos(100000);
+		}
+		return true;
+	}
+
+
+	/**
+	 * Write what is waiting, close the file, and stop the thread.
+	 */
+	public void stop() {
+		running = false;
+		Thread t = thread;
+		if(t==null) return;
+		LockSupport.unpark(t);
+		if(t!=Thread.currentThread()) {
+			try {
+				t.join(2000);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+
+	@Override
+	public void run() {
+		long lastFlush = System.currentTimeMillis();
+		boolean dirty = false;
+		while(true) {
+			boolean stopping = !running;
+			int n = drain();
+			if(n>0) dirty = true;
+			long now = System.currentTimeMillis();
+			if(dirty && (n==0 || now-lastFlush>=FLUSH_INTERVAL_MS)) {
+				flushFile();
+				dirty = false;
+				lastFlush = now;
+			}
+			if(stopping && n==0) break;
+			if(n==0) LockSupport.parkNanos(this,FLUSH_INTERVAL_MS*1000000L);
+		}
+		closeFile();
+	}
+
+
+	/**
+	 * @return messages taken from the ring
+	 */
+	protected int drain() {
+		int n=0;
+		long h = head;
+		while(n<BATCH) {
+			int slot = (int)h & mask;
+			if(sequences.get(slot)!=h+1) break;
+			String msg = slots.get(slot);
+			slots.set(slot,null);
+			sequences.set(slot,h+mask+1);
+			h++;
+			head = h;
+			n++;
+			if(msg==CLEAR) {
+				clearFile();
+			} else {
+				append(msg);
+			}
+			written = h;
+		}
+		long d = dropped.get();
+		if(d!=droppedReported) {
+			append("<font color='red'>"+(d-droppedReported)+" log messages dropped</font>\n");
+			droppedReported = d;
+		}
+		return n;
+	}
+
+
+	protected void append(String msg) {
+		try {
+			if(out==null) openFile();
+			out.write(msg);
+			// close enough for ASCII, which most of the log is.
+			fileBytes += msg.length();
+			if(maxBytes>0 && fileBytes>=maxBytes) rotate();
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+		for(LogListener listener : listeners) {
+			try {
+				listener.logEvent(msg);
+			} catch(Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+
+	protected void openFile() throws IOException {
+		fileBytes = file.length();
+		out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file,true),StandardCharsets.UTF_8),65536);
+	}
+
+
+	protected void flushFile() {
+		if(out==null) return;
+		try {
+			out.flush();
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+
+	protected void closeFile() {
+		if(out==null) return;
+		try {
+			out.close();
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+		out = null;
+	}
+
+
+	protected void clearFile() {
+		closeFile();
+		if(file.exists() && !file.delete()) {
+			logger.warn("Could not delete {}",file);
+		}
+		fileBytes = 0;
+	}
+
+
+	/**
+	 * @param n 1 for the newest old file
+	 * @return name.n.ext
+	 */
+	public File getBackup(int n) {
+		String name = file.getName();
+		int dot = name.lastIndexOf('.');
+		String backup = dot<0 ? name+"."+n : name.substring(0,dot)+"."+n+name.substring(dot);
+		return new File(file.getAbsoluteFile().getParentFile(),backup);
+	}
+
+
+	protected void rotate() {
+		closeFile();
+		if(backups<=0) {
+			clearFile();
+			return;
+		}
+		File oldest = getBackup(backups);
+		if(oldest.exists()) oldest.delete();
+		for(int i=backups-1;i>=1;--i) {
+			File f = getBackup(i);
+			if(f.exists()) f.renameTo(getBackup(i+1));
+		}
+		file.renameTo(getBackup(1));
+		fileBytes = 0;
+	}
+
+
+	/**
+	 * @return messages dropped because the ring was full
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+
+	/**
+	 * @return messages taken from the ring and written so far
+	 */
+	public long getWrittenCount() {
+		return written;
+	}
+
+
+	/**
+	 * @return messages waiting to be written
+	 */
+	public int getBacklog() {
+		return (int)(tail.get()-head);
+	}
+}
@@ -53,7 +53,9 @@ import com.marginallyclever.robotOverlord.commands.UserCommandCheckForUpdate;
 import com.marginallyclever.robotOverlord.commands.UserCommandLoad;
 import com.marginallyclever.robotOverlord.commands.UserCommandNew;
 import com.marginallyclever.robotOverlord.commands.UserCommandQuit;
+import com.marginallyclever.robotOverlord.commands.UserCommandRecordMotion;
 import com.marginallyclever.robotOverlord.commands.UserCommandRedo;
+import com.marginallyclever.robotOverlord.commands.UserCommandReplayMotion;
 import com.marginallyclever.robotOverlord.commands.UserCommandSaveAs;
 import com.marginallyclever.robotOverlord.commands.UserCommandUndo;
 import com.marginallyclever.robotOverlord.entity.Entity;
@@ -389,6 +391,11 @@ implements MouseListener, MouseMotionListener, KeyListener, GLEventListener, Win
         menu.add(buttonUndo = new UserCommandUndo(this));
         menu.add(buttonRedo = new UserCommandRedo(this));
         mainMenu.add(menu);
+        
+        menu = new JMenu("Motion");
+        menu.add(new UserCommandRecordMotion(this));
+        menu.add(new UserCommandReplayMotion(this));
+        mainMenu.add(menu);
     	
     	// done
         mainMenu.updateUI();
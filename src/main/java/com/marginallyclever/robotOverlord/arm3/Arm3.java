@@ -8,11 +8,14 @@ import com.marginallyclever.convenience.PrimitiveSolids;
 import com.marginallyclever.robotOverlord.BoundingVolume;
 import com.marginallyclever.robotOverlord.Cylinder;
 import com.marginallyclever.robotOverlord.RobotOverlord;
+import com.marginallyclever.robotOverlord.kinematics.ReachabilityMap;
 import com.marginallyclever.robotOverlord.robot.Robot;
+import com.marginallyclever.robotOverlord.robot.RobotKeyframe;
 import com.jogamp.opengl.GL2;
 import javax.swing.JPanel;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 
 
 public class Arm3 
@@ -30,6 +33,9 @@ extends Robot {
 	protected Arm3Keyframe motionFuture;
 	protected Arm3Dimensions armSettings;
 	
+	// where each kind of arm can reach, relative to its base.  see getReachabilityMap()
+	private static HashMap<String,ReachabilityMap> reachabilityMaps = new HashMap<String,ReachabilityMap>();
+	
 	// keyboard history
 	protected float aDir = 0.0f;
 	protected float bDir = 0.0f;
@@ -770,6 +776,13 @@ extends Robot {
 	
 	//TODO check for collisions with http://geomalgorithms.com/a07-_distance.html#dist3D_Segment_to_Segment ?
 	public boolean movePermitted(Arm3Keyframe keyframe) {
+		// nowhere near?
+		if(!getReachabilityMap().isPlausiblyReachable(
+				keyframe.fingerPosition.x,
+				keyframe.fingerPosition.y,
+				keyframe.fingerPosition.z)) {
+			return false;
+		}
 		// don't hit floor
 		if(keyframe.fingerPosition.z<0.25f) {
 			return false;
@@ -796,6 +809,30 @@ extends Robot {
 	}
 	
 	
+	/**
+	 * The map is shared by every arm with the same dimensions.  The first call loads it from disk, or starts building
+	 * it in the background.
+	 * @return the map of where the finger can reach.
+	 */
+	public ReachabilityMap getReachabilityMap() {
+		synchronized(reachabilityMaps) {
+			ReachabilityMap map = reachabilityMaps.get(armSettings.getName());
+			if(map==null) {
+				float r = armSettings.getBaseToShoulderX()
+						+ armSettings.getShoulderToElbow()
+						+ armSettings.getElbowToWrist()
+						+ armSettings.getWristToFinger()
+						+ 2;
+				map = new ReachabilityMap(-r,-r,0,r,r,50,1);
+				String filename = armSettings.getName().replaceAll("[^A-Za-z0-9]+","_")+".reachability";
+				map.loadOrBuildInBackground(filename, new Arm3ReachabilityProbe(this,armSettings));
+				reachabilityMaps.put(armSettings.getName(), map);
+			}
+			return map;
+		}
+	}
+	
+	
 	protected boolean CheckAngleLimits(Arm3Keyframe keyframe) {/*
 		// machine specific limits
 		if (keyframe.angle_0 < -180) return false;
@@ -942,4 +979,40 @@ extends Robot {
 		keyframe.fingerRight.scale(-1);
 		//keyframe.finger_right = MathHelper.rotateAroundAxis(keyframe.finger_right, axis,-keyframe.angle_3/RAD2DEG);
 	}
+
+
+	@Override
+	public RobotKeyframe createKeyframe() {
+		Arm3Keyframe keyframe = new Arm3Keyframe(armSettings);
+		keyframe.set(motionNow);
+		return keyframe;
+	}
+
+
+	/**
+	 * Arm3 keyframes are described by their base, shoulder and elbow angles, in degrees.
+	 */
+	@Override
+	public int getKeyframeSize() {
+		return 3;
+	}
+
+
+	@Override
+	public void getKeyframeValues(RobotKeyframe arg0,double [] values) {
+		Arm3Keyframe keyframe = (Arm3Keyframe)arg0;
+		values[0]=keyframe.angleBase;
+		values[1]=keyframe.angleShoulder;
+		values[2]=keyframe.angleElbow;
+	}
+
+
+	@Override
+	public void setKeyframeValues(RobotKeyframe arg0,double [] values) {
+		Arm3Keyframe keyframe = (Arm3Keyframe)arg0;
+		keyframe.angleBase=(float)values[0];
+		keyframe.angleShoulder=(float)values[1];
+		keyframe.angleElbow=(float)values[2];
+		FK(keyframe);
+	}
 }
@@ -0,0 +1,37 @@
+package com.marginallyclever.robotOverlord.arm3;
+
+import com.marginallyclever.robotOverlord.kinematics.ReachabilityProbe;
+
+/**
+ * Tests positions with {@link Arm3#movePermitted} on a keyframe of its own, so it can run on the map building thread.
+ * While the map is being built it says every position is plausible, so movePermitted() is the exact test.
+ */
+class Arm3ReachabilityProbe implements ReachabilityProbe {
+	protected Arm3 robot;
+	protected Arm3Keyframe keyframe;
+
+
+	Arm3ReachabilityProbe(Arm3 robot,Arm3Dimensions dimensions) {
+		this.robot = robot;
+		keyframe = new Arm3Keyframe(dimensions);
+	}
+
+
+	@Override
+	public boolean canReach(float x, float y, float z, float fx, float fy, float fz) {
+		keyframe.fingerPosition.set(x,y,z);
+		// the finger always points straight out from the base.
+		if(x*x+y*y>0) keyframe.fingerForward.set(x,y,0);
+		else keyframe.fingerForward.set(1,0,0);
+		keyframe.fingerForward.normalize();
+		// movePermitted() measures from the shoulder found by the last IK.
+		if(!robot.IK(keyframe)) return false;
+		return robot.movePermitted(keyframe);
+	}
+
+
+	@Override
+	public boolean isOrientable() {
+		return false;
+	}
+}
@@ -11,7 +11,9 @@ import com.marginallyclever.robotOverlord.arm5.tool.*;
 import com.marginallyclever.robotOverlord.material.Material;
 import com.marginallyclever.robotOverlord.model.Model;
 import com.marginallyclever.robotOverlord.model.ModelFactory;
+import com.marginallyclever.robotOverlord.robot.JogChannel;
 import com.marginallyclever.robotOverlord.robot.Robot;
+import com.marginallyclever.robotOverlord.robot.RobotKeyframe;
 
 import java.io.BufferedReader;
 import java.io.IOException;
@@ -95,6 +97,10 @@ extends Robot {
 	protected boolean isPortConfirmed=false;
 	protected double speed=2;
 
+	// jogs, sent no faster than the robot can take them.  see sendChangeToRealMachine()
+	private transient JogChannel jogChannel;
+	private transient double [] jogValues;
+
 	// visual debugging
 	protected boolean isRenderFKOn=false;
 	protected boolean isRenderIKOn=false;
@@ -452,28 +458,16 @@ extends Robot {
 	
 	protected void sendChangeToRealMachine() {
 		if(!isPortConfirmed) return;
-		
-		
-		String str="";
-		if(motionFuture.angleA!=motionNow.angleA) {
-			str+=" A"+roundOff(motionFuture.angleA);
-		}
-		if(motionFuture.angleB!=motionNow.angleB) {
-			str+=" B"+roundOff(motionFuture.angleB);
-		}
-		if(motionFuture.angleC!=motionNow.angleC) {
-			str+=" C"+roundOff(motionFuture.angleC);
-		}
-		if(motionFuture.angleD!=motionNow.angleD) {
-			str+=" D"+roundOff(motionFuture.angleD);
-		}
-		if(motionFuture.angleE!=motionNow.angleE) {
-			str+=" E"+roundOff(motionFuture.angleE);
-		}
-		
-		if(str.length()>0) {
-			this.sendLineToRobot("R0"+str);
+		if(jogChannel==null) {
+			jogChannel = new JogChannel(this,"R0","ABCDE");
+			jogValues = new double[5];
 		}
+		jogValues[0]=motionFuture.angleA;
+		jogValues[1]=motionFuture.angleB;
+		jogValues[2]=motionFuture.angleC;
+		jogValues[3]=motionFuture.angleD;
+		jogValues[4]=motionFuture.angleE;
+		jogChannel.jog(jogValues);
 	}
 	
 	@Override
@@ -481,6 +475,7 @@ extends Robot {
 		updateIK(delta);
 		updateFK(delta);
 		if(tool != null) tool.update(delta);
+		if(jogChannel != null) jogChannel.update();
 	}
 
 	@Override
@@ -1222,4 +1217,44 @@ extends Robot {
 		keyframe.fingerRight.cross(v1, planeNormal);
 		keyframe.fingerRight.normalize();
 	}
+
+
+	@Override
+	public RobotKeyframe createKeyframe() {
+		EvilMinionKeyframe keyframe = new EvilMinionKeyframe();
+		keyframe.set(motionNow);
+		return keyframe;
+	}
+
+
+	/**
+	 * Evil Minion keyframes are described by their five joint angles in degrees, A to E, in the order the firmware takes them.
+	 */
+	@Override
+	public int getKeyframeSize() {
+		return 5;
+	}
+
+
+	@Override
+	public void getKeyframeValues(RobotKeyframe arg0,double [] values) {
+		EvilMinionKeyframe keyframe = (EvilMinionKeyframe)arg0;
+		values[0]=keyframe.angleA;
+		values[1]=keyframe.angleB;
+		values[2]=keyframe.angleC;
+		values[3]=keyframe.angleD;
+		values[4]=keyframe.angleE;
+	}
+
+
+	@Override
+	public void setKeyframeValues(RobotKeyframe arg0,double [] values) {
+		EvilMinionKeyframe keyframe = (EvilMinionKeyframe)arg0;
+		keyframe.angleA=(float)values[0];
+		keyframe.angleB=(float)values[1];
+		keyframe.angleC=(float)values[2];
+		keyframe.angleD=(float)values[3];
+		keyframe.angleE=(float)values[4];
+		forwardKinematics(keyframe);
+	}
 }
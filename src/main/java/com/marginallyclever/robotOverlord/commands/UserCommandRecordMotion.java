@@ -0,0 +1,70 @@
+package com.marginallyclever.robotOverlord.commands;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.KeyEvent;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import javax.swing.JFileChooser;
+import javax.swing.JMenuItem;
+import javax.swing.filechooser.FileNameExtensionFilter;
+
+import com.marginallyclever.robotOverlord.RobotOverlord;
+import com.marginallyclever.robotOverlord.robot.MotionRecorder;
+import com.marginallyclever.robotOverlord.world.World;
+
+/**
+ * Start or stop recording what every robot in the world does to a motion log.  This action is not an undoable action.
+ * @author Admin
+ *
+ */
+public class UserCommandRecordMotion extends JMenuItem implements ActionListener {
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 1L;
+	protected RobotOverlord ro;
+	protected transient MotionRecorder recorder;
+	protected transient World recordedWorld;
+	
+	public UserCommandRecordMotion(RobotOverlord ro) {
+		super("Start recording...",KeyEvent.VK_R);
+		this.ro = ro;
+		addActionListener(this);
+	}
+
+	public void actionPerformed(ActionEvent e) {
+		if(recorder!=null) {
+			stop();
+			return;
+		}
+		
+		JFileChooser fc = new JFileChooser();
+		FileNameExtensionFilter filter = new FileNameExtensionFilter("Motion logs", "ROML");
+		fc.setFileFilter(filter);
+		int returnVal = fc.showSaveDialog(ro.getMainFrame());
+		if (returnVal == JFileChooser.APPROVE_OPTION) {
+			try {
+				FileOutputStream out = new FileOutputStream(fc.getSelectedFile().getAbsolutePath());
+				recorder = new MotionRecorder(new BufferedOutputStream(out));
+			} catch(IOException ex) {
+				ex.printStackTrace();
+				return;
+			}
+			recordedWorld = ro.getWorld();
+			recordedWorld.setRecorder(recorder);
+			setText("Stop recording");
+		}
+	}
+	
+	protected void stop() {
+		// the world may have been replaced since recording started.
+		if(recordedWorld.getRecorder()==recorder) recordedWorld.setRecorder(null);
+		recorder.close();
+		recorder = null;
+		recordedWorld = null;
+		setText("Start recording...");
+	}
+}
@@ -0,0 +1,56 @@
+package com.marginallyclever.robotOverlord.commands;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import javax.swing.JFileChooser;
+import javax.swing.JMenuItem;
+import javax.swing.filechooser.FileNameExtensionFilter;
+
+import com.marginallyclever.robotOverlord.RobotOverlord;
+import com.marginallyclever.robotOverlord.robot.MotionLogReader;
+import com.marginallyclever.robotOverlord.robot.MotionReplayer;
+
+/**
+ * Play a motion log back on the robots of the same name in the world.  Nothing is sent to the real machines.  This
+ * action is not an undoable action.
+ * @author Admin
+ *
+ */
+public class UserCommandReplayMotion extends JMenuItem implements ActionListener {
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 1L;
+	protected RobotOverlord ro;
+	
+	public UserCommandReplayMotion(RobotOverlord ro) {
+		super("Replay recording...");
+		this.ro = ro;
+		addActionListener(this);
+	}
+
+	public void actionPerformed(ActionEvent e) {
+		JFileChooser fc = new JFileChooser();
+		FileNameExtensionFilter filter = new FileNameExtensionFilter("Motion logs", "ROML");
+		fc.setFileFilter(filter);
+		int returnVal = fc.showOpenDialog(ro.getMainFrame());
+		if (returnVal == JFileChooser.APPROVE_OPTION) {
+			FileInputStream in = null;
+			try {
+				in = new FileInputStream(fc.getSelectedFile().getAbsolutePath());
+				ro.getWorld().setReplayer(new MotionReplayer(new MotionLogReader(new BufferedInputStream(in))));
+			} catch(IOException ex) {
+				ex.printStackTrace();
+				if(in!=null) {
+					try {
+						in.close();
+					} catch(IOException e2) {}
+				}
+			}
+		}
+	}
+}
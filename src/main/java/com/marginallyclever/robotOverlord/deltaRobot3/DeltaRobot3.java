@@ -19,9 +19,11 @@ import com.marginallyclever.communications.NetworkConnection;
 import com.marginallyclever.convenience.PrimitiveSolids;
 import com.marginallyclever.robotOverlord.*;
 import com.marginallyclever.robotOverlord.actions.UndoableActionRobotMove;
+import com.marginallyclever.robotOverlord.kinematics.ReachabilityMap;
 import com.marginallyclever.robotOverlord.model.Model;
 import com.marginallyclever.robotOverlord.model.ModelFactory;
 import com.marginallyclever.robotOverlord.robot.Robot;
+import com.marginallyclever.robotOverlord.robot.RobotKeyframe;
 
 public class DeltaRobot3
 extends Robot {
@@ -58,6 +60,10 @@ extends Robot {
 	// bounding volumes for collision testing
 	protected Cylinder [] volumes;
 
+	// where any delta robot 3 can reach, relative to its base.  see getReachabilityMap()
+	private static ReachabilityMap reachabilityMap;
+	private final static String REACHABILITY_MAP_FILE = "deltaRobot3.reachability";
+
 	// models for 3d rendering
 	protected transient Model modelTop;
 	protected transient Model modelArm;
@@ -69,6 +75,9 @@ extends Robot {
 
 	// control panel
 	protected transient DeltaRobot3ControlPanel controlPanel;
+
+	// precomputed kinematics.  see getKinematics()
+	protected transient DeltaRobot3Kinematics kinematics;
 	
 	// keyboard history
 	private float aDir, bDir, cDir;
@@ -224,8 +233,7 @@ extends Robot {
 		// if not continuous, set *Dir to zero.
 		
 		if(changed) {
-			if(checkAngleLimits(motionFuture)) {
-				updateFK(motionFuture);
+			if(checkAngleLimits(motionFuture) && updateFK(motionFuture)) {
 				haveArmsMoved=true;
 			}
 		}
@@ -615,7 +623,30 @@ extends Robot {
 	}
 
 	
+	/**
+	 * @return the kinematics solver of this robot, made the first time it is needed.
+	 */
+	public DeltaRobot3Kinematics getKinematics() {
+		if(kinematics==null) kinematics = new DeltaRobot3Kinematics();
+		return kinematics;
+	}
+
+	
+	/**
+	 * Convert bicep angles to the cartesian position of the finger.
+	 * @return true if successful, false if the forearms can't meet.
+	 */
 	public boolean updateFK(DeltaRobot3Keyframe keyframe) {
+		DeltaRobot3Kinematics k = getKinematics();
+		k.setBase(keyframe.base.x, keyframe.base.y, keyframe.base.z);
+		int status = k.forwardKinematics(keyframe.arms[0].angle, keyframe.arms[1].angle, keyframe.arms[2].angle);
+		if(status!=DeltaRobot3Kinematics.STATUS_OK) return false;
+
+		k.getFinger(keyframe.fingerPosition);
+		for(int i=0;i<NUM_ARMS;++i) {
+			k.getElbow(i, keyframe.arms[i].elbow);
+			k.getWrist(i, keyframe.arms[i].wrist);
+		}
 		return true;
 	}
 
@@ -624,124 +655,27 @@ extends Robot {
 	 * @return true if successful, false if the IK solution cannot be found.
 	 */
 	public boolean updateIK(DeltaRobot3Keyframe keyframe) {
-		try {
-			updateIKWrists(keyframe);
-			updateIKShoulderAngles(keyframe);
-		}
-		catch(AssertionError e) {
-			return false;
-		}
+		DeltaRobot3Kinematics k = getKinematics();
+		k.setBase(keyframe.base.x, keyframe.base.y, keyframe.base.z);
+		int status = k.inverseKinematics(keyframe.fingerPosition.x, keyframe.fingerPosition.y, keyframe.fingerPosition.z);
+		if(status!=DeltaRobot3Kinematics.STATUS_OK) return false;
 
+		for(int i=0;i<NUM_ARMS;++i) {
+			DeltaRobot3Arm arm = keyframe.arms[i];
+			arm.angle = (float)k.getAngle(i);
+			k.getElbow(i, arm.elbow);
+			k.getWrist(i, arm.wrist);
+		}
 		return true;
 	}
 
 
 	protected void updateIKWrists(DeltaRobot3Keyframe keyframe) {
-		Vector3f n1 = new Vector3f(),o1 = new Vector3f(),temp = new Vector3f();
-		float c,s;
-		int i;
-		for(i=0;i<NUM_ARMS;++i) {
-			DeltaRobot3Arm arma=keyframe.arms[i];
-
-			c=(float)Math.cos( (float)Math.PI*2.0f * (i/3.0f - 60.0f/360.0f) );
-			s=(float)Math.sin( (float)Math.PI*2.0f * (i/3.0f - 60.0f/360.0f) );
-
-			//n1 = n* c + o*s;
-			n1.set(keyframe.base_forward);
-			n1.scale(c);
-			temp.set(keyframe.base_right);
-			temp.scale(s);
-			n1.add(temp);
-			n1.normalize();
-			//o1 = n*-s + o*c;
-			o1.set(keyframe.base_forward);
-			o1.scale(-s);
-			temp.set(keyframe.base_right);
-			temp.scale(c);
-			o1.add(temp);
-			o1.normalize();
-			//n1.scale(-1);
-
-
-			//arma.wrist = this.finger_tip + n1*T2W_X + this.base_up*T2W_Z - o1*T2W_Y;
-			//armb.wrist = this.finger_tip + n1*T2W_X + this.base_up*T2W_Z + o1*T2W_Y;
-			arma.wrist.set(n1);
-			arma.wrist.scale(DeltaRobot3.WRIST_TO_FINGER_X);
-			arma.wrist.add(keyframe.fingerPosition);
-			temp.set(keyframe.base_up);
-			temp.scale(DeltaRobot3.WRIST_TO_FINGER_Z);
-			arma.wrist.add(temp);
-			temp.set(o1);
-			temp.scale(DeltaRobot3.WRIST_TO_FINGER_Y);
-			arma.wrist.sub(temp);
-		}
-	}
-	
-
-	protected void updateIKShoulderAngles(DeltaRobot3Keyframe keyframe) throws AssertionError {
-		Vector3f ortho = new Vector3f(),w = new Vector3f(),wop = new Vector3f(),temp = new Vector3f(),r = new Vector3f();
-		float a,b,d,r1,r0,hh,y,x;
-
-		int i;
-		for(i=0;i<NUM_ARMS;++i) {
+		DeltaRobot3Kinematics k = getKinematics();
+		for(int i=0;i<NUM_ARMS;++i) {
 			DeltaRobot3Arm arm = keyframe.arms[i];
-
-			// project wrist position onto plane of bicep (wop)
-			ortho.x=(float)Math.cos( (float)Math.PI*2.0f * (i/3.0f - 60.0f/360.0f) );
-			ortho.y=(float)Math.sin( (float)Math.PI*2.0f * (i/3.0f - 60.0f/360.0f) );
-			ortho.z=0;
-
-			//w = arm.wrist - arm.shoulder
-			w.set(arm.wrist);
-			w.sub(arm.shoulder);
-
-			//a=w | ortho;
-			a = w.dot( ortho );
-			//wop = w - (ortho * a);
-			temp.set(ortho);
-			temp.scale(a);
-			wop.set(w);
-			wop.sub(temp);
-
-			// we need to find wop-elbow to calculate the angle at the shoulder.
-			// wop-elbow is not the same as wrist-elbow.
-			b=(float)Math.sqrt(DeltaRobot3.FOREARM_LENGTH*DeltaRobot3.FOREARM_LENGTH-a*a);
-			if(Float.isNaN(b)) throw new AssertionError();
-
-			// use intersection of circles to find elbow point.
-			//a = (r0r0 - r1r1 + d*d ) / (2*d) 
-			r1=b;  // circle 1 centers on wrist
-			r0=DeltaRobot3.BICEP_LENGTH;  // circle 0 centers on shoulder
-			d=wop.length();
-			// distance along wop to the midpoint between the two possible intersections
-			a = ( r0 * r0 - r1 * r1 + d*d ) / ( 2.0f*d );
-
-			// now find the midpoint
-			// normalize wop
-			//wop /= d;
-			wop.scale(1.0f/d);
-			//temp=arm.shoulder+(wop*a);
-			temp.set(wop);
-			temp.scale(a);
-			temp.add(arm.shoulder);
-			// with a and r0 we can find h, the distance from midpoint to intersections.
-			hh=(float)Math.sqrt(r0*r0-a*a);
-			if(Float.isNaN(hh)) throw new AssertionError();
-			// get a normal to the line wop in the plane orthogonal to ortho
-			r.cross(ortho,wop);
-			r.scale(hh);
-			arm.elbow.set(temp);
-			//if(i%2==0) arm.elbow.add(r);
-			//else
-				arm.elbow.sub(r);
-
-			temp.sub(arm.elbow,arm.shoulder);
-			y=-temp.z;
-			temp.z=0;
-			x=temp.length();
-			// use atan2 to find theta
-			if( ( arm.shoulderToElbow.dot( temp ) ) < 0 ) x=-x;
-			arm.angle= (float)Math.toDegrees(Math.atan2(-y,x));
+			k.getWristOffset(i, arm.wrist);
+			arm.wrist.add(keyframe.fingerPosition);
 		}
 	}
 
@@ -847,6 +781,11 @@ extends Robot {
 		// check near limit
 		if(temp.length() < BASE_TO_SHOULDER_MINIMUM_LIMIT) return false;
 	 */
+		// nowhere near?
+		if(!getReachabilityMap().isPlausiblyReachable(
+				keyframe.fingerPosition.x-keyframe.base.x,
+				keyframe.fingerPosition.y-keyframe.base.y,
+				keyframe.fingerPosition.z-keyframe.base.z)) return false;
 		// angle are good?
 		if(!checkAngleLimits(keyframe)) return false;
 		// seems doable
@@ -857,6 +796,22 @@ extends Robot {
 	}
 
 
+	/**
+	 * The map is shared by every delta robot 3.  The first call loads it from disk, or starts building it in the
+	 * background.  It assumes the base is not tilted.
+	 * @return the map of where the finger can reach.
+	 */
+	public ReachabilityMap getReachabilityMap() {
+		synchronized(DeltaRobot3.class) {
+			if(reachabilityMap==null) {
+				reachabilityMap = new ReachabilityMap(-25,-25,-5,25,25,45,0.5f);
+				reachabilityMap.loadOrBuildInBackground(REACHABILITY_MAP_FILE, new DeltaRobot3ReachabilityProbe(this));
+			}
+			return reachabilityMap;
+		}
+	}
+
+
 	public boolean checkAngleLimits(DeltaRobot3Keyframe keyframe) {
 		// machine specific limits
 		/*
@@ -878,4 +833,40 @@ extends Robot {
 		 */	
 		return true;
 	}
+
+
+	@Override
+	public RobotKeyframe createKeyframe() {
+		DeltaRobot3Keyframe keyframe = new DeltaRobot3Keyframe();
+		keyframe.set(motionNow);
+		return keyframe;
+	}
+
+
+	/**
+	 * Delta robot keyframes are described by their three bicep angles, in degrees.
+	 */
+	@Override
+	public int getKeyframeSize() {
+		return 3;
+	}
+
+
+	@Override
+	public void getKeyframeValues(RobotKeyframe arg0,double [] values) {
+		DeltaRobot3Keyframe keyframe = (DeltaRobot3Keyframe)arg0;
+		values[0]=keyframe.arms[0].angle;
+		values[1]=keyframe.arms[1].angle;
+		values[2]=keyframe.arms[2].angle;
+	}
+
+
+	@Override
+	public void setKeyframeValues(RobotKeyframe arg0,double [] values) {
+		DeltaRobot3Keyframe keyframe = (DeltaRobot3Keyframe)arg0;
+		keyframe.arms[0].angle=(float)values[0];
+		keyframe.arms[1].angle=(float)values[1];
+		keyframe.arms[2].angle=(float)values[2];
+		updateFK(keyframe);
+	}
 }
@@ -0,0 +1,283 @@
+package com.marginallyclever.robotOverlord.deltaRobot3;
+
+import javax.vecmath.Vector3f;
+
+/**
+ * Inverse and forward kinematics for the {@link DeltaRobot3}, with the base level (not panned or tilted).
+ * <p>
+ * Everything that depends only on the dimensions of the robot - the direction of each arm, the shoulder positions,
+ * the wrist offsets - is worked out once in the constructor.  After that no method allocates memory or throws.
+ * Each solve returns one of the STATUS_* codes.  The batch methods solve many targets over primitive arrays, for
+ * sampling trajectories and sweeping the work envelope.
+ * <p>
+ * Angles are in degrees, using the same convention as {@link DeltaRobot3Arm#angle}.  An instance is not thread safe.
+ */
+public class DeltaRobot3Kinematics {
+	public static final int STATUS_OK = 0;
+	/** a wrist is further from the plane of its bicep than the forearm is long. */
+	public static final int STATUS_FOREARM_TOO_SHORT = 1;
+	/** a wrist is too near or too far from its shoulder for the bicep and forearm to meet. */
+	public static final int STATUS_NO_ELBOW = 2;
+	/** the three forearms can't meet at one point. */
+	public static final int STATUS_NO_FINGER = 3;
+
+	protected static final int NUM_ARMS = DeltaRobot3.NUM_ARMS;
+	protected static final double BICEP = DeltaRobot3.BICEP_LENGTH;
+	protected static final double FOREARM = DeltaRobot3.FOREARM_LENGTH;
+
+	// per arm, relative to the base: the bicep turns around (axisX,axisY,0) and swings out along (outX,outY,0).
+	protected double [] axisX = new double[NUM_ARMS];
+	protected double [] axisY = new double[NUM_ARMS];
+	protected double [] outX = new double[NUM_ARMS];
+	protected double [] outY = new double[NUM_ARMS];
+	// shoulder relative to the base, 3 per arm
+	protected double [] shoulderOffset = new double[NUM_ARMS*3];
+	// wrist relative to the finger, 3 per arm
+	protected double [] wristOffset = new double[NUM_ARMS*3];
+
+	protected double baseX, baseY, baseZ;
+
+	// results of the last single solve, 3 per arm
+	protected double [] angle = new double[NUM_ARMS];
+	protected double [] elbow = new double[NUM_ARMS*3];
+	protected double [] wrist = new double[NUM_ARMS*3];
+	protected double fingerX, fingerY, fingerZ;
+
+
+	public DeltaRobot3Kinematics() {
+		for(int i=0;i<NUM_ARMS;++i) {
+			double theta = Math.PI*2.0 * (i/3.0 - 60.0/360.0);
+			double c = Math.cos(theta);
+			double s = Math.sin(theta);
+			// same frame as DeltaRobot3.rebuildShoulders() with a level base: n1=(c,s,0), o1=(-s,c,0)
+			axisX[i] = c;
+			axisY[i] = s;
+			outX[i] = s;
+			outY[i] = -c;
+
+			int j=i*3;
+			shoulderOffset[j  ] = c*DeltaRobot3.BASE_TO_SHOULDER_X + s*DeltaRobot3.BASE_TO_SHOULDER_Y;
+			shoulderOffset[j+1] = s*DeltaRobot3.BASE_TO_SHOULDER_X - c*DeltaRobot3.BASE_TO_SHOULDER_Y;
+			shoulderOffset[j+2] = DeltaRobot3.BASE_TO_SHOULDER_Z;
+
+			wristOffset[j  ] = c*DeltaRobot3.WRIST_TO_FINGER_X + s*DeltaRobot3.WRIST_TO_FINGER_Y;
+			wristOffset[j+1] = s*DeltaRobot3.WRIST_TO_FINGER_X - c*DeltaRobot3.WRIST_TO_FINGER_Y;
+			wristOffset[j+2] = DeltaRobot3.WRIST_TO_FINGER_Z;
+		}
+	}
+
+
+	/**
+	 * Move the base of the robot.  Finger positions are in the same frame as the base.
+	 */
+	public void setBase(double x,double y,double z) {
+		baseX = x;
+		baseY = y;
+		baseZ = z;
+	}
+
+
+	/**
+	 * Find the bicep angles that put the finger at (x,y,z).  On success the angles, elbows, and wrists can be read
+	 * with {@link #getAngle}, {@link #getElbow}, and {@link #getWrist}.
+	 * @return one of the STATUS_* codes.
+	 */
+	public int inverseKinematics(double x,double y,double z) {
+		for(int i=0;i<NUM_ARMS;++i) {
+			int j=i*3;
+			double sx = baseX + shoulderOffset[j  ];
+			double sy = baseY + shoulderOffset[j+1];
+			double sz = baseZ + shoulderOffset[j+2];
+			double wx = x + wristOffset[j  ];
+			double wy = y + wristOffset[j+1];
+			double wz = z + wristOffset[j+2];
+			wrist[j  ] = wx;
+			wrist[j+1] = wy;
+			wrist[j+2] = wz;
+
+			// shoulder to wrist, split into the part along the bicep axis and the part in the plane of the bicep
+			double dx = wx-sx;
+			double dy = wy-sy;
+			double dz = wz-sz;
+			double a = dx*axisX[i] + dy*axisY[i];
+			double p = dx*outX[i] + dy*outY[i];
+			double q = dz;
+
+			// the forearm, projected onto the plane of the bicep
+			double bb = FOREARM*FOREARM - a*a;
+			if(bb<0) return STATUS_FOREARM_TOO_SHORT;
+
+			// intersection of circles in the plane of the bicep
+			double dd = p*p + q*q;
+			if(dd==0) return STATUS_NO_ELBOW;
+			double d = Math.sqrt(dd);
+			double m = (BICEP*BICEP - bb + dd) / (2.0*d);
+			double hh = BICEP*BICEP - m*m;
+			if(hh<0) return STATUS_NO_ELBOW;
+			double h = Math.sqrt(hh);
+
+			double ex = (m*p - h*q)/d;
+			double ez = (m*q + h*p)/d;
+			elbow[j  ] = sx + ex*outX[i];
+			elbow[j+1] = sy + ex*outY[i];
+			elbow[j+2] = sz + ez;
+			angle[i] = Math.toDegrees(Math.atan2(ez,ex));
+		}
+		fingerX = x;
+		fingerY = y;
+		fingerZ = z;
+		return STATUS_OK;
+	}
+
+
+	/**
+	 * Find where the finger is for the given bicep angles.  The forearms meet in two places, mirrored across the
+	 * plane of the elbows.  The one below that plane is used, which is the real pose everywhere except close to the
+	 * rim of the work envelope.  On success the finger, elbows, and wrists can be read with {@link #getFinger},
+	 * {@link #getElbow}, and {@link #getWrist}.
+	 * @return one of the STATUS_* codes.
+	 */
+	public int forwardKinematics(double angle0,double angle1,double angle2) {
+		angle[0] = angle0;
+		angle[1] = angle1;
+		angle[2] = angle2;
+
+		// each finger is FOREARM away from (elbow - wrist offset).  find those three sphere centers.
+		for(int i=0;i<NUM_ARMS;++i) {
+			int j=i*3;
+			double r = Math.toRadians(angle[i]);
+			double ex = Math.cos(r)*BICEP;
+			double ez = Math.sin(r)*BICEP;
+			elbow[j  ] = baseX + shoulderOffset[j  ] + ex*outX[i];
+			elbow[j+1] = baseY + shoulderOffset[j+1] + ex*outY[i];
+			elbow[j+2] = baseZ + shoulderOffset[j+2] + ez;
+			wrist[j  ] = elbow[j  ] - wristOffset[j  ];
+			wrist[j+1] = elbow[j+1] - wristOffset[j+1];
+			wrist[j+2] = elbow[j+2] - wristOffset[j+2];
+		}
+
+		// trilateration.  c0,c1,c2 are in wrist[].  build a frame with c0 at the origin and c1 on the X axis.
+		double c0x=wrist[0], c0y=wrist[1], c0z=wrist[2];
+		double v1x=wrist[3]-c0x, v1y=wrist[4]-c0y, v1z=wrist[5]-c0z;
+		double v2x=wrist[6]-c0x, v2y=wrist[7]-c0y, v2z=wrist[8]-c0z;
+
+		double d = Math.sqrt(v1x*v1x+v1y*v1y+v1z*v1z);
+		if(d==0) return STATUS_NO_FINGER;
+		double exx=v1x/d, exy=v1y/d, exz=v1z/d;
+		double i = exx*v2x + exy*v2y + exz*v2z;
+		double eyx=v2x-i*exx, eyy=v2y-i*exy, eyz=v2z-i*exz;
+		double j = Math.sqrt(eyx*eyx+eyy*eyy+eyz*eyz);
+		if(j==0) return STATUS_NO_FINGER;
+		eyx/=j;
+		eyy/=j;
+		eyz/=j;
+		double ezx = exy*eyz - exz*eyy;
+		double ezy = exz*eyx - exx*eyz;
+		double ezz = exx*eyy - exy*eyx;
+
+		// all three spheres have the same radius
+		double fx = d/2.0;
+		double fy = (i*i + j*j - 2.0*i*fx) / (2.0*j);
+		double ff = FOREARM*FOREARM - fx*fx - fy*fy;
+		if(ff<0) return STATUS_NO_FINGER;
+		double fz = Math.sqrt(ff);
+		// take the solution below the plane of the elbows
+		if(ezz>0) fz=-fz;
+
+		double wx = c0x + fx*exx + fy*eyx + fz*ezx;
+		double wy = c0y + fx*exy + fy*eyy + fz*ezy;
+		double wz = c0z + fx*exz + fy*eyz + fz*ezz;
+
+		// the spheres were centered on (elbow - wrist offset), so this is the finger.
+		fingerX = wx;
+		fingerY = wy;
+		fingerZ = wz;
+		for(int k=0;k<NUM_ARMS;++k) {
+			int m=k*3;
+			wrist[m  ] = wx + wristOffset[m  ];
+			wrist[m+1] = wy + wristOffset[m+1];
+			wrist[m+2] = wz + wristOffset[m+2];
+		}
+		return STATUS_OK;
+	}
+
+
+	/**
+	 * Solve inverse kinematics for many finger positions at once.
+	 * @param positions x,y,z of each finger position
+	 * @param count number of positions
+	 * @param angles receives three bicep angles per position.  Untouched where the solve failed.
+	 * @param status receives one STATUS_* code per position.  May be null.
+	 * @return the number of positions that were solved.
+	 */
+	public int inverseKinematics(double [] positions,int count,double [] angles,int [] status) {
+		int solved=0;
+		for(int n=0;n<count;++n) {
+			int j=n*3;
+			int s = inverseKinematics(positions[j],positions[j+1],positions[j+2]);
+			if(s==STATUS_OK) {
+				angles[j  ] = angle[0];
+				angles[j+1] = angle[1];
+				angles[j+2] = angle[2];
+				solved++;
+			}
+			if(status!=null) status[n]=s;
+		}
+		return solved;
+	}
+
+
+	/**
+	 * Solve forward kinematics for many sets of bicep angles at once.
+	 * @param angles three bicep angles per pose
+	 * @param count number of poses
+	 * @param positions receives x,y,z of the finger per pose.  Untouched where the solve failed.
+	 * @param status receives one STATUS_* code per pose.  May be null.
+	 * @return the number of poses that were solved.
+	 */
+	public int forwardKinematics(double [] angles,int count,double [] positions,int [] status) {
+		int solved=0;
+		for(int n=0;n<count;++n) {
+			int j=n*3;
+			int s = forwardKinematics(angles[j],angles[j+1],angles[j+2]);
+			if(s==STATUS_OK) {
+				positions[j  ] = fingerX;
+				positions[j+1] = fingerY;
+				positions[j+2] = fingerZ;
+				solved++;
+			}
+			if(status!=null) status[n]=s;
+		}
+		return solved;
+	}
+
+
+	/**
+	 * @return the angle of one bicep, in degrees, from the last single solve.
+	 */
+	public double getAngle(int arm) {
+		return angle[arm];
+	}
+
+	public void getFinger(Vector3f out) {
+		out.set((float)fingerX,(float)fingerY,(float)fingerZ);
+	}
+
+	public void getElbow(int arm,Vector3f out) {
+		int j=arm*3;
+		out.set((float)elbow[j],(float)elbow[j+1],(float)elbow[j+2]);
+	}
+
+	public void getWrist(int arm,Vector3f out) {
+		int j=arm*3;
+		out.set((float)wrist[j],(float)wrist[j+1],(float)wrist[j+2]);
+	}
+
+	/**
+	 * @param out receives the wrist of one arm relative to the finger.
+	 */
+	public void getWristOffset(int arm,Vector3f out) {
+		int j=arm*3;
+		out.set((float)wristOffset[j],(float)wristOffset[j+1],(float)wristOffset[j+2]);
+	}
+}
@@ -0,0 +1,34 @@
+package com.marginallyclever.robotOverlord.deltaRobot3;
+
+import com.marginallyclever.robotOverlord.kinematics.ReachabilityProbe;
+
+/**
+ * Same test as {@link DeltaRobot3#movePermitted} with the base at the origin.  Uses kinematics of its own so it can
+ * run on the map building thread.
+ */
+class DeltaRobot3ReachabilityProbe implements ReachabilityProbe {
+	protected DeltaRobot3 robot;
+	protected DeltaRobot3Kinematics kinematics = new DeltaRobot3Kinematics();
+	protected DeltaRobot3Keyframe keyframe = new DeltaRobot3Keyframe();
+
+
+	DeltaRobot3ReachabilityProbe(DeltaRobot3 robot) {
+		this.robot = robot;
+	}
+
+
+	@Override
+	public boolean canReach(float x, float y, float z, float fx, float fy, float fz) {
+		if(kinematics.inverseKinematics(x,y,z)!=DeltaRobot3Kinematics.STATUS_OK) return false;
+		for(int i=0;i<DeltaRobot3.NUM_ARMS;++i) {
+			keyframe.arms[i].angle = (float)kinematics.getAngle(i);
+		}
+		return robot.checkAngleLimits(keyframe);
+	}
+
+
+	@Override
+	public boolean isOrientable() {
+		return false;
+	}
+}
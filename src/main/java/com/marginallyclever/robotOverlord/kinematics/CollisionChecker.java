@@ -0,0 +1,18 @@
+package com.marginallyclever.robotOverlord.kinematics;
+
+/**
+ * Decides if a robot can be at a set of joint values without touching anything, for a {@link MotionPlanner}.
+ */
+public interface CollisionChecker {
+	/**
+	 * @param q the joint values
+	 * @return true if the robot does not touch anything at q.
+	 */
+	public boolean isFree(double [] q);
+
+	/**
+	 * Planners check many poses at once on several threads.  Each thread gets its own copy.
+	 * @return a checker that gives the same answers and does not share any scratch space with this one.
+	 */
+	public CollisionChecker copy();
+}
@@ -0,0 +1,226 @@
+package com.marginallyclever.robotOverlord.kinematics;
+
+/**
+ * Numerical inverse kinematics for any {@link KinematicChain}.
+ * <p>
+ * Each iteration builds the 6xN geometric Jacobian J of the chain and takes the damped least squares step
+ * <code>dq = J' (J J' + lambda^2 I)^-1 e</code>, where e is the position error and the (weighted) orientation error.
+ * The damping keeps the step bounded near singularities, where closed form solutions usually give up.
+ * <p>
+ * The solver starts from the joint values it is given (normally the current state of the robot), clamps every
+ * step to the joint limits, and stops after a fixed number of iterations.  All scratch space is allocated once.
+ * An instance is not thread safe.
+ */
+public class DampedLeastSquaresSolver {
+	protected KinematicChain chain;
+	protected int n;
+
+	// tuning
+	protected int maxIterations = 100;
+	protected double damping = 0.05;
+	protected double positionTolerance = 0.01;
+	protected double orientationTolerance = 0.001;
+	// length units per radian.  Makes position and orientation errors comparable.
+	protected double orientationWeight = 10;
+	// largest change to any joint in one iteration
+	protected double maxStep = 10;
+
+	// results of the last solve
+	protected int iterations;
+	protected double positionError;
+	protected double orientationError;
+
+	// scratch
+	protected double [] pose = new double[KinematicChain.POSE_SIZE];
+	protected double [] error = new double[6];
+	protected double [] jacobian;  // 6 rows of n
+	protected double [] system = new double[36];
+	protected double [] y = new double[6];
+	protected double [] step;
+	protected double [] origin = new double[3];
+	protected double [] axis = new double[3];
+
+
+	public DampedLeastSquaresSolver(KinematicChain chain) {
+		this.chain = chain;
+		n = chain.getNumJoints();
+		jacobian = new double[6*n];
+		step = new double[n];
+	}
+
+
+	public void setMaxIterations(int arg0) {		maxIterations = arg0;	}
+	public int getMaxIterations() {		return maxIterations;	}
+	public void setDamping(double arg0) {		damping = arg0;	}
+	public double getDamping() {		return damping;	}
+	public void setPositionTolerance(double arg0) {		positionTolerance = arg0;	}
+	public double getPositionTolerance() {		return positionTolerance;	}
+	public void setOrientationTolerance(double arg0) {		orientationTolerance = arg0;	}
+	public double getOrientationTolerance() {		return orientationTolerance;	}
+	/**
+	 * @param arg0 length units per radian of orientation error.  Zero means solve for position only.
+	 */
+	public void setOrientationWeight(double arg0) {		orientationWeight = arg0;	}
+	public double getOrientationWeight() {		return orientationWeight;	}
+	public void setMaxStep(double arg0) {		maxStep = arg0;	}
+	public double getMaxStep() {		return maxStep;	}
+
+	/**
+	 * @return number of iterations used by the last call to solve()
+	 */
+	public int getIterations() {		return iterations;	}
+	/**
+	 * @return distance from the tool tip to the target after the last call to solve()
+	 */
+	public double getPositionError() {		return positionError;	}
+	/**
+	 * @return orientation error (roughly radians) after the last call to solve()
+	 */
+	public double getOrientationError() {		return orientationError;	}
+
+
+	/**
+	 * Move the tool tip of the chain to the target pose.
+	 * @param q the starting joint values.  On success, the solution.  On failure, the closest values found.
+	 * @param target the desired pose (X axis, Y axis, Z axis, position) in the base frame of the chain.
+	 * @return true if the target was reached within tolerance and the joint limits.
+	 */
+	public boolean solve(double [] q,double [] target) {
+		chain.clampToLimits(q);
+
+		for(iterations=0;iterations<maxIterations;++iterations) {
+			chain.forwardKinematics(q, pose);
+			measureError(target);
+			if(isConverged()) return true;
+
+			buildJacobian();
+			if(!findStep()) return false;
+
+			// apply the step, scaled down if any one joint would move too far
+			double largest=0;
+			for(int i=0;i<n;++i) {
+				largest = Math.max(largest,Math.abs(step[i]));
+			}
+			double s = (largest>maxStep) ? maxStep/largest : 1;
+			for(int i=0;i<n;++i) {
+				q[i] += step[i]*s;
+			}
+			chain.clampToLimits(q);
+		}
+
+		chain.forwardKinematics(q, pose);
+		measureError(target);
+		return isConverged();
+	}
+
+
+	protected boolean isConverged() {
+		return positionError<=positionTolerance
+			&& (orientationWeight==0 || orientationError<=orientationTolerance);
+	}
+
+
+	// position error in rows 0-2, orientation error in rows 3-5.
+	protected void measureError(double [] target) {
+		error[0] = target[ 9]-pose[ 9];
+		error[1] = target[10]-pose[10];
+		error[2] = target[11]-pose[11];
+		positionError = Math.sqrt(error[0]*error[0]+error[1]*error[1]+error[2]*error[2]);
+
+		// 0.5 * sum( current axis x target axis )
+		double ex=0,ey=0,ez=0;
+		for(int k=0;k<9;k+=3) {
+			double ax=pose[k],ay=pose[k+1],az=pose[k+2];
+			double bx=target[k],by=target[k+1],bz=target[k+2];
+			ex += ay*bz - az*by;
+			ey += az*bx - ax*bz;
+			ez += ax*by - ay*bx;
+		}
+		ex*=0.5;
+		ey*=0.5;
+		ez*=0.5;
+		orientationError = Math.sqrt(ex*ex+ey*ey+ez*ez);
+		error[3] = ex*orientationWeight;
+		error[4] = ey*orientationWeight;
+		error[5] = ez*orientationWeight;
+	}
+
+
+	// uses the joint origins and axes remembered by the last forwardKinematics()
+	protected void buildJacobian() {
+		double px=pose[9], py=pose[10], pz=pose[11];
+		for(int i=0;i<n;++i) {
+			chain.getJointOrigin(i, origin);
+			chain.getJointAxis(i, axis);
+			double k = chain.getRadiansPerUnit(i);
+			double dx=px-origin[0];
+			double dy=py-origin[1];
+			double dz=pz-origin[2];
+			// linear velocity = axis x (tip - origin)
+			jacobian[0*n+i] = (axis[1]*dz - axis[2]*dy)*k;
+			jacobian[1*n+i] = (axis[2]*dx - axis[0]*dz)*k;
+			jacobian[2*n+i] = (axis[0]*dy - axis[1]*dx)*k;
+			// angular velocity = axis
+			double w = k*orientationWeight;
+			jacobian[3*n+i] = axis[0]*w;
+			jacobian[4*n+i] = axis[1]*w;
+			jacobian[5*n+i] = axis[2]*w;
+		}
+	}
+
+
+	/**
+	 * solve (J J' + lambda^2 I) y = e with a Cholesky decomposition, then step = J' y.
+	 * @return false if the system could not be solved.
+	 */
+	protected boolean findStep() {
+		double lambda2 = damping*damping;
+		for(int r=0;r<6;++r) {
+			for(int c=0;c<=r;++c) {
+				double sum=0;
+				for(int i=0;i<n;++i) {
+					sum += jacobian[r*n+i]*jacobian[c*n+i];
+				}
+				if(r==c) sum+=lambda2;
+				system[r*6+c]=sum;
+			}
+		}
+
+		// in place Cholesky, lower triangle
+		for(int r=0;r<6;++r) {
+			for(int c=0;c<=r;++c) {
+				double sum=system[r*6+c];
+				for(int k=0;k<c;++k) {
+					sum -= system[r*6+k]*system[c*6+k];
+				}
+				if(r==c) {
+					if(sum<=0) return false;
+					system[r*6+r]=Math.sqrt(sum);
+				} else {
+					system[r*6+c]=sum/system[c*6+c];
+				}
+			}
+		}
+		// forward substitution L z = e
+		for(int r=0;r<6;++r) {
+			double sum=error[r];
+			for(int k=0;k<r;++k) sum -= system[r*6+k]*y[k];
+			y[r]=sum/system[r*6+r];
+		}
+		// back substitution L' y = z
+		for(int r=5;r>=0;--r) {
+			double sum=y[r];
+			for(int k=r+1;k<6;++k) sum -= system[k*6+r]*y[k];
+			y[r]=sum/system[r*6+r];
+		}
+
+		for(int i=0;i<n;++i) {
+			double sum=0;
+			for(int r=0;r<6;++r) {
+				sum += jacobian[r*n+i]*y[r];
+			}
+			step[i]=sum;
+		}
+		return true;
+	}
+}
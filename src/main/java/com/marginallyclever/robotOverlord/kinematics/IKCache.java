@@ -0,0 +1,272 @@
+package com.marginallyclever.robotOverlord.kinematics;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers inverse kinematics solutions, so a target the robot has been sent to before is not solved again.
+ * <p>
+ * Targets are poses laid out as in {@link KinematicChain} (X axis, Y axis, Z axis, position) plus the offset of the
+ * tool.  Every value is rounded to a small step, and targets that round the same are the same target.  A hit
+ * copies the stored values straight out.  A miss can still ask for a seed: the solution of some target in the same,
+ * much coarser, cell.  That is a good place for an iterative solver to start.
+ * <p>
+ * The cache holds at most a fixed number of solutions and forgets the least recently used.  What the values mean
+ * is up to the robot.  Call {@link #invalidate()} whenever something changes that the key doesn't describe, like
+ * the tool or the base of the robot.  Lookups make no garbage.  Thread safe.
+ */
+public class IKCache {
+	public static final int KEY_SIZE = KinematicChain.POSE_SIZE+3;
+
+	protected static class Key {
+		long [] cell = new long[KEY_SIZE];
+		int hash;
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof Key)) return false;
+			Key other = (Key)obj;
+			return hash==other.hash && Arrays.equals(cell,other.cell);
+		}
+
+		Key copy() {
+			Key k = new Key();
+			System.arraycopy(cell,0,k.cell,0,KEY_SIZE);
+			k.hash = hash;
+			return k;
+		}
+	}
+
+	protected int valueCount;
+	protected int capacity;
+	protected double positionStep = 0.001;
+	protected double orientationStep = 0.0001;
+	protected double seedPositionStep = 1;
+	protected double seedOrientationStep = 0.25;
+
+	protected LinkedHashMap<Key,double[]> solutions;
+	protected LinkedHashMap<Key,double[]> seeds;
+	// reused for every lookup
+	protected Key probe = new Key();
+
+	// metrics
+	protected long hitCount;
+	protected long missCount;
+	protected long rejectedCount;
+	protected long seedCount;
+	protected long evictionCount;
+	protected long invalidationCount;
+
+
+	/**
+	 * @param valueCount values stored per solution
+	 * @param capacity most solutions kept
+	 */
+	public IKCache(int valueCount,int capacity) {
+		this.valueCount = valueCount;
+		this.capacity = capacity;
+		solutions = new LinkedHashMap<Key,double[]>(capacity*4/3+1,0.75f,true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key,double[]> eldest) {
+				if(size()<=IKCache.this.capacity) return false;
+				evictionCount++;
+				return true;
+			}
+		};
+		seeds = new LinkedHashMap<Key,double[]>(capacity*4/3+1,0.75f,true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key,double[]> eldest) {
+				return size()>IKCache.this.capacity;
+			}
+		};
+	}
+
+
+	/**
+	 * Targets closer than this in position are the same target.  Clears the cache.
+	 */
+	public synchronized void setPositionStep(double arg0) {		positionStep = arg0;	clear();	}
+	public synchronized double getPositionStep() {		return positionStep;	}
+	/**
+	 * Targets closer than this in every axis component are the same target.  Clears the cache.
+	 */
+	public synchronized void setOrientationStep(double arg0) {		orientationStep = arg0;	clear();	}
+	public synchronized double getOrientationStep() {		return orientationStep;	}
+	/**
+	 * Size of the cells that share a seed.  Clears the cache.
+	 */
+	public synchronized void setSeedSteps(double position,double orientation) {
+		seedPositionStep = position;
+		seedOrientationStep = orientation;
+		clear();
+	}
+
+
+	/**
+	 * Fill the probe with the target rounded to the given steps.
+	 */
+	protected void quantise(double [] pose,double [] tool,double position,double orientation) {
+		long [] c = probe.cell;
+		int h = 1;
+		for(int i=0;i<KEY_SIZE;++i) {
+			double v;
+			double step;
+			if(i<9) {
+				v = pose[i];
+				step = orientation;
+			} else if(i<KinematicChain.POSE_SIZE) {
+				v = pose[i];
+				step = position;
+			} else {
+				v = (tool==null) ? 0 : tool[i-KinematicChain.POSE_SIZE];
+				step = position;
+			}
+			c[i] = Math.round(v/step);
+			h = 31*h + (int)(c[i] ^ (c[i]>>>32));
+		}
+		probe.hash = h;
+	}
+
+
+	/**
+	 * @param pose the target
+	 * @param tool offset of the tool, 3 values, or null for none
+	 * @param values receives the solution on a hit
+	 * @return true on a hit
+	 */
+	public synchronized boolean get(double [] pose,double [] tool,double [] values) {
+		quantise(pose,tool,positionStep,orientationStep);
+		double [] found = solutions.get(probe);
+		if(found==null) {
+			missCount++;
+			return false;
+		}
+		hitCount++;
+		System.arraycopy(found,0,values,0,valueCount);
+		return true;
+	}
+
+
+	/**
+	 * Undo the last hit, because the robot can't use it.  The caller solves and calls {@link #put} as for a miss.
+	 */
+	public synchronized void reject() {
+		hitCount--;
+		missCount++;
+		rejectedCount++;
+	}
+
+
+	/**
+	 * @param pose the target
+	 * @param tool offset of the tool, 3 values, or null for none
+	 * @param values receives the solution of a nearby target, if any
+	 * @return true if a seed was found
+	 */
+	public synchronized boolean getSeed(double [] pose,double [] tool,double [] values) {
+		quantise(pose,tool,seedPositionStep,seedOrientationStep);
+		double [] found = seeds.get(probe);
+		if(found==null) return false;
+		seedCount++;
+		System.arraycopy(found,0,values,0,valueCount);
+		return true;
+	}
+
+
+	/**
+	 * Remember a solution.
+	 * @param pose the target
+	 * @param tool offset of the tool, 3 values, or null for none
+	 * @param values the solution
+	 */
+	public synchronized void put(double [] pose,double [] tool,double [] values) {
+		double [] stored = Arrays.copyOf(values,valueCount);
+		quantise(pose,tool,positionStep,orientationStep);
+		solutions.put(probe.copy(),stored);
+		quantise(pose,tool,seedPositionStep,seedOrientationStep);
+		seeds.put(probe.copy(),stored);
+	}
+
+
+	/**
+	 * Forget every solution, because the robot changed in a way the key doesn't describe.
+	 */
+	public synchronized void invalidate() {
+		clear();
+		invalidationCount++;
+	}
+
+
+	protected void clear() {
+		solutions.clear();
+		seeds.clear();
+	}
+
+
+	public synchronized int size() {
+		return solutions.size();
+	}
+
+
+	public synchronized int getCapacity() {
+		return capacity;
+	}
+
+
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+
+	/**
+	 * @return hits the robot couldn't use, counted as misses
+	 */
+	public synchronized long getRejectedCount() {
+		return rejectedCount;
+	}
+
+
+	/**
+	 * @return misses that found a seed
+	 */
+	public synchronized long getSeedCount() {
+		return seedCount;
+	}
+
+
+	/**
+	 * @return solutions forgotten to make room
+	 */
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+
+	public synchronized long getInvalidationCount() {
+		return invalidationCount;
+	}
+
+
+	/**
+	 * @return hits over lookups, or 0 before the first lookup
+	 */
+	public synchronized double getHitRate() {
+		long total = hitCount+missCount;
+		return total==0 ? 0 : (double)hitCount/(double)total;
+	}
+}
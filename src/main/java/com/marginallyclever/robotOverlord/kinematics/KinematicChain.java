@@ -0,0 +1,233 @@
+package com.marginallyclever.robotOverlord.kinematics;
+
+/**
+ * A serial chain of revolute joints.  Each joint is a fixed translation in the frame of the previous link
+ * followed by a rotation around one of the local axes.  A final fixed translation reaches the tool tip.
+ * <p>
+ * Joint values are in the robot's own units (degrees, as stored in the keyframes).  The angle actually turned
+ * by joint i is <code>scale[i]*q[i]+zero[i]</code> degrees, which lets the chain match the sign conventions of
+ * each robot without touching the firmware numbers.
+ * <p>
+ * Poses are stored as 12 doubles: X axis, Y axis, Z axis, then position.  All work is done in preallocated
+ * arrays so that the chain can be evaluated many times per frame without creating garbage.
+ */
+public class KinematicChain {
+	public static final int AXIS_X = 0;
+	public static final int AXIS_Y = 1;
+	public static final int AXIS_Z = 2;
+
+	public static final int POSE_SIZE = 12;
+
+	protected int numJoints;
+
+	// joint description
+	protected int [] axis;
+	protected double [] tx, ty, tz;
+	protected double [] scale;
+	protected double [] zero;
+	protected double [] min;
+	protected double [] max;
+
+	// tool tip relative to the last link
+	protected double toolX, toolY, toolZ;
+
+	// results of the last call to forwardKinematics(), in the base frame of the robot
+	protected double [] jointOrigin;  // 3 per joint
+	protected double [] jointAxis;  // 3 per joint
+	protected double [] frame = new double[POSE_SIZE];
+
+
+	public KinematicChain(int numJoints) {
+		this.numJoints = numJoints;
+		axis = new int[numJoints];
+		tx = new double[numJoints];
+		ty = new double[numJoints];
+		tz = new double[numJoints];
+		scale = new double[numJoints];
+		zero = new double[numJoints];
+		min = new double[numJoints];
+		max = new double[numJoints];
+		jointOrigin = new double[numJoints*3];
+		jointAxis = new double[numJoints*3];
+
+		for(int i=0;i<numJoints;++i) {
+			axis[i]=AXIS_Z;
+			scale[i]=1;
+			min[i]=-Double.MAX_VALUE;
+			max[i]= Double.MAX_VALUE;
+		}
+	}
+
+
+	/**
+	 * Make an independent copy of another chain, for use on another thread.
+	 */
+	public KinematicChain(KinematicChain other) {
+		this(other.numJoints);
+		for(int i=0;i<numJoints;++i) {
+			setJoint(i,other.axis[i],other.tx[i],other.ty[i],other.tz[i],other.scale[i],other.zero[i],other.min[i],other.max[i]);
+		}
+		setTool(other.toolX,other.toolY,other.toolZ);
+	}
+
+
+	/**
+	 * describe one joint of the chain.
+	 * @param index which joint, starting at the base
+	 * @param rotationAxis one of AXIS_X, AXIS_Y, or AXIS_Z
+	 * @param x translation from the previous joint, in the frame of the previous link
+	 * @param y translation from the previous joint, in the frame of the previous link
+	 * @param z translation from the previous joint, in the frame of the previous link
+	 * @param jointScale multiplier from joint value to degrees turned.  Usually 1 or -1.
+	 * @param jointZero degrees turned when the joint value is zero.
+	 * @param jointMin smallest permitted joint value
+	 * @param jointMax largest permitted joint value
+	 */
+	public void setJoint(int index,int rotationAxis,double x,double y,double z,double jointScale,double jointZero,double jointMin,double jointMax) {
+		axis[index]=rotationAxis;
+		tx[index]=x;
+		ty[index]=y;
+		tz[index]=z;
+		scale[index]=jointScale;
+		zero[index]=jointZero;
+		min[index]=jointMin;
+		max[index]=jointMax;
+	}
+
+
+	/**
+	 * @param x tool tip relative to the last joint, in the frame of the last link
+	 * @param y tool tip relative to the last joint, in the frame of the last link
+	 * @param z tool tip relative to the last joint, in the frame of the last link
+	 */
+	public void setTool(double x,double y,double z) {
+		toolX=x;
+		toolY=y;
+		toolZ=z;
+	}
+
+
+	public int getNumJoints() {
+		return numJoints;
+	}
+
+	public double getMin(int index) {
+		return min[index];
+	}
+
+	public double getMax(int index) {
+		return max[index];
+	}
+
+	/**
+	 * @return radians turned per unit of joint value.
+	 */
+	public double getRadiansPerUnit(int index) {
+		return Math.toRadians(scale[index]);
+	}
+
+
+	/**
+	 * Clamp joint values to the limits of the chain.
+	 * @param q the joint values.  modified in place.
+	 * @return true if nothing had to be changed.
+	 */
+	public boolean clampToLimits(double [] q) {
+		boolean ok=true;
+		for(int i=0;i<numJoints;++i) {
+			if(q[i]<min[i]) { q[i]=min[i];  ok=false; }
+			if(q[i]>max[i]) { q[i]=max[i];  ok=false; }
+		}
+		return ok;
+	}
+
+
+	/**
+	 * @return true if all joint values are within the limits of the chain.
+	 */
+	public boolean isWithinLimits(double [] q) {
+		for(int i=0;i<numJoints;++i) {
+			if(q[i]<min[i] || q[i]>max[i]) return false;
+		}
+		return true;
+	}
+
+
+	/**
+	 * Find the pose of the tool tip.  Also remembers the origin and axis of every joint for {@link #getJointOrigin}
+	 * and {@link #getJointAxis}.
+	 * @param q the joint values
+	 * @param pose receives the tool pose (X axis, Y axis, Z axis, position).  May be null.
+	 */
+	public void forwardKinematics(double [] q,double [] pose) {
+		double [] f = frame;
+		f[0]=1;  f[1]=0;  f[ 2]=0;
+		f[3]=0;  f[4]=1;  f[ 5]=0;
+		f[6]=0;  f[7]=0;  f[ 8]=1;
+		f[9]=0;  f[10]=0; f[11]=0;
+
+		for(int i=0;i<numJoints;++i) {
+			translate(f,tx[i],ty[i],tz[i]);
+
+			int j=i*3;
+			jointOrigin[j  ]=f[ 9];
+			jointOrigin[j+1]=f[10];
+			jointOrigin[j+2]=f[11];
+			int a=axis[i]*3;
+			jointAxis[j  ]=f[a  ];
+			jointAxis[j+1]=f[a+1];
+			jointAxis[j+2]=f[a+2];
+
+			rotate(f,axis[i],Math.toRadians(scale[i]*q[i]+zero[i]));
+		}
+		translate(f,toolX,toolY,toolZ);
+
+		if(pose!=null) System.arraycopy(f, 0, pose, 0, POSE_SIZE);
+	}
+
+
+	/**
+	 * @param index which joint
+	 * @param out receives the origin of the joint from the last call to forwardKinematics()
+	 */
+	public void getJointOrigin(int index,double [] out) {
+		System.arraycopy(jointOrigin, index*3, out, 0, 3);
+	}
+
+
+	/**
+	 * @param index which joint
+	 * @param out receives the unit rotation axis of the joint from the last call to forwardKinematics()
+	 */
+	public void getJointAxis(int index,double [] out) {
+		System.arraycopy(jointAxis, index*3, out, 0, 3);
+	}
+
+
+	// move the frame origin by (x,y,z) in the frame's own coordinates
+	protected static void translate(double [] f,double x,double y,double z) {
+		f[ 9] += f[0]*x + f[3]*y + f[6]*z;
+		f[10] += f[1]*x + f[4]*y + f[7]*z;
+		f[11] += f[2]*x + f[5]*y + f[8]*z;
+	}
+
+
+	// turn the frame around one of its own axes
+	protected static void rotate(double [] f,int rotationAxis,double radians) {
+		double c = Math.cos(radians);
+		double s = Math.sin(radians);
+		// the two columns that change
+		int a,b;
+		switch(rotationAxis) {
+		case AXIS_X:  a=3;  b=6;  break;  // Y,Z
+		case AXIS_Y:  a=6;  b=0;  break;  // Z,X
+		default:      a=0;  b=3;  break;  // X,Y
+		}
+		for(int k=0;k<3;++k) {
+			double va = f[a+k];
+			double vb = f[b+k];
+			f[a+k] = va*c + vb*s;
+			f[b+k] = vb*c - va*s;
+		}
+	}
+}
@@ -0,0 +1,249 @@
+package com.marginallyclever.robotOverlord.kinematics;
+
+import javax.vecmath.Vector3f;
+
+import com.marginallyclever.robotOverlord.Cylinder;
+
+/**
+ * Collision test for a robot described by a {@link KinematicChain}.
+ * <p>
+ * Each link of the arm is a capsule - a line segment with a radius - from one joint to the next.  The first link
+ * runs from the origin of the chain to the first joint and the last from the last joint to the tool tip.  Obstacles
+ * are capsules too, the same shape as the {@link Cylinder} bounding volumes used by the robots, so the bounding
+ * volumes of other robots can be added directly.  Everything is in the frame of the chain, which is the base of the
+ * robot.
+ * <p>
+ * Links are not tested against each other.  Joint limits keep most arms out of themselves.
+ * No method allocates memory after construction.
+ */
+public class KinematicChainCollisionChecker implements CollisionChecker {
+	protected static final double EPSILON = 1e-12;
+
+	protected KinematicChain chain;
+	// one per link, numJoints+1 in all
+	protected double [] linkRadius;
+	protected double floorZ = -Double.MAX_VALUE;
+	protected double margin;
+
+	// x1,y1,z1,x2,y2,z2,radius per obstacle
+	protected double [] obstacles = new double[0];
+	protected int obstacleCount;
+
+	// scratch
+	protected double [] points;
+	protected double [] pose = new double[KinematicChain.POSE_SIZE];
+
+
+	/**
+	 * @param chain the arm.  Copied.
+	 * @param linkRadius radius of each link, starting at the base.  One more than the number of joints.
+	 */
+	public KinematicChainCollisionChecker(KinematicChain chain,double [] linkRadius) {
+		if(linkRadius.length!=chain.getNumJoints()+1) throw new IllegalArgumentException("need one radius per link.");
+		this.chain = new KinematicChain(chain);
+		this.linkRadius = linkRadius.clone();
+		points = new double[(chain.getNumJoints()+2)*3];
+	}
+
+
+	@Override
+	public CollisionChecker copy() {
+		KinematicChainCollisionChecker c = new KinematicChainCollisionChecker(chain,linkRadius);
+		c.floorZ = floorZ;
+		c.margin = margin;
+		c.obstacles = obstacles.clone();
+		c.obstacleCount = obstacleCount;
+		return c;
+	}
+
+
+	/**
+	 * @param z no part of the arm may go below this height.
+	 */
+	public void setFloor(double z) {
+		floorZ = z;
+	}
+
+
+	/**
+	 * Planners only check every so often along a move.  Between two checks a link can dip into an obstacle and out
+	 * again unseen.  A margin a little more than the furthest any link moves between checks makes up for it.
+	 * @param margin extra space kept around every link.
+	 */
+	public void setMargin(double margin) {
+		this.margin = margin;
+	}
+
+
+	public void addObstacle(double x1,double y1,double z1,double x2,double y2,double z2,double radius) {
+		if(obstacles.length<(obstacleCount+1)*7) {
+			double [] bigger = new double[Math.max(7*8,obstacles.length*2)];
+			System.arraycopy(obstacles,0,bigger,0,obstacleCount*7);
+			obstacles = bigger;
+		}
+		int j=obstacleCount*7;
+		obstacles[j  ]=x1;
+		obstacles[j+1]=y1;
+		obstacles[j+2]=z1;
+		obstacles[j+3]=x2;
+		obstacles[j+4]=y2;
+		obstacles[j+5]=z2;
+		obstacles[j+6]=radius;
+		obstacleCount++;
+	}
+
+
+	/**
+	 * @param c a bounding volume, in the frame of the chain.
+	 */
+	public void addObstacle(Cylinder c) {
+		Vector3f p1 = c.GetP1();
+		Vector3f p2 = c.GetP2();
+		addObstacle(p1.x,p1.y,p1.z,p2.x,p2.y,p2.z,c.getRadius());
+	}
+
+
+	public void addSphere(double x,double y,double z,double radius) {
+		addObstacle(x,y,z,x,y,z,radius);
+	}
+
+
+	public void clearObstacles() {
+		obstacleCount=0;
+	}
+
+
+	public int getObstacleCount() {
+		return obstacleCount;
+	}
+
+
+	/**
+	 * @return how many capsules describe the arm, one per link.
+	 */
+	public int getLinkCount() {
+		return linkRadius.length;
+	}
+
+
+	/**
+	 * Find the capsule around every link, the same ones {@link #isFree} tests.  Includes the margin.
+	 * @param q the joint values
+	 * @param capsules receives x1,y1,z1,x2,y2,z2,radius per link, in the frame of the chain.  At least
+	 * getLinkCount()*7 long.
+	 * @return the number of capsules written.
+	 */
+	public int getCapsules(double [] q,double [] capsules) {
+		updatePoints(q);
+		int n = linkRadius.length;
+		for(int i=0;i<n;++i) {
+			System.arraycopy(points,i*3,capsules,i*7,6);
+			capsules[i*7+6] = linkRadius[i]+margin;
+		}
+		return n;
+	}
+
+
+	@Override
+	public boolean isFree(double [] q) {
+		if(!chain.isWithinLimits(q)) return false;
+		updatePoints(q);
+		int n = chain.getNumJoints();
+
+		for(int i=0;i<=n;++i) {
+			int a=i*3;
+			int b=a+3;
+			double r = linkRadius[i]+margin;
+			// the base link sits on the floor.
+			if(i>0 && Math.min(points[a+2],points[b+2])-r<floorZ) return false;
+
+			for(int k=0;k<obstacleCount;++k) {
+				int o=k*7;
+				double reach = r+obstacles[o+6];
+				double dd = segmentDistanceSquared(
+						points[a],points[a+1],points[a+2],
+						points[b],points[b+1],points[b+2],
+						obstacles[o  ],obstacles[o+1],obstacles[o+2],
+						obstacles[o+3],obstacles[o+4],obstacles[o+5]);
+				if(dd<reach*reach) return false;
+			}
+		}
+		return true;
+	}
+
+
+	/**
+	 * Find the origin, every joint, and the tool tip.
+	 */
+	protected void updatePoints(double [] q) {
+		int n = chain.getNumJoints();
+		chain.forwardKinematics(q,pose);
+		points[0]=0;
+		points[1]=0;
+		points[2]=0;
+		for(int i=0;i<n;++i) {
+			int j=(i+1)*3;
+			points[j  ]=chain.jointOrigin[i*3  ];
+			points[j+1]=chain.jointOrigin[i*3+1];
+			points[j+2]=chain.jointOrigin[i*3+2];
+		}
+		int last=(n+1)*3;
+		points[last  ]=pose[ 9];
+		points[last+1]=pose[10];
+		points[last+2]=pose[11];
+	}
+
+
+	/**
+	 * Closest distance between segments p1-q1 and p2-q2.
+	 * See Ericson, "Real-Time Collision Detection", 5.1.9
+	 * @return the distance squared
+	 */
+	public static double segmentDistanceSquared(
+			double p1x,double p1y,double p1z,double q1x,double q1y,double q1z,
+			double p2x,double p2y,double p2z,double q2x,double q2y,double q2z) {
+		double d1x=q1x-p1x, d1y=q1y-p1y, d1z=q1z-p1z;
+		double d2x=q2x-p2x, d2y=q2y-p2y, d2z=q2z-p2z;
+		double rx=p1x-p2x, ry=p1y-p2y, rz=p1z-p2z;
+		double a = d1x*d1x+d1y*d1y+d1z*d1z;
+		double e = d2x*d2x+d2y*d2y+d2z*d2z;
+		double f = d2x*rx+d2y*ry+d2z*rz;
+		double s,t;
+
+		if(a<=EPSILON && e<=EPSILON) {
+			s=0;
+			t=0;
+		} else if(a<=EPSILON) {
+			s=0;
+			t=clamp(f/e);
+		} else {
+			double c = d1x*rx+d1y*ry+d1z*rz;
+			if(e<=EPSILON) {
+				t=0;
+				s=clamp(-c/a);
+			} else {
+				double b = d1x*d2x+d1y*d2y+d1z*d2z;
+				double denom = a*e-b*b;
+				s = (denom!=0) ? clamp((b*f-c*e)/denom) : 0;
+				t = (b*s+f)/e;
+				if(t<0) {
+					t=0;
+					s=clamp(-c/a);
+				} else if(t>1) {
+					t=1;
+					s=clamp((b-c)/a);
+				}
+			}
+		}
+
+		double dx = (p1x+d1x*s) - (p2x+d2x*t);
+		double dy = (p1y+d1y*s) - (p2y+d2y*t);
+		double dz = (p1z+d1z*s) - (p2z+d2z*t);
+		return dx*dx+dy*dy+dz*dz;
+	}
+
+
+	protected static double clamp(double v) {
+		return v<0 ? 0 : (v>1 ? 1 : v);
+	}
+}
@@ -0,0 +1,733 @@
+package com.marginallyclever.robotOverlord.kinematics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Finds a path in joint space from one set of joint values to another without touching anything.
+ * <p>
+ * The search is RRT-Connect: one tree grows from the start and one from the goal, taking turns, and every new
+ * branch of one tree tries to reach the other in a straight line.  Instead of one sample at a time each round
+ * draws a batch.  Sampling and edge checks, which is where all the time goes, are spread over a pool of threads.
+ * Growing the trees is done on the calling thread, between the parallel steps.  Each worker has its own copy of the
+ * {@link CollisionChecker} and its own random numbers, so for a given seed and thread count the result is the same
+ * every time.
+ * <p>
+ * The raw path is then shortened by cutting corners where a straight line is free, and smoothed by pulling each
+ * corner toward its neighbours.
+ * <p>
+ * Needs no display.  Call {@link #shutdown()} when done.
+ */
+public class MotionPlanner {
+	protected static final int PHASE_SAMPLE = 0;
+	protected static final int PHASE_EXTEND = 1;
+	protected static final int PHASE_CONNECT = 2;
+	protected static final int PHASE_EDGES = 3;
+
+	protected static final int SAMPLE_TRIES = 100;
+
+	protected int dof;
+	protected double [] min, max;
+
+	// settings
+	protected double stepSize = 10;
+	protected double resolution = 1;
+	protected int batchSize;
+	protected double timeLimit = 5;
+	protected int maxNodes = 50000;
+	protected int shortcutRounds = 50;
+	protected int smoothingPasses = 10;
+	protected long seed;
+
+	// threads
+	protected int threadCount;
+	protected ExecutorService pool;
+	protected Worker [] workers;
+	protected List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+	protected int phase;
+
+	// trees
+	protected Tree startTree, goalTree;
+	protected Tree treeA, treeB;
+
+	// per round, one entry per item of the batch
+	protected double [] samples;
+	protected boolean [] sampleOk;
+	protected int [] nearest;
+	protected double [] candidates;
+	protected boolean [] candidateOk;
+	protected int [] added;
+	protected int [] target;
+	protected int [] freeSteps;
+	protected int [] totalSteps;
+	protected int itemCount;
+
+	// edges checked in PHASE_EDGES
+	protected double [][] edgeFrom = new double[0][];
+	protected double [][] edgeTo = new double[0][];
+	protected boolean [] edgeOk = new boolean[0];
+	protected int edgeCount;
+
+	// results of the last plan
+	protected double planningTime;
+	protected int rounds;
+	protected long checkCount;
+	protected double rawLength;
+
+
+	/**
+	 * One planning thread.  Handles items worker, worker+threadCount, worker+2*threadCount...
+	 */
+	protected class Worker implements Callable<Object> {
+		int index;
+		CollisionChecker checker;
+		Random random = new Random();
+		double [] q;
+		long checks;
+
+		Worker(int index,CollisionChecker checker) {
+			this.index = index;
+			this.checker = checker;
+			q = new double[dof];
+		}
+
+		@Override
+		public Object call() {
+			switch(phase) {
+			case PHASE_SAMPLE:
+				for(int i=index;i<itemCount;i+=threadCount) sample(i);
+				break;
+			case PHASE_EXTEND:
+				for(int i=index;i<itemCount;i+=threadCount) {
+					candidateOk[i] = isEdgeFree(treeA.nodes,nearest[i]*dof,candidates,i*dof);
+				}
+				break;
+			case PHASE_CONNECT:
+				for(int i=index;i<itemCount;i+=threadCount) {
+					if(added[i]<0) continue;
+					int n = countSteps(treeB.nodes,target[i]*dof,treeA.nodes,added[i]*dof);
+					totalSteps[i] = n;
+					freeSteps[i] = countFreeSteps(treeB.nodes,target[i]*dof,treeA.nodes,added[i]*dof,n);
+				}
+				break;
+			case PHASE_EDGES:
+				for(int i=index;i<edgeCount;i+=threadCount) {
+					edgeOk[i] = isEdgeFree(edgeFrom[i],0,edgeTo[i],0);
+				}
+				break;
+			}
+			return null;
+		}
+
+		void sample(int i) {
+			int o=i*dof;
+			for(int tries=0;tries<SAMPLE_TRIES;++tries) {
+				for(int j=0;j<dof;++j) {
+					samples[o+j] = min[j] + random.nextDouble()*(max[j]-min[j]);
+				}
+				System.arraycopy(samples,o,q,0,dof);
+				checks++;
+				if(checker.isFree(q)) {
+					sampleOk[i]=true;
+					return;
+				}
+			}
+			sampleOk[i]=false;
+		}
+
+		/**
+		 * @return true if every step from a to b is free.  a is assumed to be free.
+		 */
+		boolean isEdgeFree(double [] a,int ao,double [] b,int bo) {
+			int n = countSteps(a,ao,b,bo);
+			return countFreeSteps(a,ao,b,bo,n)==n;
+		}
+
+		/**
+		 * @return how many steps from a toward b are free before the first collision.
+		 */
+		int countFreeSteps(double [] a,int ao,double [] b,int bo,int n) {
+			for(int k=1;k<=n;++k) {
+				double t = (double)k/(double)n;
+				for(int j=0;j<dof;++j) {
+					q[j] = a[ao+j] + (b[bo+j]-a[ao+j])*t;
+				}
+				checks++;
+				if(!checker.isFree(q)) return k-1;
+			}
+			return n;
+		}
+	}
+
+
+	/**
+	 * Nodes of one tree.  Flat arrays so nearest neighbour search is a tight loop.
+	 */
+	protected static class Tree {
+		int dof;
+		double [] nodes;
+		int [] parent;
+		int size;
+
+		Tree(int dof) {
+			this.dof = dof;
+			nodes = new double[dof*256];
+			parent = new int[256];
+		}
+
+		int add(double [] src,int offset,int parentIndex) {
+			if(parent.length==size) {
+				double [] biggerNodes = new double[nodes.length*2];
+				System.arraycopy(nodes,0,biggerNodes,0,size*dof);
+				nodes = biggerNodes;
+				int [] biggerParent = new int[parent.length*2];
+				System.arraycopy(parent,0,biggerParent,0,size);
+				parent = biggerParent;
+			}
+			System.arraycopy(src,offset,nodes,size*dof,dof);
+			parent[size] = parentIndex;
+			return size++;
+		}
+
+		int nearest(double [] q,int offset) {
+			int best=-1;
+			double bestD = Double.MAX_VALUE;
+			for(int i=0;i<size;++i) {
+				int o=i*dof;
+				double d=0;
+				for(int j=0;j<dof && d<bestD;++j) {
+					double v = nodes[o+j]-q[offset+j];
+					d+=v*v;
+				}
+				if(d<bestD) {
+					bestD=d;
+					best=i;
+				}
+			}
+			return best;
+		}
+
+		/**
+		 * @return the joint values from the root of the tree to a node, root first.
+		 */
+		List<double[]> branch(int index) {
+			List<double[]> list = new ArrayList<double[]>();
+			for(int i=index;i>=0;i=parent[i]) {
+				double [] q = new double[dof];
+				System.arraycopy(nodes,i*dof,q,0,dof);
+				list.add(0,q);
+			}
+			return list;
+		}
+	}
+
+
+	/**
+	 * Plan for a {@link KinematicChain}, using its joint limits, on every core.
+	 */
+	public MotionPlanner(KinematicChain chain,CollisionChecker checker) {
+		this(chain.getNumJoints(),limits(chain,true),limits(chain,false),checker,Runtime.getRuntime().availableProcessors());
+	}
+
+
+	/**
+	 * @param dof number of joints
+	 * @param min lowest value of each joint.  Must be finite.
+	 * @param max highest value of each joint.  Must be finite.
+	 * @param checker copied once per thread.
+	 * @param threads how many threads to sample and check with.
+	 */
+	public MotionPlanner(int dof,double [] min,double [] max,CollisionChecker checker,int threads) {
+		for(int i=0;i<dof;++i) {
+			if(Double.isInfinite(max[i]-min[i]) || max[i]<min[i]) throw new IllegalArgumentException("joint "+i+" needs finite limits.");
+		}
+		this.dof = dof;
+		this.min = min.clone();
+		this.max = max.clone();
+		threadCount = Math.max(1,threads);
+		batchSize = threadCount*4;
+
+		workers = new Worker[threadCount];
+		for(int i=0;i<threadCount;++i) {
+			workers[i] = new Worker(i,checker.copy());
+			tasks.add(workers[i]);
+		}
+		pool = Executors.newFixedThreadPool(threadCount,new ThreadFactory() {
+			int count;
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r,"MotionPlanner "+(count++));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+
+	protected static double [] limits(KinematicChain chain,boolean lower) {
+		double [] v = new double[chain.getNumJoints()];
+		for(int i=0;i<v.length;++i) {
+			v[i] = lower ? chain.getMin(i) : chain.getMax(i);
+		}
+		return v;
+	}
+
+
+	/**
+	 * Stop the worker threads.  The planner cannot be used after this.
+	 */
+	public void shutdown() {
+		pool.shutdownNow();
+	}
+
+
+	/**
+	 * @param step longest branch added to a tree in one go, in joint units.
+	 */
+	public void setStepSize(double step) {
+		stepSize = step;
+	}
+
+
+	/**
+	 * @param resolution largest change of any joint between two collision checks along an edge, in joint units.
+	 */
+	public void setResolution(double resolution) {
+		this.resolution = resolution;
+	}
+
+
+	/**
+	 * @param size samples drawn per round.  More keeps more threads busy, fewer keeps the trees tidier.
+	 */
+	public void setBatchSize(int size) {
+		batchSize = Math.max(1,size);
+	}
+
+
+	/**
+	 * @param seconds give up after this long.
+	 */
+	public void setTimeLimit(double seconds) {
+		timeLimit = seconds;
+	}
+
+
+	/**
+	 * @param nodes give up when both trees together hold this many nodes.
+	 */
+	public void setMaxNodes(int nodes) {
+		maxNodes = nodes;
+	}
+
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+
+	/**
+	 * @param rounds how many batches of random shortcuts to try.  Zero turns shortcutting off.
+	 */
+	public void setShortcutRounds(int rounds) {
+		shortcutRounds = rounds;
+	}
+
+
+	/**
+	 * @param passes how many times to pull every corner toward its neighbours.  Zero turns smoothing off.
+	 */
+	public void setSmoothingPasses(int passes) {
+		smoothingPasses = passes;
+	}
+
+
+	public int getThreadCount() {
+		return threadCount;
+	}
+
+
+	/**
+	 * @return seconds taken by the last call to {@link #plan}, including shortcutting and smoothing.
+	 */
+	public double getPlanningTime() {
+		return planningTime;
+	}
+
+
+	/**
+	 * @return nodes in both trees at the end of the last plan.
+	 */
+	public int getNodeCount() {
+		return startTree==null ? 0 : startTree.size+goalTree.size;
+	}
+
+
+	/**
+	 * @return rounds of sampling in the last plan.
+	 */
+	public int getRounds() {
+		return rounds;
+	}
+
+
+	/**
+	 * @return calls to {@link CollisionChecker#isFree} in the last plan, on all threads.
+	 */
+	public long getCheckCount() {
+		return checkCount;
+	}
+
+
+	/**
+	 * @return length of the path the trees found, before shortcutting and smoothing.
+	 */
+	public double getRawPathLength() {
+		return rawLength;
+	}
+
+
+	/**
+	 * @param start joint values now.  Must be free.
+	 * @param goal joint values wanted.  Must be free.
+	 * @return joint values from start to goal, both included, where a straight line between neighbours is free.
+	 * null if start or goal are not free or no path was found in time.
+	 */
+	public List<double[]> plan(double [] start,double [] goal) {
+		long begin = System.nanoTime();
+		rounds=0;
+		rawLength=0;
+		for(int i=0;i<threadCount;++i) {
+			workers[i].checks=0;
+			workers[i].random.setSeed(seed+i);
+		}
+		startTree = new Tree(dof);
+		goalTree = new Tree(dof);
+		startTree.add(start,0,-1);
+		goalTree.add(goal,0,-1);
+
+		List<double[]> path = null;
+		Worker w = workers[0];
+		w.checks+=2;
+		if(w.checker.isFree(start) && w.checker.isFree(goal)) {
+			path = grow(start.clone(),goal.clone(),begin);
+			if(path!=null) {
+				rawLength = getPathLength(path);
+				shortcut(path);
+				smooth(path);
+			}
+		}
+
+		checkCount=0;
+		for(int i=0;i<threadCount;++i) checkCount+=workers[i].checks;
+		planningTime = (System.nanoTime()-begin)*1e-9;
+		return path;
+	}
+
+
+	/**
+	 * Grow both trees until they meet.
+	 */
+	protected List<double[]> grow(double [] start,double [] goal,long begin) {
+		// maybe there is nothing in the way.
+		if(workers[0].isEdgeFree(start,0,goal,0)) {
+			List<double[]> path = new ArrayList<double[]>();
+			path.add(start);
+			path.add(goal);
+			return path;
+		}
+
+		treeA = startTree;
+		treeB = goalTree;
+		allocateBatch();
+		Random order = new Random(seed);
+		long limit = begin + (long)(timeLimit*1e9);
+
+		while(System.nanoTime()<limit && treeA.size+treeB.size<maxNodes) {
+			rounds++;
+			itemCount = batchSize;
+			runParallel(PHASE_SAMPLE);
+
+			// steer toward each sample from the nearest node
+			for(int i=0;i<itemCount;++i) {
+				nearest[i] = -1;
+				if(!sampleOk[i]) continue;
+				int n = treeA.nearest(samples,i*dof);
+				nearest[i] = n;
+				steer(treeA.nodes,n*dof,samples,i*dof,candidates,i*dof,stepSize);
+			}
+			runParallel(PHASE_EXTEND);
+
+			// grow, then see if the other tree can reach each new branch
+			for(int i=0;i<itemCount;++i) {
+				added[i] = -1;
+				if(nearest[i]<0 || !candidateOk[i]) continue;
+				added[i] = treeA.add(candidates,i*dof,nearest[i]);
+				target[i] = treeB.nearest(candidates,i*dof);
+			}
+			runParallel(PHASE_CONNECT);
+
+			// visit the new branches in a shuffled order so one thread's samples are not always first.
+			int first = order.nextInt(itemCount);
+			for(int k=0;k<itemCount;++k) {
+				int i=(first+k)%itemCount;
+				if(added[i]<0) continue;
+				if(freeSteps[i]==totalSteps[i]) {
+					return join(treeA,added[i],treeB,target[i]);
+				}
+				if(freeSteps[i]>0) {
+					reach(treeB,target[i],treeA.nodes,added[i]*dof,(double)freeSteps[i]/(double)totalSteps[i]);
+				}
+			}
+
+			Tree t = treeA;
+			treeA = treeB;
+			treeB = t;
+		}
+		return null;
+	}
+
+
+	protected void allocateBatch() {
+		samples = new double[batchSize*dof];
+		sampleOk = new boolean[batchSize];
+		nearest = new int[batchSize];
+		candidates = new double[batchSize*dof];
+		candidateOk = new boolean[batchSize];
+		added = new int[batchSize];
+		target = new int[batchSize];
+		freeSteps = new int[batchSize];
+		totalSteps = new int[batchSize];
+	}
+
+
+	/**
+	 * Add a chain of branches to a tree from one of its nodes part of the way toward a point.
+	 * @param fraction how much of the way is free.
+	 */
+	protected void reach(Tree tree,int from,double [] toward,int offset,double fraction) {
+		double [] a = new double[dof];
+		double [] b = new double[dof];
+		System.arraycopy(tree.nodes,from*dof,a,0,dof);
+		for(int j=0;j<dof;++j) {
+			b[j] = a[j] + (toward[offset+j]-a[j])*fraction;
+		}
+		double d = distance(a,0,b,0);
+		int pieces = (int)Math.ceil(d/stepSize);
+		double [] p = new double[dof];
+		int parent = from;
+		for(int k=1;k<=pieces;++k) {
+			double t = (double)k/(double)pieces;
+			for(int j=0;j<dof;++j) {
+				p[j] = a[j] + (b[j]-a[j])*t;
+			}
+			parent = tree.add(p,0,parent);
+		}
+	}
+
+
+	/**
+	 * Make the path through two trees that meet between node ia of a and node ib of b.
+	 */
+	protected List<double[]> join(Tree a,int ia,Tree b,int ib) {
+		List<double[]> first = a.branch(ia);
+		List<double[]> second = b.branch(ib);
+		List<double[]> path = new ArrayList<double[]>();
+		if(a==startTree) {
+			path.addAll(first);
+			for(int i=second.size()-1;i>=0;--i) path.add(second.get(i));
+		} else {
+			path.addAll(second);
+			for(int i=first.size()-1;i>=0;--i) path.add(first.get(i));
+		}
+		return path;
+	}
+
+
+	/**
+	 * Cut corners.  Each round tries a batch of random shortcuts at once and takes the longest one that is free.
+	 */
+	protected void shortcut(List<double[]> path) {
+		Random random = new Random(seed);
+		int [] from = new int[batchSize];
+		int [] to = new int[batchSize];
+		for(int r=0;r<shortcutRounds && path.size()>2;++r) {
+			setEdgeCount(batchSize);
+			for(int i=0;i<batchSize;++i) {
+				int a = random.nextInt(path.size()-2);
+				int b = a+2+random.nextInt(path.size()-a-2);
+				from[i]=a;
+				to[i]=b;
+				edgeFrom[i]=path.get(a);
+				edgeTo[i]=path.get(b);
+			}
+			runParallel(PHASE_EDGES);
+
+			int best=-1;
+			for(int i=0;i<batchSize;++i) {
+				if(edgeOk[i] && (best<0 || to[i]-from[i]>to[best]-from[best])) best=i;
+			}
+			if(best>=0) {
+				path.subList(from[best]+1,to[best]).clear();
+			}
+		}
+	}
+
+
+	/**
+	 * Pull the path tight, then round off the corners that are left.
+	 */
+	protected void smooth(List<double[]> path) {
+		if(smoothingPasses<=0) return;
+		pullTight(path);
+
+		// move every other corner halfway toward the middle of its neighbours, if both edges stay free.
+		for(int pass=0;pass<smoothingPasses;++pass) {
+			for(int parity=1;parity<=2;++parity) {
+				int count=0;
+				for(int k=parity;k<path.size()-1;k+=2) count++;
+				if(count==0) continue;
+				setEdgeCount(count*2);
+				double [][] moved = new double[count][];
+				int i=0;
+				for(int k=parity;k<path.size()-1;k+=2) {
+					double [] prev = path.get(k-1);
+					double [] here = path.get(k);
+					double [] next = path.get(k+1);
+					double [] m = new double[dof];
+					for(int j=0;j<dof;++j) {
+						m[j] = here[j]*0.5 + (prev[j]+next[j])*0.25;
+					}
+					moved[i]=m;
+					edgeFrom[i*2  ]=prev;
+					edgeTo  [i*2  ]=m;
+					edgeFrom[i*2+1]=m;
+					edgeTo  [i*2+1]=next;
+					i++;
+				}
+				runParallel(PHASE_EDGES);
+				i=0;
+				for(int k=parity;k<path.size()-1;k+=2) {
+					if(edgeOk[i*2] && edgeOk[i*2+1]) path.set(k,moved[i]);
+					i++;
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * From each corner jump to the furthest corner that can be seen in a straight line.
+	 */
+	protected void pullTight(List<double[]> path) {
+		for(int i=0;i<path.size()-2;++i) {
+			int count = path.size()-i-2;
+			setEdgeCount(count);
+			for(int k=0;k<count;++k) {
+				edgeFrom[k]=path.get(i);
+				edgeTo[k]=path.get(i+2+k);
+			}
+			runParallel(PHASE_EDGES);
+			for(int k=count-1;k>=0;--k) {
+				if(edgeOk[k]) {
+					path.subList(i+1,i+2+k).clear();
+					break;
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * @return true if every edge of the path is free, checked at the planning resolution.
+	 */
+	public boolean isPathFree(List<double[]> path) {
+		Worker w = workers[0];
+		if(!w.checker.isFree(path.get(0))) return false;
+		for(int i=1;i<path.size();++i) {
+			if(!w.isEdgeFree(path.get(i-1),0,path.get(i),0)) return false;
+		}
+		return true;
+	}
+
+
+	/**
+	 * @return the length of the path in joint space.
+	 */
+	public static double getPathLength(List<double[]> path) {
+		double sum=0;
+		for(int i=1;i<path.size();++i) {
+			double [] a = path.get(i-1);
+			double [] b = path.get(i);
+			double d=0;
+			for(int j=0;j<a.length;++j) {
+				d+=(b[j]-a[j])*(b[j]-a[j]);
+			}
+			sum+=Math.sqrt(d);
+		}
+		return sum;
+	}
+
+
+	protected void setEdgeCount(int count) {
+		if(edgeOk.length<count) {
+			edgeFrom = new double[count][];
+			edgeTo = new double[count][];
+			edgeOk = new boolean[count];
+		}
+		edgeCount = count;
+	}
+
+
+	protected void runParallel(int phase) {
+		this.phase = phase;
+		try {
+			for(Future<Object> f : pool.invokeAll(tasks)) {
+				f.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("planning interrupted",e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("planning failed",e.getCause());
+		}
+	}
+
+
+	protected int countSteps(double [] a,int ao,double [] b,int bo) {
+		double biggest=0;
+		for(int j=0;j<dof;++j) {
+			biggest = Math.max(biggest,Math.abs(b[bo+j]-a[ao+j]));
+		}
+		return Math.max(1,(int)Math.ceil(biggest/resolution));
+	}
+
+
+	/**
+	 * Move from a toward b no further than step.
+	 */
+	protected void steer(double [] a,int ao,double [] b,int bo,double [] out,int oo,double step) {
+		double d = distance(a,ao,b,bo);
+		double t = (d<=step) ? 1 : step/d;
+		for(int j=0;j<dof;++j) {
+			out[oo+j] = a[ao+j] + (b[bo+j]-a[ao+j])*t;
+		}
+	}
+
+
+	protected double distance(double [] a,int ao,double [] b,int bo) {
+		double sum=0;
+		for(int j=0;j<dof;++j) {
+			double v = b[bo+j]-a[ao+j];
+			sum+=v*v;
+		}
+		return Math.sqrt(sum);
+	}
+}
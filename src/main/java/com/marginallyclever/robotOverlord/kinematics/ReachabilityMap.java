@@ -0,0 +1,295 @@
+package com.marginallyclever.robotOverlord.kinematics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.marginallyclever.robotOverlord.Log;
+
+/**
+ * A voxel map of where the tool tip of one type of robot can go, relative to the base of the robot.
+ * <p>
+ * Each cell holds one byte of flags.  The exact test is run at the corners of every cell, in each of the six
+ * principal tool directions.  If only some corners pass then the edge of the work envelope runs through the cell,
+ * where the arm is fully stretched or folded, and the cell is marked NEAR_SINGULAR.  The FACING_* bits record which
+ * directions worked at one or more corners.
+ * <p>
+ * Sampling can miss small pockets, and places only reached with the tool at some other angle.  To miss fewer of
+ * them the reachable cells are grown by one cell in every direction: a cell is REACHABLE if any corner of it or of
+ * one of its 26 neighbours passed.  Cells that are only reachable because of a neighbour are also NEAR_SINGULAR.
+ * A pocket with no passing corner within one cell of it is still missed, so a no is only as good as the cell size.
+ * Use cells smaller than the smallest pocket that matters.
+ * <p>
+ * The map answers "is this position plausibly reachable?" in constant time.  It is only a filter - a yes still
+ * has to be confirmed with the exact inverse kinematics.
+ * <p>
+ * Maps are built once per robot type on a background thread and saved as a small gzipped file.  Until the map is
+ * ready every position is plausible.
+ */
+public class ReachabilityMap {
+	public static final int REACHABLE         = 0x01;
+	public static final int NEAR_SINGULAR     = 0x02;
+	public static final int FACING_POSITIVE_X = 0x04;
+	public static final int FACING_NEGATIVE_X = 0x08;
+	public static final int FACING_POSITIVE_Y = 0x10;
+	public static final int FACING_NEGATIVE_Y = 0x20;
+	public static final int FACING_POSITIVE_Z = 0x40;
+	public static final int FACING_NEGATIVE_Z = 0x80;
+	public static final int FACING_MASK       = 0xFC;
+
+	// the six principal directions, in the same order as the FACING_* bits
+	protected static final float [][] DIRECTIONS = {
+		{ 1, 0, 0},
+		{-1, 0, 0},
+		{ 0, 1, 0},
+		{ 0,-1, 0},
+		{ 0, 0, 1},
+		{ 0, 0,-1},
+	};
+
+	// file format
+	protected static final int MAGIC = 0x524D4150;  // "RMAP"
+	protected static final int VERSION = 2;
+
+	protected float minX, minY, minZ;
+	protected float cellSize;
+	protected int sizeX, sizeY, sizeZ;
+	protected byte [] cells;
+	protected volatile boolean ready = false;
+
+
+	/**
+	 * Create an empty map.  Call build(), load(), or loadOrBuildInBackground() to fill it.
+	 * @param minX lower corner of the mapped volume, relative to the base of the robot.
+	 * @param minY lower corner of the mapped volume, relative to the base of the robot.
+	 * @param minZ lower corner of the mapped volume, relative to the base of the robot.
+	 * @param maxX upper corner of the mapped volume, relative to the base of the robot.
+	 * @param maxY upper corner of the mapped volume, relative to the base of the robot.
+	 * @param maxZ upper corner of the mapped volume, relative to the base of the robot.
+	 * @param cellSize length of one side of a cell
+	 */
+	public ReachabilityMap(float minX,float minY,float minZ,float maxX,float maxY,float maxZ,float cellSize) {
+		this.minX = minX;
+		this.minY = minY;
+		this.minZ = minZ;
+		this.cellSize = cellSize;
+		sizeX = Math.max(1,(int)Math.ceil((maxX-minX)/cellSize));
+		sizeY = Math.max(1,(int)Math.ceil((maxY-minY)/cellSize));
+		sizeZ = Math.max(1,(int)Math.ceil((maxZ-minZ)/cellSize));
+	}
+
+
+	public boolean isReady() {
+		return ready;
+	}
+
+	public int getSizeX() {		return sizeX;	}
+	public int getSizeY() {		return sizeY;	}
+	public int getSizeZ() {		return sizeZ;	}
+	public float getCellSize() {	return cellSize;	}
+
+
+	/**
+	 * @return the flags of the cell containing (x,y,z).  Zero if the point is outside the map or the map is not ready.
+	 */
+	public int getFlags(float x,float y,float z) {
+		if(!ready) return 0;
+		int ix = (int)Math.floor((x-minX)/cellSize);
+		int iy = (int)Math.floor((y-minY)/cellSize);
+		int iz = (int)Math.floor((z-minZ)/cellSize);
+		if(ix<0 || ix>=sizeX) return 0;
+		if(iy<0 || iy>=sizeY) return 0;
+		if(iz<0 || iz>=sizeZ) return 0;
+		return cells[(iz*sizeY+iy)*sizeX+ix] & 0xFF;
+	}
+
+
+	/**
+	 * @return false if no sampled corner within one cell of (x,y,z) could be reached.  True if it might be
+	 * reachable, or if the map is not ready.
+	 */
+	public boolean isPlausiblyReachable(float x,float y,float z) {
+		if(!ready) return true;
+		return (getFlags(x,y,z) & REACHABLE)!=0;
+	}
+
+
+	/**
+	 * @return how many of the six principal tool directions work near (x,y,z).  A rough measure of dexterity.
+	 */
+	public int getOrientationCoverage(float x,float y,float z) {
+		return Integer.bitCount(getFlags(x,y,z) & FACING_MASK);
+	}
+
+
+	/**
+	 * Fill the map by testing every corner of every cell with the probe.  Slow.
+	 * @param probe the exact test for one robot
+	 */
+	public void build(ReachabilityProbe probe) {
+		int lx = sizeX+1;
+		int ly = sizeY+1;
+		int lz = sizeZ+1;
+		// which directions worked at each corner
+		byte [] lattice = new byte[lx*ly*lz];
+		boolean orientable = probe.isOrientable();
+
+		for(int iz=0;iz<lz;++iz) {
+			float z = minZ+iz*cellSize;
+			for(int iy=0;iy<ly;++iy) {
+				float y = minY+iy*cellSize;
+				for(int ix=0;ix<lx;++ix) {
+					float x = minX+ix*cellSize;
+					int facing=0;
+					if(orientable) {
+						for(int d=0;d<DIRECTIONS.length;++d) {
+							float [] f = DIRECTIONS[d];
+							if(probe.canReach(x,y,z,f[0],f[1],f[2])) facing |= FACING_POSITIVE_X<<d;
+						}
+					} else if(probe.canReach(x,y,z,0,0,-1)) {
+						facing = FACING_MASK;
+					}
+					lattice[(iz*ly+iy)*lx+ix] = (byte)facing;
+				}
+			}
+		}
+
+		byte [] sampled = new byte[sizeX*sizeY*sizeZ];
+		for(int iz=0;iz<sizeZ;++iz) {
+			for(int iy=0;iy<sizeY;++iy) {
+				for(int ix=0;ix<sizeX;++ix) {
+					int any=0;
+					int corners=0;
+					for(int c=0;c<8;++c) {
+						int j = ((iz+(c>>2))*ly + iy+((c>>1)&1))*lx + ix+(c&1);
+						int facing = lattice[j] & 0xFF;
+						any |= facing;
+						if(facing!=0) corners++;
+					}
+					int flags = any;
+					if(corners>0) flags |= REACHABLE;
+					if(corners>0 && corners<8) flags |= NEAR_SINGULAR;
+					sampled[(iz*sizeY+iy)*sizeX+ix] = (byte)flags;
+				}
+			}
+		}
+
+		cells = grow(sampled);
+		ready = true;
+	}
+
+
+	/**
+	 * @param sampled flags found at the corners of each cell
+	 * @return the same, with every unreachable cell next to a reachable one made reachable and near singular.
+	 */
+	protected byte [] grow(byte [] sampled) {
+		byte [] grown = sampled.clone();
+		for(int iz=0;iz<sizeZ;++iz) {
+			for(int iy=0;iy<sizeY;++iy) {
+				for(int ix=0;ix<sizeX;++ix) {
+					int i = (iz*sizeY+iy)*sizeX+ix;
+					if((sampled[i] & REACHABLE)!=0) continue;
+					int facing=0;
+					for(int dz=Math.max(0,iz-1);dz<=Math.min(sizeZ-1,iz+1);++dz) {
+						for(int dy=Math.max(0,iy-1);dy<=Math.min(sizeY-1,iy+1);++dy) {
+							for(int dx=Math.max(0,ix-1);dx<=Math.min(sizeX-1,ix+1);++dx) {
+								int n = sampled[(dz*sizeY+dy)*sizeX+dx] & 0xFF;
+								if((n & REACHABLE)!=0) facing |= n & FACING_MASK;
+							}
+						}
+					}
+					if(facing!=0) grown[i] = (byte)(facing | REACHABLE | NEAR_SINGULAR);
+				}
+			}
+		}
+		return grown;
+	}
+
+
+	public void save(OutputStream output) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(output)));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeFloat(minX);
+		out.writeFloat(minY);
+		out.writeFloat(minZ);
+		out.writeFloat(cellSize);
+		out.writeInt(sizeX);
+		out.writeInt(sizeY);
+		out.writeInt(sizeZ);
+		out.write(cells);
+		out.close();
+	}
+
+
+	/**
+	 * Read a map written by save().  The file must describe the same volume and cell size as this map.
+	 * @return true if the map was loaded.
+	 */
+	public boolean load(InputStream input) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(input)));
+		try {
+			if(in.readInt()!=MAGIC) return false;
+			if(in.readInt()!=VERSION) return false;
+			if(in.readFloat()!=minX) return false;
+			if(in.readFloat()!=minY) return false;
+			if(in.readFloat()!=minZ) return false;
+			if(in.readFloat()!=cellSize) return false;
+			if(in.readInt()!=sizeX) return false;
+			if(in.readInt()!=sizeY) return false;
+			if(in.readInt()!=sizeZ) return false;
+			byte [] newCells = new byte[sizeX*sizeY*sizeZ];
+			in.readFully(newCells);
+			cells = newCells;
+			ready = true;
+			return true;
+		} finally {
+			in.close();
+		}
+	}
+
+
+	/**
+	 * Load the map from a file.  If that fails, build the map on a background thread and then save it to the file.
+	 * @param filename where the map is kept
+	 * @param probe the exact test for the robot, used if the map has to be built.
+	 */
+	public void loadOrBuildInBackground(final String filename,final ReachabilityProbe probe) {
+		final File file = new File(filename);
+		if(file.exists()) {
+			try {
+				if(load(new FileInputStream(file))) return;
+			} catch(IOException e) {
+				e.printStackTrace();
+			}
+			Log.message("Reachability map "+filename+" is out of date.");
+		}
+
+		Thread builder = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				long start = System.currentTimeMillis();
+				build(probe);
+				Log.message("Reachability map "+filename+" built in "+(System.currentTimeMillis()-start)+"ms.");
+				try {
+					save(new FileOutputStream(file));
+				} catch(IOException e) {
+					e.printStackTrace();
+				}
+			}
+		},"ReachabilityMap "+filename);
+		builder.setDaemon(true);
+		builder.setPriority(Thread.MIN_PRIORITY);
+		builder.start();
+	}
+}
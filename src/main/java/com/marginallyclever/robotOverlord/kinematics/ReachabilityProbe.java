@@ -0,0 +1,18 @@
+package com.marginallyclever.robotOverlord.kinematics;
+
+/**
+ * The exact reachability test of one robot, used to fill a {@link ReachabilityMap}.
+ * Probes are called from the background thread that builds the map, so they must not touch the live state of a robot.
+ */
+public interface ReachabilityProbe {
+	/**
+	 * @return true if the robot can put the tool tip at (x,y,z) with the tool pointing along (fx,fy,fz).
+	 */
+	public boolean canReach(float x,float y,float z,float fx,float fy,float fz);
+
+	/**
+	 * @return false if the robot can't choose the direction of the tool.  The direction passed to canReach() is
+	 * then ignored and every point is only tested once.
+	 */
+	public boolean isOrientable();
+}
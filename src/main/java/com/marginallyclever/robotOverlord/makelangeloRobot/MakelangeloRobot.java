@@ -131,6 +131,14 @@ public class MakelangeloRobot extends Robot {
 		}
 	}
 
+	/**
+	 * @return the connection given to {@link #setConnection(NetworkConnection)}, not the one hidden in Robot.
+	 */
+	@Override
+	public NetworkConnection getConnection() {
+		return this.connection;
+	}
+
 	@Override
 	public void finalize() {
 		if( this.connection != null ) {
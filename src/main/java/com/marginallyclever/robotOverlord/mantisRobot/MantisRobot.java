@@ -11,7 +11,9 @@ import com.marginallyclever.robotOverlord.mantisRobot.tool.*;
 import com.marginallyclever.robotOverlord.material.Material;
 import com.marginallyclever.robotOverlord.model.Model;
 import com.marginallyclever.robotOverlord.model.ModelFactory;
+import com.marginallyclever.robotOverlord.robot.JogChannel;
 import com.marginallyclever.robotOverlord.robot.Robot;
+import com.marginallyclever.robotOverlord.robot.RobotKeyframe;
 
 import java.io.BufferedReader;
 import java.io.IOException;
@@ -103,6 +105,10 @@ extends Robot {
 	private boolean isPortConfirmed=false;
 	private double speed=2;
 
+	// jogs, sent no faster than the robot can take them.  see sendChangeToRealMachine()
+	private transient JogChannel jogChannel;
+	private transient double [] jogValues;
+
 	// visual debugging
 	private boolean isRenderFKOn=true;
 	private boolean isRenderIKOn=true;
@@ -501,31 +507,17 @@ extends Robot {
 	
 	protected void sendChangeToRealMachine() {
 		if(!isPortConfirmed) return;
-		
-		
-		String str="";
-		if(motionFuture.angleA!=motionNow.angleA) {
-			str+=" A"+roundOff(motionFuture.angleA);
-		}
-		if(motionFuture.angleB!=motionNow.angleB) {
-			str+=" B"+roundOff(motionFuture.angleB);
-		}
-		if(motionFuture.angleC!=motionNow.angleC) {
-			str+=" C"+roundOff(motionFuture.angleC);
-		}
-		if(motionFuture.angleD!=motionNow.angleD) {
-			str+=" D"+roundOff(motionFuture.angleD);
-		}
-		if(motionFuture.angleE!=motionNow.angleE) {
-			str+=" E"+roundOff(motionFuture.angleE);
-		}
-		if(motionFuture.angleF!=motionNow.angleF) {
-			str+=" F"+roundOff(motionFuture.angleF);
-		}
-		
-		if(str.length()>0) {
-			this.sendLineToRobot("R0"+str);
+		if(jogChannel==null) {
+			jogChannel = new JogChannel(this,"R0","ABCDEF");
+			jogValues = new double[6];
 		}
+		jogValues[0]=motionFuture.angleA;
+		jogValues[1]=motionFuture.angleB;
+		jogValues[2]=motionFuture.angleC;
+		jogValues[3]=motionFuture.angleD;
+		jogValues[4]=motionFuture.angleE;
+		jogValues[5]=motionFuture.angleF;
+		jogChannel.jog(jogValues);
 	}
 	
 	@Override
@@ -533,6 +525,7 @@ extends Robot {
 		updateIK(delta);
 		updateFK(delta);
 		if(tool != null) tool.update(delta);
+		if(jogChannel != null) jogChannel.update();
 	}
 
 	@Override
@@ -1358,4 +1351,46 @@ extends Robot {
 		keyframe.fingerForward.set(towardsFinger);
 		keyframe.fingerForward.normalize();
 	}
+
+
+	@Override
+	public RobotKeyframe createKeyframe() {
+		MantisRobotKeyframe keyframe = new MantisRobotKeyframe();
+		keyframe.set(motionNow);
+		return keyframe;
+	}
+
+
+	/**
+	 * Mantis keyframes are described by their six joint angles in degrees, A to F, in the order the firmware takes them.
+	 */
+	@Override
+	public int getKeyframeSize() {
+		return 6;
+	}
+
+
+	@Override
+	public void getKeyframeValues(RobotKeyframe arg0,double [] values) {
+		MantisRobotKeyframe keyframe = (MantisRobotKeyframe)arg0;
+		values[0]=keyframe.angleA;
+		values[1]=keyframe.angleB;
+		values[2]=keyframe.angleC;
+		values[3]=keyframe.angleD;
+		values[4]=keyframe.angleE;
+		values[5]=keyframe.angleF;
+	}
+
+
+	@Override
+	public void setKeyframeValues(RobotKeyframe arg0,double [] values) {
+		MantisRobotKeyframe keyframe = (MantisRobotKeyframe)arg0;
+		keyframe.angleA=(float)values[0];
+		keyframe.angleB=(float)values[1];
+		keyframe.angleC=(float)values[2];
+		keyframe.angleD=(float)values[3];
+		keyframe.angleE=(float)values[4];
+		keyframe.angleF=(float)values[5];
+		forwardKinematics(keyframe);
+	}
 }
@@ -0,0 +1,399 @@
+package com.marginallyclever.robotOverlord.robot;
+
+import com.marginallyclever.communications.MotionFrame;
+import com.marginallyclever.communications.MotionProtocol;
+import com.marginallyclever.communications.NetworkConnection;
+import com.marginallyclever.communications.NetworkConnectionListener;
+
+/**
+ * Sends jog targets to a robot no faster than the robot can take them.
+ * <p>
+ * Jogging moves the arm a little on every frame a key is held.  Sending every step queues far more moves than the
+ * robot can make, and the arm keeps going long after the key is let go.  Instead the channel keeps only the latest
+ * target.  A jog that arrives before the last one was sent replaces it, so only one line is ever waiting.  A line
+ * is sent when the robot has acknowledged the one before it, and no sooner than {@link #setMaxRate} allows.
+ * Targets are absolute, so skipping the ones in between is safe.
+ * <p>
+ * Each line holds only the axes that changed since the last line sent.  The connection says the robot is ready for
+ * more with {@link NetworkConnectionListener#sendBufferEmpty}, or with a line starting with the cue ">".
+ * <p>
+ * If the firmware takes {@link MotionFrame}s, as agreed by a {@link MotionProtocol}, each target goes as a frame of
+ * every axis instead.
+ * <p>
+ * Call {@link #update()} every frame so that a target held back by the rate limit goes out later.  Safe to call
+ * from any thread.
+ */
+public class JogChannel implements NetworkConnectionListener {
+	protected static final long NANOS_PER_SECOND = 1000000000L;
+	protected static final double SCALE = 1000.0;
+
+	protected Robot robot;
+	protected String command;
+	protected String axisLetters;
+	protected char feedRateLetter;
+	protected int axes;
+
+	// the latest target not yet sent
+	protected double [] pending;
+	protected double pendingFeedRate;
+	protected boolean hasPending;
+	protected long pendingSince;
+
+	// the last target sent
+	protected double [] sent;
+	protected double sentFeedRate;
+	protected boolean hasSent;
+
+	// the line waiting to be acknowledged
+	protected boolean inFlight;
+	protected long inFlightSince;
+	protected long lastSendTime;
+
+	protected long minInterval;
+	protected long ackTimeout = NANOS_PER_SECOND;
+	protected NetworkConnection attached;
+	protected StringBuilder line = new StringBuilder();
+	protected MotionProtocol protocol;
+	protected double [][] frame;
+
+	// metrics
+	protected long jogCount;
+	protected long sentCount;
+	protected long droppedCount;
+	protected long ackCount;
+	protected long timeoutCount;
+	protected long latencyTotal;
+	protected long latencyMax;
+	protected long latencyLast;
+
+
+	/**
+	 * @param robot sends the lines
+	 * @param command starts every line, such as "G0".
+	 * @param axisLetters one letter per axis, in the order of the values given to {@link #jog}.
+	 */
+	public JogChannel(Robot robot,String command,String axisLetters) {
+		this(robot,command,axisLetters,(char)0);
+	}
+
+
+	/**
+	 * @param robot sends the lines
+	 * @param command starts every line, such as "G0".
+	 * @param axisLetters one letter per axis, in the order of the values given to {@link #jog}.
+	 * @param feedRateLetter goes before the feed rate, such as 'F'.  0 to never send a feed rate.
+	 */
+	public JogChannel(Robot robot,String command,String axisLetters,char feedRateLetter) {
+		this.robot = robot;
+		this.command = command;
+		this.axisLetters = axisLetters;
+		this.feedRateLetter = feedRateLetter;
+		axes = axisLetters.length();
+		pending = new double[axes];
+		sent = new double[axes];
+		setMaxRate(30);
+	}
+
+
+	/**
+	 * @param linesPerSecond the most lines sent in one second, whatever the robot says.
+	 */
+	public synchronized void setMaxRate(double linesPerSecond) {
+		minInterval = (long)(NANOS_PER_SECOND/linesPerSecond);
+	}
+
+
+	/**
+	 * @param seconds if the robot has not acknowledged a line after this long, stop waiting for it.
+	 */
+	public synchronized void setAckTimeout(double seconds) {
+		ackTimeout = (long)(seconds*NANOS_PER_SECOND);
+	}
+
+
+	/**
+	 * @param protocol sends frames once it has agreed to.  null for G-code only.
+	 */
+	public synchronized void setMotionProtocol(MotionProtocol protocol) {
+		this.protocol = protocol;
+		hasSent = false;
+	}
+
+
+	/**
+	 * Move toward a new target.  Replaces any target not yet sent.
+	 * @param target one value per axis.  copied.
+	 */
+	public void jog(double [] target) {
+		jog(target,0);
+	}
+
+
+	/**
+	 * Move toward a new target.  Replaces any target not yet sent.
+	 * @param target one value per axis.  copied.
+	 * @param feedRate sent if the channel has a feed rate letter.
+	 */
+	public synchronized void jog(double [] target,double feedRate) {
+		long now = System.nanoTime();
+		jogCount++;
+		if(hasPending) {
+			droppedCount++;
+		} else {
+			pendingSince = now;
+			hasPending = true;
+		}
+		System.arraycopy(target,0,pending,0,axes);
+		pendingFeedRate = feedRate;
+		pump(now);
+	}
+
+
+	/**
+	 * Send the waiting target, if the robot is ready and the rate limit allows.
+	 */
+	public synchronized void update() {
+		pump(System.nanoTime());
+	}
+
+
+	/**
+	 * Forget what was sent, so that the next line holds every axis.  Call when something else has moved the robot.
+	 */
+	public synchronized void reset() {
+		hasSent = false;
+	}
+
+
+	protected void pump(long now) {
+		attach();
+		if(!hasPending) return;
+		if(inFlight) {
+			if(now-lastSendTime < ackTimeout) return;
+			// the answer was lost.  don't wait forever.
+			timeoutCount++;
+			inFlight = false;
+			hasSent = false;
+		}
+		if(sentCount>0 && now-lastSendTime < minInterval) return;
+
+		boolean moved = (protocol!=null && protocol.isBinary()) ? makeFrame() : makeLine();
+		hasPending = false;
+		// already there.
+		if(!moved) return;
+
+		hasSent = true;
+		// in flight before sending, in case the connection answers straight away.
+		inFlight = true;
+		inFlightSince = pendingSince;
+		lastSendTime = now;
+		sentCount++;
+		if(!robot.sendLineToRobot(line.toString())) {
+			inFlight = false;
+			hasSent = false;
+			sentCount--;
+		}
+	}
+
+
+	/**
+	 * Write the axes that changed, and the feed rate if it changed.
+	 * @return false if nothing changed.
+	 */
+	protected boolean makeLine() {
+		line.setLength(0);
+		line.append(command);
+		for(int i=0;i<axes;++i) {
+			double v = round(pending[i]);
+			if(hasSent && v==sent[i]) continue;
+			line.append(' ').append(axisLetters.charAt(i));
+			appendNumber(line,v);
+			sent[i] = v;
+		}
+		double f = round(pendingFeedRate);
+		boolean moved = line.length()>command.length();
+		if(feedRateLetter!=0 && moved && (!hasSent || f!=sentFeedRate)) {
+			line.append(' ').append(feedRateLetter);
+			appendNumber(line,f);
+			sentFeedRate = f;
+		}
+		return moved;
+	}
+
+
+	/**
+	 * Write every axis, and the feed rate if there is one, as a frame.
+	 * @return false if nothing changed.
+	 */
+	protected boolean makeFrame() {
+		boolean feed = feedRateLetter!=0;
+		if(frame==null) frame = new double[1][axes+(feed?1:0)];
+		boolean moved = !hasSent;
+		for(int i=0;i<axes;++i) {
+			double v = round(pending[i]);
+			if(v!=sent[i]) moved=true;
+			sent[i] = v;
+			frame[0][i] = v;
+		}
+		if(!moved) return false;
+		if(feed) {
+			sentFeedRate = round(pendingFeedRate);
+			frame[0][axes] = sentFeedRate;
+		}
+		line.setLength(0);
+		line.append(protocol.encode(frame,feed));
+		return true;
+	}
+
+
+	/**
+	 * Listen to whichever connection the robot is using now.
+	 */
+	protected void attach() {
+		NetworkConnection c = robot.getConnection();
+		if(c==attached) return;
+		if(attached!=null) attached.removeListener(this);
+		attached = c;
+		if(attached!=null) attached.addListener(this);
+		inFlight = false;
+		hasSent = false;
+	}
+
+
+	/**
+	 * Stop listening to the robot's connection.
+	 */
+	public synchronized void close() {
+		if(attached!=null) attached.removeListener(this);
+		attached = null;
+	}
+
+
+	protected synchronized void acknowledge() {
+		long now = System.nanoTime();
+		if(inFlight) {
+			inFlight = false;
+			ackCount++;
+			latencyLast = now-inFlightSince;
+			latencyTotal += latencyLast;
+			latencyMax = Math.max(latencyMax,latencyLast);
+		}
+		pump(now);
+	}
+
+
+	protected static double round(double v) {
+		return Math.round(v*SCALE)/SCALE;
+	}
+
+
+	/**
+	 * Write a number with up to three decimals and no exponent, without making garbage.
+	 */
+	protected static void appendNumber(StringBuilder sb,double v) {
+		long n = Math.round(v*SCALE);
+		if(n<0) {
+			sb.append('-');
+			n=-n;
+		}
+		sb.append(n/1000);
+		long fraction = n%1000;
+		if(fraction==0) return;
+		sb.append('.');
+		sb.append((char)('0'+fraction/100));
+		fraction%=100;
+		if(fraction==0) return;
+		sb.append((char)('0'+fraction/10));
+		fraction%=10;
+		if(fraction==0) return;
+		sb.append((char)('0'+fraction));
+	}
+
+
+	/**
+	 * @return targets waiting: one not yet sent, plus one sent but not acknowledged.  Never more than 2.
+	 */
+	public synchronized int getQueueDepth() {
+		return (hasPending?1:0)+(inFlight?1:0);
+	}
+
+
+	/**
+	 * @return calls to {@link #jog}
+	 */
+	public synchronized long getJogCount() {
+		return jogCount;
+	}
+
+
+	/**
+	 * @return lines sent to the robot
+	 */
+	public synchronized long getSentCount() {
+		return sentCount;
+	}
+
+
+	/**
+	 * @return targets replaced by a newer one before they were sent
+	 */
+	public synchronized long getDroppedCount() {
+		return droppedCount;
+	}
+
+
+	/**
+	 * @return lines the robot acknowledged
+	 */
+	public synchronized long getAckCount() {
+		return ackCount;
+	}
+
+
+	/**
+	 * @return lines given up on after {@link #setAckTimeout}
+	 */
+	public synchronized long getTimeoutCount() {
+		return timeoutCount;
+	}
+
+
+	/**
+	 * @return seconds from the oldest jog in the last line sent to its acknowledgement.
+	 */
+	public synchronized double getLastLatency() {
+		return latencyLast/(double)NANOS_PER_SECOND;
+	}
+
+
+	/**
+	 * @return average seconds from jog to acknowledgement.
+	 */
+	public synchronized double getAverageLatency() {
+		return ackCount==0 ? 0 : latencyTotal/(double)ackCount/NANOS_PER_SECOND;
+	}
+
+
+	/**
+	 * @return longest seconds from jog to acknowledgement.
+	 */
+	public synchronized double getMaxLatency() {
+		return latencyMax/(double)NANOS_PER_SECOND;
+	}
+
+
+	@Override
+	public void dataAvailable(NetworkConnection arg0,String data) {
+		if(arg0==attached && data.startsWith(">")) acknowledge();
+	}
+
+
+	@Override
+	public void sendBufferEmpty(NetworkConnection arg0) {
+		if(arg0==attached) acknowledge();
+	}
+
+
+	@Override
+	public void lineError(NetworkConnection arg0,int lineNumber) {}
+}
@@ -0,0 +1,442 @@
+package com.marginallyclever.robotOverlord.robot;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Keyframes stored as columns of numbers, one column per value in {@link Robot#getKeyframeSize()}.
+ * <p>
+ * Java serialization of a keyframe writes every vector in it as an object.  A long program takes a long time to
+ * save and load and a lot of space.  This stores only the values that describe each keyframe, packed.  A keyframe
+ * object is made only when one is asked for, with {@link #createKeyframe(Robot,int)} or through a program from
+ * {@link #createProgram(Robot)}.  {@link #open(File)} maps the file into memory, so a program with millions of
+ * keyframes opens at once and any keyframe can be read.
+ * <p>
+ * The file starts with a header of {@link #HEADER_SIZE} bytes:
+ * <ul>
+ * <li>{@link #MAGIC} (int), {@link #VERSION} (short), flags (short)</li>
+ * <li>values per keyframe (int), bytes before the first column (int)</li>
+ * <li>keyframe count (long), 8 bytes reserved</li>
+ * </ul>
+ * followed by the length and UTF-8 name of the robot class (short, bytes), zero padding to a multiple of 8, and then
+ * each column in turn.  With {@link #DURATIONS} set there is one more column: the seconds to move to each keyframe
+ * from the one before.  Numbers are big endian, doubles unless {@link #SINGLE_PRECISION} is set.
+ * <p>
+ * Read only.  Safe to read from many threads.
+ */
+public class KeyframeTable {
+	public static final int MAGIC = 0x524B4654;  // "RKFT"
+	public static final short VERSION = 1;
+	public static final int HEADER_SIZE = 32;
+
+	// flags
+	public static final int SINGLE_PRECISION = 1;
+	public static final int DURATIONS = 2;
+
+	// keyframes packed per write
+	protected static final int CHUNK = 4096;
+
+	protected String robotType;
+	protected int flags;
+	protected int valueCount;
+	protected int count;
+	protected int width;
+	// one per value, then durations
+	protected ByteBuffer [] columns;
+	// the last robot found able to use the keyframes.  see bind()
+	protected volatile Robot boundRobot;
+
+
+	protected KeyframeTable() {}
+
+
+	/**
+	 * @return the number of keyframes
+	 */
+	public int size() {
+		return count;
+	}
+
+
+	/**
+	 * @return values per keyframe
+	 */
+	public int getValueCount() {
+		return valueCount;
+	}
+
+
+	/**
+	 * @return the class name of the robot that wrote the table
+	 */
+	public String getRobotType() {
+		return robotType;
+	}
+
+
+	public boolean isSinglePrecision() {
+		return (flags & SINGLE_PRECISION)!=0;
+	}
+
+
+	public boolean hasDurations() {
+		return (flags & DURATIONS)!=0;
+	}
+
+
+	/**
+	 * @param index the keyframe
+	 * @param column the value
+	 */
+	public double getValue(int index,int column) {
+		return read(columns[column],index);
+	}
+
+
+	/**
+	 * @param index the keyframe
+	 * @param values receives getValueCount() values
+	 */
+	public void getValues(int index,double [] values) {
+		for(int c=0;c<valueCount;++c) values[c] = read(columns[c],index);
+	}
+
+
+	/**
+	 * @param index the keyframe
+	 * @return seconds to move to this keyframe from the one before, or 0 if there are no durations.
+	 */
+	public double getDuration(int index) {
+		return hasDurations() ? read(columns[valueCount],index) : 0;
+	}
+
+
+	protected double read(ByteBuffer column,int index) {
+		return width==4 ? column.getFloat(index*4) : column.getDouble(index*8);
+	}
+
+
+	/**
+	 * Make one keyframe.
+	 * @param robot describes the keyframe with setKeyframeValues()
+	 * @param index the keyframe
+	 * @return a new keyframe
+	 */
+	public RobotKeyframe createKeyframe(Robot robot,int index) {
+		if(robot!=boundRobot) bind(robot);
+		double [] values = new double[valueCount];
+		getValues(index,values);
+		RobotKeyframe k = robot.createKeyframe();
+		robot.setKeyframeValues(k,values);
+		return k;
+	}
+
+
+	/**
+	 * Make a program with a move to each keyframe after the first.  Nothing is read yet: each keyframe is made the
+	 * first time the program or one of its moves asks for it, and is the same object after that.  Changing the
+	 * order of the keyframes in the program makes all of them.
+	 * @param robot describes the keyframes with setKeyframeValues()
+	 * @return a new program
+	 */
+	public RobotProgram createProgram(Robot robot) {
+		bind(robot);
+		RobotProgram program = new RobotProgram();
+		KeyframeList list = new KeyframeList(this,robot);
+		program.keyframes = list;
+		for(int i=1;i<count;++i) {
+			program.addInstruction(new TableMove(list,i,(float)getDuration(i)));
+		}
+		return program;
+	}
+
+
+	/**
+	 * Check once that a robot can use the keyframes of this table.
+	 * @param robot describes the keyframes with setKeyframeValues()
+	 * @throws IllegalArgumentException if it can't.
+	 */
+	public synchronized void bind(Robot robot) {
+		if(robot==boundRobot) return;
+		if(robot.getKeyframeSize()!=valueCount || robot.createKeyframe()==null) {
+			throw new IllegalArgumentException(robot.getDisplayName()+" can't use keyframes of "+robotType+".");
+		}
+		boundRobot = robot;
+	}
+
+
+	/**
+	 * The keyframes of a program from {@link #createProgram(Robot)}, made when they are first asked for.
+	 */
+	protected static class KeyframeList extends AbstractList<RobotKeyframe> {
+		protected KeyframeTable table;
+		protected Robot robot;
+		// by index in the table.  filled in as they are made.
+		protected RobotKeyframe [] made;
+		// once the order changes, the list itself.
+		protected List<RobotKeyframe> edited;
+
+		protected KeyframeList(KeyframeTable table,Robot robot) {
+			this.table = table;
+			this.robot = robot;
+			made = new RobotKeyframe[table.size()];
+		}
+
+		/**
+		 * @param index in the table, whatever has changed since.
+		 */
+		protected synchronized RobotKeyframe getOriginal(int index) {
+			if(made[index]==null) made[index] = table.createKeyframe(robot,index);
+			return made[index];
+		}
+
+		@Override
+		public synchronized RobotKeyframe get(int index) {
+			return edited!=null ? edited.get(index) : getOriginal(index);
+		}
+
+		@Override
+		public synchronized int size() {
+			return edited!=null ? edited.size() : made.length;
+		}
+
+		@Override
+		public synchronized RobotKeyframe set(int index,RobotKeyframe element) {
+			return edit().set(index,element);
+		}
+
+		@Override
+		public synchronized void add(int index,RobotKeyframe element) {
+			edit().add(index,element);
+			modCount++;
+		}
+
+		@Override
+		public synchronized RobotKeyframe remove(int index) {
+			modCount++;
+			return edit().remove(index);
+		}
+
+		protected List<RobotKeyframe> edit() {
+			if(edited==null) {
+				edited = new ArrayList<RobotKeyframe>(made.length);
+				for(int i=0;i<made.length;++i) edited.add(getOriginal(i));
+			}
+			return edited;
+		}
+	}
+
+
+	/**
+	 * A move to a keyframe of a {@link KeyframeList}, made when the move is first asked where it goes.
+	 */
+	protected static class TableMove extends RobotInstructionMove {
+		protected KeyframeList keyframes;
+		protected int index;
+
+		protected TableMove(KeyframeList keyframes,int index,float duration) {
+			super(null,duration);
+			this.keyframes = keyframes;
+			this.index = index;
+		}
+
+		@Override
+		public RobotKeyframe getTarget() {
+			if(target==null && keyframes!=null) target = keyframes.getOriginal(index);
+			return target;
+		}
+
+		@Override
+		public void setTarget(RobotKeyframe target) {
+			keyframes = null;
+			super.setTarget(target);
+		}
+	}
+
+
+	/**
+	 * Map a table file into memory.  Nothing is read until it is asked for.
+	 * @param file the table
+	 * @return the table
+	 * @throws IOException if the file can't be read or is not a table.
+	 */
+	public static KeyframeTable open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file,"r");
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			readFully(channel,header);
+			KeyframeTable table = new KeyframeTable();
+			int start = table.readHeader(header,channel);
+			long columnBytes = (long)table.count*table.width;
+			if(start+columnBytes*table.columns.length>channel.size()) throw new IOException("Keyframe table is cut short.");
+			for(int c=0;c<table.columns.length;++c) {
+				// the mapping stays valid after the channel is closed.
+				table.columns[c] = channel.map(FileChannel.MapMode.READ_ONLY,start+c*columnBytes,columnBytes);
+			}
+			return table;
+		} finally {
+			raf.close();
+		}
+	}
+
+
+	/**
+	 * Read a whole table into memory.
+	 * @param channel the table.  Not closed.
+	 * @return the table
+	 * @throws IOException if the channel can't be read or is not a table.
+	 */
+	public static KeyframeTable read(ReadableByteChannel channel) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		readFully(channel,header);
+		KeyframeTable table = new KeyframeTable();
+		table.readHeader(header,channel);
+		int columnBytes = table.count*table.width;
+		for(int c=0;c<table.columns.length;++c) {
+			table.columns[c] = ByteBuffer.allocate(columnBytes);
+			readFully(channel,table.columns[c]);
+		}
+		return table;
+	}
+
+
+	/**
+	 * @return bytes before the first column
+	 */
+	protected int readHeader(ByteBuffer header,ReadableByteChannel channel) throws IOException {
+		header.flip();
+		if(header.getInt()!=MAGIC) throw new IOException("Not a keyframe table.");
+		short version = header.getShort();
+		if(version!=VERSION) throw new IOException("Unknown keyframe table version "+version+".");
+		flags = header.getShort();
+		valueCount = header.getInt();
+		int start = header.getInt();
+		long n = header.getLong();
+		width = isSinglePrecision() ? 4 : 8;
+		if(valueCount<0 || start<HEADER_SIZE || n<0 || n*width>Integer.MAX_VALUE) {
+			throw new IOException("Bad keyframe table header.");
+		}
+		count = (int)n;
+
+		ByteBuffer name = ByteBuffer.allocate(start-HEADER_SIZE);
+		readFully(channel,name);
+		name.flip();
+		int length = name.getShort();
+		if(length<0 || length>name.remaining()) throw new IOException("Bad keyframe table header.");
+		robotType = new String(name.array(),name.position(),length,StandardCharsets.UTF_8);
+
+		columns = new ByteBuffer[valueCount+(hasDurations() ? 1 : 0)];
+		return start;
+	}
+
+
+	protected static void readFully(ReadableByteChannel channel,ByteBuffer buffer) throws IOException {
+		while(buffer.hasRemaining()) {
+			if(channel.read(buffer)<0) throw new IOException("Keyframe table is cut short.");
+		}
+	}
+
+
+	/**
+	 * Write the keyframes and moves of a program.  The duration of each keyframe is the duration of the top level
+	 * move to it, or 0 if there isn't one.
+	 * @param file written over
+	 * @param robot describes the keyframes with getKeyframeValues()
+	 * @param program the program
+	 * @param singlePrecision true to store floats instead of doubles
+	 * @throws IOException if the file can't be written.
+	 */
+	public static void write(File file,Robot robot,RobotProgram program,boolean singlePrecision) throws IOException {
+		double [] durations = new double[program.size()];
+		// the first place each keyframe is found.  keyframes are matched by identity, as in the program.
+		IdentityHashMap<RobotKeyframe,Integer> index = new IdentityHashMap<RobotKeyframe,Integer>(durations.length*2);
+		for(int i=durations.length-1;i>=0;--i) {
+			index.put(program.get(i),i);
+		}
+		for(RobotInstruction ins : program.getInstructions()) {
+			if(!(ins instanceof RobotInstructionMove)) continue;
+			RobotInstructionMove move = (RobotInstructionMove)ins;
+			Integer i = index.get(move.getTarget());
+			if(i!=null) durations[i] = move.getDuration();
+		}
+		write(file,robot,program.keyframes,durations,singlePrecision);
+	}
+
+
+	/**
+	 * @param file written over
+	 * @param robot describes the keyframes with getKeyframeValues()
+	 * @param keyframes the keyframes
+	 * @param durations seconds to move to each keyframe, or null for none.
+	 * @param singlePrecision true to store floats instead of doubles
+	 * @throws IOException if the file can't be written.
+	 */
+	public static void write(File file,Robot robot,List<RobotKeyframe> keyframes,double [] durations,boolean singlePrecision) throws IOException {
+		int valueCount = robot.getKeyframeSize();
+		if(valueCount<=0) throw new IllegalArgumentException(robot.getDisplayName()+" can't describe its keyframes.");
+		int count = keyframes.size();
+		if(durations!=null && durations.length<count) throw new IllegalArgumentException("Not enough durations.");
+		int width = singlePrecision ? 4 : 8;
+		int columnCount = valueCount+(durations!=null ? 1 : 0);
+		long columnBytes = (long)count*width;
+		if(columnBytes>Integer.MAX_VALUE) throw new IllegalArgumentException("Too many keyframes.");
+
+		byte [] name = robot.getClass().getName().getBytes(StandardCharsets.UTF_8);
+		int start = (HEADER_SIZE+2+name.length+7) & ~7;
+		ByteBuffer header = ByteBuffer.allocate(start);
+		header.putInt(MAGIC);
+		header.putShort(VERSION);
+		header.putShort((short)((singlePrecision ? SINGLE_PRECISION : 0) | (durations!=null ? DURATIONS : 0)));
+		header.putInt(valueCount);
+		header.putInt(start);
+		header.putLong(count);
+		header.putLong(0);
+		header.putShort((short)name.length);
+		header.put(name);
+		header.clear();
+
+		RandomAccessFile raf = new RandomAccessFile(file,"rw");
+		try {
+			FileChannel channel = raf.getChannel();
+			channel.truncate(0);
+			while(header.hasRemaining()) channel.write(header);
+
+			// read a chunk of keyframes, then write each column's share of it in place.
+			int chunk = Math.min(CHUNK,Math.max(1,count));
+			double [] rows = new double[chunk*valueCount];
+			double [] row = new double[valueCount];
+			ByteBuffer buffer = ByteBuffer.allocateDirect(chunk*width);
+			for(int first=0;first<count;first+=chunk) {
+				int n = Math.min(chunk,count-first);
+				for(int i=0;i<n;++i) {
+					robot.getKeyframeValues(keyframes.get(first+i),row);
+					System.arraycopy(row,0,rows,i*valueCount,valueCount);
+				}
+				for(int c=0;c<columnCount;++c) {
+					buffer.clear();
+					for(int i=0;i<n;++i) {
+						double v = (c<valueCount) ? rows[i*valueCount+c] : durations[first+i];
+						if(singlePrecision) buffer.putFloat((float)v);
+						else buffer.putDouble(v);
+					}
+					buffer.flip();
+					long position = start+c*columnBytes+(long)first*width;
+					while(buffer.hasRemaining()) position += channel.write(buffer,position);
+				}
+			}
+			channel.force(false);
+		} finally {
+			raf.close();
+		}
+	}
+}
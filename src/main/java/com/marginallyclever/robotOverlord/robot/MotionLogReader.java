@@ -0,0 +1,185 @@
+package com.marginallyclever.robotOverlord.robot;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads a log written by {@link MotionRecorder}, one record at a time.
+ * <p>
+ * The reader is positioned on one record.  The getters describe that record.  A log cut short, as when the app
+ * quit in the middle of a write, ends at the last whole record.
+ */
+public class MotionLogReader {
+	protected DataInputStream in;
+	protected long startMillis;
+
+	// the current record
+	protected byte type;
+	protected long time;
+	protected int robot;
+	protected float delta;
+	protected int count;
+	protected double [] now = new double[MotionRecorder.MAX_VALUES];
+	protected double [] future = new double[MotionRecorder.MAX_VALUES];
+	protected int length;
+	protected byte [] text = new byte[MotionRecorder.MAX_LINE];
+	protected long recordCount;
+
+
+	/**
+	 * @param stream the log.  Closed by {@link #close()}.
+	 * @throws IOException if the stream is not a motion log.
+	 */
+	public MotionLogReader(InputStream stream) throws IOException {
+		in = new DataInputStream(new BufferedInputStream(stream,65536));
+		if(in.readInt()!=MotionRecorder.MAGIC) throw new IOException("Not a motion log.");
+		short version = in.readShort();
+		if(version!=MotionRecorder.VERSION) throw new IOException("Unknown motion log version "+version+".");
+		startMillis = in.readLong();
+	}
+
+
+	/**
+	 * Move to the next record.
+	 * @return false at the end of the log.
+	 * @throws IOException if the log is damaged.
+	 */
+	public boolean next() throws IOException {
+		int t = in.read();
+		if(t<0) return false;
+		try {
+			time = in.readLong();
+			switch(t) {
+			case MotionRecorder.ROBOT:
+				robot = in.readShort();
+				count = in.readShort();
+				readText();
+				break;
+			case MotionRecorder.TICK:
+				delta = in.readFloat();
+				break;
+			case MotionRecorder.STATE:
+				robot = in.readShort();
+				count = in.readShort();
+				if(count<0 || count>MotionRecorder.MAX_VALUES) throw new IOException("Bad pose size "+count+".");
+				for(int i=0;i<count;++i) now[i] = in.readFloat();
+				for(int i=0;i<count;++i) future[i] = in.readFloat();
+				break;
+			case MotionRecorder.SENT:
+			case MotionRecorder.RECEIVED:
+				robot = in.readShort();
+				readText();
+				break;
+			default:
+				throw new IOException("Unknown record type "+t+".");
+			}
+		} catch(EOFException e) {
+			// the last record was never finished.
+			return false;
+		}
+		type = (byte)t;
+		recordCount++;
+		return true;
+	}
+
+
+	protected void readText() throws IOException {
+		length = in.readShort();
+		if(length<0 || length>MotionRecorder.MAX_LINE) throw new IOException("Bad line length "+length+".");
+		in.readFully(text,0,length);
+	}
+
+
+	public void close() throws IOException {
+		in.close();
+	}
+
+
+	/**
+	 * @return wall clock time when the log was started, in milliseconds.
+	 */
+	public long getStartTime() {
+		return startMillis;
+	}
+
+
+	/**
+	 * @return one of {@link MotionRecorder#ROBOT}, {@link MotionRecorder#TICK}, {@link MotionRecorder#STATE},
+	 * {@link MotionRecorder#SENT}, or {@link MotionRecorder#RECEIVED}.
+	 */
+	public byte getType() {
+		return type;
+	}
+
+
+	/**
+	 * @return seconds from the start of the log
+	 */
+	public double getTime() {
+		return time*1e-9;
+	}
+
+
+	/**
+	 * @return nanoseconds from the start of the log
+	 */
+	public long getNanos() {
+		return time;
+	}
+
+
+	/**
+	 * @return the robot index, for every record but {@link MotionRecorder#TICK}.
+	 */
+	public int getRobot() {
+		return robot;
+	}
+
+
+	/**
+	 * @return seconds since the last tick, for {@link MotionRecorder#TICK}.
+	 */
+	public float getDelta() {
+		return delta;
+	}
+
+
+	/**
+	 * @return values per pose, for {@link MotionRecorder#ROBOT} and {@link MotionRecorder#STATE}.
+	 */
+	public int getValueCount() {
+		return count;
+	}
+
+
+	/**
+	 * For {@link MotionRecorder#STATE}.
+	 * @param now receives getValueCount() values
+	 * @param future receives getValueCount() values
+	 */
+	public void getValues(double [] now,double [] future) {
+		System.arraycopy(this.now,0,now,0,count);
+		System.arraycopy(this.future,0,future,0,count);
+	}
+
+
+	/**
+	 * @return the robot name for {@link MotionRecorder#ROBOT}, or the line for {@link MotionRecorder#SENT} and
+	 * {@link MotionRecorder#RECEIVED}.
+	 */
+	public String getText() {
+		return new String(text,0,length,StandardCharsets.UTF_8);
+	}
+
+
+	/**
+	 * @return records read so far
+	 */
+	public long getRecordCount() {
+		return recordCount;
+	}
+}
@@ -0,0 +1,436 @@
+package com.marginallyclever.robotOverlord.robot;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import com.marginallyclever.communications.NetworkConnection;
+import com.marginallyclever.communications.NetworkConnectionListener;
+
+/**
+ * Writes what the robots did to a compact binary log, for when a run misbehaves and nobody was watching.
+ * <p>
+ * Each world tick records the pose of every robot, now and where it is going.  Every line sent to a robot and every
+ * line it sends back is recorded too, with the time it happened.  Read the log back with {@link MotionLogReader},
+ * or play it back with {@link MotionReplayer}.
+ * <p>
+ * Recording must not slow the robots down.  Records go into a ring of preallocated entries without locks, and a
+ * writer thread drains the ring to the stream.  If the ring is full the record is dropped and counted, never waited
+ * for.  Any thread may record.
+ * <p>
+ * The log starts with {@link #MAGIC}, {@link #VERSION}, and the wall clock time in milliseconds.  Each record is a
+ * type byte and the nanoseconds since the start, then
+ * <ul>
+ * <li>{@link #ROBOT}: robot index (short), values per pose (short), name length (short), name (UTF-8)</li>
+ * <li>{@link #TICK}: seconds since the last tick (float)</li>
+ * <li>{@link #STATE}: robot index (short), values per pose (short), pose now (floats), pose to come (floats)</li>
+ * <li>{@link #SENT} and {@link #RECEIVED}: robot index (short), length (short), the line (ASCII)</li>
+ * </ul>
+ */
+public class MotionRecorder implements NetworkConnectionListener {
+	public static final int MAGIC = 0x524F4D4C;  // "ROML"
+	public static final short VERSION = 1;
+
+	public static final byte ROBOT = 1;
+	public static final byte TICK = 2;
+	public static final byte STATE = 3;
+	public static final byte SENT = 4;
+	public static final byte RECEIVED = 5;
+
+	// most values in one pose
+	public static final int MAX_VALUES = 32;
+	// longer lines are cut short
+	public static final int MAX_LINE = 256;
+
+	protected static class Entry {
+		long sequence;
+		byte type;
+		long time;
+		short robot;
+		float delta;
+		int count;
+		float [] now = new float[MAX_VALUES];
+		float [] future = new float[MAX_VALUES];
+		int length;
+		byte [] text = new byte[MAX_LINE];
+	}
+
+	protected Entry [] ring;
+	protected int mask;
+	// next sequence to claim
+	protected AtomicLong head = new AtomicLong();
+	// entry i is ready to write when published[i] is its sequence+1
+	protected AtomicLongArray published;
+	// next sequence to write.  only the writer changes it.
+	protected volatile long tail;
+
+	protected long startNanos;
+	protected long startMillis;
+	protected OutputStream out;
+	// records are packed here by the writer, then written in one go.  big endian, as DataInputStream reads.
+	protected ByteBuffer buffer = ByteBuffer.allocate(65536);
+	protected Thread writer;
+	protected volatile boolean running = true;
+	protected volatile IOException error;
+
+	// robots being recorded.  replaced, never changed, so readers need no lock.
+	protected volatile Robot [] robots = new Robot[0];
+	protected volatile NetworkConnection [] attached = new NetworkConnection[0];
+	// scratch for recordTick(), used by one thread
+	protected double [] nowValues = new double[MAX_VALUES];
+	protected double [] futureValues = new double[MAX_VALUES];
+
+	// metrics
+	protected AtomicLong droppedCount = new AtomicLong();
+	protected AtomicLong truncatedCount = new AtomicLong();
+	protected volatile long recordCount;
+	protected volatile long bytesWritten;
+
+
+	/**
+	 * @param stream receives the log.  Closed by {@link #close()}.
+	 */
+	public MotionRecorder(OutputStream stream) {
+		this(stream,8192);
+	}
+
+
+	/**
+	 * @param stream receives the log.  Closed by {@link #close()}.
+	 * @param capacity records that can wait for the writer.  Rounded up to a power of two.
+	 */
+	public MotionRecorder(OutputStream stream,int capacity) {
+		int size = Integer.highestOneBit(Math.max(2,capacity)-1)<<1;
+		ring = new Entry[size];
+		for(int i=0;i<size;++i) ring[i] = new Entry();
+		mask = size-1;
+		published = new AtomicLongArray(size);
+
+		startNanos = System.nanoTime();
+		startMillis = System.currentTimeMillis();
+		out = stream;
+
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				drain();
+			}
+		},"MotionRecorder");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+
+	/**
+	 * Record a robot's pose every {@link #recordTick(float)}, and the lines it sends and receives.
+	 * @param robot the robot
+	 * @return the index of the robot in the log
+	 */
+	public synchronized int addRobot(Robot robot) {
+		int index = robots.length;
+		Robot [] r = new Robot[index+1];
+		NetworkConnection [] c = new NetworkConnection[index+1];
+		System.arraycopy(robots,0,r,0,index);
+		System.arraycopy(attached,0,c,0,index);
+		r[index] = robot;
+		// attached first, so whoever sees the new robot sees room for its connection.
+		attached = c;
+		robots = r;
+		robot.recorder = this;
+		robot.recorderIndex = index;
+		attach(index);
+
+		byte [] name = String.valueOf(robot.getDisplayName()).getBytes(StandardCharsets.UTF_8);
+		Entry e = claim();
+		if(e!=null) {
+			e.type = ROBOT;
+			e.robot = (short)index;
+			e.count = robot.getKeyframeSize();
+			e.length = Math.min(name.length,MAX_LINE);
+			System.arraycopy(name,0,e.text,0,e.length);
+			publish(e);
+		}
+		return index;
+	}
+
+
+	/**
+	 * Listen to whichever connection the robot is using now.  Only takes the lock when the connection has changed.
+	 */
+	protected void attach(int index) {
+		NetworkConnection c = robots[index].getConnection();
+		if(attached[index]==c) return;
+		synchronized(this) {
+			if(!running) return;
+			NetworkConnection [] a = attached;
+			if(a[index]==c) return;
+			if(a[index]!=null) a[index].removeListener(this);
+			NetworkConnection [] copy = a.clone();
+			copy[index] = c;
+			attached = copy;
+			if(c!=null) c.addListener(this);
+		}
+	}
+
+
+	/**
+	 * Record the pose of every robot.  Call once per world tick, after the robots have moved.
+	 * @param delta seconds since the last tick
+	 */
+	public void recordTick(float delta) {
+		Entry e = claim();
+		if(e!=null) {
+			e.type = TICK;
+			e.delta = delta;
+			publish(e);
+		}
+		Robot [] r = robots;
+		for(int i=0;i<r.length;++i) {
+			attach(i);
+			int n = Math.min(r[i].getKeyframeSize(),MAX_VALUES);
+			if(n==0) continue;
+			if(r[i].getMotionValues(nowValues,futureValues)) {
+				recordState(i,nowValues,futureValues,n);
+			}
+		}
+	}
+
+
+	/**
+	 * Record where a robot is and where it is going.
+	 * @param robot index from {@link #addRobot(Robot)}
+	 * @param now the pose now
+	 * @param future the pose it is moving to
+	 * @param count values in each pose
+	 * @return false if the record was dropped.
+	 */
+	public boolean recordState(int robot,double [] now,double [] future,int count) {
+		Entry e = claim();
+		if(e==null) return false;
+		count = Math.min(count,MAX_VALUES);
+		e.type = STATE;
+		e.robot = (short)robot;
+		e.count = count;
+		for(int i=0;i<count;++i) {
+			e.now[i] = (float)now[i];
+			e.future[i] = (float)future[i];
+		}
+		publish(e);
+		return true;
+	}
+
+
+	/**
+	 * @param robot index from {@link #addRobot(Robot)}
+	 * @param line sent to the robot
+	 * @return false if the record was dropped.
+	 */
+	public boolean recordSent(int robot,CharSequence line) {
+		return recordLine(SENT,robot,line);
+	}
+
+
+	/**
+	 * @param robot index from {@link #addRobot(Robot)}
+	 * @param line received from the robot
+	 * @return false if the record was dropped.
+	 */
+	public boolean recordReceived(int robot,CharSequence line) {
+		return recordLine(RECEIVED,robot,line);
+	}
+
+
+	protected boolean recordLine(byte type,int robot,CharSequence line) {
+		Entry e = claim();
+		if(e==null) return false;
+		int len = line.length();
+		if(len>MAX_LINE) {
+			truncatedCount.incrementAndGet();
+			len = MAX_LINE;
+		}
+		e.type = type;
+		e.robot = (short)robot;
+		for(int i=0;i<len;++i) {
+			char c = line.charAt(i);
+			e.text[i] = (byte)(c<128 ? c : '?');
+		}
+		e.length = len;
+		publish(e);
+		return true;
+	}
+
+
+	/**
+	 * @return an entry to fill, or null if the ring is full.
+	 */
+	protected Entry claim() {
+		if(!running) return null;
+		long seq;
+		do {
+			seq = head.get();
+			if(seq-tail >= ring.length) {
+				droppedCount.incrementAndGet();
+				return null;
+			}
+		} while(!head.compareAndSet(seq,seq+1));
+		Entry e = ring[(int)(seq & mask)];
+		e.sequence = seq;
+		e.time = System.nanoTime()-startNanos;
+		return e;
+	}
+
+
+	protected void publish(Entry e) {
+		published.lazySet((int)(e.sequence & mask),e.sequence+1);
+	}
+
+
+	protected void drain() {
+		try {
+			buffer.putInt(MAGIC);
+			buffer.putShort(VERSION);
+			buffer.putLong(startMillis);
+			while(true) {
+				long t = tail;
+				int index = (int)(t & mask);
+				if(published.get(index)==t+1) {
+					// the biggest record is a little over MAX_LINE.
+					if(buffer.remaining()<MAX_LINE*2) flush();
+					pack(ring[index]);
+					recordCount++;
+					tail = t+1;
+					continue;
+				}
+				// nothing ready.
+				if(!running && t==head.get()) break;
+				flush();
+				LockSupport.parkNanos(1000000);
+			}
+			flush();
+		} catch(IOException e) {
+			error = e;
+			running = false;
+			e.printStackTrace();
+		}
+	}
+
+
+	protected void flush() throws IOException {
+		if(buffer.position()==0) return;
+		out.write(buffer.array(),0,buffer.position());
+		out.flush();
+		bytesWritten += buffer.position();
+		buffer.clear();
+	}
+
+
+	protected void pack(Entry e) {
+		buffer.put(e.type);
+		buffer.putLong(e.time);
+		switch(e.type) {
+		case ROBOT:
+			buffer.putShort(e.robot);
+			buffer.putShort((short)e.count);
+			buffer.putShort((short)e.length);
+			buffer.put(e.text,0,e.length);
+			break;
+		case TICK:
+			buffer.putFloat(e.delta);
+			break;
+		case STATE:
+			buffer.putShort(e.robot);
+			buffer.putShort((short)e.count);
+			for(int i=0;i<e.count;++i) buffer.putFloat(e.now[i]);
+			for(int i=0;i<e.count;++i) buffer.putFloat(e.future[i]);
+			break;
+		default:
+			buffer.putShort(e.robot);
+			buffer.putShort((short)e.length);
+			buffer.put(e.text,0,e.length);
+			break;
+		}
+	}
+
+
+	/**
+	 * Write everything still in the ring, stop listening to the robots, and close the stream.
+	 * @return false if anything went wrong writing the log.
+	 */
+	public boolean close() {
+		synchronized(this) {
+			if(!running && writer==null) return error==null;
+			running = false;
+			Robot [] r = robots;
+			NetworkConnection [] a = attached;
+			for(int i=0;i<r.length;++i) {
+				if(a[i]!=null) a[i].removeListener(this);
+				if(r[i].recorder==this) r[i].recorder = null;
+			}
+		}
+		try {
+			if(writer!=null) writer.join();
+			writer = null;
+			out.close();
+		} catch(InterruptedException e) {
+			e.printStackTrace();
+			return false;
+		} catch(IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		return error==null;
+	}
+
+
+	/**
+	 * @return records written to the stream
+	 */
+	public long getRecordCount() {
+		return recordCount;
+	}
+
+
+	/**
+	 * @return records lost because the ring was full
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+
+	/**
+	 * @return lines cut to {@link #MAX_LINE} characters
+	 */
+	public long getTruncatedCount() {
+		return truncatedCount.get();
+	}
+
+
+	/**
+	 * @return bytes written to the stream
+	 */
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+
+	@Override
+	public void dataAvailable(NetworkConnection arg0,String data) {
+		NetworkConnection [] a = attached;
+		for(int i=0;i<a.length;++i) {
+			if(a[i]==arg0) recordReceived(i,data);
+		}
+	}
+
+
+	@Override
+	public void sendBufferEmpty(NetworkConnection arg0) {}
+
+
+	@Override
+	public void lineError(NetworkConnection arg0,int lineNumber) {}
+}
@@ -0,0 +1,168 @@
+package com.marginallyclever.robotOverlord.robot;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.marginallyclever.robotOverlord.entity.Entity;
+import com.marginallyclever.robotOverlord.world.World;
+
+/**
+ * Plays back a log written by {@link MotionRecorder}.
+ * <p>
+ * Each recorded pose is put back on the robot of the same name with {@link Robot#setMotionValues}, when the replay
+ * clock reaches it.  Nothing is sent to any real machine.  Lines sent and received are handed to the listeners.
+ * Call {@link #update(double)} once per frame, as {@link World} does.  The replay can run faster or slower than the
+ * recording with {@link #setSpeed(double)}.
+ */
+public class MotionReplayer {
+	/**
+	 * Told about every record as it is replayed.
+	 */
+	public interface Listener {
+		/**
+		 * @param record positioned on the record.  Only valid during the call.
+		 * @param robot the robot it belongs to, or null.
+		 */
+		void replayed(MotionLogReader record,Robot robot);
+	}
+
+	protected MotionLogReader reader;
+	protected World world;
+	protected List<Robot> robots = new ArrayList<Robot>();
+	protected List<Listener> listeners = new ArrayList<Listener>();
+
+	protected double speed = 1;
+	// seconds of the log played so far
+	protected double clock;
+	protected boolean pending;
+	protected boolean finished;
+
+	protected double [] now = new double[MotionRecorder.MAX_VALUES];
+	protected double [] future = new double[MotionRecorder.MAX_VALUES];
+
+
+	/**
+	 * @param reader the log to play.  Closed when the log ends.
+	 */
+	public MotionReplayer(MotionLogReader reader) {
+		this.reader = reader;
+	}
+
+
+	/**
+	 * Robots in the log are found by name in this world.
+	 */
+	public void setWorld(World world) {
+		this.world = world;
+	}
+
+
+	/**
+	 * Play robot number index on this robot, whatever its name.
+	 */
+	public void bind(int index,Robot robot) {
+		while(robots.size()<=index) robots.add(null);
+		robots.set(index,robot);
+	}
+
+
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+
+	/**
+	 * @param speed 1 for real time, 2 for twice as fast, and so on.
+	 */
+	public void setSpeed(double speed) {
+		if(speed<0) throw new IllegalArgumentException("speed must not be negative.");
+		this.speed = speed;
+	}
+
+
+	public double getSpeed() {
+		return speed;
+	}
+
+
+	/**
+	 * @return seconds of the log played so far
+	 */
+	public double getTime() {
+		return clock;
+	}
+
+
+	public boolean isFinished() {
+		return finished;
+	}
+
+
+	/**
+	 * Play every record up to the new time.
+	 * @param seconds real seconds since the last update.
+	 * @return false once the log has ended.
+	 * @throws IOException if the log is damaged.
+	 */
+	public boolean update(double seconds) throws IOException {
+		if(finished) return false;
+		clock += seconds*speed;
+		while(true) {
+			if(!pending) {
+				if(!reader.next()) {
+					finished = true;
+					reader.close();
+					return false;
+				}
+				pending = true;
+			}
+			if(reader.getTime()>clock) return true;
+			play();
+			pending = false;
+		}
+	}
+
+
+	protected void play() {
+		Robot robot = null;
+		switch(reader.getType()) {
+		case MotionRecorder.ROBOT:
+			robot = getRobot(reader.getRobot());
+			if(robot==null && world!=null) {
+				Entity e = world.findObjectWithName(reader.getText());
+				if(e instanceof Robot) {
+					robot = (Robot)e;
+					bind(reader.getRobot(),robot);
+				}
+			}
+			break;
+		case MotionRecorder.STATE:
+			robot = getRobot(reader.getRobot());
+			if(robot!=null && robot.getKeyframeSize()==reader.getValueCount()) {
+				reader.getValues(now,future);
+				robot.setMotionValues(now,future);
+			}
+			break;
+		case MotionRecorder.SENT:
+		case MotionRecorder.RECEIVED:
+			robot = getRobot(reader.getRobot());
+			break;
+		default:
+			break;
+		}
+		for(int i=0;i<listeners.size();++i) {
+			listeners.get(i).replayed(reader,robot);
+		}
+	}
+
+
+	protected Robot getRobot(int index) {
+		return index<robots.size() ? robots.get(index) : null;
+	}
+}
@@ -1,6 +1,7 @@
 package com.marginallyclever.robotOverlord.robot;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import javax.swing.JPanel;
 
@@ -40,6 +41,20 @@ public class Robot extends PhysicalObject implements NetworkConnectionListener {
 	private transient boolean modelsLoaded;
 	
 	protected transient RobotControlPanel robotPanel=null;
+
+	// trajectory being played in the simulation.  see followTrajectory()
+	protected transient Trajectory trajectory;
+	protected transient double trajectoryTime;
+	protected transient double [] trajectoryValues;
+	// latest pose from commandValues(), waiting to be shown.  see takeCommandedKeyframe()
+	protected transient RobotKeyframe commandedKeyframe;
+	protected transient RobotKeyframe commandedSpare;
+	protected transient boolean hasCommandedKeyframe;
+	protected transient double [] copyValues;
+
+	// set by MotionRecorder.addRobot()
+	protected transient MotionRecorder recorder;
+	protected transient int recorderIndex;
 	
 	
 	public Robot() {
@@ -220,6 +235,7 @@ public class Robot extends PhysicalObject implements NetworkConnectionListener {
 		} catch(Exception e) {
 			e.printStackTrace();
 		}
+		if(recorder!=null) recorder.recordSent(recorderIndex,line);
 		
 		return true;
 	}
@@ -250,10 +266,282 @@ public class Robot extends PhysicalObject implements NetworkConnectionListener {
 	 * @param a starting state
 	 * @param b ending state
 	 * @param scale value from 0 to 1, inclusive.
-	 * @return the interpolated keyframe = (b-a)*scale + a
+	 * @return the interpolated keyframe = (b-a)*scale + a, or a if this robot can't describe its keyframes.
 	 */
 	public RobotKeyframe interpolateKeyframes(RobotKeyframe a,RobotKeyframe b,float scale) {
-		return a;//( b - a ) * scale + a;
+		int size = getKeyframeSize();
+		RobotKeyframe result = createKeyframe();
+		if(size==0 || result==null) return a;
+
+		double [] va = new double[size];
+		double [] vb = new double[size];
+		getKeyframeValues(a,va);
+		getKeyframeValues(b,vb);
+		for(int i=0;i<size;++i) {
+			va[i] += (vb[i]-va[i])*scale;
+		}
+		setKeyframeValues(result,va);
+		return result;
+	}
+
+	/**
+	 * @return a new keyframe for this type of robot, or null if not supported.
+	 */
+	public RobotKeyframe createKeyframe() {
+		return null;
+	}
+
+	/**
+	 * @return how many values describe one keyframe of this robot, for interpolation and trajectories.
+	 * 0 if not supported.
+	 */
+	public int getKeyframeSize() {
+		return 0;
+	}
+
+	/**
+	 * Describe a keyframe as getKeyframeSize() values.
+	 * @param keyframe the keyframe to read
+	 * @param values receives the values
+	 */
+	public void getKeyframeValues(RobotKeyframe keyframe,double [] values) {}
+
+	/**
+	 * Set a keyframe from getKeyframeSize() values, and update the rest of the keyframe to match.
+	 * @param keyframe the keyframe to change
+	 * @param values the values
+	 */
+	public void setKeyframeValues(RobotKeyframe keyframe,double [] values) {}
+
+	/**
+	 * Where the robot is and where it is going, for {@link MotionRecorder}.
+	 * @param now receives getKeyframeSize() values
+	 * @param future receives getKeyframeSize() values
+	 * @return false if not supported.
+	 */
+	public boolean getMotionValues(double [] now,double [] future) {
+		return false;
+	}
+
+	/**
+	 * Put the robot where it was, for {@link MotionReplayer}.  Nothing is sent to the robot.
+	 * @param now getKeyframeSize() values
+	 * @param future getKeyframeSize() values
+	 */
+	public void setMotionValues(double [] now,double [] future) {}
+
+	/**
+	 * @return a trajectory with the speed limits of this robot, or null if not supported.
+	 */
+	public Trajectory createTrajectory() {
+		return null;
+	}
+
+	/**
+	 * Build a trajectory through a list of keyframes, using the speed limits of this robot.
+	 * @param keyframes the waypoints
+	 * @return the planned trajectory, or null if not supported.
+	 */
+	public Trajectory createTrajectory(List<RobotKeyframe> keyframes) {
+		Trajectory t = createTrajectory();
+		if(t==null) return null;
+
+		double [] values = new double[t.getAxes()];
+		for(RobotKeyframe k : keyframes) {
+			getKeyframeValues(k,values);
+			t.addWaypoint(values);
+		}
+		t.plan();
+		return t;
+	}
+
+	/**
+	 * Turn a path, such as one from a {@link com.marginallyclever.robotOverlord.kinematics.MotionPlanner}, into a
+	 * program.  Every point becomes a keyframe.  Every point after the first becomes a move, timed with the speed
+	 * limits of this robot.
+	 * @param path poses, as described by getKeyframeSize().  The first is where the robot is now.
+	 * @return the program, or null if not supported.
+	 */
+	public RobotProgram createProgram(List<double[]> path) {
+		Trajectory t = createTrajectory();
+		if(t==null) return null;
+
+		RobotProgram program = new RobotProgram();
+		for(int i=0;i<path.size();++i) {
+			RobotKeyframe k = createKeyframe();
+			setKeyframeValues(k,path.get(i));
+			program.addKeyframe(k);
+			if(i==0) continue;
+
+			t.clear();
+			t.addWaypoint(path.get(i-1));
+			t.addWaypoint(path.get(i));
+			t.plan();
+			program.addInstruction(new RobotInstructionMove(k,(float)t.getDuration()));
+		}
+		return program;
+	}
+
+	/**
+	 * Play a trajectory in the simulation, starting now.  Subclasses move along it with advanceTrajectory().
+	 * @param t the trajectory, or null to stop.
+	 */
+	public void followTrajectory(Trajectory t) {
+		trajectory = t;
+		trajectoryTime = 0;
+		trajectoryValues = (t==null) ? null : new double[t.getAxes()];
+	}
+
+	public boolean isFollowingTrajectory() {
+		return trajectory!=null;
+	}
+
+	/**
+	 * Move along the trajectory being followed.
+	 * @param delta seconds since the last call
+	 * @param keyframe receives the pose at the new time.
+	 * @return false if no trajectory is being followed.  The last pose is still written when the trajectory ends.
+	 */
+	protected boolean advanceTrajectory(float delta,RobotKeyframe keyframe) {
+		if(trajectory==null) return false;
+
+		trajectoryTime += delta;
+		trajectory.sample(trajectoryTime,trajectoryValues);
+		setKeyframeValues(keyframe,trajectoryValues);
+		if(trajectoryTime>=trajectory.getDuration()) {
+			trajectory=null;
+		}
+		return true;
+	}
+
+	/**
+	 * Put the robot at a pose.  The keyframe is worked out and the pose is sent to the machine on the calling thread,
+	 * so a {@link RobotProgramExecutor} runs at its own rate whatever the frame rate.  The simulation only picks up
+	 * the finished keyframe with takeCommandedKeyframe().  Safe to call from any thread.  If several poses arrive
+	 * between frames only the last is shown.
+	 * @param values a pose, as described by getKeyframeSize().  not kept.
+	 */
+	public void commandValues(double [] values) {
+		RobotKeyframe k;
+		synchronized(this) {
+			k = commandedSpare;
+			commandedSpare = null;
+		}
+		if(k==null) k = createKeyframe();
+		if(k==null) return;
+		setKeyframeValues(k,values);
+		sendCommandedValues(values);
+		synchronized(this) {
+			// the keyframe it replaces was never shown.  reuse it next time.
+			commandedSpare = commandedKeyframe;
+			commandedKeyframe = k;
+			hasCommandedKeyframe = true;
+		}
+	}
+
+	/**
+	 * Send a pose from commandValues() to the machine.  Called on the thread that commanded it.
+	 * @param values a pose, as described by getKeyframeSize()
+	 */
+	protected void sendCommandedValues(double [] values) {}
+
+	/**
+	 * Show the latest pose from commandValues().  Cheap enough for the render thread.
+	 * @param keyframe receives the pose
+	 * @return false if no new pose has arrived since the last call.
+	 */
+	protected boolean takeCommandedKeyframe(RobotKeyframe keyframe) {
+		synchronized(this) {
+			if(!hasCommandedKeyframe) return false;
+			copyKeyframe(commandedKeyframe,keyframe);
+			hasCommandedKeyframe = false;
+			return true;
+		}
+	}
+
+	/**
+	 * Make one keyframe the same as another.  Override to copy without working the keyframe out again.
+	 * @param from the keyframe to read
+	 * @param to the keyframe to change
+	 */
+	public void copyKeyframe(RobotKeyframe from,RobotKeyframe to) {
+		int size = getKeyframeSize();
+		if(copyValues==null || copyValues.length!=size) copyValues = new double[size];
+		getKeyframeValues(from,copyValues);
+		setKeyframeValues(to,copyValues);
+	}
+
+	/**
+	 * Turn the trajectory into commands for the robot, one every period seconds, and load them as the file to send.
+	 * Call start() to send them.
+	 * @param t the trajectory
+	 * @param period seconds between commands
+	 * @return false if this robot can't turn values into commands.
+	 */
+	public boolean loadTrajectory(Trajectory t,double period) {
+		if(period<=0) return false;
+		int size = t.getAxes();
+		double [] values = new double[size];
+		double [] previous = new double[size];
+		ArrayList<String> lines = new ArrayList<String>();
+
+		t.sample(0,previous);
+		int steps = (int)Math.ceil(t.getDuration()/period);
+		for(int n=1;n<=steps;++n) {
+			t.sample(Math.min(n*period,t.getDuration()),values);
+			// feed rate in units per minute, to arrive on time
+			double sum=0;
+			for(int i=0;i<size;++i) {
+				double d = values[i]-previous[i];
+				sum += d*d;
+			}
+			String line = getTrajectoryCommand(values,Math.sqrt(sum)*60.0/period);
+			if(line==null) return false;
+			lines.add(line);
+			System.arraycopy(values,0,previous,0,size);
+		}
+
+		halt();
+		gcode = lines;
+		linesTotal = lines.size();
+		linesProcessed = 0;
+		fileOpened = true;
+		return true;
+	}
+
+	/**
+	 * @param values a pose, as described by getKeyframeSize()
+	 * @param feedRate units per minute
+	 * @return the command that moves the robot to the pose, or null if not supported.
+	 */
+	protected String getTrajectoryCommand(double [] values,double feedRate) {
+		return null;
+	}
+
+	/**
+	 * @param seconds how long to hold still
+	 * @return the command that makes the robot wait, or null if not supported.
+	 */
+	protected String getDwellCommand(double seconds) {
+		return "G4 P"+Math.round(seconds*1000.0);
+	}
+
+	/**
+	 * @return the most capsules getCapsules() will ever write.  0 if not supported.
+	 */
+	public int getCapsuleCount() {
+		return 0;
+	}
+
+	/**
+	 * Describe the space the robot fills at a pose, so that robots sharing a work cell can stay out of each other's way.
+	 * Not thread safe.
+	 * @param values a pose, as described by getKeyframeSize()
+	 * @param capsules receives x1,y1,z1,x2,y2,z2,radius per capsule, in world coordinates.
+	 * @return the number of capsules written.
+	 */
+	public int getCapsules(double [] values,double [] capsules) {
+		return 0;
 	}
 	
 /*
@@ -0,0 +1,754 @@
+package com.marginallyclever.robotOverlord.robot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.marginallyclever.communications.LineConnection;
+import com.marginallyclever.communications.LineStreamer;
+import com.marginallyclever.communications.NetworkConnection;
+import com.marginallyclever.communications.NetworkConnectionListener;
+import com.marginallyclever.robotOverlord.kinematics.KinematicChainCollisionChecker;
+
+/**
+ * Runs one program on each of several robots that share a work cell, on one clock, without the robots touching.
+ * <p>
+ * Every move of every program is timed with the speed limits of its robot, from rest to rest.  Robots are then
+ * scheduled one at a time.  The space each robot fills ({@link Robot#getCapsules}) is swept over the common clock
+ * in steps of {@link #setTimeStep} and tested against every robot already scheduled.  Where two meet, the move that
+ * put the later robot there either waits a little longer before it starts or is slowed down, whichever pushes the
+ * next meeting further off, until nothing meets.  Every order of the robots is tried (up to four robots) and the
+ * order that finishes soonest wins.
+ * <p>
+ * Between checks a robot can move a little.  {@link #setMargin} adds room around every capsule to make up for it.
+ * <p>
+ * To run the schedule, {@link #loadBatches} cuts the common clock at the start and end of every move of every robot
+ * and turns each piece into commands for each robot.  {@link #start()} sends the first piece to every robot and
+ * waits until all of them have acknowledged all of it before sending the next, so no robot can get ahead of the
+ * others by more than one piece.  A robot is sent its next line when its connection says the send buffer is empty
+ * and, for a {@link LineConnection}, nothing is waiting for the cue.
+ */
+public class RobotCoordinator implements NetworkConnectionListener {
+	protected static final double EPSILON = 1e-9;
+	// try every order of the robots up to this many
+	protected static final int MAX_PERMUTED = 4;
+
+	/**
+	 * One robot and its program.
+	 */
+	protected class Lane {
+		Robot robot;
+		int axes;
+		double [] waypoints;
+		int waypointCount;
+		Trajectory [] segments;
+		// fastest each move can go, and how long the program asked for.
+		double [] fastest;
+		double [] requested;
+
+		// the schedule.  wait[k] is spent at waypoint k before move k starts.
+		double [] wait;
+		double [] duration;
+		double [] start;
+		double end;
+		int fixes;
+
+		// scratch
+		double [] pose;
+		double [] capsules;
+		// capsules at every time step, once the lane is scheduled
+		double [] sweep;
+		int sweepSteps;
+
+		// sending
+		List<List<String>> batches;
+		int line;
+		boolean busy;
+
+		int segmentCount() {
+			return Math.max(0,waypointCount-1);
+		}
+
+		void restart() {
+			for(int k=0;k<segmentCount();++k) {
+				wait[k]=0;
+				duration[k]=requested[k];
+			}
+			fixes=0;
+			sweep=null;
+			retime();
+		}
+
+		void retime() {
+			double t=0;
+			for(int k=0;k<segmentCount();++k) {
+				t+=wait[k];
+				start[k]=t;
+				t+=duration[k];
+			}
+			end=t;
+		}
+
+		/**
+		 * @return the move under way at time t, or the last one finished.  -1 before the first move.
+		 */
+		int segmentAt(double t) {
+			int lo=0, hi=segmentCount()-1;
+			if(hi<0 || t<start[0]) return -1;
+			while(lo<hi) {
+				int mid=(lo+hi+1)>>>1;
+				if(start[mid]<=t) lo=mid;
+				else hi=mid-1;
+			}
+			return lo;
+		}
+
+		void poseAt(double t,double [] out) {
+			int k = segmentAt(t);
+			if(k<0) {
+				System.arraycopy(waypoints,0,out,0,axes);
+				return;
+			}
+			double local = t-start[k];
+			if(local>=duration[k]) {
+				System.arraycopy(waypoints,(k+1)*axes,out,0,axes);
+				return;
+			}
+			// slowing a move down stretches time evenly, which keeps it inside the limits.
+			segments[k].sample(local*fastest[k]/duration[k],out);
+		}
+
+		int capsulesAt(double t) {
+			poseAt(t,pose);
+			return robot.getCapsules(pose,capsules);
+		}
+
+		void buildSweep() {
+			sweepSteps = (int)Math.ceil(end/timeStep)+1;
+			int size = robot.getCapsuleCount()*7;
+			sweep = new double[sweepSteps*size];
+			for(int s=0;s<sweepSteps;++s) {
+				capsulesAt(s*timeStep);
+				System.arraycopy(capsules,0,sweep,s*size,size);
+			}
+		}
+
+		int sweepOffset(int step) {
+			return Math.min(step,sweepSteps-1)*robot.getCapsuleCount()*7;
+		}
+	}
+
+
+	protected List<Lane> lanes = new ArrayList<Lane>();
+
+	// settings
+	protected double timeStep = 0.05;
+	protected double margin = 0;
+	protected double maxSlowdown = 4;
+	protected int maxFixes = 20000;
+
+	// results
+	protected boolean planned;
+	protected double cycleTime;
+	protected int [] order;
+
+	// sending
+	protected double [] batchTime = new double[0];
+	protected int batch;
+	protected boolean sending;
+	protected boolean finished;
+	protected boolean pumping;
+	protected boolean pumpAgain;
+	protected long linesSent;
+
+
+	/**
+	 * Add a robot and the program it should run.  The robot starts where it is now ({@link Robot#createKeyframe()}).
+	 * Every {@link RobotInstructionMove} in the program becomes one move.  Repeat blocks are unrolled.  Other
+	 * instructions are skipped.
+	 * @param robot must support trajectories and capsules.
+	 * @param program must not repeat forever.
+	 */
+	public void addRobot(Robot robot,RobotProgram program) {
+		if(robot.createTrajectory()==null || robot.getCapsuleCount()==0) {
+			throw new IllegalArgumentException(robot.getDisplayName()+" can't be coordinated.");
+		}
+		List<RobotInstructionMove> moves = new ArrayList<RobotInstructionMove>();
+		unroll(program.getInstructions(),moves);
+
+		Lane lane = new Lane();
+		lane.robot = robot;
+		lane.axes = robot.getKeyframeSize();
+		lane.pose = new double[lane.axes];
+		lane.capsules = new double[robot.getCapsuleCount()*7];
+		lane.waypointCount = moves.size()+1;
+		lane.waypoints = new double[lane.waypointCount*lane.axes];
+		robot.getKeyframeValues(robot.createKeyframe(),lane.pose);
+		System.arraycopy(lane.pose,0,lane.waypoints,0,lane.axes);
+		for(int i=0;i<moves.size();++i) {
+			robot.getKeyframeValues(moves.get(i).getTarget(),lane.pose);
+			System.arraycopy(lane.pose,0,lane.waypoints,(i+1)*lane.axes,lane.axes);
+		}
+
+		int n = moves.size();
+		lane.segments = new Trajectory[n];
+		lane.fastest = new double[n];
+		lane.requested = new double[n];
+		lane.wait = new double[n];
+		lane.duration = new double[n];
+		lane.start = new double[n];
+		double [] a = new double[lane.axes];
+		double [] b = new double[lane.axes];
+		for(int k=0;k<n;++k) {
+			System.arraycopy(lane.waypoints,k*lane.axes,a,0,lane.axes);
+			System.arraycopy(lane.waypoints,(k+1)*lane.axes,b,0,lane.axes);
+			Trajectory t = robot.createTrajectory();
+			t.addWaypoint(a);
+			t.addWaypoint(b);
+			t.plan();
+			lane.segments[k] = t;
+			lane.fastest[k] = t.getDuration();
+			lane.requested[k] = Math.max(t.getDuration(),moves.get(k).getDuration());
+		}
+		lane.restart();
+		lanes.add(lane);
+		planned=false;
+	}
+
+
+	protected void unroll(List<RobotInstruction> list,List<RobotInstructionMove> moves) {
+		for(RobotInstruction ins : list) {
+			if(ins instanceof RobotInstructionControlBlockRepeat) {
+				RobotInstructionControlBlockRepeat block = (RobotInstructionControlBlockRepeat)ins;
+				if(block.getCount()==RobotInstructionControlBlockRepeat.FOREVER) {
+					throw new IllegalArgumentException("can't coordinate a program that never ends.");
+				}
+				for(int i=0;i<block.getCount();++i) {
+					unroll(block.getInstructions(),moves);
+				}
+			} else if(ins instanceof RobotInstructionMove) {
+				moves.add((RobotInstructionMove)ins);
+			}
+		}
+	}
+
+
+	public int getRobotCount() {
+		return lanes.size();
+	}
+
+
+	/**
+	 * @param seconds time between checks for robots touching.
+	 */
+	public void setTimeStep(double seconds) {
+		timeStep = seconds;
+		planned=false;
+	}
+
+
+	/**
+	 * @param margin extra room kept around every capsule.
+	 */
+	public void setMargin(double margin) {
+		this.margin = margin;
+		planned=false;
+	}
+
+
+	/**
+	 * @param factor the slowest a move may be made, as a multiple of the time it takes at full speed.
+	 * 1 means moves are never slowed, only delayed.
+	 */
+	public void setMaxSlowdown(double factor) {
+		maxSlowdown = Math.max(1,factor);
+		planned=false;
+	}
+
+
+	/**
+	 * Find the schedule that finishes soonest.
+	 * @return false if every order of the robots ends with two robots touching.
+	 */
+	public boolean plan() {
+		planned=false;
+		int n = lanes.size();
+		double bestTime = Double.POSITIVE_INFINITY;
+		double [][] bestWait = new double[n][];
+		double [][] bestDuration = new double[n][];
+		int [] bestFixes = new int[n];
+		int [] bestOrder = null;
+
+		List<int[]> orders = new ArrayList<int[]>();
+		int [] natural = new int[n];
+		for(int i=0;i<n;++i) natural[i]=i;
+		if(n<=MAX_PERMUTED) permute(natural,0,orders);
+		else orders.add(natural);
+
+		for(int [] o : orders) {
+			if(!schedule(o)) continue;
+			double t=0;
+			for(Lane lane : lanes) t = Math.max(t,lane.end);
+			if(t<bestTime-EPSILON) {
+				bestTime=t;
+				bestOrder=o.clone();
+				for(int i=0;i<n;++i) {
+					Lane lane = lanes.get(i);
+					bestWait[i]=lane.wait.clone();
+					bestDuration[i]=lane.duration.clone();
+					bestFixes[i]=lane.fixes;
+				}
+			}
+		}
+		if(bestOrder==null) return false;
+
+		for(int i=0;i<n;++i) {
+			Lane lane = lanes.get(i);
+			System.arraycopy(bestWait[i],0,lane.wait,0,lane.wait.length);
+			System.arraycopy(bestDuration[i],0,lane.duration,0,lane.duration.length);
+			lane.fixes = bestFixes[i];
+			lane.retime();
+			lane.sweep=null;
+		}
+		order = bestOrder;
+		cycleTime = bestTime;
+		planned=true;
+		return true;
+	}
+
+
+	protected static void permute(int [] list,int k,List<int[]> out) {
+		if(k==list.length) {
+			out.add(list.clone());
+			return;
+		}
+		for(int i=k;i<list.length;++i) {
+			int t=list[k];  list[k]=list[i];  list[i]=t;
+			permute(list,k+1,out);
+			t=list[k];  list[k]=list[i];  list[i]=t;
+		}
+	}
+
+
+	/**
+	 * Schedule the robots one at a time, each staying out of the way of the ones before it.
+	 */
+	protected boolean schedule(int [] o) {
+		List<Lane> fixed = new ArrayList<Lane>();
+		for(Lane lane : lanes) lane.restart();
+		for(int i=0;i<o.length;++i) {
+			Lane lane = lanes.get(o[i]);
+			if(!resolve(lane,fixed)) return false;
+			lane.buildSweep();
+			fixed.add(lane);
+		}
+		return true;
+	}
+
+
+	/**
+	 * Delay or slow the moves of one robot until it touches none of the fixed robots.
+	 */
+	protected boolean resolve(Lane lane,List<Lane> fixed) {
+		if(fixed.isEmpty()) return true;
+		double from=0;
+		while(true) {
+			double t = findConflict(lane,fixed,from);
+			if(t<0) return true;
+			if(lane.fixes>=maxFixes) return false;
+
+			int k = lane.segmentAt(t);
+			// touching before the first move, or after everyone else has stopped.  waiting won't help.
+			if(k<0 || t>=settledTime(fixed)) return false;
+			from = lane.start[k]-lane.wait[k];
+
+			// try waiting longer...
+			lane.wait[k]+=timeStep;
+			lane.retime();
+			double afterWait = findConflict(lane,fixed,from);
+			double endWait = lane.end;
+			lane.wait[k]-=timeStep;
+
+			// ...or moving slower.
+			double afterSlow = -1;
+			double endSlow = Double.POSITIVE_INFINITY;
+			double old = lane.duration[k];
+			double slowest = lane.fastest[k]*maxSlowdown;
+			boolean canSlow = old+timeStep <= slowest+EPSILON;
+			if(canSlow) {
+				lane.duration[k]=old+timeStep;
+				lane.retime();
+				afterSlow = findConflict(lane,fixed,from);
+				endSlow = lane.end;
+				lane.duration[k]=old;
+			}
+
+			if(canSlow && isBetter(afterSlow,endSlow,afterWait,endWait)) {
+				lane.duration[k]=old+timeStep;
+			} else {
+				lane.wait[k]+=timeStep;
+			}
+			lane.retime();
+			lane.fixes++;
+		}
+	}
+
+
+	/**
+	 * @return the time the last of the fixed robots stops moving.
+	 */
+	protected double settledTime(List<Lane> fixed) {
+		double t=0;
+		for(Lane other : fixed) t = Math.max(t,other.end);
+		return t;
+	}
+
+
+	/**
+	 * @return true if fix a is better than fix b.  A fix is better if it leaves no meeting, or the next meeting
+	 * later, or finishes sooner.
+	 */
+	protected static boolean isBetter(double conflictA,double endA,double conflictB,double endB) {
+		double a = conflictA<0 ? Double.POSITIVE_INFINITY : conflictA;
+		double b = conflictB<0 ? Double.POSITIVE_INFINITY : conflictB;
+		if(a!=b) return a>b;
+		return endA<endB;
+	}
+
+
+	/**
+	 * @return the first time at or after from that the lane touches one of the fixed lanes, or -1 if it never does.
+	 */
+	protected double findConflict(Lane lane,List<Lane> fixed,double from) {
+		double horizon = lane.end;
+		for(Lane other : fixed) horizon = Math.max(horizon,other.end);
+		int first = Math.max(0,(int)Math.floor(from/timeStep));
+		int last = (int)Math.ceil(horizon/timeStep);
+
+		for(int s=first;s<=last;++s) {
+			int count = lane.capsulesAt(s*timeStep);
+			for(Lane other : fixed) {
+				if(touches(lane.capsules,0,count,other.sweep,other.sweepOffset(s),other.robot.getCapsuleCount())) {
+					return s*timeStep;
+				}
+			}
+		}
+		return -1;
+	}
+
+
+	protected boolean touches(double [] a,int ao,int countA,double [] b,int bo,int countB) {
+		for(int i=0;i<countA;++i) {
+			int p=ao+i*7;
+			for(int j=0;j<countB;++j) {
+				int q=bo+j*7;
+				double reach = a[p+6]+b[q+6]+margin*2;
+				double dd = KinematicChainCollisionChecker.segmentDistanceSquared(
+						a[p  ],a[p+1],a[p+2],a[p+3],a[p+4],a[p+5],
+						b[q  ],b[q+1],b[q+2],b[q+3],b[q+4],b[q+5]);
+				if(dd<reach*reach) return true;
+			}
+		}
+		return false;
+	}
+
+
+	/**
+	 * @return seconds from the start until the last robot finishes, after {@link #plan()}.
+	 */
+	public double getCycleTime() {
+		return cycleTime;
+	}
+
+
+	/**
+	 * @return the order the robots were scheduled in, by the order they were added.  Earlier robots never wait
+	 * for later ones.
+	 */
+	public int [] getOrder() {
+		return order==null ? null : order.clone();
+	}
+
+
+	/**
+	 * @return seconds robot i spends waiting for other robots.
+	 */
+	public double getWaitTime(int i) {
+		Lane lane = lanes.get(i);
+		double sum=0;
+		for(int k=0;k<lane.segmentCount();++k) sum+=lane.wait[k];
+		return sum;
+	}
+
+
+	/**
+	 * @return seconds added to the moves of robot i by slowing them down.
+	 */
+	public double getSlowdownTime(int i) {
+		Lane lane = lanes.get(i);
+		double sum=0;
+		for(int k=0;k<lane.segmentCount();++k) sum+=lane.duration[k]-lane.requested[k];
+		return sum;
+	}
+
+
+	/**
+	 * @return how many times robot i was delayed or slowed to stay clear of the others.
+	 */
+	public int getFixCount(int i) {
+		return lanes.get(i).fixes;
+	}
+
+
+	/**
+	 * @return seconds from the start until robot i finishes.
+	 */
+	public double getFinishTime(int i) {
+		return lanes.get(i).end;
+	}
+
+
+	/**
+	 * Where a robot is on the common clock.
+	 * @param i which robot, by the order they were added
+	 * @param t seconds since the start
+	 * @param values receives the pose, as described by {@link Robot#getKeyframeSize()}
+	 */
+	public void getPose(int i,double t,double [] values) {
+		lanes.get(i).poseAt(t,values);
+	}
+
+
+	/**
+	 * Cut the schedule into batches and turn each into commands for each robot.  Call after {@link #plan()}.
+	 * @param period seconds between commands while moving.
+	 * @return false if not planned or a robot can't turn poses into commands.
+	 */
+	public boolean loadBatches(double period) {
+		if(!planned || period<=0) return false;
+
+		// cut the clock wherever any move starts or stops.
+		List<Double> cuts = new ArrayList<Double>();
+		cuts.add(0.0);
+		for(Lane lane : lanes) {
+			for(int k=0;k<lane.segmentCount();++k) {
+				cuts.add(lane.start[k]);
+				cuts.add(lane.start[k]+lane.duration[k]);
+			}
+		}
+		cuts.add(cycleTime);
+		Collections.sort(cuts);
+		List<Double> times = new ArrayList<Double>();
+		for(Double c : cuts) {
+			if(times.isEmpty() || c-times.get(times.size()-1)>EPSILON) times.add(c);
+		}
+		batchTime = new double[times.size()];
+		for(int i=0;i<batchTime.length;++i) batchTime[i]=times.get(i);
+
+		for(Lane lane : lanes) {
+			lane.batches = new ArrayList<List<String>>();
+			double [] previous = new double[lane.axes];
+			double [] values = new double[lane.axes];
+			lane.poseAt(0,previous);
+			for(int b=0;b+1<batchTime.length;++b) {
+				List<String> lines = new ArrayList<String>();
+				double t0 = batchTime[b];
+				double t1 = batchTime[b+1];
+				double dwell = 0;
+				double last = t0;
+				int steps = Math.max(1,(int)Math.ceil((t1-t0)/period-EPSILON));
+				for(int n=1;n<=steps;++n) {
+					double t = (n==steps) ? t1 : t0+n*period;
+					double dt = t-last;
+					last = t;
+					lane.poseAt(t,values);
+					double sum=0;
+					for(int i=0;i<lane.axes;++i) {
+						double d = values[i]-previous[i];
+						sum += d*d;
+					}
+					if(sum<EPSILON*EPSILON) {
+						dwell+=dt;
+						continue;
+					}
+					if(dwell>0 && !addDwell(lane,lines,dwell)) return false;
+					dwell=0;
+					String line = lane.robot.getTrajectoryCommand(values,Math.sqrt(sum)*60.0/dt);
+					if(line==null) return false;
+					lines.add(line);
+					System.arraycopy(values,0,previous,0,lane.axes);
+				}
+				if(dwell>0 && !addDwell(lane,lines,dwell)) return false;
+				lane.batches.add(lines);
+			}
+		}
+		return true;
+	}
+
+
+	protected boolean addDwell(Lane lane,List<String> lines,double seconds) {
+		String line = lane.robot.getDwellCommand(seconds);
+		if(line==null) return false;
+		lines.add(line);
+		return true;
+	}
+
+
+	/**
+	 * @return number of batches made by {@link #loadBatches}
+	 */
+	public int getBatchCount() {
+		return Math.max(0,batchTime.length-1);
+	}
+
+
+	/**
+	 * @return the time on the common clock when batch b starts.
+	 */
+	public double getBatchTime(int b) {
+		return batchTime[b];
+	}
+
+
+	/**
+	 * @return the commands for robot i in batch b.
+	 */
+	public List<String> getBatch(int i,int b) {
+		return lanes.get(i).batches.get(b);
+	}
+
+
+	/**
+	 * Start sending the batches.  Every robot must have an open connection and be ready to receive.
+	 * @return false if batches are not loaded or a robot has no connection.
+	 */
+	public boolean start() {
+		if(getBatchCount()==0) return false;
+		for(Lane lane : lanes) {
+			if(lane.batches==null || lane.robot.getConnection()==null) return false;
+		}
+		synchronized(this) {
+			batch=0;
+			linesSent=0;
+			finished=false;
+			sending=true;
+			for(Lane lane : lanes) {
+				lane.line=0;
+				lane.busy=false;
+				lane.robot.getConnection().addListener(this);
+			}
+		}
+		pump();
+		return true;
+	}
+
+
+	/**
+	 * Stop sending.  Lines already sent are not recalled.
+	 */
+	public void stop() {
+		synchronized(this) {
+			if(!sending) return;
+			sending=false;
+			for(Lane lane : lanes) {
+				NetworkConnection c = lane.robot.getConnection();
+				if(c!=null) c.removeListener(this);
+			}
+		}
+	}
+
+
+	public synchronized boolean isFinished() {
+		return finished;
+	}
+
+
+	/**
+	 * @return the batch being sent now.
+	 */
+	public synchronized int getCurrentBatch() {
+		return batch;
+	}
+
+
+	public synchronized long getLinesSent() {
+		return linesSent;
+	}
+
+
+	/**
+	 * Send every robot that is ready its next line.  When every robot has finished the batch, move on to the next.
+	 * Connections may answer from inside sendMessage(), so a call made while pumping only asks for another pass.
+	 */
+	protected synchronized void pump() {
+		if(pumping) {
+			pumpAgain=true;
+			return;
+		}
+		pumping=true;
+		try {
+			do {
+				pumpAgain=false;
+				pumpOnce();
+			} while(pumpAgain);
+		} finally {
+			pumping=false;
+		}
+	}
+
+
+	protected void pumpOnce() {
+		while(sending) {
+			boolean batchDone=true;
+			for(Lane lane : lanes) {
+				List<String> lines = lane.batches.get(batch);
+				while(!lane.busy && lane.line<lines.size()) {
+					String line = lines.get(lane.line++);
+					lane.busy = true;
+					linesSent++;
+					// false means nothing was sent, so no reply will come.
+					if(!lane.robot.sendLineToRobot(line)) lane.busy=false;
+				}
+				if(lane.busy || lane.line<lines.size()) batchDone=false;
+			}
+			if(!batchDone) return;
+
+			// everyone has finished this batch.
+			batch++;
+			for(Lane lane : lanes) lane.line=0;
+			if(batch>=getBatchCount()) {
+				finished=true;
+				stop();
+				return;
+			}
+		}
+	}
+
+
+	@Override
+	public void dataAvailable(NetworkConnection arg0,String data) {}
+
+
+	@Override
+	public void lineError(NetworkConnection arg0,int lineNumber) {}
+
+
+	/**
+	 * The cue itself never reaches listeners, so the robot is done with the last line when the connection has
+	 * nothing left to send.  A streaming connection asks for more before the lines in flight are answered, so
+	 * those are waited for too.
+	 */
+	@Override
+	public void sendBufferEmpty(NetworkConnection arg0) {
+		if(arg0 instanceof LineConnection) {
+			LineStreamer streamer = ((LineConnection)arg0).getStreamer();
+			if(streamer.getQueueSize()>0 || streamer.getBytesInFlight()>0) return;
+		}
+		synchronized(this) {
+			for(Lane lane : lanes) {
+				if(lane.robot.getConnection()==arg0) lane.busy=false;
+			}
+		}
+		pump();
+	}
+}
@@ -5,6 +5,10 @@ package com.marginallyclever.robotOverlord.robot;
  *
  */
 public class RobotInstructionControlBlockForever extends RobotInstructionControlBlockRepeat {
+	public RobotInstructionControlBlockForever() {
+		super(FOREVER);
+	}
+	
 	public String getName() {
 		return "Repeat forever";
 	}
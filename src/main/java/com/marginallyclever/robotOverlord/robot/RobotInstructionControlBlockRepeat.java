@@ -1,15 +1,53 @@
 package com.marginallyclever.robotOverlord.robot;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import javax.swing.JComponent;
 import javax.swing.JPanel;
 
 import com.jogamp.opengl.GL2;
 
 /**
+ * Run the instructions inside the block a number of times.  The loop itself is run by {@link RobotProgramExecutor}.
  * @author danroyer
  *
  */
 public class RobotInstructionControlBlockRepeat implements RobotInstruction {
+	public static final int FOREVER = -1;
+	
+	protected List<RobotInstruction> children = new ArrayList<RobotInstruction>();
+	protected int count;
+	// how many times the block has run so far
+	protected int iteration;
+	
+	public RobotInstructionControlBlockRepeat() {
+		this(1);
+	}
+	
+	/**
+	 * @param count how many times to run the block, or FOREVER.
+	 */
+	public RobotInstructionControlBlockRepeat(int count) {
+		this.count = count;
+	}
+	
+	public int getCount() {
+		return count;
+	}
+	
+	public void setCount(int count) {
+		this.count = count;
+	}
+	
+	public void addInstruction(RobotInstruction element) {
+		children.add(element);
+	}
+	
+	public List<RobotInstruction> getInstructions() {
+		return children;
+	}
+	
 	public String getName() {
 		return "Repeat";
 	}
@@ -34,20 +72,25 @@ public class RobotInstructionControlBlockRepeat implements RobotInstruction {
 
 	@Override
 	public void executeForward(float dt) {
-		// TODO Auto-generated method stub
-		
+		iteration++;
 	}
 
 	@Override
 	public void executeBackward(float dt) {
-		// TODO Auto-generated method stub
-		
+		if(iteration>0) iteration--;
 	}
 
+	/**
+	 * @return 0..1 how many of the runs are done.  Always 0 for a block that runs forever.
+	 */
 	@Override
 	public float getProgress() {
-		// TODO Auto-generated method stub
-		return 0;
+		if(count<=0) return 0;
+		return Math.min(1,(float)iteration/(float)count);
+	}
+	
+	protected void setIteration(int iteration) {
+		this.iteration = iteration;
 	}
 	
 }
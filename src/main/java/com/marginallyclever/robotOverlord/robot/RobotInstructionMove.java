@@ -11,6 +11,38 @@ import com.jogamp.opengl.GL2;
  *
  */
 public class RobotInstructionMove implements RobotInstruction {
+	// where to go
+	protected RobotKeyframe target;
+	// how long to take, in seconds
+	protected float duration;
+	// how far through the move, in seconds
+	protected float time;
+	
+	public RobotInstructionMove() {
+		this(null,1);
+	}
+	
+	public RobotInstructionMove(RobotKeyframe target,float duration) {
+		this.target = target;
+		this.duration = Math.max(0,duration);
+	}
+	
+	public RobotKeyframe getTarget() {
+		return target;
+	}
+	
+	public void setTarget(RobotKeyframe target) {
+		this.target = target;
+	}
+	
+	public float getDuration() {
+		return duration;
+	}
+	
+	public void setDuration(float duration) {
+		this.duration = Math.max(0,duration);
+	}
+	
 	public String getName() {
 		return "Move";
 	}
@@ -35,20 +67,25 @@ public class RobotInstructionMove implements RobotInstruction {
 
 	@Override
 	public void executeForward(float dt) {
-		// TODO Auto-generated method stub
-		
+		time = Math.min(duration,time+dt);
 	}
 
 	@Override
 	public void executeBackward(float dt) {
-		// TODO Auto-generated method stub
-		
+		time = Math.max(0,time-dt);
 	}
 
 	@Override
 	public float getProgress() {
-		// TODO Auto-generated method stub
-		return 0;
+		if(duration<=0) return 1;
+		return time/duration;
+	}
+	
+	/**
+	 * @param progress 0..1 how done is this instruction?
+	 */
+	public void setProgress(float progress) {
+		time = Math.max(0,Math.min(1,progress))*duration;
 	}
 	
 }
@@ -6,11 +6,32 @@ import javax.swing.JPanel;
 import com.jogamp.opengl.GL2;
 
 /**
- * ??
+ * Send one custom command line to the robot.
  * @author danroyer
  *
  */
 public class RobotInstructionSpecialInstruction implements RobotInstruction {
+	protected Robot robot;
+	protected String command;
+	protected boolean sent;
+	
+	public RobotInstructionSpecialInstruction() {
+		this(null,"");
+	}
+	
+	public RobotInstructionSpecialInstruction(Robot robot,String command) {
+		this.robot = robot;
+		this.command = command;
+	}
+	
+	public String getCommand() {
+		return command;
+	}
+	
+	public void setCommand(String command) {
+		this.command = command;
+	}
+	
 	public String getName() {
 		return "Special Instruction";
 	}
@@ -35,19 +56,22 @@ public class RobotInstructionSpecialInstruction implements RobotInstruction {
 
 	@Override
 	public void executeForward(float dt) {
-		// TODO Auto-generated method stub
-		
+		if(robot!=null && command!=null && command.length()>0) {
+			robot.sendLineToRobot(command);
+		}
+		sent=true;
 	}
 
+	/**
+	 * A command can't be taken back.  Running backward only resets the progress.
+	 */
 	@Override
 	public void executeBackward(float dt) {
-		// TODO Auto-generated method stub
-		
+		sent=false;
 	}
 
 	@Override
 	public float getProgress() {
-		// TODO Auto-generated method stub
-		return 0;
+		return sent ? 1 : 0;
 	}
 }
@@ -1,6 +1,6 @@
 package com.marginallyclever.robotOverlord.robot;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -10,9 +10,11 @@ import java.util.List;
  */
 public class RobotProgram {
 	List<RobotKeyframe> keyframes;
+	List<RobotInstruction> instructions;
 	
 	public RobotProgram() {
-		keyframes = new LinkedList<RobotKeyframe>();
+		keyframes = new ArrayList<RobotKeyframe>();
+		instructions = new ArrayList<RobotInstruction>();
 	}
 	
 	/**
@@ -43,4 +45,35 @@ public class RobotProgram {
 	public RobotKeyframe get(int index) {
 		return keyframes.get(index);
 	}
+
+	/**
+	 * insert a new RobotInstruction to the end of the program
+	 * @param element a RobotInstruction
+	 */
+	public void addInstruction(RobotInstruction element) {
+		instructions.add(element);
+	}
+	
+	public void addInstruction(int index, RobotInstruction element) {
+		instructions.add(index, element);
+	}
+	
+	public void removeInstruction(int index) {
+		instructions.remove(index);
+	}
+	
+	public int getInstructionCount() {
+		return instructions.size();
+	}
+	
+	public RobotInstruction getInstruction(int index) {
+		return instructions.get(index);
+	}
+	
+	/**
+	 * @return the top level instructions, in order.  Repeat blocks hold their own.
+	 */
+	public List<RobotInstruction> getInstructions() {
+		return instructions;
+	}
 }
@@ -0,0 +1,611 @@
+package com.marginallyclever.robotOverlord.robot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a {@link RobotProgram} on its own thread, independent of the render loop.
+ * <p>
+ * The program is compiled once into a flat array of operations.  Repeat blocks become a pair of BEGIN and END
+ * operations that jump to each other, so running the program never walks the instruction tree.  Every move is
+ * turned into the pose values of its target, as described by {@link Robot#getKeyframeSize()}.
+ * <p>
+ * The scheduler thread ticks at a fixed period and each tick advances the program by exactly one period, so the
+ * program time is deterministic no matter how late a tick starts.  Poses are handed to the robot with
+ * {@link Robot#commandValues(double[])}, which works them out and sends them to the machine on the scheduler thread.
+ * Rendering only shows the latest one, so a slow frame never slows the program.  The program can also be stepped forward and backward one move at a time,
+ * or moved by any amount of time with {@link #advance(double)}.
+ * <p>
+ * Per-instruction metrics record how often each operation ran and how much wall clock time it took.
+ */
+public class RobotProgramExecutor {
+	protected static final int OP_MOVE = 0;
+	protected static final int OP_BEGIN = 1;
+	protected static final int OP_END = 2;
+	protected static final int OP_OTHER = 3;
+
+	protected Robot robot;
+	protected int size;
+
+	// the compiled program
+	protected int [] opType;
+	// for BEGIN the matching END, and the other way around.
+	protected int [] opJump;
+	// for BEGIN the number of runs, or RobotInstructionControlBlockRepeat.FOREVER
+	protected int [] opCount;
+	protected double [] opDuration;
+	protected double [][] opTarget;
+	protected RobotInstruction [] opInstruction;
+	// seconds for one run through the program, or infinity if it repeats forever.
+	protected double programDuration;
+
+	// state
+	protected int pc;
+	protected double time;
+	protected boolean entered;
+	protected int [] counters;
+	protected int [] scratchCounters;
+	protected double elapsed;
+	protected double [] initialValues;
+	protected double [] startValues;
+	protected double [] values;
+
+	// metrics
+	protected long [] opRuns;
+	protected long [] opWallNanos;
+	protected long enteredNanos;
+	protected long tickCount;
+	protected long maxTickNanos;
+	protected long maxLateNanos;
+
+	// scheduling
+	protected ScheduledExecutorService scheduler;
+	protected long periodNanos;
+	protected long firstTickNanos;
+	protected volatile boolean paused;
+	protected volatile boolean reverse;
+
+
+	/**
+	 * @param robot the robot to drive.  Must describe its keyframes with getKeyframeSize() and friends.
+	 * @param program the program to run.  Later changes to the program are not seen.  A program with keyframes but
+	 * no instructions moves through its keyframes in order, each move timed with the speed limits of the robot.
+	 * @throws IllegalArgumentException if the robot can't run the program.
+	 */
+	public RobotProgramExecutor(Robot robot,RobotProgram program) {
+		this.robot = robot;
+		size = robot.getKeyframeSize();
+		if(size<=0) throw new IllegalArgumentException(robot.getDisplayName()+" can't run programs.");
+
+		initialValues = new double[size];
+		RobotKeyframe now = robot.createKeyframe();
+		if(now!=null) robot.getKeyframeValues(now,initialValues);
+		startValues = new double[size];
+		values = new double[size];
+
+		compile(program);
+		rewind();
+	}
+
+
+	protected void compile(RobotProgram program) {
+		List<Integer> types = new ArrayList<Integer>();
+		List<RobotInstruction> instructions = new ArrayList<RobotInstruction>();
+		List<RobotInstruction> list = program.getInstructions();
+		if(list.isEmpty() && program.size()>0) list = movesThroughKeyframes(program);
+		compile(list,types,instructions);
+
+		int n = types.size();
+		opType = new int[n];
+		opJump = new int[n];
+		opCount = new int[n];
+		opDuration = new double[n];
+		opTarget = new double[n][];
+		opInstruction = new RobotInstruction[n];
+		counters = new int[n];
+		scratchCounters = new int[n];
+		opRuns = new long[n];
+		opWallNanos = new long[n];
+
+		int [] stack = new int[n];
+		int depth=0;
+		for(int i=0;i<n;++i) {
+			opType[i] = types.get(i);
+			RobotInstruction ins = instructions.get(i);
+			opInstruction[i] = ins;
+			switch(opType[i]) {
+			case OP_MOVE:
+				RobotInstructionMove move = (RobotInstructionMove)ins;
+				opDuration[i] = move.getDuration();
+				opTarget[i] = new double[size];
+				if(move.getTarget()!=null) robot.getKeyframeValues(move.getTarget(),opTarget[i]);
+				else System.arraycopy(initialValues,0,opTarget[i],0,size);
+				break;
+			case OP_BEGIN:
+				opCount[i] = ((RobotInstructionControlBlockRepeat)ins).getCount();
+				stack[depth++]=i;
+				break;
+			case OP_END:
+				int begin = stack[--depth];
+				opJump[begin]=i;
+				opJump[i]=begin;
+				opCount[i]=opCount[begin];
+				break;
+			default:
+				break;
+			}
+		}
+
+		programDuration = duration(0,n);
+	}
+
+
+	/**
+	 * Make a move to each keyframe of a program that has no instructions, starting from where the robot is now.
+	 */
+	protected List<RobotInstruction> movesThroughKeyframes(RobotProgram program) {
+		Trajectory t = robot.createTrajectory();
+		if(t==null) throw new IllegalArgumentException(robot.getDisplayName()+" can't time a program of keyframes alone.  Add moves to it.");
+
+		List<RobotInstruction> moves = new ArrayList<RobotInstruction>();
+		double [] from = new double[size];
+		double [] to = new double[size];
+		System.arraycopy(initialValues,0,from,0,size);
+		for(int i=0;i<program.size();++i) {
+			RobotKeyframe k = program.get(i);
+			robot.getKeyframeValues(k,to);
+			t.clear();
+			t.addWaypoint(from);
+			t.addWaypoint(to);
+			t.plan();
+			moves.add(new RobotInstructionMove(k,(float)t.getDuration()));
+			System.arraycopy(to,0,from,0,size);
+		}
+		return moves;
+	}
+
+
+	protected void compile(List<RobotInstruction> list,List<Integer> types,List<RobotInstruction> instructions) {
+		for(RobotInstruction ins : list) {
+			if(ins instanceof RobotInstructionControlBlockRepeat) {
+				RobotInstructionControlBlockRepeat block = (RobotInstructionControlBlockRepeat)ins;
+				types.add(OP_BEGIN);
+				instructions.add(block);
+				compile(block.getInstructions(),types,instructions);
+				types.add(OP_END);
+				instructions.add(block);
+			} else if(ins instanceof RobotInstructionMove) {
+				types.add(OP_MOVE);
+				instructions.add(ins);
+			} else {
+				types.add(OP_OTHER);
+				instructions.add(ins);
+			}
+		}
+	}
+
+
+	// seconds to run the operations from..to-1 once.
+	protected double duration(int from,int to) {
+		double sum=0;
+		for(int i=from;i<to;++i) {
+			if(opType[i]==OP_MOVE) sum+=opDuration[i];
+			else if(opType[i]==OP_BEGIN) {
+				double body = duration(i+1,opJump[i]);
+				if(opCount[i]<0) {
+					if(body>0) return Double.POSITIVE_INFINITY;
+				} else {
+					sum += body*opCount[i];
+				}
+				i = opJump[i];
+			}
+		}
+		return sum;
+	}
+
+
+	/**
+	 * Go back to the start of the program.
+	 */
+	public synchronized void rewind() {
+		pc=0;
+		time=0;
+		entered=false;
+		elapsed=0;
+		for(int i=0;i<counters.length;++i) {
+			counters[i]=0;
+			if(opType[i]==OP_BEGIN) block(i).setIteration(0);
+		}
+		System.arraycopy(initialValues,0,values,0,size);
+	}
+
+
+	/**
+	 * Run the program forward or backward in time.
+	 * @param dt seconds.  Negative to run backward.
+	 */
+	public synchronized void advance(double dt) {
+		if(dt>=0) forward(dt);
+		else backward(-dt);
+	}
+
+
+	protected void forward(double remaining) {
+		int n = opType.length;
+		// a loop with no moves in it would never use up any time.
+		int idle=0;
+
+		while(pc<n) {
+			int op = pc;
+			switch(opType[op]) {
+			case OP_MOVE:
+				if(!entered) enter(op,false);
+				double t = time+remaining;
+				if(t<opDuration[op]) {
+					time=t;
+					elapsed+=remaining;
+					apply(op);
+					return;
+				}
+				remaining = t-opDuration[op];
+				elapsed += opDuration[op]-time;
+				time=opDuration[op];
+				apply(op);
+				leave(op);
+				pc++;
+				if(opDuration[op]>0) idle=0;
+				break;
+			case OP_BEGIN:
+				// a block that runs no times is skipped, END and all.
+				if(opCount[op]==0) pc=opJump[op]+1;
+				else pc++;
+				break;
+			case OP_END:
+				int begin = opJump[op];
+				counters[begin]++;
+				block(begin).setIteration(counters[begin]);
+				if(opCount[begin]<0 || counters[begin]<opCount[begin]) {
+					pc=begin+1;
+					if(++idle>n) return;
+				} else {
+					counters[begin]=0;
+					pc++;
+				}
+				break;
+			default:
+				opInstruction[op].executeForward(0);
+				opRuns[op]++;
+				pc++;
+				break;
+			}
+		}
+	}
+
+
+	protected void backward(double remaining) {
+		while(true) {
+			if(pc<opType.length && opType[pc]==OP_MOVE && entered) {
+				double t = time-remaining;
+				if(t>0) {
+					time=t;
+					elapsed-=remaining;
+					apply(pc);
+					return;
+				}
+				remaining -= time;
+				elapsed -= time;
+				time=0;
+				apply(pc);
+				entered=false;
+				if(!previousMove()) return;
+			} else if(!previousMove()) {
+				return;
+			}
+		}
+	}
+
+
+	/**
+	 * Move pc to the move before it, running backward through loops.  Lands at the end of that move.
+	 * @return false if there is no move before this one.
+	 */
+	protected boolean previousMove() {
+		int p = pc-1;
+		while(p>=0) {
+			switch(opType[p]) {
+			case OP_END:
+				int begin = opJump[p];
+				if(opCount[begin]==0) {
+					// never ran
+					p = begin-1;
+					break;
+				}
+				// enter the last run of the loop from its end
+				counters[begin] = Math.max(0,opCount[begin]-1);
+				block(begin).setIteration(counters[begin]);
+				p--;
+				break;
+			case OP_BEGIN:
+				if(counters[p]>0) {
+					counters[p]--;
+					block(p).setIteration(counters[p]);
+					p = opJump[p]-1;
+				} else {
+					p--;
+				}
+				break;
+			case OP_MOVE:
+				pc=p;
+				enter(p,true);
+				time=opDuration[p];
+				return true;
+			default:
+				opInstruction[p].executeBackward(0);
+				p--;
+				break;
+			}
+		}
+		pc=0;
+		entered=false;
+		elapsed=0;
+		System.arraycopy(initialValues,0,values,0,size);
+		robot.commandValues(values);
+		return false;
+	}
+
+
+	protected RobotInstructionControlBlockRepeat block(int op) {
+		return (RobotInstructionControlBlockRepeat)opInstruction[op];
+	}
+
+
+	/**
+	 * Find where a move starts, which is where the move before it ended.
+	 */
+	protected void findStart(int op,double [] out) {
+		System.arraycopy(counters,0,scratchCounters,0,counters.length);
+		int p = op-1;
+		while(p>=0) {
+			if(opType[p]==OP_MOVE) {
+				System.arraycopy(opTarget[p],0,out,0,size);
+				return;
+			}
+			if(opType[p]==OP_END) {
+				int begin = opJump[p];
+				if(opCount[begin]==0) {
+					p = begin-1;
+					continue;
+				}
+				scratchCounters[begin] = Math.max(0,opCount[begin]-1);
+				p--;
+			} else if(opType[p]==OP_BEGIN && scratchCounters[p]>0) {
+				scratchCounters[p]--;
+				p = opJump[p]-1;
+			} else {
+				p--;
+			}
+		}
+		System.arraycopy(initialValues,0,out,0,size);
+	}
+
+
+	protected void enter(int op,boolean backward) {
+		if(backward) findStart(op,startValues);
+		else System.arraycopy(values,0,startValues,0,size);
+		entered=true;
+		time=0;
+		enteredNanos=System.nanoTime();
+	}
+
+
+	protected void leave(int op) {
+		opRuns[op]++;
+		opWallNanos[op] += System.nanoTime()-enteredNanos;
+		entered=false;
+	}
+
+
+	/**
+	 * Put the robot where the current move says.  Eases in and out so each move starts and ends at rest.
+	 */
+	protected void apply(int op) {
+		double s = opDuration[op]>0 ? time/opDuration[op] : 1;
+		((RobotInstructionMove)opInstruction[op]).setProgress((float)s);
+		s = s*s*(3-2*s);
+		double [] target = opTarget[op];
+		for(int i=0;i<size;++i) {
+			values[i] = startValues[i] + (target[i]-startValues[i])*s;
+		}
+		robot.commandValues(values);
+	}
+
+
+	/**
+	 * Run to the end of the next move.
+	 */
+	public synchronized void stepForward() {
+		forward(0);
+		if(pc<opType.length) forward(opDuration[pc]-time);
+	}
+
+
+	/**
+	 * Run back to the start of this move, or if already there, to the start of the one before.
+	 */
+	public synchronized void stepBackward() {
+		if(!(pc<opType.length && opType[pc]==OP_MOVE && entered && time>0)) {
+			if(!previousMove()) return;
+		}
+		backward(time);
+	}
+
+
+	/**
+	 * Start running on a scheduler thread.
+	 * @param period seconds between ticks
+	 */
+	public synchronized void start(double period) {
+		if(scheduler!=null) return;
+		periodNanos = (long)(period*1e9);
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r,"RobotProgramExecutor "+robot.getDisplayName());
+				t.setDaemon(true);
+				t.setPriority(Thread.MAX_PRIORITY);
+				return t;
+			}
+		});
+		firstTickNanos = System.nanoTime();
+		tickCount = 0;
+		scheduler.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				tick();
+			}
+		}, 0, periodNanos, TimeUnit.NANOSECONDS);
+	}
+
+
+	public synchronized void stop() {
+		if(scheduler==null) return;
+		scheduler.shutdownNow();
+		scheduler=null;
+	}
+
+
+	public boolean isRunning() {
+		return scheduler!=null;
+	}
+
+
+	public void setPaused(boolean paused) {
+		this.paused = paused;
+	}
+
+
+	public boolean isPaused() {
+		return paused;
+	}
+
+
+	/**
+	 * @param reverse true to run the program backward in time.
+	 */
+	public void setReverse(boolean reverse) {
+		this.reverse = reverse;
+	}
+
+
+	protected void tick() {
+		long start = System.nanoTime();
+		synchronized(this) {
+			long late = start - (firstTickNanos + tickCount*periodNanos);
+			maxLateNanos = Math.max(maxLateNanos,late);
+			tickCount++;
+			if(!paused) {
+				double dt = periodNanos*1e-9;
+				advance(reverse ? -dt : dt);
+			}
+			maxTickNanos = Math.max(maxTickNanos,System.nanoTime()-start);
+		}
+	}
+
+
+	public synchronized boolean isFinished() {
+		return pc>=opType.length;
+	}
+
+
+	/**
+	 * @return seconds of program time since the start.
+	 */
+	public synchronized double getElapsedTime() {
+		return elapsed;
+	}
+
+
+	/**
+	 * @return seconds for one run through the program, or infinity if it repeats forever.
+	 */
+	public double getProgramDuration() {
+		return programDuration;
+	}
+
+
+	/**
+	 * @return 0..1 how done is the program?  A program that repeats forever reports how far through the instruction
+	 * stream it is.
+	 */
+	public synchronized float getProgress() {
+		if(opType.length==0) return 1;
+		if(programDuration>0 && programDuration<Double.POSITIVE_INFINITY) {
+			return (float)Math.min(1,elapsed/programDuration);
+		}
+		double part = (pc<opType.length && opType[pc]==OP_MOVE && opDuration[pc]>0) ? time/opDuration[pc] : 0;
+		return (float)Math.min(1,(pc+part)/opType.length);
+	}
+
+
+	/**
+	 * @return how many operations the program compiled to.  Repeat blocks take two, one at each end.
+	 */
+	public int getOperationCount() {
+		return opType.length;
+	}
+
+	public RobotInstruction getOperationInstruction(int op) {
+		return opInstruction[op];
+	}
+
+	/**
+	 * @return the operation being run now.
+	 */
+	public synchronized int getProgramCounter() {
+		return pc;
+	}
+
+	/**
+	 * @return how many times an operation has finished.
+	 */
+	public synchronized long getOperationRuns(int op) {
+		return opRuns[op];
+	}
+
+	/**
+	 * @return the average wall clock time one run of a move took, in seconds.  0 if it never finished.
+	 */
+	public synchronized double getOperationWallTime(int op) {
+		if(opRuns[op]==0) return 0;
+		return opWallNanos[op]*1e-9/opRuns[op];
+	}
+
+	/**
+	 * @return the planned time of an operation, in seconds.
+	 */
+	public double getOperationDuration(int op) {
+		return opDuration[op];
+	}
+
+	public synchronized long getTickCount() {
+		return tickCount;
+	}
+
+	/**
+	 * @return the longest time one tick took to run, in seconds.
+	 */
+	public synchronized double getMaxTickTime() {
+		return maxTickNanos*1e-9;
+	}
+
+	/**
+	 * @return the latest a tick has started after it was due, in seconds.
+	 */
+	public synchronized double getMaxLateness() {
+		return maxLateNanos*1e-9;
+	}
+}
@@ -0,0 +1,319 @@
+package com.marginallyclever.robotOverlord.robot;
+
+/**
+ * Reads reports like "A12.5 B-90 C0.25" from a robot without making any garbage.
+ * <p>
+ * Each letter names an axis.  The value after it is stored in a preallocated array, so a report can be read many
+ * hundreds of times a second without feeding the garbage collector.  A report must start with one of the letters,
+ * and every letter in the required set must appear.  Tokens that don't start with a known letter are skipped.  A
+ * known letter followed by something that is not a number spoils the whole report.
+ * <p>
+ * Values from the last good report are kept until the next good report.  Not thread safe.
+ */
+public class TelemetryParser {
+	// exact powers of ten.  anything more than 10^22 can't be stored exactly in a double.
+	protected static final double [] POW10 = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+		1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+	// more digits than this could overflow the mantissa.  the rest only move the decimal point.
+	protected static final int MAX_DIGITS = 18;
+
+	// token states
+	protected static final int BETWEEN = 0;
+	protected static final int SKIP = 1;
+	protected static final int SIGN = 2;
+	protected static final int INTEGER = 3;
+	protected static final int FRACTION = 4;
+	protected static final int EXPONENT_SIGN = 5;
+	protected static final int EXPONENT = 6;
+	protected static final int BAD = 7;
+
+	protected String letters;
+	protected int required;
+
+	// the last good report
+	protected double [] values;
+	protected int seen;
+
+	// the report being read
+	protected double [] reading;
+	protected int readingSeen;
+	protected int state;
+	protected boolean first;
+	protected int axis;
+	protected boolean negative;
+	protected long mantissa;
+	protected int digits;
+	protected int scale;
+	protected boolean hasDigits;
+	protected boolean exponentNegative;
+	protected int exponent;
+	protected boolean hasExponentDigits;
+
+	// metrics
+	protected long reportCount;
+	protected long errorCount;
+
+
+	/**
+	 * @param letters one letter per axis.  Every one is required.
+	 */
+	public TelemetryParser(String letters) {
+		this(letters,(1<<letters.length())-1);
+	}
+
+
+	/**
+	 * @param letters one letter per axis.
+	 * @param required bit i set if letter i must be in every report.
+	 */
+	public TelemetryParser(String letters,int required) {
+		if(letters.length()>31) throw new IllegalArgumentException("too many letters");
+		this.letters = letters;
+		this.required = required;
+		values = new double[letters.length()];
+		reading = new double[letters.length()];
+	}
+
+
+	/**
+	 * Read one line.
+	 * @return true if the line was a good report.
+	 */
+	public boolean parse(CharSequence line) {
+		begin();
+		int len = line.length();
+		for(int i=0;i<len;++i) {
+			if(!step(line.charAt(i))) break;
+		}
+		return end();
+	}
+
+
+	/**
+	 * Read one line of ASCII straight from the wire.
+	 * @return true if the line was a good report.
+	 */
+	public boolean parse(byte [] buffer,int offset,int length) {
+		begin();
+		int last = offset+length;
+		for(int i=offset;i<last;++i) {
+			if(!step((char)(buffer[i]&0xFF))) break;
+		}
+		return end();
+	}
+
+
+	protected void begin() {
+		state = BETWEEN;
+		first = true;
+		readingSeen = 0;
+	}
+
+
+	/**
+	 * @return false when there is no point reading further.
+	 */
+	protected boolean step(char c) {
+		switch(state) {
+		case BETWEEN:
+			if(isSpace(c)) return true;
+			axis = letters.indexOf(c);
+			if(axis<0) {
+				// a report starts with a known letter.
+				if(first) return fail(false);
+				state = SKIP;
+				return true;
+			}
+			first = false;
+			negative = false;
+			mantissa = 0;
+			digits = 0;
+			scale = 0;
+			hasDigits = false;
+			state = SIGN;
+			return true;
+		case SKIP:
+			if(isSpace(c)) state = BETWEEN;
+			return true;
+		case SIGN:
+			state = INTEGER;
+			if(c=='-') {
+				negative = true;
+				return true;
+			}
+			if(c=='+') return true;
+			return integer(c);
+		case INTEGER:
+			return integer(c);
+		case FRACTION:
+			if(c>='0' && c<='9') {
+				digit(c);
+				scale--;
+				return true;
+			}
+			return exponentOrEnd(c);
+		case EXPONENT_SIGN:
+			state = EXPONENT;
+			if(c=='-') {
+				exponentNegative = true;
+				return true;
+			}
+			if(c=='+') return true;
+			// fall through
+		case EXPONENT:
+			if(c>='0' && c<='9') {
+				if(exponent<1000) exponent = exponent*10+(c-'0');
+				hasExponentDigits = true;
+				return true;
+			}
+			if(!hasExponentDigits) return fail(readingSeen!=0);
+			scale += exponentNegative ? -exponent : exponent;
+			return endNumber(c);
+		default:
+			return false;
+		}
+	}
+
+
+	protected boolean integer(char c) {
+		if(c>='0' && c<='9') {
+			digit(c);
+			return true;
+		}
+		if(c=='.') {
+			state = FRACTION;
+			return true;
+		}
+		return exponentOrEnd(c);
+	}
+
+
+	protected void digit(char c) {
+		hasDigits = true;
+		if(mantissa==0 && c=='0') return;
+		if(digits<MAX_DIGITS) {
+			mantissa = mantissa*10+(c-'0');
+			digits++;
+		} else {
+			// too small to matter.  keep the magnitude.
+			scale++;
+		}
+	}
+
+
+	protected boolean exponentOrEnd(char c) {
+		if(c=='e' || c=='E') {
+			if(!hasDigits) return fail(readingSeen!=0);
+			exponentNegative = false;
+			exponent = 0;
+			hasExponentDigits = false;
+			state = EXPONENT_SIGN;
+			return true;
+		}
+		return endNumber(c);
+	}
+
+
+	protected boolean endNumber(char c) {
+		if(!hasDigits || !isSpace(c)) return fail(readingSeen!=0);
+		store();
+		state = BETWEEN;
+		return true;
+	}
+
+
+	protected void store() {
+		double v = (double)mantissa;
+		if(scale<0) {
+			v = (-scale<POW10.length) ? v/POW10[-scale] : v/Math.pow(10,-scale);
+		} else if(scale>0) {
+			v = (scale<POW10.length) ? v*POW10[scale] : v*Math.pow(10,scale);
+		}
+		reading[axis] = negative ? -v : v;
+		readingSeen |= 1<<axis;
+	}
+
+
+	protected boolean fail(boolean counted) {
+		if(counted) errorCount++;
+		state = BAD;
+		return false;
+	}
+
+
+	protected boolean end() {
+		switch(state) {
+		case BAD:
+			return false;
+		case SIGN:
+		case INTEGER:
+		case FRACTION:
+		case EXPONENT_SIGN:
+		case EXPONENT:
+			// the line ended in the middle of a number.
+			if(!step(' ')) return false;
+			break;
+		default:
+			break;
+		}
+		if(first) return false;
+		if((readingSeen & required)!=required) {
+			errorCount++;
+			return false;
+		}
+		for(int i=0;i<values.length;++i) {
+			if((readingSeen & (1<<i))!=0) values[i] = reading[i];
+		}
+		seen = readingSeen;
+		reportCount++;
+		return true;
+	}
+
+
+	protected static boolean isSpace(char c) {
+		return c==' ' || c=='\t' || c=='\r' || c=='\n';
+	}
+
+
+	/**
+	 * @param axis the index of the letter
+	 * @return the value from the latest report that had this letter.
+	 */
+	public double getValue(int axis) {
+		return values[axis];
+	}
+
+
+	/**
+	 * @param out receives one value per letter.
+	 */
+	public void getValues(double [] out) {
+		System.arraycopy(values,0,out,0,values.length);
+	}
+
+
+	/**
+	 * @return bit i set if letter i was in the last good report.
+	 */
+	public int getSeen() {
+		return seen;
+	}
+
+
+	/**
+	 * @return good reports read
+	 */
+	public long getReportCount() {
+		return reportCount;
+	}
+
+
+	/**
+	 * @return reports that started well but were spoiled or incomplete
+	 */
+	public long getErrorCount() {
+		return errorCount;
+	}
+}
@@ -0,0 +1,318 @@
+package com.marginallyclever.robotOverlord.robot;
+
+/**
+ * A timed path through a list of waypoints, each a row of values - joint angles, or cartesian coordinates, as the
+ * robot decides.  See {@link Robot#getKeyframeSize()}.
+ * <p>
+ * Every segment is a straight line from one waypoint to the next.  Each axis has a top speed, acceleration, and
+ * jerk.  All axes start and stop together, so the axis that needs the longest sets the pace of the segment.  With a
+ * jerk limit the speed follows an S curve (jerk limited, seven phases), without one it follows a trapezoid.  The
+ * path comes to rest at every waypoint.
+ * <p>
+ * Call {@link #plan()} after adding waypoints.  After that {@link #sample} can be called at any time, in any order,
+ * and does not allocate memory.
+ */
+public class Trajectory {
+	protected int axes;
+	protected double [] maxVelocity;
+	protected double [] maxAcceleration;
+	// zero means no limit
+	protected double [] maxJerk;
+
+	// waypoints, axes values per waypoint
+	protected double [] waypoints = new double[0];
+	protected int waypointCount;
+
+	// per segment, in units of the fraction of the segment covered.
+	protected double [] startTime = new double[0];
+	protected double [] duration = new double[0];
+	protected double [] jerkTime = new double[0];
+	protected double [] accelerationTime = new double[0];
+	protected double [] cruiseTime = new double[0];
+	protected double [] peakVelocity = new double[0];
+	protected double [] peakAcceleration = new double[0];
+	protected double [] jerk = new double[0];
+	protected int segmentCount;
+	protected double totalDuration;
+
+
+	/**
+	 * @param axes number of values in each waypoint.
+	 */
+	public Trajectory(int axes) {
+		this.axes = axes;
+		maxVelocity = new double[axes];
+		maxAcceleration = new double[axes];
+		maxJerk = new double[axes];
+		for(int i=0;i<axes;++i) {
+			setLimits(i,1,1,0);
+		}
+	}
+
+
+	public int getAxes() {
+		return axes;
+	}
+
+
+	/**
+	 * @param axis which axis
+	 * @param velocity top speed, in units per second.  Must be more than zero.
+	 * @param acceleration top acceleration, in units per second per second.  Must be more than zero.
+	 * @param jerk top jerk, in units per second cubed.  zero or less for no limit.
+	 */
+	public void setLimits(int axis,double velocity,double acceleration,double jerk) {
+		if(velocity<=0 || acceleration<=0) throw new IllegalArgumentException("velocity and acceleration must be more than zero.");
+		maxVelocity[axis] = velocity;
+		maxAcceleration[axis] = acceleration;
+		maxJerk[axis] = Math.max(0,jerk);
+	}
+
+
+	public void clear() {
+		waypointCount=0;
+		segmentCount=0;
+		totalDuration=0;
+	}
+
+
+	/**
+	 * @param values one value per axis.  copied.
+	 */
+	public void addWaypoint(double [] values) {
+		if(waypoints.length < (waypointCount+1)*axes) {
+			double [] bigger = new double[Math.max(axes*4,waypoints.length*2)];
+			System.arraycopy(waypoints,0,bigger,0,waypointCount*axes);
+			waypoints = bigger;
+		}
+		System.arraycopy(values,0,waypoints,waypointCount*axes,axes);
+		waypointCount++;
+	}
+
+
+	public int getWaypointCount() {
+		return waypointCount;
+	}
+
+
+	/**
+	 * Work out the timing of every segment.  Call after the last waypoint is added and before sampling.
+	 */
+	public void plan() {
+		segmentCount = Math.max(0,waypointCount-1);
+		if(duration.length<segmentCount) {
+			int n = segmentCount;
+			startTime = new double[n];
+			duration = new double[n];
+			jerkTime = new double[n];
+			accelerationTime = new double[n];
+			cruiseTime = new double[n];
+			peakVelocity = new double[n];
+			peakAcceleration = new double[n];
+			jerk = new double[n];
+		}
+
+		double t=0;
+		for(int s=0;s<segmentCount;++s) {
+			startTime[s]=t;
+			planSegment(s);
+			t+=duration[s];
+		}
+		totalDuration=t;
+	}
+
+
+	/**
+	 * Find the profile of one segment.  The segment is treated as a move from 0 to 1, with limits scaled by the
+	 * distance each axis travels.
+	 */
+	protected void planSegment(int s) {
+		double v = Double.POSITIVE_INFINITY;
+		double a = Double.POSITIVE_INFINITY;
+		double j = Double.POSITIVE_INFINITY;
+		int from = s*axes;
+		int to = from+axes;
+		for(int i=0;i<axes;++i) {
+			double d = Math.abs(waypoints[to+i]-waypoints[from+i]);
+			if(d==0) continue;
+			v = Math.min(v,maxVelocity[i]/d);
+			a = Math.min(a,maxAcceleration[i]/d);
+			if(maxJerk[i]>0) j = Math.min(j,maxJerk[i]/d);
+		}
+
+		if(v==Double.POSITIVE_INFINITY) {
+			// nothing moves.
+			setSegment(s,0,0,0,0,0,0);
+			return;
+		}
+
+		double tj, ta, tv;
+		if(j==Double.POSITIVE_INFINITY) {
+			// trapezoid
+			ta = v/a;
+			if(v*ta>1) {
+				// never reaches top speed
+				ta = Math.sqrt(1/a);
+				v = a*ta;
+			}
+			tv = 1/v-ta;
+			setSegment(s,0,ta,tv,v,a,0);
+			return;
+		}
+
+		// double S, from rest to rest.  see Biagiotti & Melchiorri, "Trajectory Planning for Automatic Machines and Robots", 3.4
+		if(v*j<a*a) {
+			tj = Math.sqrt(v/j);
+			ta = 2*tj;
+		} else {
+			tj = a/j;
+			ta = tj+v/a;
+		}
+		tv = 1/v-ta;
+		if(tv<0) {
+			// never reaches top speed
+			tv = 0;
+			if(1 >= 2*a*a*a/(j*j)) {
+				tj = a/j;
+				ta = tj/2 + Math.sqrt(tj*tj/4 + 1/a);
+			} else {
+				tj = Math.cbrt(1/(2*j));
+				ta = 2*tj;
+			}
+		}
+		double alim = j*tj;
+		double vlim = (ta-tj)*alim;
+		// vlim*(ta+tv) is 1 in theory.  stretch the cruise to absorb rounding.
+		tv = Math.max(0,1/vlim-ta);
+		setSegment(s,tj,ta,tv,vlim,alim,j);
+	}
+
+
+	protected void setSegment(int s,double tj,double ta,double tv,double vlim,double alim,double j) {
+		jerkTime[s]=tj;
+		accelerationTime[s]=ta;
+		cruiseTime[s]=tv;
+		peakVelocity[s]=vlim;
+		peakAcceleration[s]=alim;
+		jerk[s]=j;
+		duration[s]=2*ta+tv;
+	}
+
+
+	/**
+	 * @return the time from the first waypoint to the last, in seconds.
+	 */
+	public double getDuration() {
+		return totalDuration;
+	}
+
+
+	public int getSegmentCount() {
+		return segmentCount;
+	}
+
+
+	/**
+	 * @return the time the trajectory passes through a waypoint, in seconds.
+	 */
+	public double getWaypointTime(int index) {
+		if(index>=segmentCount) return totalDuration;
+		return startTime[index];
+	}
+
+
+	/**
+	 * Find where the trajectory is at time t.  Times before the start or after the end give the first or last waypoint.
+	 * @param t seconds since the start
+	 * @param position receives one value per axis.
+	 */
+	public void sample(double t,double [] position) {
+		sample(t,position,null);
+	}
+
+
+	/**
+	 * Find where the trajectory is at time t, and how fast it is moving.
+	 * @param t seconds since the start
+	 * @param position receives one value per axis.
+	 * @param velocity receives one value per axis, in units per second.  May be null.
+	 */
+	public void sample(double t,double [] position,double [] velocity) {
+		if(waypointCount==0) return;
+		if(segmentCount==0 || t<=0) {
+			hold(0,position,velocity);
+			return;
+		}
+		if(t>=totalDuration) {
+			hold(waypointCount-1,position,velocity);
+			return;
+		}
+
+		// binary search for the segment containing t
+		int lo=0, hi=segmentCount-1;
+		while(lo<hi) {
+			int mid=(lo+hi+1)>>>1;
+			if(startTime[mid]<=t) lo=mid;
+			else hi=mid-1;
+		}
+		int s=lo;
+		double tau = t-startTime[s];
+		double ta = accelerationTime[s];
+		double tv = cruiseTime[s];
+		double vlim = peakVelocity[s];
+
+		double u, du;
+		if(tau<ta) {
+			u = rampPosition(s,tau);
+			du = rampVelocity(s,tau);
+		} else if(tau<ta+tv) {
+			u = vlim*ta/2 + vlim*(tau-ta);
+			du = vlim;
+		} else {
+			double rest = duration[s]-tau;
+			u = 1-rampPosition(s,rest);
+			du = rampVelocity(s,rest);
+		}
+
+		int from = s*axes;
+		int to = from+axes;
+		for(int i=0;i<axes;++i) {
+			double d = waypoints[to+i]-waypoints[from+i];
+			position[i] = waypoints[from+i] + d*u;
+			if(velocity!=null) velocity[i] = d*du;
+		}
+	}
+
+
+	protected void hold(int waypoint,double [] position,double [] velocity) {
+		System.arraycopy(waypoints,waypoint*axes,position,0,axes);
+		if(velocity!=null) {
+			for(int i=0;i<axes;++i) velocity[i]=0;
+		}
+	}
+
+
+	// fraction of the segment covered tau seconds into the acceleration phase.
+	protected double rampPosition(int s,double tau) {
+		double tj = jerkTime[s];
+		double ta = accelerationTime[s];
+		double alim = peakAcceleration[s];
+		double j = jerk[s];
+		if(tau<tj) return j*tau*tau*tau/6;
+		if(tau<ta-tj) return alim/6*(3*tau*tau - 3*tj*tau + tj*tj);
+		double r = ta-tau;
+		return peakVelocity[s]*ta/2 - peakVelocity[s]*r + j*r*r*r/6;
+	}
+
+
+	// speed tau seconds into the acceleration phase, in fractions of the segment per second.
+	protected double rampVelocity(int s,double tau) {
+		double tj = jerkTime[s];
+		double ta = accelerationTime[s];
+		double j = jerk[s];
+		if(tau<tj) return j*tau*tau/2;
+		if(tau<ta-tj) return peakAcceleration[s]*(tau-tj/2);
+		double r = ta-tau;
+		return peakVelocity[s] - j*r*r/2;
+	}
+}
@@ -23,7 +23,10 @@ import com.marginallyclever.robotOverlord.actions.UndoableActionRobotMove;
 import com.marginallyclever.robotOverlord.material.Material;
 import com.marginallyclever.robotOverlord.model.Model;
 import com.marginallyclever.robotOverlord.model.ModelFactory;
+import com.marginallyclever.robotOverlord.robot.JogChannel;
 import com.marginallyclever.robotOverlord.robot.Robot;
+import com.marginallyclever.robotOverlord.robot.RobotKeyframe;
+import com.marginallyclever.robotOverlord.robot.TelemetryParser;
 
 public class RotaryStewartPlatform
 extends Robot  
@@ -75,6 +78,13 @@ extends Robot
 	// convenience
 	protected boolean hasArmMoved;
 	
+	// bicep angles reported by the real machine, waiting for updateFK()
+	protected final float [] reportedAngles = new float[6];
+	protected boolean hasReportedAngles;
+	// reads the angle reports asked for with R1.  only used by the thread that passes on what the robot says.
+	protected transient TelemetryParser telemetry;
+	protected transient float [] telemetryAngles;
+	
 	// keyboard history
 	protected float xDir, yDir, zDir;
 	protected float uDir, vDir, wDir;
@@ -83,6 +93,9 @@ extends Robot
 
 	// visual model for controlling robot
 	protected transient RotaryStewartPlatformControlPanel rspPanel;
+	// jogs, sent no faster than the platform can take them.  see sendChangeToRealMachine()
+	protected transient JogChannel jogChannel;
+	protected transient double [] jogValues;
 	protected RotaryStewartPlatform2Dimensions dimensions;
 
  	public RotaryStewartPlatform() {
@@ -207,7 +220,35 @@ extends Robot
 	}
 
 	
-	public void updateFK(float delta) {}
+	/**
+	 * Tell the simulation where the biceps of the real machine are.  Safe to call from any thread.  The pose of the
+	 * finger is worked out on the next frame.
+	 * @param angles six bicep angles, in degrees.
+	 */
+	public void setReportedAngles(float [] angles) {
+		synchronized(reportedAngles) {
+			System.arraycopy(angles,0,reportedAngles,0,6);
+			hasReportedAngles=true;
+		}
+	}
+
+
+	public void updateFK(float delta) {
+		synchronized(reportedAngles) {
+			if(!hasReportedAngles) return;
+			hasReportedAngles=false;
+			motionFuture.set(motionNow);
+			for(int i=0;i<6;++i) {
+				motionFuture.arms[i].angle = reportedAngles[i];
+			}
+		}
+
+		// the machine is already there, so there is nothing to send back.
+		if(motionFuture.updateFK()) {
+			motionNow.set(motionFuture);
+			if(rspPanel!=null) rspPanel.update();
+		}
+	}
 
 
 	protected void updateIK(float delta) {
@@ -271,6 +312,7 @@ extends Robot
 	public void prepareMove(float delta) {
 		updateFK(delta);
 		updateIK(delta);
+		if(jogChannel!=null) jogChannel.update();
 	}
 
 	@Override
@@ -478,6 +520,19 @@ extends Robot
 			}
 
 			setDisplayName(dimensions.ROBOT_NAME+" #"+robotUID);
+			return;
+		}
+
+		if(isPortConfirmed) {
+			// "A.. B.. C.. D.. E.. F..", one bicep each, like the Sixi.  solved by updateFK() on the next frame.
+			if(telemetry==null) {
+				telemetry = new TelemetryParser("ABCDEF");
+				telemetryAngles = new float[6];
+			}
+			if(telemetry.parse(line)) {
+				for(int i=0;i<6;++i) telemetryAngles[i] = (float)telemetry.getValue(i);
+				setReportedAngles(telemetryAngles);
+			}
 		}
 	}
 	
@@ -562,20 +617,24 @@ extends Robot
 	
 	private void sendChangeToRealMachine() {
 		if(!isPortConfirmed()) return;
-		
-		this.sendLineToRobot("G0 X"+MathHelper.roundOff3(motionNow.fingerPosition.x)
-		          +" Y"+MathHelper.roundOff3(motionNow.fingerPosition.y)
-		          +" Z"+MathHelper.roundOff3(motionNow.fingerPosition.z)
-		          +" U"+MathHelper.roundOff3(motionNow.rotationAngleU)
-		          +" V"+MathHelper.roundOff3(motionNow.rotationAngleV)
-		          +" W"+MathHelper.roundOff3(motionNow.rotationAngleW)
-		          );
+		if(jogChannel==null) {
+			jogChannel = new JogChannel(this,"G0","XYZUVW");
+			jogValues = new double[6];
+		}
+		jogValues[0]=motionNow.fingerPosition.x;
+		jogValues[1]=motionNow.fingerPosition.y;
+		jogValues[2]=motionNow.fingerPosition.z;
+		jogValues[3]=motionNow.rotationAngleU;
+		jogValues[4]=motionNow.rotationAngleV;
+		jogValues[5]=motionNow.rotationAngleW;
+		jogChannel.jog(jogValues);
 	}
 	
 	
 	public void goHome() {
 		motionFuture.isHomed=false;
 		this.sendLineToRobot("G28");
+		if(jogChannel!=null) jogChannel.reset();
 		motionFuture.fingerPosition.set(HOME_X,HOME_Y,HOME_Z);  // HOME_* should match values in robot firmware.
 		motionFuture.rotationAngleU=0;
 		motionFuture.rotationAngleV=0;
@@ -593,4 +652,46 @@ extends Robot
 	public boolean isHomed() {
 		return motionNow.isHomed;
 	}
+
+
+	@Override
+	public RobotKeyframe createKeyframe() {
+		RotaryStewartPlatformKeyframe keyframe = new RotaryStewartPlatformKeyframe(dimensions);
+		keyframe.set(motionNow);
+		return keyframe;
+	}
+
+
+	/**
+	 * Stewart platform keyframes are described by their six bicep angles, in degrees, as the firmware reports them.
+	 */
+	@Override
+	public int getKeyframeSize() {
+		return 6;
+	}
+
+
+	@Override
+	public void getKeyframeValues(RobotKeyframe arg0,double [] values) {
+		RotaryStewartPlatformKeyframe keyframe = (RotaryStewartPlatformKeyframe)arg0;
+		values[0]=keyframe.arms[0].angle;
+		values[1]=keyframe.arms[1].angle;
+		values[2]=keyframe.arms[2].angle;
+		values[3]=keyframe.arms[3].angle;
+		values[4]=keyframe.arms[4].angle;
+		values[5]=keyframe.arms[5].angle;
+	}
+
+
+	@Override
+	public void setKeyframeValues(RobotKeyframe arg0,double [] values) {
+		RotaryStewartPlatformKeyframe keyframe = (RotaryStewartPlatformKeyframe)arg0;
+		keyframe.arms[0].angle=(float)values[0];
+		keyframe.arms[1].angle=(float)values[1];
+		keyframe.arms[2].angle=(float)values[2];
+		keyframe.arms[3].angle=(float)values[3];
+		keyframe.arms[4].angle=(float)values[4];
+		keyframe.arms[5].angle=(float)values[5];
+		keyframe.updateFK();
+	}
 }
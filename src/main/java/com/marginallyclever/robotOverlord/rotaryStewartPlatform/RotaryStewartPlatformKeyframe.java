@@ -3,7 +3,6 @@ package com.marginallyclever.robotOverlord.rotaryStewartPlatform;
 import javax.vecmath.Vector3f;
 
 import com.marginallyclever.convenience.MathHelper;
-import com.marginallyclever.robotOverlord.Log;
 import com.marginallyclever.robotOverlord.robot.RobotKeyframe;
 
 
@@ -44,6 +43,11 @@ public class RotaryStewartPlatformKeyframe implements RobotKeyframe {
 	public float speed;
 
 	public RotaryStewartPlatform2Dimensions dimensions;
+
+	// forward kinematics, made on first use
+	protected transient RotaryStewartPlatformKinematics kinematics;
+	protected transient double [] fkAngles;
+	protected transient double [] fkPose;
 	
 	public RotaryStewartPlatformKeyframe(RotaryStewartPlatform2Dimensions arg0) {
 		dimensions = arg0;
@@ -108,8 +112,40 @@ public class RotaryStewartPlatformKeyframe implements RobotKeyframe {
 		return speed;
 	}
 	
-	public void updateFK() {
-		Log.error("Forward Kinematics are not implemented yet");
+	/**
+	 * Convert the six bicep angles to the pose of the finger.  The search starts from the pose already in this
+	 * keyframe, which should be close by.  Assumes the base is level.
+	 * @return true if successful, false if no pose matches the angles.
+	 */
+	public boolean updateFK() {
+		RotaryStewartPlatformKinematics k = getKinematics();
+		k.setPose(fingerPosition.x, fingerPosition.y, fingerPosition.z, rotationAngleU, rotationAngleV, rotationAngleW);
+		for(int i=0;i<6;++i) {
+			fkAngles[i] = arms[i].angle;
+		}
+		if(k.forwardKinematics(fkAngles)!=RotaryStewartPlatformKinematics.STATUS_OK) return false;
+
+		k.getPose(fkPose);
+		fingerPosition.set((float)fkPose[0], (float)fkPose[1], (float)fkPose[2]);
+		rotationAngleU = (float)fkPose[3];
+		rotationAngleV = (float)fkPose[4];
+		rotationAngleW = (float)fkPose[5];
+		updateIKEndEffector();
+		for(int i=0;i<6;++i) {
+			k.getElbow(i, arms[i].elbow);
+			k.getWrist(i, arms[i].wrist);
+		}
+		return true;
+	}
+
+
+	public RotaryStewartPlatformKinematics getKinematics() {
+		if(kinematics==null) {
+			kinematics = new RotaryStewartPlatformKinematics(dimensions,relative.z);
+			fkAngles = new double[6];
+			fkPose = new double[RotaryStewartPlatformKinematics.POSE_SIZE];
+		}
+		return kinematics;
 	}
 	
 	
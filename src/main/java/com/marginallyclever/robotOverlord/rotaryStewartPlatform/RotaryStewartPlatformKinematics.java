@@ -0,0 +1,417 @@
+package com.marginallyclever.robotOverlord.rotaryStewartPlatform;
+
+import javax.vecmath.Vector3f;
+
+/**
+ * Inverse and forward kinematics for the {@link RotaryStewartPlatform}, with the base level (not panned or tilted).
+ * <p>
+ * Inverse kinematics are closed form and match {@link RotaryStewartPlatformKeyframe#updateIK()}.  There is no closed
+ * form for the forward kinematics of a six arm platform, so they are found with Newton-Raphson: each forearm gives
+ * one equation |wrist-elbow|=FOREARM_LENGTH in the six unknowns of the pose, and the 6x6 Jacobian is worked out
+ * exactly.  Every solve starts from the last pose found, so following a moving platform usually takes two or three
+ * iterations.
+ * <p>
+ * Everything that depends only on the dimensions is worked out once in the constructor.  After that no method
+ * allocates memory or throws.  Each solve returns one of the STATUS_* codes.
+ * <p>
+ * A pose is x,y,z of the finger and the rotations u,v,w in degrees, same as the fields of
+ * {@link RotaryStewartPlatformKeyframe}.  Bicep angles are in degrees, same as {@link RotaryStewartPlatformArm#angle}.
+ * An instance is not thread safe.
+ */
+public class RotaryStewartPlatformKinematics {
+	public static final int STATUS_OK = 0;
+	/** a wrist is further from the plane of its bicep than the forearm is long. */
+	public static final int STATUS_FOREARM_TOO_SHORT = 1;
+	/** a wrist is too near or too far from its shoulder for the bicep and forearm to meet. */
+	public static final int STATUS_NO_ELBOW = 2;
+	/** the Jacobian is singular.  the platform is at a singular pose. */
+	public static final int STATUS_SINGULAR = 3;
+	/** Newton-Raphson did not settle within the iteration limit. */
+	public static final int STATUS_NO_CONVERGENCE = 4;
+
+	public static final int NUM_ARMS = 6;
+	public static final int POSE_SIZE = 6;
+
+	protected static final double DEGREES = Math.PI/180.0;
+
+	protected double bicep;
+	protected double forearm;
+	// added to the z of every wrist.  see RotaryStewartPlatformKeyframe.relative
+	protected double relativeZ;
+
+	// per arm: the bicep turns around (axisX,axisY,0) and swings out along (outX,outY,0).
+	protected double [] axisX = new double[NUM_ARMS];
+	protected double [] axisY = new double[NUM_ARMS];
+	protected double [] outX = new double[NUM_ARMS];
+	protected double [] outY = new double[NUM_ARMS];
+	// shoulder relative to the base, 3 per arm
+	protected double [] shoulder = new double[NUM_ARMS*3];
+	// wrist relative to the finger before the finger is rotated, 3 per arm
+	protected double [] wristOffset = new double[NUM_ARMS*3];
+
+	// Newton-Raphson settings
+	protected int maxIterations = 20;
+	protected double tolerance = 1e-6;
+	// largest change of any angle in one iteration, in degrees.
+	protected double maxAngleStep = 5;
+
+	// results of the last single solve
+	protected double [] angle = new double[NUM_ARMS];
+	protected double [] elbow = new double[NUM_ARMS*3];
+	protected double [] wrist = new double[NUM_ARMS*3];
+	protected double [] pose = new double[POSE_SIZE];
+	protected int iterations;
+
+	// scratch space
+	protected double [] rotation = new double[9];
+	protected double [] rotatedOffset = new double[NUM_ARMS*3];
+	// axes of the u and v rotations after the rotations applied on top of them.  set by updateWrists().
+	protected double uAxisX, uAxisY, uAxisZ;
+	protected double vAxisX, vAxisY;
+	protected double [] residual = new double[NUM_ARMS];
+	protected double [] jacobian = new double[NUM_ARMS*POSE_SIZE];
+	protected double [] step = new double[POSE_SIZE];
+
+
+	public RotaryStewartPlatformKinematics(RotaryStewartPlatform2Dimensions dimensions,double relativeZ) {
+		bicep = dimensions.BICEP_LENGTH;
+		forearm = dimensions.FOREARM_LENGTH;
+		this.relativeZ = relativeZ;
+
+		for(int i=0;i<NUM_ARMS;++i) {
+			double theta = (i/2)*Math.PI*2.0/3.0;
+			double c = Math.cos(theta);
+			double s = Math.sin(theta);
+			// same frame as RotaryStewartPlatformKeyframe.rebuildShoulders() with a level base: n1=(c,s,0), o1=(-s,c,0)
+			// arm a is on the -o1 side of the pair, arm b on the +o1 side.
+			double side = (i%2==0) ? -1 : 1;
+			axisX[i] = c;
+			axisY[i] = s;
+			outX[i] = -s*side;
+			outY[i] =  c*side;
+
+			int j=i*3;
+			shoulder[j  ] = c*dimensions.BASE_TO_SHOULDER_X - s*side*dimensions.BASE_TO_SHOULDER_Y;
+			shoulder[j+1] = s*dimensions.BASE_TO_SHOULDER_X + c*side*dimensions.BASE_TO_SHOULDER_Y;
+			shoulder[j+2] = dimensions.BASE_TO_SHOULDER_Z;
+
+			wristOffset[j  ] = c*dimensions.WRIST_TO_FINGER_X - s*side*dimensions.WRIST_TO_FINGER_Y;
+			wristOffset[j+1] = s*dimensions.WRIST_TO_FINGER_X + c*side*dimensions.WRIST_TO_FINGER_Y;
+			wristOffset[j+2] = dimensions.WRIST_TO_FINGER_Z;
+		}
+	}
+
+
+	public void setMaxIterations(int maxIterations) {
+		this.maxIterations = maxIterations;
+	}
+
+	/**
+	 * @param tolerance forward kinematics stop when every forearm is within this of the right length.
+	 */
+	public void setTolerance(double tolerance) {
+		this.tolerance = tolerance;
+	}
+
+
+	/**
+	 * Set the pose that the next forward kinematics solve starts from.
+	 */
+	public void setPose(double x,double y,double z,double u,double v,double w) {
+		pose[0]=x;
+		pose[1]=y;
+		pose[2]=z;
+		pose[3]=u;
+		pose[4]=v;
+		pose[5]=w;
+	}
+
+
+	/**
+	 * Find the bicep angles for one pose of the finger.  On success the angles, elbows, and wrists can be read with
+	 * {@link #getAngle}, {@link #getElbow}, and {@link #getWrist}.  The pose becomes the start of the next forward
+	 * kinematics solve.
+	 * @return one of the STATUS_* codes.
+	 */
+	public int inverseKinematics(double x,double y,double z,double u,double v,double w) {
+		setPose(x,y,z,u,v,w);
+		updateWrists();
+
+		for(int i=0;i<NUM_ARMS;++i) {
+			int j=i*3;
+			// shoulder to wrist, split into the part along the bicep axis and the part in the plane of the bicep
+			double dx = wrist[j  ]-shoulder[j  ];
+			double dy = wrist[j+1]-shoulder[j+1];
+			double dz = wrist[j+2]-shoulder[j+2];
+			double a = dx*axisX[i] + dy*axisY[i];
+			double p = dx*outX[i] + dy*outY[i];
+			double q = dz;
+
+			// the forearm, projected onto the plane of the bicep
+			double bb = forearm*forearm - a*a;
+			if(bb<0) return STATUS_FOREARM_TOO_SHORT;
+
+			// intersection of circles in the plane of the bicep
+			double dd = p*p + q*q;
+			if(dd==0) return STATUS_NO_ELBOW;
+			double d = Math.sqrt(dd);
+			double m = (bicep*bicep - bb + dd) / (2.0*d);
+			double hh = bicep*bicep - m*m;
+			if(hh<0) return STATUS_NO_ELBOW;
+			double h = Math.sqrt(hh);
+
+			double ex = (m*p + h*q)/d;
+			double ez = (m*q - h*p)/d;
+			elbow[j  ] = shoulder[j  ] + ex*outX[i];
+			elbow[j+1] = shoulder[j+1] + ex*outY[i];
+			elbow[j+2] = shoulder[j+2] + ez;
+			angle[i] = Math.toDegrees(Math.atan2(ez,ex));
+		}
+		return STATUS_OK;
+	}
+
+
+	/**
+	 * Find the pose of the finger for six bicep angles, starting from the last pose solved or set.  On success the
+	 * pose, elbows, and wrists can be read with {@link #getPose}, {@link #getElbow}, and {@link #getWrist}.
+	 * On failure the last pose is kept.
+	 * @param angles six bicep angles, in degrees.
+	 * @return one of the STATUS_* codes.
+	 */
+	public int forwardKinematics(double [] angles) {
+		return forwardKinematics(angles,0);
+	}
+
+
+	protected int forwardKinematics(double [] angles,int offset) {
+		for(int i=0;i<NUM_ARMS;++i) {
+			int j=i*3;
+			angle[i] = angles[offset+i];
+			double r = Math.toRadians(angle[i]);
+			double ex = Math.cos(r)*bicep;
+			double ez = Math.sin(r)*bicep;
+			elbow[j  ] = shoulder[j  ] + ex*outX[i];
+			elbow[j+1] = shoulder[j+1] + ex*outY[i];
+			elbow[j+2] = shoulder[j+2] + ez;
+		}
+
+		// keep the starting pose in case the solve fails.
+		double x0=pose[0], y0=pose[1], z0=pose[2], u0=pose[3], v0=pose[4], w0=pose[5];
+
+		for(iterations=0;iterations<maxIterations;++iterations) {
+			updateWrists();
+
+			// residuals and the Jacobian.  rows are arms, columns are x,y,z,u,v,w.
+			double worst=0;
+			for(int i=0;i<NUM_ARMS;++i) {
+				int j=i*3;
+				double nx = wrist[j  ]-elbow[j  ];
+				double ny = wrist[j+1]-elbow[j+1];
+				double nz = wrist[j+2]-elbow[j+2];
+				double len = Math.sqrt(nx*nx+ny*ny+nz*nz);
+				if(len==0) return fail(STATUS_SINGULAR,x0,y0,z0,u0,v0,w0);
+				residual[i] = len-forearm;
+				worst = Math.max(worst,Math.abs(residual[i]));
+				nx/=len;
+				ny/=len;
+				nz/=len;
+
+				int k=i*POSE_SIZE;
+				jacobian[k  ] = nx;
+				jacobian[k+1] = ny;
+				jacobian[k+2] = nz;
+				// turning the finger by a small angle around an axis moves the wrist by axis x rotatedOffset.
+				// d(residual) = n . (axis x r) = axis . (r x n)
+				double rx = rotatedOffset[j  ];
+				double ry = rotatedOffset[j+1];
+				double rz = rotatedOffset[j+2];
+				double cx = ry*nz - rz*ny;
+				double cy = rz*nx - rx*nz;
+				double cz = rx*ny - ry*nx;
+				jacobian[k+3] = (cx*uAxisX + cy*uAxisY + cz*uAxisZ) * DEGREES;
+				jacobian[k+4] = (cx*vAxisX + cy*vAxisY) * DEGREES;
+				jacobian[k+5] = cz * DEGREES;
+			}
+			if(worst<tolerance) return STATUS_OK;
+
+			if(!solveLinear()) return fail(STATUS_SINGULAR,x0,y0,z0,u0,v0,w0);
+
+			// don't let a bad start throw the rotation far away
+			double biggest=0;
+			for(int i=3;i<POSE_SIZE;++i) biggest = Math.max(biggest,Math.abs(step[i]));
+			double scale = biggest>maxAngleStep ? maxAngleStep/biggest : 1;
+			for(int i=0;i<POSE_SIZE;++i) pose[i] -= step[i]*scale;
+		}
+
+		return fail(STATUS_NO_CONVERGENCE,x0,y0,z0,u0,v0,w0);
+	}
+
+
+	protected int fail(int status,double x,double y,double z,double u,double v,double w) {
+		setPose(x,y,z,u,v,w);
+		return status;
+	}
+
+
+	/**
+	 * Put the wrists where the current pose says.  Rotate around X by u, then around Y by v, then around Z by w,
+	 * same as RotaryStewartPlatformKeyframe.updateIKEndEffector().
+	 */
+	protected void updateWrists() {
+		double su = Math.sin(pose[3]*DEGREES), cu = Math.cos(pose[3]*DEGREES);
+		double sv = Math.sin(pose[4]*DEGREES), cv = Math.cos(pose[4]*DEGREES);
+		double sw = Math.sin(pose[5]*DEGREES), cw = Math.cos(pose[5]*DEGREES);
+
+		double [] m = rotation;
+		m[0] = cw*cv;	m[1] = cw*sv*su - sw*cu;	m[2] = cw*sv*cu + sw*su;
+		m[3] = sw*cv;	m[4] = sw*sv*su + cw*cu;	m[5] = sw*sv*cu - cw*su;
+		m[6] = -sv;		m[7] = cv*su;				m[8] = cv*cu;
+
+		// w turns around Z.  v turns around Y after w.  u turns around X after v and w.
+		uAxisX = cw*cv;
+		uAxisY = sw*cv;
+		uAxisZ = -sv;
+		vAxisX = -sw;
+		vAxisY = cw;
+
+		for(int i=0;i<NUM_ARMS;++i) {
+			int j=i*3;
+			double ox = wristOffset[j  ];
+			double oy = wristOffset[j+1];
+			double oz = wristOffset[j+2];
+			double rx = m[0]*ox + m[1]*oy + m[2]*oz;
+			double ry = m[3]*ox + m[4]*oy + m[5]*oz;
+			double rz = m[6]*ox + m[7]*oy + m[8]*oz;
+			rotatedOffset[j  ] = rx;
+			rotatedOffset[j+1] = ry;
+			rotatedOffset[j+2] = rz;
+			wrist[j  ] = pose[0] + rx;
+			wrist[j+1] = pose[1] + ry;
+			wrist[j+2] = pose[2] + rz + relativeZ;
+		}
+	}
+
+
+	/**
+	 * Solve jacobian * step = residual with Gaussian elimination and partial pivoting.  Destroys the jacobian.
+	 * @return false if the system is singular.
+	 */
+	protected boolean solveLinear() {
+		final int n = POSE_SIZE;
+		double [] a = jacobian;
+		double [] b = residual;
+
+		for(int col=0;col<n;++col) {
+			int pivot=col;
+			double best=Math.abs(a[col*n+col]);
+			for(int row=col+1;row<n;++row) {
+				double v = Math.abs(a[row*n+col]);
+				if(v>best) {
+					best=v;
+					pivot=row;
+				}
+			}
+			if(best<1e-12) return false;
+			if(pivot!=col) {
+				for(int k=col;k<n;++k) {
+					double t=a[col*n+k];
+					a[col*n+k]=a[pivot*n+k];
+					a[pivot*n+k]=t;
+				}
+				double t=b[col];
+				b[col]=b[pivot];
+				b[pivot]=t;
+			}
+			for(int row=col+1;row<n;++row) {
+				double f = a[row*n+col]/a[col*n+col];
+				if(f==0) continue;
+				for(int k=col;k<n;++k) a[row*n+k] -= f*a[col*n+k];
+				b[row] -= f*b[col];
+			}
+		}
+		for(int row=n-1;row>=0;--row) {
+			double sum=b[row];
+			for(int k=row+1;k<n;++k) sum -= a[row*n+k]*step[k];
+			step[row] = sum/a[row*n+row];
+		}
+		return true;
+	}
+
+
+	/**
+	 * Solve inverse kinematics for many poses at once.
+	 * @param poses x,y,z,u,v,w of each pose
+	 * @param count number of poses
+	 * @param angles receives six bicep angles per pose.  Untouched where the solve failed.
+	 * @param status receives one STATUS_* code per pose.  May be null.
+	 * @return the number of poses that were solved.
+	 */
+	public int inverseKinematics(double [] poses,int count,double [] angles,int [] status) {
+		int solved=0;
+		for(int n=0;n<count;++n) {
+			int j=n*POSE_SIZE;
+			int s = inverseKinematics(poses[j],poses[j+1],poses[j+2],poses[j+3],poses[j+4],poses[j+5]);
+			if(s==STATUS_OK) {
+				System.arraycopy(angle,0,angles,n*NUM_ARMS,NUM_ARMS);
+				solved++;
+			}
+			if(status!=null) status[n]=s;
+		}
+		return solved;
+	}
+
+
+	/**
+	 * Solve forward kinematics for many sets of bicep angles at once.  Each solve starts from the one before, so
+	 * consecutive sets should be close together, as they are along a path.
+	 * @param angles six bicep angles per pose
+	 * @param count number of poses
+	 * @param poses receives x,y,z,u,v,w per pose.  Untouched where the solve failed.
+	 * @param status receives one STATUS_* code per pose.  May be null.
+	 * @return the number of poses that were solved.
+	 */
+	public int forwardKinematics(double [] angles,int count,double [] poses,int [] status) {
+		int solved=0;
+		for(int n=0;n<count;++n) {
+			int s = forwardKinematics(angles,n*NUM_ARMS);
+			if(s==STATUS_OK) {
+				System.arraycopy(pose,0,poses,n*POSE_SIZE,POSE_SIZE);
+				solved++;
+			}
+			if(status!=null) status[n]=s;
+		}
+		return solved;
+	}
+
+
+	/**
+	 * @return the angle of one bicep, in degrees, from the last single solve.
+	 */
+	public double getAngle(int arm) {
+		return angle[arm];
+	}
+
+	/**
+	 * @param out receives x,y,z,u,v,w of the finger from the last single solve.
+	 */
+	public void getPose(double [] out) {
+		System.arraycopy(pose,0,out,0,POSE_SIZE);
+	}
+
+	/**
+	 * @return how many Newton-Raphson iterations the last forward kinematics solve took.
+	 */
+	public int getIterations() {
+		return iterations;
+	}
+
+	public void getElbow(int arm,Vector3f out) {
+		int j=arm*3;
+		out.set((float)elbow[j],(float)elbow[j+1],(float)elbow[j+2]);
+	}
+
+	public void getWrist(int arm,Vector3f out) {
+		int j=arm*3;
+		out.set((float)wrist[j],(float)wrist[j+1],(float)wrist[j+2]);
+	}
+}
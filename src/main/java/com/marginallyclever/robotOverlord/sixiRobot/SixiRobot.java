@@ -1,16 +1,28 @@
 package com.marginallyclever.robotOverlord.sixiRobot;
 
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 import javax.vecmath.Vector3f;
 import com.jogamp.opengl.GL2;
+import com.marginallyclever.communications.MotionProtocol;
 import com.marginallyclever.communications.NetworkConnection;
 import com.marginallyclever.convenience.MathHelper;
 import com.marginallyclever.robotOverlord.*;
+import com.marginallyclever.robotOverlord.kinematics.DampedLeastSquaresSolver;
+import com.marginallyclever.robotOverlord.kinematics.IKCache;
+import com.marginallyclever.robotOverlord.kinematics.KinematicChain;
+import com.marginallyclever.robotOverlord.kinematics.KinematicChainCollisionChecker;
+import com.marginallyclever.robotOverlord.kinematics.MotionPlanner;
+import com.marginallyclever.robotOverlord.kinematics.ReachabilityMap;
 import com.marginallyclever.robotOverlord.material.Material;
 import com.marginallyclever.robotOverlord.sixiRobot.tool.*;
 import com.marginallyclever.robotOverlord.model.Model;
 import com.marginallyclever.robotOverlord.model.ModelFactory;
+import com.marginallyclever.robotOverlord.robot.JogChannel;
 import com.marginallyclever.robotOverlord.robot.Robot;
+import com.marginallyclever.robotOverlord.robot.RobotKeyframe;
+import com.marginallyclever.robotOverlord.robot.RobotProgram;
+import com.marginallyclever.robotOverlord.robot.Trajectory;
 
 import java.io.BufferedReader;
 import java.io.IOException;
@@ -23,6 +35,8 @@ import java.net.URLConnection;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 
 /**
@@ -65,6 +79,11 @@ extends Robot {
 	//public static double ADJUST_ULNA_ELBOW_ANGLE = 26.56505117707799;
 	
 	public final static float EPSILON = 0.00001f;
+
+	// joint limits for trajectories, in degrees, degrees/s, degrees/s/s, and degrees/s/s/s.
+	public final static double MAX_JOINT_VELOCITY = 90;
+	public final static double MAX_JOINT_ACCELERATION = 180;
+	public final static double MAX_JOINT_JERK = 1440;
 	
 	// model files
 	private Model floorModel    = null;
@@ -122,6 +141,36 @@ extends Robot {
 	// visual debugging
 	private boolean showDebug=false;
 
+	// numerical IK, used when the closed form solution gives up
+	private transient DampedLeastSquaresSolver numericalSolver;
+	// links of the arm as capsules.  see getCapsules()
+	private transient KinematicChainCollisionChecker capsuleChecker;
+	private transient double [] numericalAngles;
+	private transient double [] numericalTarget;
+
+	// solutions of targets seen before.  see solveIK()
+	private transient IKCache ikCache;
+	private transient double [] ikPose;
+	private transient double [] ikValues;
+	private static final int IK_CACHE_SIZE = 4096;
+	// angle0...angle5, then the shoulder, elbow, and wrist
+	private static final int IK_CACHE_VALUES = 15;
+
+	// jogs, sent no faster than the robot can take them.  see sendChangeToRealMachine()
+	private transient JogChannel jogChannel;
+	private transient double [] jogValues;
+	// frames instead of G-code, if the firmware agrees.  asked for after the hello.
+	private transient MotionProtocol motionProtocol;
+
+	// angle reports from the live robot, and the GUI update they cause.  see dataAvailable()
+	private transient SixiRobotTelemetry telemetry;
+	private transient AtomicBoolean guiQueued;
+	private transient Runnable guiUpdater;
+
+	// where any Sixi can reach, relative to its base.  see getReachabilityMap()
+	private static ReachabilityMap reachabilityMap;
+	private final static String REACHABILITY_MAP_FILE = "sixi.reachability";
+
 	// gui
 	protected transient SixiRobotControlPanel armPanel=null;
 	
@@ -445,7 +494,7 @@ extends Robot {
 			motionFuture.fingerPosition.x = dX;
 			motionFuture.fingerPosition.y = dY;
 			motionFuture.fingerPosition.z = dZ;
-			if(!inverseKinematics(motionFuture,false,null)) {
+			if(!solveIK(motionFuture)) {
 				return;
 			}
 			if(checkAngleLimits(motionFuture)) {
@@ -565,28 +614,186 @@ extends Robot {
 		if( tool != null ) tool.updateGUI();
 	}
 
+	/**
+	 * Update the panel on the Swing thread.  Many calls before it gets there make only one update.
+	 */
+	protected void queueGUIUpdate() {
+		if(armPanel==null) return;
+		if(guiQueued==null) {
+			guiQueued = new AtomicBoolean();
+			guiUpdater = new Runnable() {
+				@Override
+				public void run() {
+					guiQueued.set(false);
+					updateGUI();
+				}
+			};
+		}
+		if(guiQueued.compareAndSet(false,true)) SwingUtilities.invokeLater(guiUpdater);
+	}
+
 	protected void sendChangeToRealMachine() {
 		if(!isPortConfirmed) return;
-		
-		String str="";
-		if(motionFuture.angle0!=motionNow.angle0) str+=" X"+roundOff(motionFuture.angle0);
-		if(motionFuture.angle1!=motionNow.angle1) str+=" Y"+roundOff(motionFuture.angle1);
-		if(motionFuture.angle2!=motionNow.angle2) str+=" Z"+roundOff(motionFuture.angle2);
-		if(motionFuture.angle3!=motionNow.angle3) str+=" U"+roundOff(motionFuture.angle3);
-		if(motionFuture.angle4!=motionNow.angle4) str+=" V"+roundOff(motionFuture.angle4);
-		if(motionFuture.angle5!=motionNow.angle5) str+=" W"+roundOff(motionFuture.angle5);
-		if(str.length()>0) {
-			str+=" F"+roundOff((float)feedRate);
-			System.out.println(str);
-			this.sendLineToRobot("G0"+str);
+		if(jogValues==null) jogValues = new double[6];
+		getKeyframeValues(motionFuture,jogValues);
+		getJogChannel().jog(jogValues,feedRate);
+	}
+
+	/**
+	 * Programs jog from their own thread.  see commandValues()
+	 */
+	@Override
+	protected void sendCommandedValues(double [] values) {
+		if(!isPortConfirmed) return;
+		getJogChannel().jog(values,feedRate);
+	}
+
+	protected synchronized JogChannel getJogChannel() {
+		if(jogChannel==null) {
+			jogChannel = new JogChannel(this,"G0","XYZUVW",'F');
+			jogChannel.setMotionProtocol(motionProtocol);
 		}
+		return jogChannel;
 	}
 	
 	@Override
 	public void prepareMove(float delta) {
-		updateIK(delta);
-		updateFK(delta);
+		if(telemetry!=null && telemetry.apply(motionFuture)) {
+			motionNow.set(motionFuture);
+			queueGUIUpdate();
+		}
+		if(takeCommandedKeyframe(motionFuture)) {
+			// a program already worked out and sent this pose on its own thread.
+			armMoved=true;
+			motionNow.set(motionFuture);
+			if(armPanel!=null) updateGUI();
+		} else if(advanceTrajectory(delta,motionFuture)) {
+			armMoved=true;
+			sendChangeToRealMachine();
+			motionNow.set(motionFuture);
+			if(armPanel!=null) updateGUI();
+		} else {
+			updateIK(delta);
+			updateFK(delta);
+		}
 		if(tool != null) tool.update(delta);
+		if(jogChannel != null) jogChannel.update();
+	}
+
+
+	@Override
+	public RobotKeyframe createKeyframe() {
+		SixiRobotKeyframe keyframe = new SixiRobotKeyframe();
+		keyframe.set(motionNow);
+		return keyframe;
+	}
+
+
+	/**
+	 * Sixi keyframes are described by their six joint angles, in degrees.
+	 */
+	@Override
+	public int getKeyframeSize() {
+		return 6;
+	}
+
+
+	@Override
+	public void copyKeyframe(RobotKeyframe from,RobotKeyframe to) {
+		((SixiRobotKeyframe)to).set((SixiRobotKeyframe)from);
+	}
+
+
+	@Override
+	public void getKeyframeValues(RobotKeyframe arg0,double [] values) {
+		SixiRobotKeyframe keyframe = (SixiRobotKeyframe)arg0;
+		values[0]=keyframe.angle0;
+		values[1]=keyframe.angle1;
+		values[2]=keyframe.angle2;
+		values[3]=keyframe.angle3;
+		values[4]=keyframe.angle4;
+		values[5]=keyframe.angle5;
+	}
+
+
+	@Override
+	public void setKeyframeValues(RobotKeyframe arg0,double [] values) {
+		SixiRobotKeyframe keyframe = (SixiRobotKeyframe)arg0;
+		keyframe.angle0=(float)values[0];
+		keyframe.angle1=(float)values[1];
+		keyframe.angle2=(float)values[2];
+		keyframe.angle3=(float)values[3];
+		keyframe.angle4=(float)values[4];
+		keyframe.angle5=(float)values[5];
+		forwardKinematics(keyframe,false,null);
+	}
+
+
+	@Override
+	public boolean getMotionValues(double [] now,double [] future) {
+		getKeyframeValues(motionNow,now);
+		getKeyframeValues(motionFuture,future);
+		return true;
+	}
+
+
+	@Override
+	public void setMotionValues(double [] now,double [] future) {
+		setKeyframeValues(motionNow,now);
+		setKeyframeValues(motionFuture,future);
+		queueGUIUpdate();
+	}
+
+
+	@Override
+	public Trajectory createTrajectory() {
+		Trajectory t = new Trajectory(6);
+		for(int i=0;i<6;++i) {
+			t.setLimits(i,MAX_JOINT_VELOCITY,MAX_JOINT_ACCELERATION,MAX_JOINT_JERK);
+		}
+		return t;
+	}
+
+
+	@Override
+	protected String getTrajectoryCommand(double [] values,double feedRate) {
+		return "G0"
+				+" X"+roundOff((float)values[0])
+				+" Y"+roundOff((float)values[1])
+				+" Z"+roundOff((float)values[2])
+				+" U"+roundOff((float)values[3])
+				+" V"+roundOff((float)values[4])
+				+" W"+roundOff((float)values[5])
+				+" F"+roundOff((float)feedRate);
+	}
+
+	@Override
+	public int getCapsuleCount() {
+		return 7;
+	}
+
+
+	/**
+	 * The links of the arm from {@link #createCollisionChecker()}, moved to where the robot is drawn.
+	 */
+	@Override
+	public int getCapsules(double [] values,double [] capsules) {
+		if(capsuleChecker==null) capsuleChecker = createCollisionChecker();
+		int n = capsuleChecker.getCapsules(values,capsules);
+		Vector3f p = getPosition();
+		double x = p.x+motionNow.base.x;
+		double y = p.y+motionNow.base.y;
+		double z = p.z+motionNow.base.z+FLOOR_ADJUST;
+		for(int i=0;i<n;++i) {
+			int j=i*7;
+			capsules[j  ]+=x;
+			capsules[j+1]+=y;
+			capsules[j+2]+=z;
+			capsules[j+3]+=x;
+			capsules[j+4]+=y;
+			capsules[j+5]+=z;
+		}
+		return n;
 	}
 
 	@Override
@@ -781,18 +988,6 @@ extends Robot {
 		throw new UnsupportedOperationException();
 	}
 	
-	private double parseNumber(String str) {
-		float f=0;
-		try {
-			f = Float.parseFloat(str);
-		}
-		catch(Exception e) {
-			e.printStackTrace();
-		}
-		
-		return f;
-	}
-
 	public void setModeAbsolute() {
 		if(connection!=null) this.sendLineToRobot("G90");
 	}
@@ -826,65 +1021,44 @@ extends Robot {
 			}
 
 			setDisplayName(ROBOT_NAME+" #"+robotUID);
+			if(telemetry!=null) telemetry.close();
+			telemetry = null;
+
+			synchronized(this) {
+				motionProtocol = new MotionProtocol(arg0);
+				if(jogChannel!=null) jogChannel.setMotionProtocol(motionProtocol);
+			}
+			motionProtocol.negotiate();
 		}
 		
 		if( isPortConfirmed ) {
-			if(line.startsWith("A") && !line.startsWith("As")) {
-				String items[] = line.split(" ");
-				try {
-					if(items.length>=5) {
-						for(int i=0;i<items.length;++i) {
-							if(items[i].startsWith("A")) {
-								float v = (float)parseNumber(items[i].substring(1));
-								if(motionFuture.angle5 != v) {
-									motionFuture.angle5 = v;
-									armPanel.angle5.setText(Float.toString(roundOff(v)));
-								}
-							} else if(items[i].startsWith("B")) {
-								float v = (float)parseNumber(items[i].substring(1));
-								if(motionFuture.angle4 != v) {
-									motionFuture.angle4 = v;
-									armPanel.angle4.setText(Float.toString(roundOff(v)));
-								}
-							} else if(items[i].startsWith("C")) {
-								float v = (float)parseNumber(items[i].substring(1));
-								if(motionFuture.angle3 != v) {
-									motionFuture.angle3 = v;
-									armPanel.angle3.setText(Float.toString(roundOff(v)));
-								}
-							} else if(items[i].startsWith("D")) {
-								float v = (float)parseNumber(items[i].substring(1));
-								if(motionFuture.angle2 != v) {
-									motionFuture.angle2 = v;
-									armPanel.angle2.setText(Float.toString(roundOff(v)));
-								}
-							} else if(items[i].startsWith("E")) {
-								float v = (float)parseNumber(items[i].substring(1));
-								if(motionFuture.angle1 != v) {
-									motionFuture.angle1 = v;
-									armPanel.angle1.setText(Float.toString(roundOff(v)));
-								}
-							}
-						}
-						
-						forwardKinematics(motionFuture,false,null);
-						motionNow.set(motionFuture);
-						updateGUI();
-					}
-				} catch(java.lang.NumberFormatException e) {
-					System.out.print("*** "+line);
-				}
-			} else {
+			// parsed here, solved in a worker, shown by prepareMove().
+			if(telemetry==null) telemetry = new SixiRobotTelemetry(this,motionNow);
+			if(!telemetry.accept(line)) {
 				System.out.print("*** "+line);
 			}
 		}
 	}
 
+	public SixiTool getTool() {
+		return tool;
+	}
+	
+	/**
+	 * @param arg0 the new tool, or null for none.
+	 */
+	public void setTool(SixiTool arg0) {
+		tool = arg0;
+		if(tool!=null) tool.attachTo(this);
+	}
+	
 	public void moveBase(Vector3f dp) {
 		motionFuture.anchorPosition.set(dp);
+		if(ikCache!=null) ikCache.invalidate();
 	}
 	
 	public void rotateBase(double pan,double tilt) {
+		if(ikCache!=null) ikCache.invalidate();
 		motionFuture.basePan=pan;
 		motionFuture.baseTilt=tilt;
 		
@@ -1003,8 +1177,12 @@ extends Robot {
 		// don't hit ceiling?
 
 		// check far limit
+		if(!getReachabilityMap().isPlausiblyReachable(
+				keyframe.fingerPosition.x,
+				keyframe.fingerPosition.y,
+				keyframe.fingerPosition.z)) return false;
 		// seems doable
-		if(!inverseKinematics(keyframe,false,null)) return false;
+		if(!solveIK(keyframe)) return false;
 		// angle are good?
 		if(!checkAngleLimits(keyframe)) return false;
 
@@ -1035,6 +1213,246 @@ extends Robot {
 		return true;
 	}
 	
+	/**
+	 * The map is shared by every Sixi.  The first call loads it from disk, or starts building it in the background.
+	 * @return the map of where the finger can reach.
+	 */
+	public ReachabilityMap getReachabilityMap() {
+		synchronized(SixiRobot.class) {
+			if(reachabilityMap==null) {
+				reachabilityMap = new ReachabilityMap(-54,-54,-30,54,54,80,2);
+				reachabilityMap.loadOrBuildInBackground(REACHABILITY_MAP_FILE, new SixiRobotReachabilityProbe(this));
+			}
+			return reachabilityMap;
+		}
+	}
+	
+	/**
+	 * Describe the arm as a {@link KinematicChain} that matches {@link #forwardKinematics}.
+	 * Joint values are angle0...angle5 and the limits are the same as {@link #checkAngleLimits}.
+	 * The tool Z axis is fingerForward and the tool X axis is -fingerRight.
+	 * @return a new chain
+	 */
+	public static KinematicChain buildKinematicChain() {
+		KinematicChain chain = new KinematicChain(6);
+		chain.setJoint(0, KinematicChain.AXIS_Z, 0,0,FLOOR_TO_SHOULDER-FLOOR_ADJUST,            1,   0, -90,265);
+		chain.setJoint(1, KinematicChain.AXIS_Y, 0,0,0,                                         1, -90,   0,180);
+		chain.setJoint(2, KinematicChain.AXIS_Y, SHOULDER_TO_ELBOW_Y,0,SHOULDER_TO_ELBOW_Z,    -1, 180,   5,188);
+		chain.setJoint(3, KinematicChain.AXIS_Z, ELBOW_TO_ULNA_Y,0,ELBOW_TO_ULNA_Z,             1,   0,   0,355);
+		chain.setJoint(4, KinematicChain.AXIS_Y, 0,0,ULNA_TO_WRIST_Z,                           1,   0, -90, 90);
+		chain.setJoint(5, KinematicChain.AXIS_Z, 0,0,0,                                        -1,   0,   0,355);
+		chain.setTool(0,0,WRIST_TO_TOOL_Z);
+		return chain;
+	}
+	
+	/**
+	 * A collision checker for the arm, with links the size of the bounding volumes in {@link #getBoundingVolumes()}.
+	 * The floor is where the base stands.  Add obstacles in the frame of the base.
+	 * @return a new checker with no obstacles
+	 */
+	public static KinematicChainCollisionChecker createCollisionChecker() {
+		double [] radius = {
+				3.2,  // base
+				3.2,  // shoulder
+				3.0*0.575,  // bicep
+				2.2,  // elbow
+				1.15,  // forearm
+				1.2,  // wrist
+				1.0*0.575,  // hand
+		};
+		KinematicChainCollisionChecker checker = new KinematicChainCollisionChecker(buildKinematicChain(),radius);
+		checker.setFloor(-FLOOR_ADJUST);
+		return checker;
+	}
+	
+	/**
+	 * Plan a path from where the arm is now to a set of joint angles that goes around everything in the checker.
+	 * Blocks until done.
+	 * @param goal angle0...angle5
+	 * @param checker made with {@link #createCollisionChecker()}
+	 * @return a program that follows the path, or null if no path was found.
+	 */
+	public RobotProgram planMove(double [] goal,KinematicChainCollisionChecker checker) {
+		double [] start = new double[6];
+		getKeyframeValues(motionNow,start);
+		MotionPlanner planner = new MotionPlanner(buildKinematicChain(),checker);
+		try {
+			List<double[]> path = planner.plan(start,goal);
+			if(path==null) return null;
+			return createProgram(path);
+		} finally {
+			planner.shutdown();
+		}
+	}
+	
+	/**
+	 * Damped least squares fallback for {@link #inverseKinematics}.  Starts from the angles already in the keyframe,
+	 * which are normally the current state of the arm, so the solution is the one nearest to where the arm is now.
+	 * @param keyframe target finger position and orientation.  On success the angles and joint positions are updated.
+	 * @return true if a solution within the joint limits was found.
+	 */
+	protected boolean inverseKinematicsNumerical(SixiRobotKeyframe keyframe) {
+		if(numericalSolver==null) {
+			numericalSolver = new DampedLeastSquaresSolver(buildKinematicChain());
+			numericalAngles = new double[6];
+			numericalTarget = new double[KinematicChain.POSE_SIZE];
+		}
+		
+		if(!inverseKinematicsNumerical(keyframe,numericalSolver,numericalAngles,numericalTarget)) return false;
+		forwardKinematics(keyframe,false,null);
+		return true;
+	}
+	
+	/**
+	 * Damped least squares IK with the caller's solver and scratch space, so that other threads can test poses
+	 * without sharing the solver of the arm.
+	 * @param keyframe target finger position and orientation.  On success the angles are updated.
+	 * @param solver made from {@link #buildKinematicChain}
+	 * @param q scratch, 6 values
+	 * @param t scratch, {@link KinematicChain#POSE_SIZE} values
+	 * @return true if a solution within the joint limits was found.
+	 */
+	static boolean inverseKinematicsNumerical(SixiRobotKeyframe keyframe,DampedLeastSquaresSolver solver,double [] q,double [] t) {
+		q[0]=keyframe.angle0;
+		q[1]=keyframe.angle1;
+		q[2]=keyframe.angle2;
+		q[3]=keyframe.angle3;
+		q[4]=keyframe.angle4;
+		q[5]=keyframe.angle5;
+		getTargetPose(keyframe,t);
+		
+		if(!solver.solve(q, t)) return false;
+
+		keyframe.angle0=(float)q[0];
+		keyframe.angle1=(float)q[1];
+		keyframe.angle2=(float)q[2];
+		keyframe.angle3=(float)q[3];
+		keyframe.angle4=(float)q[4];
+		keyframe.angle5=(float)q[5];
+		return true;
+	}
+	
+	/**
+	 * The finger of a keyframe as a {@link KinematicChain} pose.
+	 * @param keyframe the finger position and orientation
+	 * @param t receives {@link KinematicChain#POSE_SIZE} values
+	 */
+	static void getTargetPose(SixiRobotKeyframe keyframe,double [] t) {
+		// X = -right, Z = forward, Y = Z x X
+		Vector3f f = keyframe.fingerForward;
+		Vector3f r = keyframe.fingerRight;
+		t[0]=-r.x;	t[1]=-r.y;	t[2]=-r.z;
+		t[6]= f.x;	t[7]= f.y;	t[8]= f.z;
+		t[3]=t[7]*t[2]-t[8]*t[1];
+		t[4]=t[8]*t[0]-t[6]*t[2];
+		t[5]=t[6]*t[1]-t[7]*t[0];
+		t[9]=keyframe.fingerPosition.x;
+		t[10]=keyframe.fingerPosition.y;
+		t[11]=keyframe.fingerPosition.z;
+	}
+	
+	/**
+	 * @return the solutions remembered by {@link #solveIK}
+	 */
+	public IKCache getIKCache() {
+		if(ikCache==null) {
+			ikCache = new IKCache(IK_CACHE_VALUES,IK_CACHE_SIZE);
+			ikPose = new double[KinematicChain.POSE_SIZE];
+			ikValues = new double[IK_CACHE_VALUES];
+		}
+		return ikCache;
+	}
+	
+	/**
+	 * {@link #inverseKinematics} with the numerical fallback, remembering the answers.
+	 * <p>
+	 * The closed form solution picks whichever elbow and wrist are nearer to the keyframe it is given, so a
+	 * remembered solution is only used if the solver would have picked it from here.  When the closed form gives up,
+	 * the numerical solver starts from the solution of a nearby target if there is one.
+	 * <p>
+	 * The target is the finger, always {@link #WRIST_TO_TOOL_Z} past the wrist whatever tool is held, so the tool is
+	 * not part of the key and changing it keeps what was learned.
+	 * @param keyframe target finger position and orientation.  On success the angles and joint positions are updated.
+	 * @return true if a solution was found.
+	 */
+	protected boolean solveIK(SixiRobotKeyframe keyframe) {
+		IKCache cache = getIKCache();
+		getTargetPose(keyframe,ikPose);
+		double [] v = ikValues;
+		if(cache.get(ikPose,null,v)) {
+			if(isNearerBranch(keyframe,v)) {
+				keyframe.angle0=(float)v[0];
+				keyframe.angle1=(float)v[1];
+				keyframe.angle2=(float)v[2];
+				keyframe.angle3=(float)v[3];
+				keyframe.angle4=(float)v[4];
+				keyframe.angle5=(float)v[5];
+				keyframe.shoulder.set((float)v[6],(float)v[7],(float)v[8]);
+				keyframe.elbow.set((float)v[9],(float)v[10],(float)v[11]);
+				keyframe.wrist.set((float)v[12],(float)v[13],(float)v[14]);
+				keyframe.base.set(0,0,0);
+				return true;
+			}
+			cache.reject();
+		}
+		
+		if(!inverseKinematics(keyframe,false,null)) {
+			// start from a nearby solution, if there is one.
+			float a0=keyframe.angle0, a1=keyframe.angle1, a2=keyframe.angle2;
+			float a3=keyframe.angle3, a4=keyframe.angle4, a5=keyframe.angle5;
+			if(cache.getSeed(ikPose,null,v)) {
+				keyframe.angle0=(float)v[0];
+				keyframe.angle1=(float)v[1];
+				keyframe.angle2=(float)v[2];
+				keyframe.angle3=(float)v[3];
+				keyframe.angle4=(float)v[4];
+				keyframe.angle5=(float)v[5];
+			}
+			if(!inverseKinematicsNumerical(keyframe)) {
+				keyframe.angle0=a0;	keyframe.angle1=a1;	keyframe.angle2=a2;
+				keyframe.angle3=a3;	keyframe.angle4=a4;	keyframe.angle5=a5;
+				return false;
+			}
+		}
+		
+		v[0]=keyframe.angle0;
+		v[1]=keyframe.angle1;
+		v[2]=keyframe.angle2;
+		v[3]=keyframe.angle3;
+		v[4]=keyframe.angle4;
+		v[5]=keyframe.angle5;
+		v[6]=keyframe.shoulder.x;	v[7]=keyframe.shoulder.y;	v[8]=keyframe.shoulder.z;
+		v[9]=keyframe.elbow.x;		v[10]=keyframe.elbow.y;		v[11]=keyframe.elbow.z;
+		v[12]=keyframe.wrist.x;		v[13]=keyframe.wrist.y;		v[14]=keyframe.wrist.z;
+		cache.put(ikPose,null,v);
+		return true;
+	}
+	
+	/**
+	 * Would {@link #inverseKinematics} have chosen this elbow and wrist, starting from the keyframe?
+	 * @param keyframe the state the solver would start from
+	 * @param v a remembered solution, laid out as in {@link #solveIK}
+	 */
+	static boolean isNearerBranch(SixiRobotKeyframe keyframe,double [] v) {
+		// the other elbow is the mirror image across the line from shoulder to wrist.
+		double ux=v[12]-v[6], uy=v[13]-v[7], uz=v[14]-v[8];
+		double len = Math.sqrt(ux*ux+uy*uy+uz*uz);
+		if(len<EPSILON) return false;
+		ux/=len;	uy/=len;	uz/=len;
+		double ex=v[9]-v[6], ey=v[10]-v[7], ez=v[11]-v[8];
+		double d = ex*ux+ey*uy+ez*uz;
+		double mx=v[6]+2*d*ux-ex, my=v[7]+2*d*uy-ey, mz=v[8]+2*d*uz-ez;
+		double cx=keyframe.elbow.x, cy=keyframe.elbow.y, cz=keyframe.elbow.z;
+		double near = (cx-v[9])*(cx-v[9]) + (cy-v[10])*(cy-v[10]) + (cz-v[11])*(cz-v[11]);
+		double far = (cx-mx)*(cx-mx) + (cy-my)*(cy-my) + (cz-mz)*(cz-mz);
+		if(!(near<far)) return false;
+		
+		// the other wrist is half a turn away.
+		double a3 = v[3];
+		double b3 = a3>0 ? a3-180 : a3+180;
+		return Math.abs(a3-keyframe.angle3) < Math.abs(b3-keyframe.angle3);
+	}
+	
 	/**
 	 * Knowing the position and orientation of the finger, find the angles at each joint.
 	 * @return false if successful, true if the IK solution cannot be found.
@@ -1248,7 +1666,7 @@ extends Robot {
 		}
 		if( angle4 > 270 ) angle4 -= 360;
 		if( angle4 <-270 ) angle4 += 360;
-		if(Math.abs(angle4 - keyframe.angle4)>90) {
+		if(showDebug && Math.abs(angle4 - keyframe.angle4)>90) {
 			System.out.println("angle4 jump "+angle4+" vs "+keyframe.angle4);
 		}
 		
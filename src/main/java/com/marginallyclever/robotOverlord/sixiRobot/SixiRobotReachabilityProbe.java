@@ -0,0 +1,81 @@
+package com.marginallyclever.robotOverlord.sixiRobot;
+
+import com.marginallyclever.robotOverlord.kinematics.DampedLeastSquaresSolver;
+import com.marginallyclever.robotOverlord.kinematics.KinematicChain;
+import com.marginallyclever.robotOverlord.kinematics.ReachabilityProbe;
+
+/**
+ * Same test as {@link SixiRobot#movePermitted}, with private scratch space so it can run on the map building thread.
+ */
+class SixiRobotReachabilityProbe implements ReachabilityProbe {
+	// shoulder to finger tip, fully stretched
+	static final double LONGEST_REACH = SixiRobot.SHOULDER_TO_ELBOW + SixiRobot.ELBOW_TO_WRIST + SixiRobot.WRIST_TO_TOOL_Z;
+
+	protected SixiRobot robot;
+	protected SixiRobotKeyframe keyframe = new SixiRobotKeyframe();
+	protected KinematicChain chain = SixiRobot.buildKinematicChain();
+	protected DampedLeastSquaresSolver solver = new DampedLeastSquaresSolver(chain);
+	protected double [] q = new double[6];
+	protected double [] t = new double[KinematicChain.POSE_SIZE];
+	protected double [] home = new double[6];
+
+
+	SixiRobotReachabilityProbe(SixiRobot robot) {
+		this.robot = robot;
+		// start every search from the middle of each joint's range
+		for(int i=0;i<6;++i) {
+			home[i] = (chain.getMin(i)+chain.getMax(i))/2;
+		}
+	}
+
+
+	@Override
+	public boolean canReach(float x, float y, float z, float fx, float fy, float fz) {
+		keyframe.fingerPosition.set(x,y,z);
+		keyframe.fingerForward.set(fx,fy,fz);
+		// any right angle will do, the hand can roll.
+		if(Math.abs(fz)<0.9f) keyframe.fingerRight.set(fy,-fx,0);
+		else keyframe.fingerRight.set(1,0,0);
+		keyframe.fingerRight.normalize();
+		setAngles(home);
+
+		if(robot.inverseKinematics(keyframe,false,null) && isWithinLimits()) return true;
+
+		// the closed form gave up.  there's no point searching beyond the longest reach of the arm.
+		double dx = x;
+		double dy = y;
+		double dz = z - (SixiRobot.FLOOR_TO_SHOULDER-SixiRobot.FLOOR_ADJUST);
+		if(dx*dx+dy*dy+dz*dz > LONGEST_REACH*LONGEST_REACH) return false;
+
+		setAngles(home);
+		return SixiRobot.inverseKinematicsNumerical(keyframe, solver, q, t);
+	}
+
+
+	@Override
+	public boolean isOrientable() {
+		return true;
+	}
+
+
+	protected void setAngles(double [] a) {
+		keyframe.angle0=(float)a[0];
+		keyframe.angle1=(float)a[1];
+		keyframe.angle2=(float)a[2];
+		keyframe.angle3=(float)a[3];
+		keyframe.angle4=(float)a[4];
+		keyframe.angle5=(float)a[5];
+	}
+
+
+	// same limits as SixiRobot.checkAngleLimits(), without the complaints.
+	protected boolean isWithinLimits() {
+		q[0]=keyframe.angle0;
+		q[1]=keyframe.angle1;
+		q[2]=keyframe.angle2;
+		q[3]=keyframe.angle3;
+		q[4]=keyframe.angle4;
+		q[5]=keyframe.angle5;
+		return chain.isWithinLimits(q);
+	}
+}
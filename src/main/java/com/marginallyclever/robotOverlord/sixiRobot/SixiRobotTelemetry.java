@@ -0,0 +1,194 @@
+package com.marginallyclever.robotOverlord.sixiRobot;
+
+import com.marginallyclever.robotOverlord.robot.TelemetryParser;
+
+/**
+ * Angle reports from a live Sixi, read without blocking the connection.
+ * <p>
+ * The connection thread only parses the report into a preallocated joint state and wakes the worker.  The worker
+ * runs forward kinematics once for each report, or once for the latest of several that arrived while it was busy.
+ * Whoever draws the arm picks up the result with {@link #apply}, once per frame, so the rest of the app never sees
+ * more updates than it can show.
+ * <p>
+ * The firmware reports A through E.  F, the base, is read if it is there.  Otherwise the base angle comes from the
+ * keyframe given to {@link #apply}.
+ */
+class SixiRobotTelemetry implements Runnable {
+	protected static final String LETTERS = "ABCDEF";
+	protected static final int REQUIRED = 0x1F;
+	protected static final int BASE = 1<<5;
+
+	protected SixiRobot robot;
+	protected TelemetryParser parser = new TelemetryParser(LETTERS,REQUIRED);
+
+	// the joint state, written by the connection thread.  guarded by this.
+	protected double [] joints = new double[LETTERS.length()];
+	protected long received;
+	protected boolean running = true;
+
+	// owned by the worker
+	protected double [] workJoints = new double[LETTERS.length()];
+	protected SixiRobotKeyframe work = new SixiRobotKeyframe();
+	protected long worked;
+
+	// the latest forward kinematics result.  guarded by this.
+	protected SixiRobotKeyframe result = new SixiRobotKeyframe();
+	protected long solved;
+	protected long applied;
+
+	// metrics.  guarded by this.
+	protected long fkCount;
+	protected long skippedCount;
+
+	protected Thread worker;
+
+
+	/**
+	 * @param robot does the forward kinematics
+	 * @param start the pose before any report arrives
+	 */
+	SixiRobotTelemetry(SixiRobot robot,SixiRobotKeyframe start) {
+		this.robot = robot;
+		joints[0] = start.angle5;
+		joints[1] = start.angle4;
+		joints[2] = start.angle3;
+		joints[3] = start.angle2;
+		joints[4] = start.angle1;
+		joints[5] = start.angle0;
+		result.set(start);
+		work.set(start);
+
+		worker = new Thread(this,"SixiRobotTelemetry");
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+
+	/**
+	 * Called from the connection thread.  Makes no garbage.
+	 * @return true if the line was an angle report.
+	 */
+	boolean accept(CharSequence line) {
+		synchronized(this) {
+			if(!parser.parse(line)) return false;
+			for(int i=0;i<joints.length;++i) {
+				if((parser.getSeen() & (1<<i))!=0) joints[i] = parser.getValue(i);
+			}
+			received++;
+			notifyAll();
+		}
+		return true;
+	}
+
+
+	@Override
+	public void run() {
+		while(true) {
+			synchronized(this) {
+				while(running && received==worked) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if(!running) return;
+				skippedCount += received-worked-1;
+				worked = received;
+				System.arraycopy(joints,0,workJoints,0,joints.length);
+			}
+
+			work.angle5 = (float)workJoints[0];
+			work.angle4 = (float)workJoints[1];
+			work.angle3 = (float)workJoints[2];
+			work.angle2 = (float)workJoints[3];
+			work.angle1 = (float)workJoints[4];
+			work.angle0 = (float)workJoints[5];
+			robot.forwardKinematics(work,false,null);
+
+			synchronized(this) {
+				result.set(work);
+				solved = worked;
+				fkCount++;
+			}
+		}
+	}
+
+
+	/**
+	 * Copy the newest report into a keyframe.  Call once per frame from the thread that owns the keyframe.
+	 * @param keyframe receives the joint angles and the finger pose.
+	 * @return true if there was something new.
+	 */
+	synchronized boolean apply(SixiRobotKeyframe keyframe) {
+		if(solved==applied) return false;
+		applied = solved;
+
+		float angle0 = keyframe.angle0;
+		keyframe.angle1 = result.angle1;
+		keyframe.angle2 = result.angle2;
+		keyframe.angle3 = result.angle3;
+		keyframe.angle4 = result.angle4;
+		keyframe.angle5 = result.angle5;
+		if((parser.getSeen() & BASE)==0 && angle0!=result.angle0) {
+			// the base moved since the worker started, and the robot didn't say where.  use ours.
+			joints[5] = angle0;
+			keyframe.angle0 = angle0;
+			robot.forwardKinematics(keyframe,false,null);
+			return true;
+		}
+		keyframe.angle0 = result.angle0;
+		keyframe.ikU = result.ikU;
+		keyframe.ikV = result.ikV;
+		keyframe.ikW = result.ikW;
+		keyframe.fingerPosition.set(result.fingerPosition);
+		keyframe.fingerForward.set(result.fingerForward);
+		keyframe.fingerRight.set(result.fingerRight);
+		keyframe.wrist.set(result.wrist);
+		keyframe.elbow.set(result.elbow);
+		keyframe.bicep.set(result.bicep);
+		keyframe.shoulder.set(result.shoulder);
+		return true;
+	}
+
+
+	/**
+	 * Stop the worker.
+	 */
+	synchronized void close() {
+		running = false;
+		notifyAll();
+	}
+
+
+	/**
+	 * @return angle reports accepted
+	 */
+	synchronized long getReportCount() {
+		return received;
+	}
+
+
+	/**
+	 * @return lines that started like an angle report but weren't one
+	 */
+	synchronized long getErrorCount() {
+		return parser.getErrorCount();
+	}
+
+
+	/**
+	 * @return forward kinematics solutions
+	 */
+	synchronized long getFKCount() {
+		return fkCount;
+	}
+
+
+	/**
+	 * @return reports replaced by a newer one before the worker got to them
+	 */
+	synchronized long getSkippedCount() {
+		return skippedCount;
+	}
+}
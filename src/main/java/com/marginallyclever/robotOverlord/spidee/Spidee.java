@@ -8,7 +8,6 @@ import java.io.Reader;
 import java.net.URL;
 import java.net.URLConnection;
 import java.nio.FloatBuffer;
-import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.prefs.Preferences;
@@ -116,6 +115,12 @@ extends Robot {
   protected transient Model modelShinRight = null;
   
   protected transient SpideeControlPanel spideePanel;
+
+  // walking without garbage, and the last input sent to the robot.
+  protected transient SpideeGaitEngine gaitEngine;
+  protected transient byte [] inputFrame;
+  protected transient boolean inputSent;
+  protected transient StringBuilder instructLine;
 	  
 	
 	public Spidee() {
@@ -509,46 +514,9 @@ extends Robot {
 
 	void Move_Send_Serial() {
 		// send updates to hexapod?
-		ByteBuffer buffer = ByteBuffer.allocate(64);
-		int used=0;
-
-		int i;
-		for(i=0;i<6;++i) {
-			SpideeLeg leg=legs[i];
-
-			// update pan
-			leg.pan_joint.angle=Math.max(Math.min(leg.pan_joint.angle,(float)leg.pan_joint.angle_max),(float)leg.pan_joint.angle_min);
-			if(leg.pan_joint.last_angle!=(int)leg.pan_joint.angle)
-			{
-				leg.pan_joint.last_angle=(int)leg.pan_joint.angle;
-				buffer.put(used++,(byte)leg.pan_joint.servo_address);
-				buffer.put(used++,(byte)leg.pan_joint.angle);
-				//Log3("%d=%d ",buffer[used-2],buffer[used-1]);
-			}
-
-			// update tilt
-			leg.tilt_joint.angle=Math.max(Math.min(leg.tilt_joint.angle,(float)leg.tilt_joint.angle_max),(float)leg.tilt_joint.angle_min);
-			if(leg.tilt_joint.last_angle!=(int)leg.tilt_joint.angle)
-			{
-				leg.tilt_joint.last_angle=(int)leg.tilt_joint.angle;
-				buffer.put(used++,(byte)leg.tilt_joint.servo_address);
-				buffer.put(used++,(byte)leg.tilt_joint.angle);
-				//Log3("%d=%d ",buffer[used-2],buffer[used-1]);
-			}
-
-			// update knee
-			leg.knee_joint.angle=Math.max(Math.min(leg.knee_joint.angle,(float)leg.knee_joint.angle_max),(float)leg.knee_joint.angle_min);
-			if(leg.knee_joint.last_angle!=(int)leg.knee_joint.angle)
-			{
-				leg.knee_joint.last_angle=(int)leg.knee_joint.angle;
-				buffer.put(used++,(byte)leg.knee_joint.servo_address);
-				buffer.put(used++,(byte)leg.knee_joint.angle);
-				//Log3("%d=%d ",buffer[used-2],buffer[used-1]);
-			}
-		}
-
-		if(used>0) {
-			instruct('U',buffer);
+		SpideeGaitEngine engine = getGaitEngine();
+		if(engine.updateServos()) {
+			instruct('U',engine.getFrame(),engine.getFrameLength());
 		}
 	}
 
@@ -576,7 +544,7 @@ extends Robot {
 		    SendZeros();
 		  }*/
 		
-		  Byte b=0;
+		  byte b=0;
 		  switch(move_mode) {
 		  case MOVE_MODE_CALIBRATE:  b=0;  break;
 		  case MOVE_MODE_SITDOWN  :  b=1;  break;
@@ -587,13 +555,18 @@ extends Robot {
 		  case MOVE_MODE_TRIPOD   :  b=6;  break;
 		  default: break;
 		  }
-		  ByteBuffer buffer=ByteBuffer.allocate(BUTTONS_MAX+1);
-		  buffer.put(0,b);
+		  // only tell the robot when the mode or a button changes.
+		  if(inputFrame==null) inputFrame = new byte[BUTTONS_MAX+1];
+		  boolean changed = !inputSent || inputFrame[0]!=b;
+		  inputFrame[0]=b;
 		  for(int i=0;i<BUTTONS_MAX;++i) {
-			  buffer.put(i,(byte)buttons[i]);
+			  byte v = (byte)buttons[i];
+			  if(inputFrame[i+1]!=v) changed=true;
+			  inputFrame[i+1]=v;
+		  }
+		  if(changed) {
+			  inputSent = instruct('I',inputFrame,inputFrame.length);
 		  }
-		  buffer.rewind();
-		  instruct('I',buffer);
 
 		/*if(Input.GetSingleton().GetButtonState("spidee","connect") == Input.ButtonState.RELEASED ) {
 	      open=comm.IsOpen();
@@ -614,23 +587,29 @@ extends Robot {
 			case MOVE_MODE_SITDOWN:     Sit_Down(dt);         break;
 			case MOVE_MODE_STANDUP:     Stand_Up(dt);         break;
 			case MOVE_MODE_BODY:        Move_Body(dt);        break;
-			case MOVE_MODE_RIPPLE:      Ripple_Gait(dt);      break;
-			case MOVE_MODE_WAVE:        Wave_Gait(dt);        break;
-			case MOVE_MODE_TRIPOD:      Tripod_Gait(dt);      break;
+			case MOVE_MODE_RIPPLE:      getGaitEngine().walk(SpideeGaitEngine.RIPPLE,dt);  break;
+			case MOVE_MODE_WAVE:        getGaitEngine().walk(SpideeGaitEngine.WAVE,dt);    break;
+			case MOVE_MODE_TRIPOD:      getGaitEngine().walk(SpideeGaitEngine.TRIPOD,dt);  break;
 			default: break;
 			}
 		}
 		
 		if(move_mode != Spidee.MoveModes.MOVE_MODE_CALIBRATE) {
-			Move_Apply_Physics(dt);
-			Move_Apply_Constraints(dt);
-			Move_Calculate_Angles();
+			getGaitEngine().solve(dt);
 		} else {
 			// since we now do all the math on the 'duino, this is only use to move individual joints for calibration.
 			Move_Send_Serial();
 		}
 	}
 
+	/**
+	 * @return walks the legs and finds the servo values.  Made on first use.
+	 */
+	SpideeGaitEngine getGaitEngine() {
+		if(gaitEngine==null) gaitEngine = new SpideeGaitEngine(this);
+		return gaitEngine;
+	}
+
 	@Override
 	public void finalizeMove() {}
 	
@@ -912,56 +891,64 @@ extends Robot {
 	// send the calibration data to the robot
 	void SendZeros() {
 	  System.out.print("Sending Zeros...\n");
-	  ByteBuffer zeros = ByteBuffer.allocate(18*2);
+	  byte [] zeros = new byte[18*2];
 	  int j=0;
 	  for(int i=0;i<6;++i) {
-	    zeros.put(j++,(byte)legs[i].pan_joint.servo_address);
-	    zeros.put(j++,(byte)legs[i].pan_joint.zero);
-	    zeros.put(j++,(byte)legs[i].tilt_joint.servo_address);
-	    zeros.put(j++,(byte)legs[i].tilt_joint.zero);
-	    zeros.put(j++,(byte)legs[i].knee_joint.servo_address);
-	    zeros.put(j++,(byte)legs[i].knee_joint.zero);
+	    zeros[j++]=(byte)legs[i].pan_joint.servo_address;
+	    zeros[j++]=(byte)legs[i].pan_joint.zero;
+	    zeros[j++]=(byte)legs[i].tilt_joint.servo_address;
+	    zeros[j++]=(byte)legs[i].tilt_joint.zero;
+	    zeros[j++]=(byte)legs[i].knee_joint.servo_address;
+	    zeros[j++]=(byte)legs[i].knee_joint.zero;
 	    System.out.println(""+legs[i].pan_joint.servo_address+":"+legs[i].pan_joint.zero);
 	    System.out.println(""+legs[i].tilt_joint.servo_address+":"+legs[i].tilt_joint.zero);
 	    System.out.println(""+legs[i].knee_joint.servo_address+":"+legs[i].knee_joint.zero);
 	  }
 
-	  zeros.rewind();
-	  instruct('W',zeros);
+	  instruct('W',zeros,j);
 	}
 
 
 	public void Reset_Position() {
-		ByteBuffer buffer=ByteBuffer.allocate(6*6);
+	  byte [] buffer = new byte[6*6];
 
 	  gait_cycle=0;
 
 	  // Reset the bot position
 	  int i,j=0;
 	  for(i=0;i<6;++i) {
-	    buffer.put(j++,(byte)legs[i].pan_joint .servo_address);  buffer.put(j++,(byte)(legs[i].pan_joint .zero    ));
-	    buffer.put(j++,(byte)legs[i].tilt_joint.servo_address);  buffer.put(j++,(byte)(legs[i].tilt_joint.zero+ 33));
-	    buffer.put(j++,(byte)legs[i].knee_joint.servo_address);  buffer.put(j++,(byte)(legs[i].knee_joint.zero+120));
+	    buffer[j++]=(byte)legs[i].pan_joint .servo_address;  buffer[j++]=(byte)(legs[i].pan_joint .zero    );
+	    buffer[j++]=(byte)legs[i].tilt_joint.servo_address;  buffer[j++]=(byte)(legs[i].tilt_joint.zero+ 33);
+	    buffer[j++]=(byte)legs[i].knee_joint.servo_address;  buffer[j++]=(byte)(legs[i].knee_joint.zero+120);
 	  }
 
-	  buffer.rewind();
-	  instruct('U',buffer);
+	  instruct('U',buffer,j);
 	}
 
-	
-	void instruct(char code,ByteBuffer buf) {
-		if( connection==null ) return;
-		if( !isPortConfirmed ) return;
-		
-		//throw new NotImplementedException();
-		String line = code + buf.toString();
-		
+
+	/**
+	 * Send an instruction and its bytes as one line, one character per byte.
+	 * @return true if it was sent.
+	 */
+	boolean instruct(char code,byte [] buf,int length) {
+		if( connection==null ) return false;
+		if( !isPortConfirmed ) return false;
+
+		if(instructLine==null) instructLine = new StringBuilder();
+		instructLine.setLength(0);
+		instructLine.append(code);
+		for(int i=0;i<length;++i) {
+			instructLine.append((char)(buf[i]&0xFF));
+		}
+
 		// send relevant part of line to the robot
 		try{
-			connection.sendMessage(line);
+			connection.sendMessage(instructLine.toString());
 		} catch(Exception e) {
 			e.printStackTrace();
+			return false;
 		}
+		return true;
 	}
 
 
@@ -1027,127 +1014,6 @@ extends Robot {
 	}
 
 
-	void Update_Gait_Target(float dt,float move_body_scale) {
-	  int turn_direction = buttons[BUTTONS_Z_ROT_POS]
-	                     - buttons[BUTTONS_Z_ROT_NEG];
-	  int walk_direction = buttons[BUTTONS_Y_NEG]
-	                     - buttons[BUTTONS_Y_POS];
-	  int strafe_direction = buttons[BUTTONS_X_POS]
-	                       - buttons[BUTTONS_X_NEG];
-
-	  boolean update=( turn_direction != 0 || walk_direction != 0 || strafe_direction != 0 );
-
-	  // zero stance width
-	  if(buttons[BUTTONS_1]>0) {  // widen stance
-	    standing_radius+=dt*4;
-	    update=true;
-	  }
-	  if(buttons[BUTTONS_2]>0) {  // narrow stance
-	    standing_radius-=dt*4;
-	    if( standing_radius < body_radius + 1 ) {
-	      standing_radius = body_radius + 1;
-	    }
-	    update=true;
-	  }
-
-	  // zero body standing height
-	  if(buttons[BUTTONS_Z_POS]>0) {  // raise body
-	    standing_height+=dt*4;
-	    update=true;
-	  }
-	  if(buttons[BUTTONS_Z_NEG]>0) {  // lower body
-	    standing_height-=dt*4;
-	    if( standing_height < 1.5f ) {
-	      standing_height = 1.5f;
-	    }
-	    update=true;
-	  }
-
-	  if(!update) return;
-
-	  int i;
-
-	  for(i=0;i<6;++i) {
-	    SpideeLeg leg = legs[i];
-	    Vector3f ds = new Vector3f( leg.pan_joint.pos );
-	    ds.sub( body.pos );
-	    ds.normalize();
-	    ds.scale( standing_radius );
-	    leg.npoc.set( body.pos );
-	    leg.npoc.add(ds);
-	    leg.npoc.z=0;
-	  }
-
-	  // turn
-	  if( turn_direction != 0 ) {
-	    turn_direction = (int)Math.max(Math.min( (float)turn_direction, 180*dt), -180*dt );
-	    float turn = (float)Math.toRadians(turn_direction * turn_stride_length) * dt * move_body_scale / 6.0f;
-
-	    float c=( (float)Math.cos( turn ) );
-	    float s=( (float)Math.sin( turn ) );
-
-	    for(i=0;i<6;++i) {
-	      SpideeLeg leg = legs[i];
-	      Vector3f df= new Vector3f( leg.npoc );
-	      df.sub( body.pos );
-	      df.z = 0;
-	      leg.npoc.x = df.x *  c + df.y * -s;
-	      leg.npoc.y = df.x *  s + df.y * c;
-	      leg.npoc.add(body.pos);
-	    }
-
-	    Vector3f df= new Vector3f( body.forward );
-	    df.z = 0;
-	    target.forward.x = df.x *  c + df.y * -s;
-	    target.forward.y = df.x *  s + df.y *  c;
-	    target.forward.normalize();
-	    target.left.cross(body.up, target.forward);
-	    }
-
-	  // translate
-	  Vector3f dir= new Vector3f(0,0,0);
-
-	  if(   walk_direction > 0 ) dir.add(body.forward);  // forward
-	  if(   walk_direction < 0 ) dir.sub(body.forward);  // backward
-	  if( strafe_direction > 0 ) dir.add(body.left);  // strafe left
-	  if( strafe_direction < 0 ) dir.sub(body.left);  // strafe right
-
-	  dir.z=0;
-	  if(dir.length() > 0.001f ) {
-		  dir.normalize();
-	  }
-
-	  Vector3f p = new Vector3f(0,0,0);
-//	  float zi=0;
-	  
-	  for(i=0;i<6;++i) {
-	    SpideeLeg leg = legs[i];
-	    leg.npoc.x+= dir.x * ( stride_length*dt );
-	    leg.npoc.y+= dir.y * ( stride_length*dt );
-	    leg.npoc.z=0;
-
-	    Vector3f ptemp= new Vector3f(leg.ankle_joint.pos);
-	    if(leg.on_ground) {
-//	    	++zi;
-		} else ptemp.z=0;
-	    p.add(ptemp);
-	  }
-
-	  Vector3f t= new Vector3f(dir);
-	  t.scale( stride_length*dt * move_body_scale / 6.0f );
-	  //*
-	  body.pos.add(t);
-	  body.pos.z = standing_height;
-	  /*/
-	  float z=p.z;
-	  p/=6;
-	  if(zi>0) p.z=z/zi;
-	  body.pos=p + body.up * standing_height;
-	  //*/
-	}
-
-
-
 	void Update_Gait_Target_Goto(Vector3f destination,float dt,float move_body_scale) {
 		Vector3f dp = new Vector3f(destination);
 		dp.sub(body.pos);
@@ -1240,335 +1106,6 @@ extends Robot {
 	}
 
 
-	void Update_Gait_Leg(int leg_index,float step,float dt) {
-	  SpideeLeg leg=legs[leg_index];
-	  float step_adj = ( step <= 0.5f ) ? step : 1 - step;
-	  step_adj = (float)Math.sin( step_adj * Math.PI );
-
-	  // if we do nothing else, robot will march in place.
-
-	  Vector3f dp = new Vector3f( leg.npoc );
-	  dp.sub( leg.ankle_joint.pos );
-	  dp.z=0;
-	  dp.scale( step );
-
-	  leg.ankle_joint.pos.add( dp );
-	  leg.ankle_joint.pos.z = step_adj * stride_height;
-	}
-
-
-
-	void Ripple_Gait(float dt) {
-	  gait_cycle+=dt;
-
-	  Update_Gait_Target(dt,1.0f/6.0f);
-
-	  float step=( gait_cycle - (float)Math.floor( gait_cycle ) );
-	  int leg_to_move=( (int)Math.floor( gait_cycle ) % 6 );
-
-	  // put all feet down except the "active" leg(s).
-	  int i;
-	  for(i=0;i<6;++i) {
-	    if( i != leg_to_move ) {
-	      legs[ i ].ankle_joint.pos.z=0;
-	      continue;
-	    }
-	    Update_Gait_Leg(i,step,dt);
-	  }
-
-	  //Center_Body_Around_Feet(dt);
-	  if( paused ) {
-	    Plant_Feet();
-	  }
-	}
-
-
-	void Wave_Gait(float dt) {
-	  gait_cycle+=dt;
-
-	  Update_Gait_Target(dt,2.0f/6.0f);
-
-	  float gc1=gait_cycle+0.5f;
-	  float gc2=gait_cycle;
-
-	  float x1 = gc1 - (float)Math.floor( gc1 );
-	  float x2 = gc2 - (float)Math.floor( gc2 );
-	  float step1 = Math.max( 0, x1 );
-	  float step2 = Math.max( 0, x2 );
-	  int leg1 = (int)Math.floor( gc1 ) % 3;
-	  int leg2 = (int)Math.floor( gc2 ) % 3;
-
-	  // Put all feet down except the "active" leg(s).
-	  int i;
-	  for(i=0;i<6;++i) {
-	    if( i != leg1 && i != leg2 ) {
-	      legs[ i ].ankle_joint.pos.z=0;
-	    }
-	  }
-
-	  // 0   5
-	  // 1 x 4
-	  // 2   3
-	  // order should be 0,3,1,5,2,4	  
-	  int o1,o2;
-	  switch(leg1) {
-	  case 0: o1 = 0; break;
-	  case 1: o1 = 1; break;
-	  case 2: o1 = 2; break;
-	  default: o1=0; break;
-	  }
-	  switch(leg2) {
-	  case 0: o2 = 3; break;
-	  case 1: o2 = 5; break;
-	  case 2: o2 = 4; break;
-	  default: o2=0; break;
-	  }
-	  
-	  Update_Gait_Leg( o1, step1, dt );
-	  Update_Gait_Leg( o2, step2, dt );
-
-	  //Center_Body_Around_Feet(dt);
-	  if( paused ) {
-	    Plant_Feet();
-	  }
-	}
-
-
-
-	void Tripod_Gait(float dt) {
-	  gait_cycle+=dt;
-
-	  Update_Gait_Target(dt,0.5f);
-
-	  float step=( gait_cycle - (float)Math.floor( gait_cycle ) );
-	  int leg_to_move=( (int)Math.floor( gait_cycle ) % 2 );
-
-	  // put all feet down except the "active" leg(s).
-	  int i;
-	  for(i=0;i<6;++i) {
-	    if( ( i % 2 ) != leg_to_move ) {
-	      legs[ i ].ankle_joint.pos.z=0;
-	      continue;
-	    }
-	    Update_Gait_Leg(i,step,dt);
-	  }
-
-	  //Center_Body_Around_Feet(dt);
-	  if( paused ) {
-	    Plant_Feet();
-	  }
-	}
-
-
-
-	void Move_Apply_Physics(float dt) {
-	  int i;
-
-	  //Vector3f gravity=new Vector3f(0,0,-0.00980f*dt);
-	  //body.pos+=gravity;
-
-	  for(i=0;i<6;++i) {
-	    SpideeLeg leg=legs[i];
-
-	    //if(leg.pan_joint.pos  .z>0) leg.pan_joint  .pos += gravity;
-	    //if(leg.knee_joint.pos .z>0) leg.knee_joint .pos += gravity;
-	    //if(leg.ankle_joint.pos.z>0) leg.ankle_joint.pos += gravity;
-
-	    // keep the joints "legal" (above z=0)
-	    // @TODO: rewrite this code when the feet get pressure sensors.
-	    if(leg.pan_joint  .pos.z<=0) leg.pan_joint .pos.z = 0;
-	    if(leg.knee_joint .pos.z<=0) leg.knee_joint.pos.z = 0;
-	    if(leg.ankle_joint.pos.z<=0) {
-	      leg.ankle_joint.pos.z = 0;
-	      leg.lpoc = leg.ankle_joint.pos;
-	      leg.on_ground=true;
-	    } else {
-	      leg.on_ground=false;
-	    }
-	  }
-	}
-
-
-
-	void Move_Apply_Constraints(float dt) {
-	  int i;
-	  float scale=0.5f;
-
-	  // adjust body orientation
-	  body.forward.set( target.forward );
-	  body.forward.normalize();
-	  body.up.set( target.up );
-	  body.up.normalize();
-	  body.left.cross( body.up, body.forward );
-	  body.forward.cross( body.left, body.up );
-
-	  for(i=0;i<6;++i) {
-	    SpideeLeg leg=legs[i];
-	    // keep shoulders locked in relative position
-	    leg.pan_joint.pos.set( body.pos );
-	    Vector3f F=new Vector3f(body.forward);
-	    Vector3f L=new Vector3f(body.left);
-	    Vector3f U=new Vector3f(body.up);
-	    F.scale(leg.pan_joint.relative.y);
-	    L.scale(leg.pan_joint.relative.x);
-	    U.scale(leg.pan_joint.relative.z);
-	    leg.pan_joint.pos.add(F);
-	    leg.pan_joint.pos.sub(L);
-	    leg.pan_joint.pos.add(U);
-	    
-	    // make sure feet can not come under the body or get too far from the shoulder
-	    Vector3f ds = new Vector3f( leg.pan_joint.pos );
-	    ds.sub( body.pos );
-	    Vector3f df = new Vector3f( leg.ankle_joint.pos );
-	    df.sub( body.pos );
-	    float dfl=( df.length() );
-	    float dsl=( ds.length() );
-
-	    ds.z = 0;
-	    ds.normalize();
-	    if( dfl < dsl ) {
-	      ds.scale(dsl-dfl);
-	      leg.ankle_joint.pos.add(ds);
-	    } else if( dfl - dsl > max_leg_length ) {
-	      // @TODO: should this test should be ankle - pan > max_leg_length ?
-	      ds.scale( dfl - dsl - max_leg_length );
-	      leg.ankle_joint.pos.sub(ds);
-	    }
-
-	    // calculate the pan joint matrix
-	    leg.pan_joint.up.set( body.up );
-	    leg.pan_joint.forward.set( leg.ankle_joint.pos );
-	    leg.pan_joint.forward.sub( leg.pan_joint.pos );
-	    
-	    df.set(body.up);
-	    df.scale( leg.pan_joint.forward.dot( body.up ) );
-	    leg.pan_joint.forward.sub(df);
-	    
-	    if( leg.pan_joint.forward.length() < 0.01f ) {
-	      leg.pan_joint.forward.set( leg.tilt_joint.pos );
-	      leg.pan_joint.forward.sub( leg.pan_joint.pos );
-	    }
-	    leg.pan_joint.forward.normalize();
-	    leg.pan_joint.left.cross( leg.pan_joint.up, leg.pan_joint.forward );
-
-	    // zero the distance between the pan joint and the tilt joint
-	    df.set(leg.pan_joint.forward);
-	    df.scale(leg.tilt_joint.relative.length());
-	    leg.tilt_joint.pos.set( leg.pan_joint.pos );
-	    leg.tilt_joint.pos.add(df); 
-
-	    // zero the knee/foot distance
-	    Vector3f a = new Vector3f(leg.knee_joint.pos);
-	    a.sub(leg.ankle_joint.pos);
-	    float kf = a.length() - leg.ankle_joint.relative.length();
-	    if(Math.abs(kf)>0.001) {
-	      a.normalize();
-	      a.scale(kf*scale);
-	      leg.knee_joint.pos.sub(a);
-	    }
-
-	    // validate the tilt/knee plane
-	    a.set(leg.knee_joint.pos );
-	    a.sub( leg.pan_joint.pos );
-	    df.set(leg.pan_joint.left);
-	    df.scale( a.dot( leg.pan_joint.left ) );
-	    leg.knee_joint.pos.sub( df );
-	    leg.knee_joint.left.set( leg.pan_joint.left );
-
-	    // zero the tilt/knee distance
-	    a.set( leg.knee_joint.pos );
-	    a.sub( leg.tilt_joint.pos );
-	    float kt = a.length() - leg.knee_joint.relative.length();
-	    if(Math.abs(kt)>0.001) {
-	      a.normalize();
-	      a.scale(kt);
-	      // don't push back on the tilt joint, it makes the simulation too unstable.
-	      leg.knee_joint.pos.sub(a);
-	    }
-
-
-	    // calculate the tilt joint matrix
-	    leg.tilt_joint.left.set( leg.pan_joint.left );
-	    a.set( leg.knee_joint.pos );
-	    a.sub( leg.tilt_joint.pos );
-	    Vector3f b = new Vector3f();
-	    b.cross( a, leg.tilt_joint.left );
-	    leg.tilt_joint.forward.set(a );
-	    leg.tilt_joint.forward.sub( b );
-	    leg.tilt_joint.forward.normalize();
-	    leg.tilt_joint.up.cross( leg.tilt_joint.forward, leg.tilt_joint.left );
-
-	    // calculate the knee matrix
-	    leg.knee_joint.forward.set( leg.ankle_joint.pos );
-	    leg.knee_joint.forward.sub( leg.knee_joint.pos );
-	    leg.knee_joint.forward.normalize();
-	    leg.knee_joint.up.cross( leg.knee_joint.forward, leg.knee_joint.left );
-	    //leg.knee_joint.forward = leg.knee_joint.left ^ leg.knee_joint.up;
-
-	    // calculate the ankle matrix
-	    leg.ankle_joint.forward.set( leg.knee_joint.forward );
-	    leg.ankle_joint.left.set( leg.knee_joint.left );
-	    leg.ankle_joint.up.set( leg.knee_joint.up );
-	  }
-	}
-
-
-
-	void Move_Calculate_Angles() {
-	  int i,j;
-	  float x,y;
-	  for(i=0;i<6;++i) {
-	    SpideeLeg leg=legs[i];
-
-	    // find the pan angle
-	    Vector3f sf= new Vector3f( leg.pan_joint.pos );
-	    sf.sub( body.pos );
-	    sf.normalize();
-	    Vector3f sl=new Vector3f();
-	    sl.cross( body.up, sf );
-
-	    x = leg.pan_joint.forward.dot(sf);
-	    y = leg.pan_joint.forward.dot(sl);
-	    float pan_angle = (float)Math.atan2( y, x );
-
-	    // find the tilt angle
-	    x = leg.tilt_joint.forward.dot(leg.pan_joint.forward);
-	    y = leg.tilt_joint.forward.dot(leg.pan_joint.up     );
-	    float tilt_angle = (float)Math.atan2( y, x );
-
-	    // find the knee angle
-	    x = leg.knee_joint.forward.dot(leg.tilt_joint.forward);
-	    y = leg.knee_joint.forward.dot(leg.tilt_joint.up     );
-	    float knee_angle = (float)Math.atan2( y, x );
-
-	    // translate the angles into the servo range, 0...255 over 0...PI.
-	    final float scale = ( 255.0f / (float)Math.PI );
-	    if( i < 3 ) pan_angle = -pan_angle;
-	    float p = leg.pan_joint .zero - pan_angle  * leg.pan_joint .scale * scale;
-	    float t = leg.tilt_joint.zero + tilt_angle * leg.tilt_joint.scale * scale;
-	    float k = leg.knee_joint.zero - knee_angle * leg.knee_joint.scale * scale;
-	    leg.pan_joint .angle = p;
-	    leg.tilt_joint.angle = t;
-	    leg.knee_joint.angle = k;
-
-	    // record the history for the graphs
-	    for( j = 0; j < SpideeJoint.ANGLE_HISTORY_LENGTH-1; ++j ) {
-	      leg.pan_joint .angle_history[j] = leg.pan_joint .angle_history[j+1];
-	      leg.tilt_joint.angle_history[j] = leg.tilt_joint.angle_history[j+1];
-	      leg.knee_joint.angle_history[j] = leg.knee_joint.angle_history[j+1];
-	    }
-	    //memcpy( leg.pan_joint .angle_history, leg.pan_joint .angle_history + sizeof(float), ( Joint.ANGLE_HISTORY_LENGTH - 1 ) * sizeof(float) );
-	    //memcpy( leg.tilt_joint.angle_history, leg.tilt_joint.angle_history + sizeof(float), ( Joint.ANGLE_HISTORY_LENGTH - 1 ) * sizeof(float) );
-	    //memcpy( leg.knee_joint.angle_history, leg.knee_joint.angle_history + sizeof(float), ( Joint.ANGLE_HISTORY_LENGTH - 1 ) * sizeof(float) );
-	    leg.pan_joint .angle_history[ SpideeJoint.ANGLE_HISTORY_LENGTH - 1 ] = p - leg.pan_joint .zero;
-	    leg.tilt_joint.angle_history[ SpideeJoint.ANGLE_HISTORY_LENGTH - 1 ] = t - leg.tilt_joint.zero;
-	    leg.knee_joint.angle_history[ SpideeJoint.ANGLE_HISTORY_LENGTH - 1 ] = k - leg.knee_joint.zero;
-
-	    // @TODO: contrain angles in the model to the limits set in joint::angle_max and joint::angle_min
-	  }
-	}
-	
-
 	/**
 	 * based on http://www.exampledepot.com/egs/java.net/Post.html
 	 */
@@ -1606,6 +1143,7 @@ extends Robot {
 	public void dataAvailable(NetworkConnection arg0,String line) {
 		if(line.contains(hello)) {
 			isPortConfirmed=true;
+			inputSent=false;
 			//finalizeMove();
 			this.sendLineToRobot("R1");
 			
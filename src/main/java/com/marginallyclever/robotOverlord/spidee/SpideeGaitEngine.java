@@ -0,0 +1,511 @@
+package com.marginallyclever.robotOverlord.spidee;
+
+import javax.vecmath.Vector3f;
+
+/**
+ * Walks a {@link Spidee} without making garbage.
+ * <p>
+ * Every gait moves each foot along the same path: lift off, swing to the next point of contact, put down, then stay
+ * planted while the others take their turn.  Only the timing is different.  The path is worked out once for each
+ * gait into a table over one normalised cycle, and each leg reads the table at its own offset.  A ripple gait moves
+ * one leg per beat, a wave gait two, and a tripod gait three.
+ * <p>
+ * Once the feet are placed, {@link #solve(float)} bends all six legs to reach them and turns the joints into servo
+ * values, in place.  {@link #updateServos()} writes only the servos that changed into a reusable frame.
+ */
+class SpideeGaitEngine {
+	public static final int RIPPLE = 0;
+	public static final int WAVE = 1;
+	public static final int TRIPOD = 2;
+
+	// samples in the table for each beat of a gait
+	public static final int RESOLUTION = 64;
+	// beats in one cycle of each gait.  a leg swings for one beat.
+	protected static final int [] BEATS = { 6, 3, 2 };
+	// how much of a step the body moves
+	protected static final float [] BODY_SCALE = { 1.0f/6.0f, 2.0f/6.0f, 0.5f };
+	// the beat at which each leg starts to swing.  wave order is 0,3,1,5,2,4.
+	protected static final float [][] OFFSETS = {
+		{  0, -1, -2, -3, -4, -5 },
+		{ 0.5f, -0.5f, -1.5f, 0, -2, -1 },
+		{  0, -1,  0, -1,  0, -1 },
+	};
+	// all the gaits line up after this many beats.
+	protected static final float CYCLE = 6;
+	// servo values are 0...255 over 0...PI.
+	protected static final float SERVO_SCALE = 255.0f/(float)Math.PI;
+
+	// one table per gait over a whole cycle.  how far the foot has moved from lift off to contact, 0...1.
+	// -1 when the foot is planted.
+	protected static final float [][] REACH = new float[BEATS.length][];
+	// how high the foot is, 0...1
+	protected static final float [][] LIFT = new float[BEATS.length][];
+
+	static {
+		for(int g=0;g<BEATS.length;++g) {
+			int n = RESOLUTION*BEATS[g];
+			REACH[g] = new float[n+1];
+			LIFT[g] = new float[n+1];
+			for(int i=0;i<=n;++i) {
+				float s = (float)(i%n)/(float)RESOLUTION;
+				if(s<=1) {
+					// smooth start and stop.
+					REACH[g][i] = s*s*(3-2*s);
+					LIFT[g][i] = s<1 ? (float)Math.sin(s*Math.PI) : 0;
+				} else {
+					REACH[g][i] = -1;
+					LIFT[g][i] = 0;
+				}
+			}
+		}
+	}
+
+	protected Spidee robot;
+
+	// where each foot left the ground
+	protected float [] liftX = new float[6];
+	protected float [] liftY = new float[6];
+	protected boolean [] swinging = new boolean[6];
+
+	// scratch
+	protected Vector3f F = new Vector3f();
+	protected Vector3f L = new Vector3f();
+	protected Vector3f U = new Vector3f();
+	protected Vector3f ds = new Vector3f();
+	protected Vector3f df = new Vector3f();
+	protected Vector3f a = new Vector3f();
+	protected Vector3f b = new Vector3f();
+
+	// servo frame.  address,value pairs.
+	protected byte [] frame = new byte[6*3*2];
+	protected int frameLength;
+
+	// metrics
+	protected long tickCount;
+	protected long frameCount;
+
+
+	SpideeGaitEngine(Spidee robot) {
+		this.robot = robot;
+	}
+
+
+	/**
+	 * Move the feet one tick along a gait.
+	 * @param gait {@link #RIPPLE}, {@link #WAVE}, or {@link #TRIPOD}
+	 * @param dt seconds
+	 */
+	void walk(int gait,float dt) {
+		robot.gait_cycle += dt;
+		if(robot.gait_cycle>=CYCLE) robot.gait_cycle -= CYCLE*(float)Math.floor(robot.gait_cycle/CYCLE);
+
+		updateTargets(dt,BODY_SCALE[gait]);
+
+		float [] reach = REACH[gait];
+		float [] lift = LIFT[gait];
+		int beats = BEATS[gait];
+		int n = reach.length-1;
+		for(int i=0;i<6;++i) {
+			SpideeLeg leg = robot.legs[i];
+			float u = (robot.gait_cycle+OFFSETS[gait][i])/beats;
+			u -= (float)Math.floor(u);
+			float x = u*n;
+			int j = (int)x;
+			if(j>=n) j=n-1;
+			float r = reach[j];
+			if(r<0) {
+				// planted
+				swinging[i]=false;
+				leg.ankle_joint.pos.z=0;
+				continue;
+			}
+			float h = lift[j];
+			if(reach[j+1]>=0) {
+				float f = x-j;
+				r += (reach[j+1]-r)*f;
+				h += (lift[j+1]-h)*f;
+			}
+			if(!swinging[i]) {
+				swinging[i]=true;
+				liftX[i] = leg.ankle_joint.pos.x;
+				liftY[i] = leg.ankle_joint.pos.y;
+			}
+			leg.ankle_joint.pos.x = liftX[i] + (leg.npoc.x-liftX[i])*r;
+			leg.ankle_joint.pos.y = liftY[i] + (leg.npoc.y-liftY[i])*r;
+			leg.ankle_joint.pos.z = h*robot.stride_height;
+		}
+
+		if(robot.paused) {
+			robot.Plant_Feet();
+		}
+	}
+
+
+	/**
+	 * Read the buttons and choose the next point of contact for each foot.
+	 * @param dt seconds
+	 * @param moveBodyScale how much of a step the body moves
+	 */
+	void updateTargets(float dt,float moveBodyScale) {
+		int [] buttons = robot.buttons;
+		SpideeLocation body = robot.body;
+		SpideeLocation target = robot.target;
+		int turn_direction = buttons[Spidee.BUTTONS_Z_ROT_POS]
+		                   - buttons[Spidee.BUTTONS_Z_ROT_NEG];
+		int walk_direction = buttons[Spidee.BUTTONS_Y_NEG]
+		                   - buttons[Spidee.BUTTONS_Y_POS];
+		int strafe_direction = buttons[Spidee.BUTTONS_X_POS]
+		                     - buttons[Spidee.BUTTONS_X_NEG];
+
+		boolean update=( turn_direction != 0 || walk_direction != 0 || strafe_direction != 0 );
+
+		// zero stance width
+		if(buttons[Spidee.BUTTONS_1]>0) {  // widen stance
+			robot.standing_radius+=dt*4;
+			update=true;
+		}
+		if(buttons[Spidee.BUTTONS_2]>0) {  // narrow stance
+			robot.standing_radius-=dt*4;
+			if( robot.standing_radius < robot.body_radius + 1 ) {
+				robot.standing_radius = robot.body_radius + 1;
+			}
+			update=true;
+		}
+
+		// zero body standing height
+		if(buttons[Spidee.BUTTONS_Z_POS]>0) {  // raise body
+			robot.standing_height+=dt*4;
+			update=true;
+		}
+		if(buttons[Spidee.BUTTONS_Z_NEG]>0) {  // lower body
+			robot.standing_height-=dt*4;
+			if( robot.standing_height < 1.5f ) {
+				robot.standing_height = 1.5f;
+			}
+			update=true;
+		}
+
+		if(!update) return;
+
+		int i;
+		for(i=0;i<6;++i) {
+			SpideeLeg leg = robot.legs[i];
+			ds.set( leg.pan_joint.pos );
+			ds.sub( body.pos );
+			ds.normalize();
+			ds.scale( robot.standing_radius );
+			leg.npoc.set( body.pos );
+			leg.npoc.add(ds);
+			leg.npoc.z=0;
+		}
+
+		// turn
+		if( turn_direction != 0 ) {
+			turn_direction = (int)Math.max(Math.min( (float)turn_direction, 180*dt), -180*dt );
+			float turn = (float)Math.toRadians(turn_direction * robot.turn_stride_length) * dt * moveBodyScale / 6.0f;
+
+			float c=( (float)Math.cos( turn ) );
+			float s=( (float)Math.sin( turn ) );
+
+			for(i=0;i<6;++i) {
+				SpideeLeg leg = robot.legs[i];
+				float x = leg.npoc.x - body.pos.x;
+				float y = leg.npoc.y - body.pos.y;
+				leg.npoc.x = x *  c + y * -s + body.pos.x;
+				leg.npoc.y = x *  s + y *  c + body.pos.y;
+				leg.npoc.z = body.pos.z;
+			}
+
+			float x = body.forward.x;
+			float y = body.forward.y;
+			target.forward.x = x *  c + y * -s;
+			target.forward.y = x *  s + y *  c;
+			target.forward.normalize();
+			target.left.cross(body.up, target.forward);
+		}
+
+		// translate
+		df.set(0,0,0);
+		if(   walk_direction > 0 ) df.add(body.forward);  // forward
+		if(   walk_direction < 0 ) df.sub(body.forward);  // backward
+		if( strafe_direction > 0 ) df.add(body.left);  // strafe left
+		if( strafe_direction < 0 ) df.sub(body.left);  // strafe right
+
+		df.z=0;
+		if(df.length() > 0.001f ) {
+			df.normalize();
+		}
+
+		for(i=0;i<6;++i) {
+			SpideeLeg leg = robot.legs[i];
+			leg.npoc.x+= df.x * ( robot.stride_length*dt );
+			leg.npoc.y+= df.y * ( robot.stride_length*dt );
+			leg.npoc.z=0;
+		}
+
+		df.scale( robot.stride_length*dt * moveBodyScale / 6.0f );
+		body.pos.add(df);
+		body.pos.z = robot.standing_height;
+	}
+
+
+	/**
+	 * Bend every leg to reach its foot and find the servo value of each joint.
+	 * @param dt seconds
+	 */
+	void solve(float dt) {
+		applyPhysics();
+		applyConstraints();
+		calculateAngles();
+		tickCount++;
+	}
+
+
+	protected void applyPhysics() {
+		for(int i=0;i<6;++i) {
+			SpideeLeg leg=robot.legs[i];
+
+			// keep the joints "legal" (above z=0)
+			// @TODO: rewrite this code when the feet get pressure sensors.
+			if(leg.pan_joint  .pos.z<=0) leg.pan_joint .pos.z = 0;
+			if(leg.knee_joint .pos.z<=0) leg.knee_joint.pos.z = 0;
+			if(leg.ankle_joint.pos.z<=0) {
+				leg.ankle_joint.pos.z = 0;
+				leg.lpoc.set(leg.ankle_joint.pos);
+				leg.on_ground=true;
+			} else {
+				leg.on_ground=false;
+			}
+		}
+	}
+
+
+	protected void applyConstraints() {
+		SpideeLocation body = robot.body;
+		SpideeLocation target = robot.target;
+		float scale=0.5f;
+
+		// adjust body orientation
+		body.forward.set( target.forward );
+		body.forward.normalize();
+		body.up.set( target.up );
+		body.up.normalize();
+		body.left.cross( body.up, body.forward );
+		body.forward.cross( body.left, body.up );
+
+		for(int i=0;i<6;++i) {
+			SpideeLeg leg=robot.legs[i];
+			// keep shoulders locked in relative position
+			leg.pan_joint.pos.set( body.pos );
+			F.set(body.forward);
+			L.set(body.left);
+			U.set(body.up);
+			F.scale(leg.pan_joint.relative.y);
+			L.scale(leg.pan_joint.relative.x);
+			U.scale(leg.pan_joint.relative.z);
+			leg.pan_joint.pos.add(F);
+			leg.pan_joint.pos.sub(L);
+			leg.pan_joint.pos.add(U);
+
+			// make sure feet can not come under the body or get too far from the shoulder
+			ds.set( leg.pan_joint.pos );
+			ds.sub( body.pos );
+			df.set( leg.ankle_joint.pos );
+			df.sub( body.pos );
+			float dfl=( df.length() );
+			float dsl=( ds.length() );
+
+			ds.z = 0;
+			ds.normalize();
+			if( dfl < dsl ) {
+				ds.scale(dsl-dfl);
+				leg.ankle_joint.pos.add(ds);
+			} else if( dfl - dsl > robot.max_leg_length ) {
+				// @TODO: should this test should be ankle - pan > max_leg_length ?
+				ds.scale( dfl - dsl - robot.max_leg_length );
+				leg.ankle_joint.pos.sub(ds);
+			}
+
+			// calculate the pan joint matrix
+			leg.pan_joint.up.set( body.up );
+			leg.pan_joint.forward.set( leg.ankle_joint.pos );
+			leg.pan_joint.forward.sub( leg.pan_joint.pos );
+
+			df.set(body.up);
+			df.scale( leg.pan_joint.forward.dot( body.up ) );
+			leg.pan_joint.forward.sub(df);
+
+			if( leg.pan_joint.forward.length() < 0.01f ) {
+				leg.pan_joint.forward.set( leg.tilt_joint.pos );
+				leg.pan_joint.forward.sub( leg.pan_joint.pos );
+			}
+			leg.pan_joint.forward.normalize();
+			leg.pan_joint.left.cross( leg.pan_joint.up, leg.pan_joint.forward );
+
+			// zero the distance between the pan joint and the tilt joint
+			df.set(leg.pan_joint.forward);
+			df.scale(leg.tilt_joint.relative.length());
+			leg.tilt_joint.pos.set( leg.pan_joint.pos );
+			leg.tilt_joint.pos.add(df);
+
+			// zero the knee/foot distance
+			a.set(leg.knee_joint.pos);
+			a.sub(leg.ankle_joint.pos);
+			float kf = a.length() - leg.ankle_joint.relative.length();
+			if(Math.abs(kf)>0.001) {
+				a.normalize();
+				a.scale(kf*scale);
+				leg.knee_joint.pos.sub(a);
+			}
+
+			// validate the tilt/knee plane
+			a.set(leg.knee_joint.pos );
+			a.sub( leg.pan_joint.pos );
+			df.set(leg.pan_joint.left);
+			df.scale( a.dot( leg.pan_joint.left ) );
+			leg.knee_joint.pos.sub( df );
+			leg.knee_joint.left.set( leg.pan_joint.left );
+
+			// zero the tilt/knee distance
+			a.set( leg.knee_joint.pos );
+			a.sub( leg.tilt_joint.pos );
+			float kt = a.length() - leg.knee_joint.relative.length();
+			if(Math.abs(kt)>0.001) {
+				a.normalize();
+				a.scale(kt);
+				// don't push back on the tilt joint, it makes the simulation too unstable.
+				leg.knee_joint.pos.sub(a);
+			}
+
+			// calculate the tilt joint matrix
+			leg.tilt_joint.left.set( leg.pan_joint.left );
+			a.set( leg.knee_joint.pos );
+			a.sub( leg.tilt_joint.pos );
+			b.cross( a, leg.tilt_joint.left );
+			leg.tilt_joint.forward.set(a );
+			leg.tilt_joint.forward.sub( b );
+			leg.tilt_joint.forward.normalize();
+			leg.tilt_joint.up.cross( leg.tilt_joint.forward, leg.tilt_joint.left );
+
+			// calculate the knee matrix
+			leg.knee_joint.forward.set( leg.ankle_joint.pos );
+			leg.knee_joint.forward.sub( leg.knee_joint.pos );
+			leg.knee_joint.forward.normalize();
+			leg.knee_joint.up.cross( leg.knee_joint.forward, leg.knee_joint.left );
+
+			// calculate the ankle matrix
+			leg.ankle_joint.forward.set( leg.knee_joint.forward );
+			leg.ankle_joint.left.set( leg.knee_joint.left );
+			leg.ankle_joint.up.set( leg.knee_joint.up );
+		}
+	}
+
+
+	protected void calculateAngles() {
+		SpideeLocation body = robot.body;
+		float x,y;
+		int last = SpideeJoint.ANGLE_HISTORY_LENGTH-1;
+		for(int i=0;i<6;++i) {
+			SpideeLeg leg=robot.legs[i];
+
+			// find the pan angle
+			a.set( leg.pan_joint.pos );
+			a.sub( body.pos );
+			a.normalize();
+			b.cross( body.up, a );
+
+			x = leg.pan_joint.forward.dot(a);
+			y = leg.pan_joint.forward.dot(b);
+			float pan_angle = (float)Math.atan2( y, x );
+
+			// find the tilt angle
+			x = leg.tilt_joint.forward.dot(leg.pan_joint.forward);
+			y = leg.tilt_joint.forward.dot(leg.pan_joint.up     );
+			float tilt_angle = (float)Math.atan2( y, x );
+
+			// find the knee angle
+			x = leg.knee_joint.forward.dot(leg.tilt_joint.forward);
+			y = leg.knee_joint.forward.dot(leg.tilt_joint.up     );
+			float knee_angle = (float)Math.atan2( y, x );
+
+			// translate the angles into the servo range
+			if( i < 3 ) pan_angle = -pan_angle;
+			float p = leg.pan_joint .zero - pan_angle  * leg.pan_joint .scale * SERVO_SCALE;
+			float t = leg.tilt_joint.zero + tilt_angle * leg.tilt_joint.scale * SERVO_SCALE;
+			float k = leg.knee_joint.zero - knee_angle * leg.knee_joint.scale * SERVO_SCALE;
+			leg.pan_joint .angle = p;
+			leg.tilt_joint.angle = t;
+			leg.knee_joint.angle = k;
+
+			// record the history for the graphs
+			System.arraycopy(leg.pan_joint .angle_history,1,leg.pan_joint .angle_history,0,last);
+			System.arraycopy(leg.tilt_joint.angle_history,1,leg.tilt_joint.angle_history,0,last);
+			System.arraycopy(leg.knee_joint.angle_history,1,leg.knee_joint.angle_history,0,last);
+			leg.pan_joint .angle_history[last] = p - leg.pan_joint .zero;
+			leg.tilt_joint.angle_history[last] = t - leg.tilt_joint.zero;
+			leg.knee_joint.angle_history[last] = k - leg.knee_joint.zero;
+
+			// @TODO: contrain angles in the model to the limits set in joint::angle_max and joint::angle_min
+		}
+	}
+
+
+	/**
+	 * Keep every servo inside its limits and put the ones that changed since the last frame into the frame.
+	 * @return true if any servo changed.
+	 */
+	boolean updateServos() {
+		frameLength=0;
+		for(int i=0;i<6;++i) {
+			SpideeLeg leg=robot.legs[i];
+			addServo(leg.pan_joint);
+			addServo(leg.tilt_joint);
+			addServo(leg.knee_joint);
+		}
+		if(frameLength==0) return false;
+		frameCount++;
+		return true;
+	}
+
+
+	protected void addServo(SpideeJoint joint) {
+		joint.angle=Math.max(Math.min(joint.angle,(float)joint.angle_max),(float)joint.angle_min);
+		int v = (int)joint.angle;
+		if(joint.last_angle==v) return;
+		joint.last_angle=v;
+		frame[frameLength++]=(byte)joint.servo_address;
+		frame[frameLength++]=(byte)v;
+	}
+
+
+	/**
+	 * @return address,value pairs from the last {@link #updateServos()}.  Reused.
+	 */
+	byte [] getFrame() {
+		return frame;
+	}
+
+
+	/**
+	 * @return bytes used in {@link #getFrame()}
+	 */
+	int getFrameLength() {
+		return frameLength;
+	}
+
+
+	/**
+	 * @return calls to {@link #solve(float)}
+	 */
+	long getTickCount() {
+		return tickCount;
+	}
+
+
+	/**
+	 * @return frames with at least one servo in them
+	 */
+	long getFrameCount() {
+		return frameCount;
+	}
+}
@@ -7,10 +7,13 @@ import com.marginallyclever.communications.NetworkConnection;
 import com.marginallyclever.convenience.MathHelper;
 import com.marginallyclever.convenience.PrimitiveSolids;
 import com.marginallyclever.robotOverlord.*;
+import com.marginallyclever.robotOverlord.kinematics.ReachabilityMap;
 import com.marginallyclever.robotOverlord.material.Material;
 import com.marginallyclever.robotOverlord.model.Model;
 import com.marginallyclever.robotOverlord.model.ModelFactory;
+import com.marginallyclever.robotOverlord.robot.JogChannel;
 import com.marginallyclever.robotOverlord.robot.Robot;
+import com.marginallyclever.robotOverlord.robot.RobotKeyframe;
 import com.marginallyclever.robotOverlord.thor.tool.ThorTool;
 import com.marginallyclever.robotOverlord.thor.tool.ThorToolGripper;
 
@@ -82,6 +85,10 @@ public class ThorRobot extends Robot {
 	// collision volumes
 	Cylinder[] volumes = new Cylinder[6];
 
+	// where any Thor can reach, relative to its base.  see getReachabilityMap()
+	private static ReachabilityMap reachabilityMap;
+	private final static String REACHABILITY_MAP_FILE = "thor.reachability";
+
 	// motion states
 	protected ThorKeyframe motionNow = new ThorKeyframe();
 	protected ThorKeyframe motionFuture = new ThorKeyframe();
@@ -106,6 +113,10 @@ public class ThorRobot extends Robot {
 	protected boolean isPortConfirmed = false;
 	protected double speed = 2;
 
+	// jogs, sent no faster than the robot can take them.  see sendChangeToRealMachine()
+	private transient JogChannel jogChannel;
+	private transient double[] jogValues;
+
 	// visual debugging
 	protected boolean isRenderFKOn = false;
 	protected boolean isRenderIKOn = false;
@@ -509,30 +520,17 @@ public class ThorRobot extends Robot {
 	protected void sendChangeToRealMachine() {
 		if (!isPortConfirmed)
 			return;
-
-		String str = "";
-		if (motionFuture.angleA != motionNow.angleA) {
-			str += " A" + roundOff(motionFuture.angleA);
-		}
-		if (motionFuture.angleB != motionNow.angleB) {
-			str += " B" + roundOff(motionFuture.angleB);
-		}
-		if (motionFuture.angleC != motionNow.angleC) {
-			str += " C" + roundOff(motionFuture.angleC);
-		}
-		if (motionFuture.angleD != motionNow.angleD) {
-			str += " D" + roundOff(motionFuture.angleD);
-		}
-		if (motionFuture.angleE != motionNow.angleE) {
-			str += " E" + roundOff(motionFuture.angleE);
-		}
-		if (motionFuture.angleF != motionNow.angleF) {
-			str += " F" + roundOff(motionFuture.angleF);
-		}
-
-		if (str.length() > 0) {
-			this.sendLineToRobot("R0" + str);
+		if (jogChannel == null) {
+			jogChannel = new JogChannel(this, "R0", "ABCDEF");
+			jogValues = new double[6];
 		}
+		jogValues[0] = motionFuture.angleA;
+		jogValues[1] = motionFuture.angleB;
+		jogValues[2] = motionFuture.angleC;
+		jogValues[3] = motionFuture.angleD;
+		jogValues[4] = motionFuture.angleE;
+		jogValues[5] = motionFuture.angleF;
+		jogChannel.jog(jogValues);
 	}
 
 	@Override
@@ -541,6 +539,8 @@ public class ThorRobot extends Robot {
 		updateFK(delta);
 		if (tool != null)
 			tool.update(delta);
+		if (jogChannel != null)
+			jogChannel.update();
 	}
 
 	@Override
@@ -971,6 +971,11 @@ public class ThorRobot extends Robot {
 		// don't hit ceiling?
 
 		// check far limit
+		if (!getReachabilityMap().isPlausiblyReachable(
+				keyframe.fingerPosition.x,
+				keyframe.fingerPosition.y,
+				keyframe.fingerPosition.z))
+			return false;
 		// seems doable
 		if (!inverseKinematics(keyframe))
 			return false;
@@ -982,6 +987,21 @@ public class ThorRobot extends Robot {
 		return true;
 	}
 
+	/**
+	 * The map is shared by every Thor.  The first call loads it from disk, or starts building it in the background.
+	 * 
+	 * @return the map of where the finger can reach.
+	 */
+	public ReachabilityMap getReachabilityMap() {
+		synchronized (ThorRobot.class) {
+			if (reachabilityMap == null) {
+				reachabilityMap = new ReachabilityMap(-60, -60, -30, 60, 60, 80, 2);
+				reachabilityMap.loadOrBuildInBackground(REACHABILITY_MAP_FILE, new ThorRobotReachabilityProbe(this));
+			}
+			return reachabilityMap;
+		}
+	}
+
 	protected boolean checkAngleLimits(ThorKeyframe keyframe) {
 		// machine specific limits
 
@@ -1222,4 +1242,46 @@ public class ThorRobot extends Robot {
 		keyframe.fingerForward.set(towardsFinger);
 		keyframe.fingerForward.normalize();
 	}
+
+
+	@Override
+	public RobotKeyframe createKeyframe() {
+		ThorKeyframe keyframe = new ThorKeyframe();
+		keyframe.set(motionNow);
+		return keyframe;
+	}
+
+
+	/**
+	 * Thor keyframes are described by their six joint angles in degrees, A to F, in the order the firmware takes them.
+	 */
+	@Override
+	public int getKeyframeSize() {
+		return 6;
+	}
+
+
+	@Override
+	public void getKeyframeValues(RobotKeyframe arg0,double [] values) {
+		ThorKeyframe keyframe = (ThorKeyframe)arg0;
+		values[0]=keyframe.angleA;
+		values[1]=keyframe.angleB;
+		values[2]=keyframe.angleC;
+		values[3]=keyframe.angleD;
+		values[4]=keyframe.angleE;
+		values[5]=keyframe.angleF;
+	}
+
+
+	@Override
+	public void setKeyframeValues(RobotKeyframe arg0,double [] values) {
+		ThorKeyframe keyframe = (ThorKeyframe)arg0;
+		keyframe.angleA=(float)values[0];
+		keyframe.angleB=(float)values[1];
+		keyframe.angleC=(float)values[2];
+		keyframe.angleD=(float)values[3];
+		keyframe.angleE=(float)values[4];
+		keyframe.angleF=(float)values[5];
+		forwardKinematics(keyframe);
+	}
 }
@@ -0,0 +1,35 @@
+package com.marginallyclever.robotOverlord.thor;
+
+import com.marginallyclever.robotOverlord.kinematics.ReachabilityProbe;
+
+/**
+ * Tests poses with {@link ThorRobot#movePermitted} on a keyframe of its own, so it can run on the map building thread.
+ * While the map is being built it says every position is plausible, so movePermitted() is the exact test.
+ */
+class ThorRobotReachabilityProbe implements ReachabilityProbe {
+	protected ThorRobot robot;
+	protected ThorKeyframe keyframe = new ThorKeyframe();
+
+
+	ThorRobotReachabilityProbe(ThorRobot robot) {
+		this.robot = robot;
+	}
+
+
+	@Override
+	public boolean canReach(float x, float y, float z, float fx, float fy, float fz) {
+		keyframe.fingerPosition.set(x,y,z);
+		keyframe.fingerForward.set(fx,fy,fz);
+		// any right angle will do, the hand can roll.
+		if(Math.abs(fz)<0.9f) keyframe.fingerRight.set(fy,-fx,0);
+		else keyframe.fingerRight.set(1,0,0);
+		keyframe.fingerRight.normalize();
+		return robot.movePermitted(keyframe);
+	}
+
+
+	@Override
+	public boolean isOrientable() {
+		return true;
+	}
+}
@@ -1,5 +1,6 @@
 package com.marginallyclever.robotOverlord.world;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -23,6 +24,9 @@ import com.marginallyclever.robotOverlord.camera.Camera;
 import com.marginallyclever.robotOverlord.entity.Entity;
 import com.marginallyclever.robotOverlord.light.Light;
 import com.marginallyclever.robotOverlord.physicalObject.PhysicalObject;
+import com.marginallyclever.robotOverlord.robot.MotionRecorder;
+import com.marginallyclever.robotOverlord.robot.MotionReplayer;
+import com.marginallyclever.robotOverlord.robot.Robot;
 
 /**
  * Container for all the visible objects in the world.
@@ -53,6 +57,10 @@ implements Serializable {
 	protected transient Vector3f pickRay = null;
 	protected transient boolean isSetup = false;
 
+	// optional.  see setRecorder() and setReplayer().  set from the Swing thread, used by render().
+	protected transient volatile MotionRecorder recorder;
+	protected transient volatile MotionReplayer replayer;
+
 	
 	public World() {
 		areTexturesLoaded=false;
@@ -127,6 +135,16 @@ implements Serializable {
 			isSetup=true;
 		}
 		
+		MotionReplayer r = replayer;
+		if(r!=null) {
+			try {
+				if(!r.update(delta) && replayer==r) replayer=null;
+			} catch(IOException e) {
+				e.printStackTrace();
+				if(replayer==r) replayer=null;
+			}
+		}
+		
 		Iterator<Entity> io = entities.iterator();
 		while(io.hasNext()) {
 			Entity obj = io.next();
@@ -147,6 +165,9 @@ implements Serializable {
 				po.finalizeMove();
 			}
 		}
+		
+		MotionRecorder m = recorder;
+		if(m!=null) m.recordTick(delta);
 
         gl2.glMatrixMode(GL2.GL_MODELVIEW);
 		gl2.glLoadIdentity();
@@ -381,6 +402,8 @@ implements Serializable {
 	
 	public void addEntity(Entity o) {
 		entities.add(o);
+		MotionRecorder m = recorder;
+		if(m!=null && o instanceof Robot) m.addRobot((Robot)o);
 	}
 	
 	public void removeEntity(Entity o) {
@@ -415,6 +438,38 @@ implements Serializable {
 	}
 	
 	
+	/**
+	 * Record every robot in the world, once per frame.  Robots added later are recorded too.
+	 * @param recorder the recorder, or null to stop.  The old recorder is not closed.
+	 */
+	public void setRecorder(MotionRecorder recorder) {
+		this.recorder = recorder;
+		if(recorder==null) return;
+		Iterator<Entity> i = this.entities.iterator();
+		while(i.hasNext()) {
+			Entity o = i.next();
+			if(o instanceof Robot) recorder.addRobot((Robot)o);
+		}
+	}
+	
+	public MotionRecorder getRecorder() {
+		return recorder;
+	}
+	
+	/**
+	 * Move the robots in this world as they were recorded.
+	 * @param replayer the replayer, or null to stop.
+	 */
+	public void setReplayer(MotionReplayer replayer) {
+		this.replayer = replayer;
+		if(replayer!=null) replayer.setWorld(this);
+	}
+	
+	public MotionReplayer getReplayer() {
+		return replayer;
+	}
+	
+	
 	public Camera getCamera() {
 		return camera;
 	}
@@ -0,0 +1,110 @@
+package com.marginallyclever.communications;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import com.marginallyclever.communications.virtual.VirtualConnection;
+import com.marginallyclever.communications.virtual.VirtualTransportLayer;
+
+public class ConnectionMetricsTest {
+	@Test
+	public void histogramBucketsDouble() {
+		LatencyHistogram h = new LatencyHistogram();
+		assertEquals(0,h.getPercentileMicros(0.5));
+		for(int i=0;i<99;++i) h.record(3000000);  // 3ms
+		h.record(40000000);  // 40ms
+		assertEquals(100,h.getCount());
+		assertEquals(4096,h.getPercentileMicros(0.5));
+		assertEquals(4096,h.getPercentileMicros(0.99));
+		assertEquals(65536,h.getPercentileMicros(1));
+		assertEquals(40000,h.getMaxMicros(),1e-9);
+		assertEquals((99*3000+40000)/100.0,h.getMeanMicros(),1e-9);
+		h.reset();
+		assertEquals(0,h.getCount());
+	}
+
+
+	@Test
+	public void streamerRecordsRoundTripsAndStalls() {
+		LineStreamerTest.RecordingOutput out = new LineStreamerTest.RecordingOutput();
+		LineStreamer streamer = new LineStreamer(out);
+		ConnectionMetrics metrics = new ConnectionMetrics();
+		streamer.setMetrics(metrics);
+		streamer.setWindow(20);
+		streamer.acknowledge();
+
+		// 40 lines of 10 bytes.  2 fit at once, so the rest wait for cues.
+		for(int i=0;i<40;++i) streamer.add("G0 X12345");
+		streamer.send();
+		assertEquals(2,metrics.getLinesSent());
+		assertEquals(38,metrics.getQueueDepth());
+		assertEquals(20,metrics.getBytesInFlight());
+		assertEquals(1,metrics.getStalls());
+		while(streamer.acknowledge()) streamer.send();
+
+		assertEquals(40,metrics.getLinesSent());
+		assertEquals(400,metrics.getBytesSent());
+		assertEquals(40,metrics.getLinesAcknowledged());
+		assertEquals(40,metrics.getRoundTrips());
+		assertEquals(38,metrics.getMostQueued());
+		assertEquals(0,metrics.getQueueDepth());
+		// each cue ends a stall, and another starts while lines are left.
+		assertEquals(38,metrics.getStalls());
+	}
+
+
+	@Test
+	public void openConnectionsAreShownThroughJMX() throws Exception {
+		VirtualTransportLayer layer = new VirtualTransportLayer();
+		layer.setBaudRate(0);
+		layer.setLatency(0);
+		layer.setBootTime(0);
+		layer.setErrorRate(0.02,99);
+		VirtualConnection connection = new VirtualConnection(layer);
+		connection.setStreaming(layer.getReceiveBufferSize());
+		connection.openConnection("metrics");
+		ConnectionMetrics metrics = connection.getMetrics();
+		ObjectName name = metrics.getObjectName();
+		assertNotNull(name);
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		assertTrue(server.isRegistered(name));
+
+		final int total = 500;
+		try {
+			for(int i=0;i<total;++i) {
+				String line = "N"+i+" G0 X"+i;
+				byte checksum=0;
+				for(int j=0;j<line.length();++j) checksum ^= line.charAt(j);
+				connection.sendMessage(line+"*"+checksum);
+			}
+			long end = System.currentTimeMillis()+20000;
+			while(connection.getFirmware().getExpectedLineNumber()<total && System.currentTimeMillis()<end) Thread.sleep(1);
+		} finally {
+			connection.closeConnection();
+		}
+		assertFalse(server.isRegistered(name));
+		assertNull(metrics.getObjectName());
+
+		long resent = metrics.getLinesResent();
+		assertEquals(total+resent,metrics.getLinesSent());
+		assertTrue(metrics.getErrors()>=metrics.getResends());
+		assertTrue(metrics.getResends()>0);
+		// the hello is 3 lines, and every line sent is answered with at least a cue.
+		assertTrue(metrics.getLinesReceived()>=3+metrics.getLinesSent());
+		assertTrue(metrics.getBytesReceived()>=metrics.getLinesReceived()*3);
+		assertTrue(metrics.getRoundTrips()>0);
+		assertTrue(metrics.getRoundTripP99Millis()>=metrics.getRoundTripP50Millis());
+		System.out.println("ConnectionMetricsTest "+metrics.getLinesSent()+" lines sent, "+metrics.getErrors()+" errors, "
+				+metrics.getStalls()+" stalls, round trip p50 "+metrics.getRoundTripP50Millis()+"ms p99 "+metrics.getRoundTripP99Millis()+"ms");
+	}
+}
@@ -0,0 +1,95 @@
+package com.marginallyclever.communications;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LineRingTest {
+	protected static int write(LineRing ring,String s) {
+		byte [] b = s.getBytes(StandardCharsets.UTF_8);
+		return ring.write(b,0,b.length);
+	}
+
+	@Test
+	public void linesComeOutWhole() {
+		LineRing ring = new LineRing(16);
+		assertEquals(16,ring.getCapacity());
+		write(ring,"ok\n> ");
+		assertEquals("ok\n",ring.nextLine());
+		assertNull(ring.nextLine());
+		write(ring,"\nhello");
+		assertEquals("> \n",ring.nextLine());
+		assertNull(ring.nextLine());
+		// across the end of the ring
+		write(ring," world\n");
+		assertEquals("hello world\n",ring.nextLine());
+		assertEquals(0,ring.size());
+	}
+
+	@Test
+	public void aFullRingTakesNoMore() {
+		LineRing ring = new LineRing(8);
+		assertEquals(8,write(ring,"0123456789\n"));
+		// no newline fits, so the ring is passed on as it is.
+		assertEquals("01234567",ring.nextLine());
+		assertEquals(3,write(ring,"89\n"));
+		assertEquals("89\n",ring.nextLine());
+		write(ring,"abc");
+		ring.clear();
+		assertEquals(0,ring.size());
+		assertNull(ring.nextLine());
+	}
+
+	/**
+	 * One thread writes numbered lines in pieces of random size while another takes them.
+	 */
+	@Test
+	public void oneWriterOneReader() throws Exception {
+		final int count = 200000;
+		final LineRing ring = new LineRing(64);
+		final Throwable [] failure = new Throwable[1];
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				Random r = new Random(1);
+				StringBuilder sb = new StringBuilder();
+				for(int i=0;i<count;++i) sb.append("line ").append(i).append('\n');
+				byte [] all = sb.toString().getBytes(StandardCharsets.UTF_8);
+				int done=0;
+				while(done<all.length) {
+					int n = Math.min(1+r.nextInt(40),all.length-done);
+					int written = ring.write(all,done,n);
+					if(written==0) Thread.yield();
+					done += written;
+				}
+			}
+		};
+		writer.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+			@Override
+			public void uncaughtException(Thread t,Throwable e) {
+				failure[0]=e;
+			}
+		});
+		writer.start();
+
+		int next=0;
+		long end = System.currentTimeMillis()+30000;
+		while(next<count && System.currentTimeMillis()<end) {
+			String line = ring.nextLine();
+			if(line==null) {
+				Thread.yield();
+				continue;
+			}
+			assertEquals("line "+next+"\n",line);
+			next++;
+		}
+		writer.join();
+		assertNull(failure[0]);
+		assertEquals(count,next);
+		assertEquals(0,ring.size());
+	}
+}
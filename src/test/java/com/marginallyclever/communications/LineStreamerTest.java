@@ -0,0 +1,305 @@
+package com.marginallyclever.communications;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class LineStreamerTest {
+	static class RecordingOutput implements LineStreamer.Output {
+		List<String> lines = new ArrayList<String>();
+
+		@Override
+		public boolean write(byte [] data) {
+			lines.add(new String(data));
+			return true;
+		}
+	}
+
+	/**
+	 * A robot on a serial line, simulated in virtual time.  Bytes cross the wire one after another at 57600 baud
+	 * after the latency of the USB adapter.  The firmware takes a whole line out of its receive buffer, works on it,
+	 * and answers with a cue that crosses back the same way.
+	 * <p>
+	 * Numbered lines must arrive in order.  A line out of order is refused with the number the firmware wants, as is
+	 * the first copy of every line number in {@link #garbled}.
+	 */
+	static class SimulatedDevice implements LineStreamer.Output {
+		static final double BYTE_TIME = 10.0/57600.0;
+		static final double LATENCY = 0.002;
+		static final double WORK_TIME = 0.001;
+		static final int CUE_LENGTH = 3;
+
+		int rxBufferSize;
+		double now;
+		double wireFree;
+		double firmwareFree;
+		// {time the first byte lands, time the last byte lands, length}
+		ArrayDeque<double[]> arriving = new ArrayDeque<double[]>();
+		ArrayDeque<String> arrivingLines = new ArrayDeque<String>();
+		// time each cue reaches the host
+		ArrayDeque<Double> cues = new ArrayDeque<Double>();
+		// line number refused before each cue, or -1
+		ArrayDeque<Integer> errors = new ArrayDeque<Integer>();
+		int mostInBuffer;
+
+		Set<Integer> garbled = new HashSet<Integer>();
+		int expected;
+		List<String> done = new ArrayList<String>();
+
+		SimulatedDevice(int rxBufferSize) {
+			this.rxBufferSize = rxBufferSize;
+		}
+
+		@Override
+		public boolean write(byte [] data) {
+			double start = Math.max(now+LATENCY,wireFree);
+			wireFree = start+data.length*BYTE_TIME;
+			arriving.add(new double[] { start+BYTE_TIME, wireFree, data.length });
+			arrivingLines.add(new String(data));
+			return true;
+		}
+
+		/**
+		 * @return the line number refused, or -1
+		 */
+		int take(String line) {
+			int n = ResendBuffer.getLineNumber(line);
+			if(n<0) {
+				done.add(line);
+				return -1;
+			}
+			if(n!=expected || garbled.remove(n)) return expected;
+			expected++;
+			done.add(line);
+			return -1;
+		}
+
+		int bytesInBuffer() {
+			int sum=0;
+			for(double [] a : arriving) {
+				if(a[0]<=now) sum += (int)a[2];
+			}
+			return sum;
+		}
+
+		/**
+		 * Stream lines until every one is acknowledged, asking for more whenever the streamer wants it.
+		 * @return lines per second
+		 */
+		double run(LineStreamer streamer,String [] lines) {
+			int next=0;
+			// the firmware says hello
+			streamer.acknowledge();
+			while(true) {
+				while(streamer.wantsMore() && next<lines.length) {
+					streamer.add(lines[next++]);
+					streamer.send();
+				}
+				if(next==lines.length && streamer.getQueueSize()==0 && streamer.getBytesInFlight()==0) break;
+
+				double take = arriving.isEmpty() ? Double.MAX_VALUE : Math.max(arriving.peek()[1],firmwareFree);
+				double cue = cues.isEmpty() ? Double.MAX_VALUE : cues.peek();
+				if(take<=cue) {
+					now = take;
+					mostInBuffer = Math.max(mostInBuffer,bytesInBuffer());
+					arriving.poll();
+					errors.add(take(arrivingLines.poll()));
+					firmwareFree = now+WORK_TIME;
+					cues.add(firmwareFree+CUE_LENGTH*BYTE_TIME+LATENCY);
+				} else {
+					now = cue;
+					cues.poll();
+					int error = errors.poll();
+					if(error>=0) assertTrue(streamer.resend(error));
+					streamer.acknowledge();
+					streamer.send();
+				}
+			}
+			return lines.length/now;
+		}
+	}
+
+	protected String [] makeLines(int n) {
+		String [] lines = new String[n];
+		for(int i=0;i<n;++i) {
+			lines[i] = "G0 X"+(i%100)+".5 Y-"+(i%37)+".25";
+		}
+		return lines;
+	}
+
+	protected String [] makeNumberedLines(int n) {
+		String [] lines = makeLines(n);
+		for(int i=0;i<n;++i) {
+			lines[i] = "N"+i+" "+lines[i];
+			byte checksum=0;
+			for(int j=0;j<lines[i].length();++j) checksum ^= lines[i].charAt(j);
+			lines[i] += "*"+checksum;
+		}
+		return lines;
+	}
+
+	@Test
+	public void nothingIsSentBeforeTheFirmwareIsReady() {
+		RecordingOutput out = new RecordingOutput();
+		LineStreamer streamer = new LineStreamer(out);
+		streamer.setWindow(64);
+		streamer.add("G0 X1");
+		assertEquals(0,streamer.send());
+		assertFalse(streamer.wantsMore());
+		// hello
+		assertFalse(streamer.acknowledge());
+		assertEquals(1,streamer.send());
+		assertEquals("G0 X1\n",out.lines.get(0));
+	}
+
+	@Test
+	public void withoutAWindowOneLineIsInFlight() {
+		RecordingOutput out = new RecordingOutput();
+		LineStreamer streamer = new LineStreamer(out);
+		streamer.acknowledge();
+		streamer.add("G0 X1 ; go right");
+		streamer.add("G0 X2");
+		assertEquals(1,streamer.send());
+		assertEquals(0,streamer.send());
+		assertFalse(streamer.wantsMore());
+		// comments are not sent.
+		assertEquals("G0 X1 \n",out.lines.get(0));
+		assertTrue(streamer.acknowledge());
+		assertEquals(1,streamer.send());
+		assertTrue(streamer.acknowledge());
+		assertTrue(streamer.wantsMore());
+		assertEquals(2,streamer.getLinesAcknowledged());
+	}
+
+	@Test
+	public void theWindowLimitsBytesInFlight() {
+		RecordingOutput out = new RecordingOutput();
+		LineStreamer streamer = new LineStreamer(out);
+		streamer.setWindow(20);
+		streamer.acknowledge();
+		// 10 bytes each with the newline
+		for(int i=0;i<5;++i) streamer.add("G0 X12345");
+		streamer.add("G0 X1234 Y5678 Z9012 F3000");
+		assertEquals(2,streamer.send());
+		assertEquals(20,streamer.getBytesInFlight());
+		assertFalse(streamer.canSend());
+
+		// each cue frees the oldest line.
+		assertTrue(streamer.acknowledge());
+		assertEquals(10,streamer.getBytesInFlight());
+		assertEquals(1,streamer.send());
+		assertArrayEquals(new String[] { "G0 X12345\n","G0 X12345\n" },streamer.getLinesInFlight());
+
+		streamer.acknowledge();
+		streamer.acknowledge();
+		assertEquals(2,streamer.send());
+		// too long for the window, so it waits until nothing is in flight.
+		assertEquals(1,streamer.getQueueSize());
+		streamer.acknowledge();
+		assertEquals(0,streamer.send());
+		streamer.acknowledge();
+		assertEquals(1,streamer.send());
+		assertEquals(27,streamer.getBytesInFlight());
+		assertEquals(27,streamer.getMostBytesInFlight());
+	}
+
+	@Test
+	public void clearKeepsLinesInFlight() {
+		RecordingOutput out = new RecordingOutput();
+		LineStreamer streamer = new LineStreamer(out);
+		streamer.setWindow(64);
+		streamer.acknowledge();
+		streamer.add("G0 X1");
+		streamer.send();
+		streamer.add("G0 X2");
+		streamer.clear();
+		assertEquals(0,streamer.getQueueSize());
+		assertEquals(1,streamer.getLinesInFlight().length);
+		assertTrue(streamer.acknowledge());
+		assertFalse(streamer.acknowledge());
+	}
+
+	@Test
+	public void streamingKeepsTheFirmwareBusy() {
+		String [] lines = makeLines(2000);
+
+		SimulatedDevice pingPong = new SimulatedDevice(64);
+		double slow = pingPong.run(new LineStreamer(pingPong),lines);
+
+		SimulatedDevice small = new SimulatedDevice(64);
+		LineStreamer a = new LineStreamer(small);
+		a.setWindow(64);
+		double fast64 = small.run(a,lines);
+
+		SimulatedDevice large = new SimulatedDevice(128);
+		LineStreamer b = new LineStreamer(large);
+		b.setWindow(128);
+		double fast128 = large.run(b,lines);
+
+		System.out.println(String.format("Lines per second at 57600 baud: one at a time %.0f, 64 byte window %.0f, 128 byte window %.0f",slow,fast64,fast128));
+		assertTrue(small.mostInBuffer<=small.rxBufferSize);
+		assertTrue(large.mostInBuffer<=large.rxBufferSize);
+		assertTrue(fast64>slow*1.5);
+		assertTrue(fast128>slow*2);
+		// nothing was lost
+		assertEquals(lines.length,b.getLinesAcknowledged());
+		assertEquals(0,b.getBytesInFlight());
+	}
+
+	@Test
+	public void refusedLinesAreSentAgain() {
+		String [] lines = makeNumberedLines(1000);
+		for(int window : new int[] { 0, 64, 128 }) {
+			SimulatedDevice device = new SimulatedDevice(Math.max(64,window));
+			for(int i=13;i<lines.length;i+=97) device.garbled.add(i);
+			int garbled = device.garbled.size();
+			LineStreamer streamer = new LineStreamer(device);
+			streamer.setWindow(window);
+			streamer.setResendBuffer(new ResendBuffer(32));
+			double rate = device.run(streamer,lines);
+
+			// every line was done once, in order.
+			assertEquals(lines.length,device.done.size());
+			for(int i=0;i<lines.length;++i) assertEquals(lines[i]+"\n",device.done.get(i));
+			assertEquals(garbled,streamer.getResendCount());
+			assertTrue(device.mostInBuffer<=device.rxBufferSize);
+			System.out.println(String.format("Window %d: %.0f lines per second with %d lines refused, %d lines resent, %d errors ignored",
+					window,rate,garbled,streamer.getLinesResent(),streamer.getErrorsIgnored()));
+		}
+	}
+
+	@Test
+	public void forgottenOrHopelessLinesAreLeftToTheCaller() {
+		RecordingOutput out = new RecordingOutput();
+		LineStreamer streamer = new LineStreamer(out);
+		// nothing kept
+		assertFalse(streamer.resend(1));
+
+		streamer.setResendBuffer(new ResendBuffer(2));
+		streamer.acknowledge();
+		for(int i=1;i<=3;++i) {
+			streamer.add("N"+i+" G0");
+			streamer.send();
+			streamer.acknowledge();
+		}
+		// line 1 has been forgotten
+		assertFalse(streamer.resend(1));
+
+		for(int i=0;i<LineStreamer.MAX_RESENDS;++i) {
+			assertTrue(streamer.resend(3));
+			streamer.send();
+			streamer.acknowledge();
+		}
+		assertFalse(streamer.resend(3));
+		assertEquals(LineStreamer.MAX_RESENDS,streamer.getResendCount());
+	}
+}
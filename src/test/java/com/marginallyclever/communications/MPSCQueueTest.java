@@ -0,0 +1,116 @@
+package com.marginallyclever.communications;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class MPSCQueueTest {
+	@Test
+	public void firstInFirstOut() {
+		MPSCQueue<String> q = new MPSCQueue<String>();
+		assertTrue(q.isEmpty());
+		assertNull(q.poll());
+		q.offer("a");
+		q.offer("b");
+		assertEquals(2,q.size());
+		assertEquals("a",q.peek());
+		assertEquals("a",q.poll());
+		q.offer("c");
+		assertEquals("b",q.poll());
+		assertEquals("c",q.poll());
+		assertNull(q.poll());
+		q.offer("d");
+		q.clear();
+		assertTrue(q.isEmpty());
+		assertEquals(0,q.size());
+	}
+
+	/**
+	 * Producers add numbered items as fast as they can while one thread takes them.  Nothing may be lost, repeated,
+	 * or come out of order for its producer.
+	 */
+	@Test
+	public void manyProducersOneConsumer() throws InterruptedException {
+		final int producers = 4;
+		final int each = 200000;
+		final MPSCQueue<long[]> q = new MPSCQueue<long[]>();
+		final CountDownLatch go = new CountDownLatch(1);
+		Thread [] threads = new Thread[producers];
+		for(int p=0;p<producers;++p) {
+			final int id = p;
+			threads[p] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						go.await();
+					} catch(InterruptedException e) {
+						return;
+					}
+					for(int i=0;i<each;++i) q.offer(new long[] { id, i });
+				}
+			};
+			threads[p].start();
+		}
+
+		long [] next = new long[producers];
+		int received=0;
+		long start = System.nanoTime();
+		go.countDown();
+		long end = System.currentTimeMillis()+30000;
+		while(received<producers*each && System.currentTimeMillis()<end) {
+			long [] item = q.poll();
+			if(item==null) {
+				Thread.yield();
+				continue;
+			}
+			int id = (int)item[0];
+			assertEquals(next[id],item[1]);
+			next[id]++;
+			received++;
+		}
+		double seconds = (System.nanoTime()-start)/1e9;
+		for(Thread t : threads) t.join();
+		assertEquals(producers*each,received);
+		assertNull(q.poll());
+		assertEquals(0,q.size());
+		System.out.println(String.format("MPSCQueue: %d producers, %.0f items per second",producers,received/seconds));
+	}
+
+	/**
+	 * Lines added from many threads while the streamer sends them.
+	 */
+	@Test
+	public void streamerTakesLinesFromManyThreads() throws InterruptedException {
+		final int producers = 4;
+		final int each = 20000;
+		final LineStreamer streamer = new LineStreamer(new LineStreamer.Output() {
+			@Override
+			public boolean write(byte [] data) {
+				return true;
+			}
+		});
+		streamer.setWindow(1<<30);
+		streamer.acknowledge();
+		Thread [] threads = new Thread[producers];
+		for(int p=0;p<producers;++p) {
+			threads[p] = new Thread() {
+				@Override
+				public void run() {
+					for(int i=0;i<each;++i) streamer.add("G0 X"+i);
+				}
+			};
+			threads[p].start();
+		}
+		long end = System.currentTimeMillis()+30000;
+		while(streamer.getLinesSent()<producers*each && System.currentTimeMillis()<end) {
+			if(streamer.send()==0) Thread.yield();
+		}
+		for(Thread t : threads) t.join();
+		assertEquals(producers*each,streamer.getLinesSent());
+		assertEquals(0,streamer.getQueueSize());
+	}
+}
@@ -0,0 +1,305 @@
+package com.marginallyclever.communications;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.marginallyclever.communications.virtual.VirtualConnection;
+import com.marginallyclever.communications.virtual.VirtualFirmware;
+import com.marginallyclever.communications.virtual.VirtualTransportLayer;
+
+public class MotionFrameTest {
+	/**
+	 * Runs listeners only when told to, so a test can choose what they have heard of.
+	 */
+	static class ManualExecutor extends ConnectionExecutor {
+		List<Runnable> tasks = new ArrayList<Runnable>();
+
+		ManualExecutor() {
+			super(1);
+		}
+
+		@Override
+		protected synchronized void execute(Runnable task) {
+			tasks.add(task);
+		}
+
+		void runAll() {
+			while(true) {
+				Runnable task;
+				synchronized(this) {
+					if(tasks.isEmpty()) return;
+					task = tasks.remove(0);
+				}
+				task.run();
+			}
+		}
+	}
+
+	/**
+	 * The test plays the firmware.
+	 */
+	static class ScriptedConnection extends LineConnection {
+		List<String> written = new ArrayList<String>();
+
+		@Override
+		protected boolean write(byte [] data) {
+			written.add(new String(data,StandardCharsets.UTF_8));
+			return true;
+		}
+		@Override
+		public void openConnection(String name) {
+			opened(name);
+		}
+		@Override
+		public void closeConnection() {
+			portOpened = false;
+			closed();
+		}
+		@Override
+		public TransportLayer getTransportLayer() {
+			return null;
+		}
+		void answer(String text) {
+			byte [] data = text.getBytes(StandardCharsets.UTF_8);
+			received(data,0,data.length);
+		}
+	}
+
+	@Test
+	public void framesComeBackAsTheyWent() {
+		double [][] setpoints = {
+			{ 123.456, -45.5, 0, 8388.607, -8388.607, 0.001, 3000 },
+			{ 1, 2, 3, 4, 5, 6, 20 },
+		};
+		String line = MotionFrame.encode(200,setpoints,true);
+		assertEquals(MotionFrame.MARKER,line.charAt(0));
+		MotionFrame f = MotionFrame.decode(line+"\n");
+		assertEquals(200,f.sequence);
+		assertEquals(6,f.axes);
+		assertTrue(f.hasFeedRate());
+		assertEquals(2,f.setpoints.length);
+		for(int i=0;i<setpoints.length;++i) assertArrayEquals(setpoints[i],f.setpoints[i],1e-9);
+	}
+
+
+	@Test
+	public void damagedFramesAreRefused() {
+		String line = MotionFrame.encode(1,new double[][] { { 1, 2, 3, 4, 5, 6 } },false);
+		char c = line.charAt(10);
+		String damaged = line.substring(0,10)+(c=='A'?'B':'A')+line.substring(11);
+		assertNull(MotionFrame.decode(damaged));
+		assertNull(MotionFrame.decode(line.substring(0,line.length()-2)));
+		assertNull(MotionFrame.decode("G0 X1"));
+		assertNull(MotionFrame.decode("@not base 64!"));
+	}
+
+
+	@Test
+	public void framesFitTheFirmwareBuffer() {
+		double [] joints = { -123.456, 87.654, -12.345, 179.999, -90.123, 45.678, 3000 };
+		String gcode = "G0 X-123.456 Y87.654 Z-12.345 U179.999 V-90.123 W45.678 F3000";
+		String one = MotionFrame.encode(0,new double[][] { joints },true);
+		assertTrue(one.length()<gcode.length()*2/3);
+		assertEquals(1,MotionFrame.getMaxSetpoints(6,true,64));
+		assertEquals(4,MotionFrame.getMaxSetpoints(6,true,128));
+
+		double [] noFeed = new double[6];
+		System.arraycopy(joints,0,noFeed,0,6);
+		int most = MotionFrame.getMaxSetpoints(6,false,64);
+		assertEquals(2,most);
+		String two = MotionFrame.encode(0,new double[][] { noFeed, noFeed },false);
+		assertTrue(two.length()+1<=64);
+		System.out.println("MotionFrameTest G-code "+(gcode.length()+1)+" bytes, frame "+(one.length()+1)+" bytes, "
+				+most+" setpoints without feed rates in "+(two.length()+1)+" bytes");
+	}
+
+
+	@Test
+	public void sequenceNumbersWrap() {
+		MotionProtocol protocol = new MotionProtocol(null);
+		double [][] p = { { 1 } };
+		for(int i=0;i<256;++i) protocol.encode(p,false);
+		assertEquals(0,MotionFrame.decode(protocol.encode(p,false)).sequence);
+		assertEquals(257,protocol.getFramesSent());
+	}
+
+
+	protected VirtualConnection open(boolean takesFrames,int baud) throws Exception {
+		VirtualTransportLayer layer = new VirtualTransportLayer();
+		layer.setBaudRate(baud);
+		layer.setBootTime(0);
+		VirtualConnection connection = new VirtualConnection(layer);
+		connection.getFirmware().setTakesFrames(takesFrames);
+		connection.getFirmware().setKeepCommands(true);
+		connection.openConnection("frames");
+		return connection;
+	}
+
+
+	protected static void waitFor(MotionProtocol protocol) throws InterruptedException {
+		long end = System.currentTimeMillis()+5000;
+		while(!protocol.isNegotiated() && System.currentTimeMillis()<end) Thread.sleep(1);
+		assertTrue(protocol.isNegotiated());
+	}
+
+
+	@Test
+	public void oldFirmwareGetsGCode() throws Exception {
+		VirtualConnection connection = open(false,0);
+		try {
+			MotionProtocol protocol = new MotionProtocol(connection);
+			protocol.negotiate();
+			waitFor(protocol);
+			assertTrue(!protocol.isBinary());
+		} finally {
+			connection.closeConnection();
+		}
+		connection = open(true,0);
+		try {
+			MotionProtocol protocol = new MotionProtocol(connection);
+			protocol.negotiate();
+			waitFor(protocol);
+			assertTrue(protocol.isBinary());
+		} finally {
+			connection.closeConnection();
+		}
+	}
+
+
+	/**
+	 * An empty send buffer can be heard of before the answer that came ahead of it.  The answer still counts.
+	 */
+	@Test
+	public void answerHeardAfterTheBufferEmptied() throws Exception {
+		ManualExecutor executor = new ManualExecutor();
+		ScriptedConnection connection = new ScriptedConnection();
+		connection.setListenerExecutor(executor);
+		connection.openConnection("scripted");
+		try {
+			connection.answer("> \r\n");
+			executor.runAll();
+
+			MotionProtocol protocol = new MotionProtocol(connection);
+			protocol.negotiate();
+			assertEquals(1,connection.written.size());
+			connection.answer(MotionProtocol.REQUEST+"\r\n> \r\n");
+			// as a listener thread would if it looked for the empty buffer just after the answer was queued.
+			protocol.sendBufferEmpty(connection);
+			assertFalse(protocol.isNegotiated());
+			executor.runAll();
+			assertTrue(protocol.isNegotiated());
+			assertTrue(protocol.isBinary());
+		} finally {
+			connection.closeConnection();
+		}
+	}
+
+
+	/**
+	 * Firmware that only gives the cue is settled once its cue has been passed on.
+	 */
+	@Test
+	public void cueWithoutAnswerMeansGCode() throws Exception {
+		ManualExecutor executor = new ManualExecutor();
+		ScriptedConnection connection = new ScriptedConnection();
+		connection.setListenerExecutor(executor);
+		connection.openConnection("scripted");
+		try {
+			connection.answer("> \r\n");
+			executor.runAll();
+
+			MotionProtocol protocol = new MotionProtocol(connection);
+			protocol.negotiate();
+			executor.runAll();
+			assertFalse(protocol.isNegotiated());
+			connection.answer("ok\r\n> \r\n");
+			assertFalse(protocol.isNegotiated());
+			executor.runAll();
+			assertTrue(protocol.isNegotiated());
+			assertFalse(protocol.isBinary());
+		} finally {
+			connection.closeConnection();
+		}
+	}
+
+
+	protected double[][] path(int count) {
+		double [][] points = new double[count][];
+		for(int i=0;i<count;++i) {
+			double t = i*0.01;
+			points[i] = new double[] {
+				-123.456+Math.sin(t)*10, 87.654+Math.cos(t)*10, -12.345+t, 179.999-t, -90.123+Math.sin(t*3), 45.678,
+			};
+			for(int j=0;j<points[i].length;++j) points[i][j] = Math.round(points[i][j]*1000)/1000.0;
+		}
+		return points;
+	}
+
+
+	protected void waitUntilDone(VirtualConnection connection) throws InterruptedException {
+		long end = System.currentTimeMillis()+60000;
+		while(System.currentTimeMillis()<end) {
+			LineStreamer s = connection.getStreamer();
+			if(s.getQueueSize()==0 && s.getLinesInFlight().length==0) return;
+			Thread.sleep(1);
+		}
+	}
+
+
+	/**
+	 * At 57600 baud, six joints as frames of two setpoints against the same as G-code.
+	 */
+	@Test
+	public void framesMoveFasterThanGCode() throws Exception {
+		final int count = 200;
+		double [][] points = path(count);
+
+		VirtualConnection connection = open(true,57600);
+		double gcodeRate, frameRate;
+		try {
+			MotionProtocol protocol = new MotionProtocol(connection);
+			protocol.negotiate();
+			waitFor(protocol);
+			connection.setStreaming(64);
+
+			StringBuilder sb = new StringBuilder();
+			long start = System.nanoTime();
+			for(double [] p : points) {
+				sb.setLength(0);
+				sb.append("G0 X").append(p[0]).append(" Y").append(p[1]).append(" Z").append(p[2])
+				  .append(" U").append(p[3]).append(" V").append(p[4]).append(" W").append(p[5]);
+				connection.sendMessage(sb.toString());
+			}
+			waitUntilDone(connection);
+			gcodeRate = count/((System.nanoTime()-start)*1e-9);
+
+			start = System.nanoTime();
+			for(String frame : protocol.encodeAll(points,false,64)) connection.sendMessage(frame);
+			waitUntilDone(connection);
+			frameRate = count/((System.nanoTime()-start)*1e-9);
+		} finally {
+			connection.closeConnection();
+		}
+
+		VirtualFirmware firmware = connection.getFirmware();
+		assertEquals(0,connection.getBytesLost());
+		assertEquals(0,firmware.getBadFrameCount());
+		assertEquals(0,firmware.getFramesLost());
+		assertEquals(count/2,firmware.getFramesReceived());
+		List<double[]> received = firmware.getSetpoints();
+		assertEquals(count,received.size());
+		for(int i=0;i<count;++i) assertArrayEquals(points[i],received.get(i),1e-9);
+
+		System.out.println("MotionFrameTest 57600 baud: G-code "+(int)gcodeRate+" setpoints/s, frames "+(int)frameRate+" setpoints/s");
+		assertTrue(frameRate>gcodeRate*1.5);
+	}
+}
@@ -0,0 +1,160 @@
+package com.marginallyclever.communications;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.marginallyclever.communications.virtual.VirtualConnection;
+import com.marginallyclever.communications.virtual.VirtualTransportLayer;
+
+public class NetworkConnectionManagerTest {
+	static class CountingListener implements NetworkConnectionListener {
+		AtomicInteger lines = new AtomicInteger();
+		CountDownLatch gate;
+		volatile Thread thread;
+
+		CountingListener(CountDownLatch gate) {
+			this.gate = gate;
+		}
+
+		@Override
+		public void lineError(NetworkConnection arg0,int lineNumber) {}
+
+		@Override
+		public void sendBufferEmpty(NetworkConnection arg0) {}
+
+		@Override
+		public void dataAvailable(NetworkConnection arg0,String data) {
+			thread = Thread.currentThread();
+			if(gate!=null) {
+				try {
+					gate.await();
+				} catch(InterruptedException e) {}
+			}
+			// the hello may come before the listener.
+			if(data.startsWith("D10")) lines.incrementAndGet();
+		}
+	}
+
+
+	@After
+	public void closeAll() {
+		NetworkConnectionManager.closeAll();
+	}
+
+
+	@Test
+	public void connectionsAreFoundByAddressUntilClosed() {
+		VirtualTransportLayer layer = (VirtualTransportLayer)NetworkConnectionManager.getTransportLayer("virtual");
+		layer.setBaudRate(0);
+		layer.setBootTime(0);
+		assertNull(NetworkConnectionManager.openConnection("nowhere:1"));
+
+		NetworkConnection a = NetworkConnectionManager.openConnection("virtual:a");
+		NetworkConnection b = NetworkConnectionManager.openConnection("virtual:b");
+		assertTrue(a.isOpen());
+		assertSame(a,NetworkConnectionManager.openConnection("virtual:a"));
+		assertSame(b,NetworkConnectionManager.getConnection("virtual:b"));
+		assertEquals(2,NetworkConnectionManager.getOpenAddresses().size());
+		assertEquals("virtual",NetworkConnectionManager.getTransportLayerName(a.getTransportLayer()));
+
+		a.closeConnection();
+		assertNull(NetworkConnectionManager.getConnection("virtual:a"));
+		assertEquals(1,NetworkConnectionManager.getOpenAddresses().size());
+		NetworkConnectionManager.closeAll();
+		assertTrue(NetworkConnectionManager.getOpenAddresses().isEmpty());
+		assertTrue(!b.isOpen());
+	}
+
+
+	@Test
+	public void capturesUntilClosed() throws Exception {
+		File file = File.createTempFile("session",".bin");
+		file.deleteOnExit();
+		VirtualTransportLayer layer = (VirtualTransportLayer)NetworkConnectionManager.getTransportLayer("virtual");
+		layer.setBaudRate(0);
+		layer.setBootTime(0);
+		VirtualConnection c = (VirtualConnection)NetworkConnectionManager.openConnection("virtual:captured");
+		assertTrue(NetworkConnectionManager.startCapture(c,file));
+		assertTrue(c.isCapturing());
+		c.sendMessage("D10");
+		long end = System.currentTimeMillis()+5000;
+		while(c.getFirmware().getCommandsDone()<1 && System.currentTimeMillis()<end) Thread.sleep(1);
+		c.closeConnection();
+		assertFalse(c.isCapturing());
+
+		SessionReader reader = new SessionReader(file);
+		boolean sent = false;
+		SessionReader.Record r;
+		while((r=reader.next())!=null) {
+			if(!r.isFromRobot() && new String(r.data).startsWith("D10")) sent = true;
+		}
+		reader.close();
+		assertTrue(sent);
+	}
+
+
+	/**
+	 * A dozen robots, one of them with a listener that is stuck.  Every robot still gets every line.
+	 */
+	@Test
+	public void aStuckListenerDoesNotHoldUpAnyPort() throws Exception {
+		final int robots = 12;
+		final int total = 200;
+		VirtualTransportLayer layer = (VirtualTransportLayer)NetworkConnectionManager.getTransportLayer("virtual");
+		layer.setBaudRate(0);
+		layer.setLatency(0.0005);
+		layer.setBootTime(0);
+
+		CountDownLatch gate = new CountDownLatch(1);
+		List<VirtualConnection> connections = new ArrayList<VirtualConnection>();
+		List<CountingListener> listeners = new ArrayList<CountingListener>();
+		for(int i=0;i<robots;++i) {
+			VirtualConnection c = (VirtualConnection)NetworkConnectionManager.openConnection("virtual:robot"+i);
+			CountingListener listener = new CountingListener(i==0 ? gate : null);
+			c.addListener(listener);
+			c.setStreaming(layer.getReceiveBufferSize());
+			connections.add(c);
+			listeners.add(listener);
+		}
+		long start = System.nanoTime();
+		for(int j=0;j<total;++j) {
+			for(VirtualConnection c : connections) c.sendMessage("D10");
+		}
+
+		long end = System.currentTimeMillis()+20000;
+		for(int i=0;i<robots;++i) {
+			VirtualConnection c = connections.get(i);
+			while(c.getFirmware().getCommandsDone()<total && System.currentTimeMillis()<end) Thread.sleep(1);
+			assertEquals(total,c.getFirmware().getCommandsDone());
+		}
+		double seconds = (System.nanoTime()-start)*1e-9;
+		for(int i=1;i<robots;++i) {
+			while(listeners.get(i).lines.get()<total && System.currentTimeMillis()<end) Thread.sleep(1);
+			assertEquals(total,listeners.get(i).lines.get());
+		}
+		// the stuck listener has seen nothing and its lines are waiting.
+		assertEquals(0,listeners.get(0).lines.get());
+		ListenerQueue stuck = connections.get(0).getListenerQueue();
+		assertTrue(stuck.size()>0);
+		assertTrue(listeners.get(0).thread!=null && listeners.get(0).thread.getName().startsWith("Connection listeners"));
+
+		gate.countDown();
+		while(stuck.size()>0 && System.currentTimeMillis()<end) Thread.sleep(1);
+		Thread.sleep(10);
+		assertEquals(total,listeners.get(0).lines.get()+stuck.getDroppedCount());
+		System.out.println("NetworkConnectionManagerTest "+robots+" robots, "+(robots*total)+" lines in "+(int)(seconds*1000)
+				+"ms with one listener stuck ("+(int)(robots*total/seconds)+" lines/s)");
+	}
+}
@@ -0,0 +1,55 @@
+package com.marginallyclever.communications;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class ResendBufferTest {
+	@Test
+	public void lineNumbers() {
+		assertEquals(12,ResendBuffer.getLineNumber("N12 G0 X1*34\n"));
+		assertEquals(0,ResendBuffer.getLineNumber(" N0 M110"));
+		assertEquals(-1,ResendBuffer.getLineNumber("G0 X1"));
+		assertEquals(-1,ResendBuffer.getLineNumber("N G0"));
+		assertEquals(-1,ResendBuffer.getLineNumber("N99999999999 G0"));
+		assertEquals(-1,ResendBuffer.getLineNumber(""));
+	}
+
+	@Test
+	public void linesAfterTheRefusedOneComeWithIt() {
+		ResendBuffer buffer = new ResendBuffer(4);
+		buffer.sent("N1 G0\n");
+		// not numbered, not kept
+		buffer.sent("M114\n");
+		buffer.sent("N2 G0\n");
+		buffer.sent("N3 G0\n");
+		assertEquals(3,buffer.size());
+		assertArrayEquals(new String[] { "N2 G0\n","N3 G0\n" },buffer.getLinesFrom(2));
+		assertNull(buffer.getLinesFrom(4));
+	}
+
+	@Test
+	public void theOldestIsForgotten() {
+		ResendBuffer buffer = new ResendBuffer(3);
+		for(int i=1;i<=5;++i) buffer.sent("N"+i+" G0\n");
+		assertEquals(3,buffer.size());
+		assertNull(buffer.getLinesFrom(2));
+		assertArrayEquals(new String[] { "N3 G0\n","N4 G0\n","N5 G0\n" },buffer.getLinesFrom(3));
+		buffer.clear();
+		assertEquals(0,buffer.size());
+		assertNull(buffer.getLinesFrom(5));
+	}
+
+	@Test
+	public void theLastCopyOfALineIsUsed() {
+		ResendBuffer buffer = new ResendBuffer(8);
+		buffer.sent("N1 G0 X1\n");
+		buffer.sent("N2 G0\n");
+		// numbering started over
+		buffer.sent("N1 G0 X9\n");
+		assertArrayEquals(new String[] { "N1 G0 X9\n" },buffer.getLinesFrom(1));
+		assertArrayEquals(new String[] { "N2 G0\n","N1 G0 X9\n" },buffer.getLinesFrom(2));
+	}
+}
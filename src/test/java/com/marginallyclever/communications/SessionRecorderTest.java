@@ -0,0 +1,58 @@
+package com.marginallyclever.communications;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class SessionRecorderTest {
+	@Test
+	public void recordsComeBackInOrderWithTheirTimes() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		SessionRecorder recorder = new SessionRecorder(bytes);
+		byte [] big = new byte[300];
+		for(int i=0;i<big.length;++i) big[i] = (byte)i;
+		recorder.received("HELLO\n> \n".getBytes(),0,9);
+		Thread.sleep(5);
+		recorder.sent("D10\n".getBytes(),0,4);
+		recorder.received(big,10,290);
+		recorder.close();
+		// nothing more after closing.
+		recorder.sent("lost\n".getBytes(),0,5);
+		assertEquals(3,recorder.getRecordCount());
+
+		SessionReader reader = new SessionReader(new ByteArrayInputStream(bytes.toByteArray()));
+		assertTrue(Math.abs(reader.getStartMillis()-System.currentTimeMillis())<60000);
+		SessionReader.Record a = reader.next();
+		SessionReader.Record b = reader.next();
+		SessionReader.Record c = reader.next();
+		assertNull(reader.next());
+		reader.close();
+
+		assertTrue(a.isFromRobot());
+		assertEquals("HELLO\n> \n",new String(a.data));
+		assertEquals(SessionRecorder.TO_ROBOT,b.direction);
+		assertEquals("D10\n",new String(b.data));
+		assertTrue(b.nanos-a.nanos>=5000000);
+		assertTrue(c.nanos>=b.nanos);
+		byte [] expected = new byte[290];
+		System.arraycopy(big,10,expected,0,290);
+		assertArrayEquals(expected,c.data);
+	}
+
+
+	@Test
+	public void otherFilesAreRefused() {
+		try {
+			new SessionReader(new ByteArrayInputStream("not a session at all".getBytes()));
+			fail();
+		} catch(IOException e) {}
+	}
+}
@@ -0,0 +1,148 @@
+package com.marginallyclever.communications.replay;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.marginallyclever.communications.NetworkConnection;
+import com.marginallyclever.communications.NetworkConnectionListener;
+import com.marginallyclever.communications.virtual.VirtualConnection;
+import com.marginallyclever.communications.virtual.VirtualTransportLayer;
+import com.marginallyclever.robotOverlord.makelangeloRobot.MakelangeloRobot;
+
+public class ReplayConnectionTest {
+	static class Collector implements NetworkConnectionListener {
+		List<String> lines = Collections.synchronizedList(new ArrayList<String>());
+
+		@Override
+		public void lineError(NetworkConnection arg0,int lineNumber) {}
+
+		@Override
+		public void sendBufferEmpty(NetworkConnection arg0) {}
+
+		@Override
+		public void dataAvailable(NetworkConnection arg0,String data) {
+			lines.add(data);
+		}
+	}
+
+
+	static void waitUntilFinished(ReplayConnection replay) throws InterruptedException {
+		long end = System.currentTimeMillis()+20000;
+		while(!replay.isFinished() && System.currentTimeMillis()<end) Thread.sleep(1);
+		assertTrue(replay.isFinished());
+	}
+
+
+	/**
+	 * @return the hello and firmware version, the answer to the D10 of the handshake, and the answer to each D10.
+	 */
+	static int expectedLines(int lines) {
+		return 2+1+lines;
+	}
+
+
+	/**
+	 * Capture a robot shaking hands and answering D10 for every line, like a long plot.
+	 */
+	protected File capture(int lines) throws Exception {
+		File file = File.createTempFile("session",".bin");
+		file.deleteOnExit();
+
+		VirtualTransportLayer layer = new VirtualTransportLayer();
+		layer.setBaudRate(0);
+		layer.setLatency(0.001);
+		layer.setBootTime(0);
+		VirtualConnection connection = new VirtualConnection(layer);
+		MakelangeloRobot robot = new MakelangeloRobot();
+		robot.setConnection(connection);
+		Collector collector = new Collector();
+		connection.addListener(collector);
+		connection.startCapture(file);
+		connection.openConnection("capture");
+		try {
+			long end = System.currentTimeMillis()+5000;
+			while(!robot.isPortConfirmed() && System.currentTimeMillis()<end) Thread.sleep(1);
+			assertTrue(robot.isPortConfirmed());
+			for(int i=0;i<lines;++i) connection.sendMessage("D10");
+			while(collector.lines.size()<expectedLines(lines) && System.currentTimeMillis()<end) Thread.sleep(1);
+			assertEquals(expectedLines(lines),collector.lines.size());
+		} finally {
+			connection.closeConnection();
+		}
+		return file;
+	}
+
+
+	@Test
+	public void replayedHandshakeConfirmsTheRobot() throws Exception {
+		File file = capture(0);
+
+		ReplayTransportLayer layer = new ReplayTransportLayer();
+		ReplayConnection replay = new ReplayConnection(layer);
+		MakelangeloRobot robot = new MakelangeloRobot();
+		robot.setConnection(replay);
+		replay.openConnection(file.getAbsolutePath());
+		try {
+			waitUntilFinished(replay);
+			assertTrue(robot.isPortConfirmed());
+			assertEquals(2,robot.getSettings().getHardwareVersion());
+			// the robot asked for the hardware version, as it did when captured.
+			assertTrue(replay.getBytesWritten()>0);
+		} finally {
+			replay.closeConnection();
+		}
+	}
+
+
+	protected double replay(File file,double speed,Collector collector) throws Exception {
+		ReplayTransportLayer layer = new ReplayTransportLayer();
+		layer.setSpeed(speed);
+		ReplayConnection replay = new ReplayConnection(layer);
+		replay.addListener(collector);
+		long start = System.nanoTime();
+		replay.openConnection(file.getAbsolutePath());
+		try {
+			waitUntilFinished(replay);
+		} finally {
+			replay.closeConnection();
+		}
+		return (System.nanoTime()-start)*1e-9;
+	}
+
+
+	/**
+	 * A replay at the speed it was recorded takes about as long as the session did.  Faster replays are faster, and
+	 * the fastest shows how quickly the connection can parse what the robot says.
+	 */
+	@Test
+	public void replayKeepsTimeOrRunsFaster() throws Exception {
+		final int lines = 300;
+		long start = System.nanoTime();
+		File file = capture(lines);
+		double captured = (System.nanoTime()-start)*1e-9;
+
+		Collector asRecorded = new Collector();
+		double t1 = replay(file,1,asRecorded);
+		Collector faster = new Collector();
+		double t4 = replay(file,4,faster);
+		Collector fastest = new Collector();
+		double t0 = replay(file,0,fastest);
+
+		assertEquals(expectedLines(lines),asRecorded.lines.size());
+		assertEquals(asRecorded.lines,faster.lines);
+		assertEquals(asRecorded.lines,fastest.lines);
+		assertTrue(t1<=captured+0.5);
+		assertTrue(t4<t1);
+		assertTrue(t0<t4);
+		System.out.println("ReplayConnectionTest "+lines+" lines captured in "+(int)(captured*1000)+"ms, replayed in "
+				+(int)(t1*1000)+"ms at 1x, "+(int)(t4*1000)+"ms at 4x, "+(int)(t0*1000)+"ms at full speed ("
+				+(int)(fastest.lines.size()/t0)+" lines/s)");
+	}
+}
@@ -0,0 +1,31 @@
+package com.marginallyclever.communications.serial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SerialTransportLayerTest {
+	@Test
+	public void sendsOneLineAtATimeUnlessAsked() {
+		SerialTransportLayer layer = new SerialTransportLayer();
+		SerialConnection connection = new SerialConnection(layer);
+		layer.configure(connection);
+		assertFalse(connection.isStreaming());
+	}
+
+	@Test
+	public void streamsToTheArduinoBufferWhenAsked() {
+		SerialTransportLayer layer = new SerialTransportLayer();
+		layer.setStreaming(true);
+		SerialConnection connection = new SerialConnection(layer);
+		layer.configure(connection);
+		assertTrue(connection.isStreaming());
+		assertEquals(SerialConnection.ARDUINO_RX_BUFFER,connection.getStreamer().getWindow());
+
+		layer.setStreaming(false);
+		layer.configure(connection);
+		assertFalse(connection.isStreaming());
+	}
+}
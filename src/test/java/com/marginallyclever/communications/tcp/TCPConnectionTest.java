@@ -0,0 +1,223 @@
+package com.marginallyclever.communications.tcp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.marginallyclever.communications.NetworkConnection;
+import com.marginallyclever.communications.NetworkConnectionListener;
+
+public class TCPConnectionTest {
+	static class Collector implements NetworkConnectionListener {
+		List<String> lines = Collections.synchronizedList(new ArrayList<String>());
+
+		@Override
+		public void lineError(NetworkConnection arg0,int lineNumber) {}
+
+		@Override
+		public void sendBufferEmpty(NetworkConnection arg0) {}
+
+		@Override
+		public void dataAvailable(NetworkConnection arg0,String data) {
+			lines.add(data);
+		}
+
+		void waitFor(int count) throws InterruptedException {
+			long end = System.currentTimeMillis()+10000;
+			while(lines.size()<count && System.currentTimeMillis()<end) Thread.sleep(5);
+			assertEquals(count,lines.size());
+		}
+	}
+
+	/**
+	 * Firmware that says hello, then answers each line with "ok" and the line, and a cue.
+	 * The answer is written a few bytes at a time, so lines are split across reads.
+	 */
+	static class EchoRobot implements Runnable {
+		Socket socket;
+
+		EchoRobot(Socket socket) {
+			this.socket = socket;
+		}
+
+		@Override
+		public void run() {
+			try {
+				socket.setTcpNoDelay(true);
+				OutputStream out = socket.getOutputStream();
+				out.write("> \n".getBytes());
+				BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),StandardCharsets.UTF_8));
+				String line;
+				while((line=in.readLine())!=null) {
+					byte [] answer = ("ok "+line+"\n> \n").getBytes(StandardCharsets.UTF_8);
+					for(int i=0;i<answer.length;i+=5) {
+						out.write(answer,i,Math.min(5,answer.length-i));
+						out.flush();
+					}
+				}
+			} catch(IOException e) {
+				// test over
+			}
+		}
+	}
+
+	ServerSocket server;
+	List<Socket> accepted = Collections.synchronizedList(new ArrayList<Socket>());
+	TCPTransportLayer layer;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new ServerSocket();
+		// small, so the robot's side fills up quickly.
+		server.setReceiveBufferSize(4096);
+		server.bind(new InetSocketAddress("127.0.0.1",0));
+		layer = new TCPTransportLayer();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		server.close();
+		synchronized(accepted) {
+			for(Socket s : accepted) s.close();
+		}
+		layer.getSelector().stop();
+	}
+
+	String address() {
+		return "127.0.0.1:"+server.getLocalPort();
+	}
+
+	Socket accept() throws IOException {
+		Socket s = server.accept();
+		accepted.add(s);
+		return s;
+	}
+
+	/**
+	 * Accept robots in the background, each answered by an EchoRobot.
+	 */
+	void startEchoRobots() {
+		Thread t = new Thread() {
+			@Override
+			public void run() {
+				try {
+					while(true) new Thread(new EchoRobot(accept())).start();
+				} catch(IOException e) {
+					// closed
+				}
+			}
+		};
+		t.setDaemon(true);
+		t.start();
+	}
+
+	int countSelectorThreads() {
+		int count=0;
+		for(Thread t : Thread.getAllStackTraces().keySet()) {
+			if(t.getName().equals(TCPSelector.THREAD_NAME) && t.isAlive()) count++;
+		}
+		return count;
+	}
+
+	@Test
+	public void linesSplitAcrossReadsAreJoined() throws Exception {
+		TCPConnection connection = (TCPConnection)layer.openConnection(address());
+		Collector collector = new Collector();
+		connection.addListener(collector);
+		Socket robot = accept();
+		OutputStream out = robot.getOutputStream();
+		out.write("hello wor".getBytes());
+		out.flush();
+		Thread.sleep(50);
+		out.write("ld\n> \nsec".getBytes());
+		out.flush();
+		Thread.sleep(50);
+		out.write("ond\nthird\n".getBytes());
+		out.flush();
+		collector.waitFor(3);
+		assertEquals("hello world\n",collector.lines.get(0));
+		assertEquals("second\n",collector.lines.get(1));
+		assertEquals("third\n",collector.lines.get(2));
+		connection.closeConnection();
+	}
+
+	@Test
+	public void aFleetSharesOneThread() throws Exception {
+		startEchoRobots();
+		int robots = 16;
+		int linesEach = 200;
+		int threadsBefore = Thread.activeCount();
+		List<TCPConnection> connections = new ArrayList<TCPConnection>();
+		List<Collector> collectors = new ArrayList<Collector>();
+		for(int r=0;r<robots;++r) {
+			TCPConnection c = (TCPConnection)layer.openConnection(address());
+			Collector collector = new Collector();
+			c.addListener(collector);
+			connections.add(c);
+			collectors.add(collector);
+		}
+		// one selector, and a thread per echo robot on the other side.
+		assertEquals(1,countSelectorThreads());
+		assertTrue(Thread.activeCount()<=threadsBefore+1+robots);
+
+		long start = System.nanoTime();
+		for(int i=0;i<linesEach;++i) {
+			for(int r=0;r<robots;++r) connections.get(r).sendMessage("G0 X"+i+" ; robot "+r);
+		}
+		for(int r=0;r<robots;++r) {
+			Collector collector = collectors.get(r);
+			collector.waitFor(linesEach);
+			for(int i=0;i<linesEach;++i) assertEquals("ok G0 X"+i+" \n",collector.lines.get(i));
+		}
+		double seconds = (System.nanoTime()-start)/1e9;
+		System.out.println(String.format("TCP: %d robots, %.0f lines per second on one thread",robots,robots*linesEach/seconds));
+		for(TCPConnection c : connections) c.closeConnection();
+	}
+
+	@Test
+	public void aSlowRobotHoldsLinesBack() throws Exception {
+		TCPConnection connection = (TCPConnection)layer.openConnection(address());
+		// never wait for the cue
+		connection.setStreaming(Integer.MAX_VALUE);
+		Socket robot = accept();
+		robot.getOutputStream().write("> \n".getBytes());
+		while(!connection.getStreamer().wantsMore()) Thread.sleep(5);
+
+		// the robot reads nothing until every line is given.  more than the socket buffers hold.
+		int count = 100000;
+		StringBuilder pad = new StringBuilder();
+		for(int i=0;i<80;++i) pad.append('X');
+		int most=0;
+		for(int i=0;i<count;++i) {
+			connection.sendMessage("N"+i+" "+pad);
+			most = Math.max(most,connection.getPendingBytes());
+		}
+		assertTrue(connection.getStreamer().getQueueSize()>0);
+		assertTrue("pending "+most,most<=TCPConnection.MAX_PENDING_BYTES+100);
+
+		BufferedReader in = new BufferedReader(new InputStreamReader(robot.getInputStream(),StandardCharsets.UTF_8));
+		for(int i=0;i<count;++i) {
+			assertEquals("N"+i+" "+pad,in.readLine());
+		}
+		long end = System.currentTimeMillis()+1000;
+		while(connection.getPendingBytes()>0 && System.currentTimeMillis()<end) Thread.sleep(5);
+		assertEquals(0,connection.getPendingBytes());
+		assertEquals(0,connection.getStreamer().getQueueSize());
+		connection.closeConnection();
+	}
+}
@@ -0,0 +1,137 @@
+package com.marginallyclever.communications.virtual;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.marginallyclever.robotOverlord.makelangeloRobot.MakelangeloRobot;
+
+public class VirtualConnectionTest {
+	static String numbered(int n,String command) {
+		String line = "N"+n+" "+command;
+		byte checksum=0;
+		for(int j=0;j<line.length();++j) checksum ^= line.charAt(j);
+		return line+"*"+checksum;
+	}
+
+
+	static void waitFor(VirtualFirmware firmware,int expected,long timeoutMillis) throws InterruptedException {
+		long end = System.currentTimeMillis()+timeoutMillis;
+		while(firmware.getExpectedLineNumber()<expected && System.currentTimeMillis()<end) {
+			Thread.sleep(1);
+		}
+	}
+
+
+	@Test
+	public void firmwareChecksLinesLikeTheRobot() {
+		VirtualFirmware firmware = new VirtualFirmware();
+		firmware.setKeepCommands(true);
+		firmware.hello();
+
+		assertEquals("> \r\n",firmware.process(numbered(0,"G0 X1")+"\n"));
+		assertEquals("NOCHECKSUM 1\r\n> \r\n",firmware.process("N1 G0 X2"));
+		assertEquals("BADCHECKSUM 1\r\n> \r\n",firmware.process("N1 G0 X2*0"));
+		assertEquals("BADLINENUM 1\r\n> \r\n",firmware.process(numbered(2,"G0 X3")));
+		assertEquals("D10 V2\r\n> \r\n",firmware.process(numbered(1,"D10")));
+		firmware.process("M110 N99");
+		assertEquals(100,firmware.getExpectedLineNumber());
+
+		List<String> commands = firmware.getCommands();
+		assertEquals("G0 X1",commands.get(0));
+		assertEquals("D10",commands.get(1));
+	}
+
+
+	@Test
+	public void makelangeloRobotShakesHands() throws Exception {
+		VirtualTransportLayer layer = new VirtualTransportLayer();
+		layer.setBaudRate(0);
+		layer.setLatency(0);
+		layer.setBootTime(0);
+		MakelangeloRobot robot = new MakelangeloRobot();
+		// listen before the hello.
+		VirtualConnection connection = new VirtualConnection(layer);
+		robot.setConnection(connection);
+		connection.openConnection("handshake");
+		try {
+			long end = System.currentTimeMillis()+5000;
+			while(!robot.isPortConfirmed() && System.currentTimeMillis()<end) Thread.sleep(1);
+			assertTrue(robot.isPortConfirmed());
+			assertEquals(2,robot.getSettings().getHardwareVersion());
+		} finally {
+			connection.closeConnection();
+		}
+	}
+
+
+	/**
+	 * Every line is done once and in order, however often the firmware refuses one.
+	 */
+	@Test
+	public void refusedLinesAreDoneOnceInOrder() throws Exception {
+		final int total = 2000;
+		VirtualTransportLayer layer = new VirtualTransportLayer();
+		layer.setBaudRate(0);
+		layer.setLatency(0);
+		layer.setWorkTime(0);
+		layer.setBootTime(0);
+		layer.setErrorRate(0.05,1234);
+		VirtualConnection connection = new VirtualConnection(layer);
+		connection.getFirmware().setKeepCommands(true);
+		connection.openConnection("errors");
+		try {
+			connection.setStreaming(layer.getReceiveBufferSize());
+			for(int i=0;i<total;++i) connection.sendMessage(numbered(i,"G0 X"+i));
+			waitFor(connection.getFirmware(),total,20000);
+		} finally {
+			connection.closeConnection();
+		}
+
+		VirtualFirmware firmware = connection.getFirmware();
+		assertEquals(total,firmware.getExpectedLineNumber());
+		List<String> commands = firmware.getCommands();
+		assertEquals(total,commands.size());
+		for(int i=0;i<total;++i) assertEquals("G0 X"+i,commands.get(i));
+		assertTrue(firmware.getErrorsInjected()>0);
+		assertEquals(0,connection.getBytesLost());
+		assertTrue(connection.getMostInBuffer()<=layer.getReceiveBufferSize());
+	}
+
+
+	protected double linesPerSecond(int window,int total) throws Exception {
+		VirtualTransportLayer layer = new VirtualTransportLayer();
+		layer.setBootTime(0);
+		VirtualConnection connection = new VirtualConnection(layer);
+		connection.openConnection("benchmark");
+		long start, end;
+		try {
+			connection.setStreaming(window);
+			start = System.nanoTime();
+			for(int i=0;i<total;++i) connection.sendMessage(numbered(i,"G1 X"+(i%100)+" Y"+(i%37)));
+			waitFor(connection.getFirmware(),total,60000);
+			end = System.nanoTime();
+		} finally {
+			connection.closeConnection();
+		}
+		assertEquals(total,connection.getFirmware().getExpectedLineNumber());
+		assertEquals(0,connection.getBytesLost());
+		return total/((end-start)*1e-9);
+	}
+
+
+	/**
+	 * At 57600 baud, keeping the receive buffer full should beat waiting for each cue.
+	 */
+	@Test
+	public void streamingBeatsPingPongInRealTime() throws Exception {
+		final int total = 300;
+		double pingPong = linesPerSecond(0,total);
+		double streaming = linesPerSecond(new VirtualTransportLayer().getReceiveBufferSize(),total);
+		System.out.println("VirtualConnectionTest 57600 baud: one line at a time "+(int)pingPong+" lines/s, 64 byte window "+(int)streaming+" lines/s");
+		assertTrue(streaming>pingPong*1.3);
+	}
+}
@@ -0,0 +1,47 @@
+package com.marginallyclever.robotOverlord;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Assume;
+
+/**
+ * Counts the bytes the current thread allocates, for tests that check a hot path makes no garbage.
+ * Only some JVMs can count; tests that need it are skipped on the others.
+ */
+public class AllocationCounter {
+	// found once, so counting makes no garbage of its own.
+	private static final com.sun.management.ThreadMXBean bean = findBean();
+
+
+	private static com.sun.management.ThreadMXBean findBean() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if(!(bean instanceof com.sun.management.ThreadMXBean)) return null;
+		com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean)bean;
+		if(!sun.isThreadAllocatedMemorySupported() || !sun.isThreadAllocatedMemoryEnabled()) return null;
+		return sun;
+	}
+
+
+	/**
+	 * @return the bean that counts allocations, or null if this JVM can't.
+	 */
+	public static com.sun.management.ThreadMXBean getBean() {
+		return bean;
+	}
+
+
+	/**
+	 * Skip the test if allocations can't be counted.
+	 */
+	public static void assumeSupported() {
+		Assume.assumeTrue(bean!=null);
+	}
+
+
+	/**
+	 * @return bytes allocated by the current thread so far.  Call {@link #assumeSupported()} first.
+	 */
+	public static long getBytes() {
+		return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
@@ -0,0 +1,284 @@
+package com.marginallyclever.robotOverlord;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+import javax.vecmath.Vector3f;
+
+import org.junit.Test;
+
+import com.marginallyclever.robotOverlord.entity.Entity;
+import com.marginallyclever.robotOverlord.robot.Robot;
+
+/**
+ * Forward and inverse kinematics of every robot in META-INF/services, their bounding volumes, and the
+ * {@link IntersectionTester} kernels.  No GL is needed.
+ * <p>
+ * Each case is run for a while to warm up, then timed.  Operations per second and bytes allocated per operation
+ * are printed.  Run with -Dbenchmark.csv=file to also write them as CSV, to compare against an earlier run.
+ * <p>
+ * Timing proves nothing on a busy build machine, so the benchmark is skipped unless run with -Dbenchmark=true.
+ * When it runs, every case must run without error, so a renamed or broken kinematics method fails it.
+ * <p>
+ * The kinematics of most robots are protected, so they are called by reflection.  Arguments are made once, so
+ * the calls themselves allocate nothing, but each costs a few nanoseconds more than a direct call.  A float or
+ * double result is boxed, which shows as 16 bytes per operation.
+ */
+public class KinematicsBenchmarkTest {
+	// nanoseconds per phase of each case
+	static final long WARMUP = 50000000L;
+	static final long MEASURE = 100000000L;
+
+	/**
+	 * One thing to time.
+	 */
+	static abstract class Case {
+		String name;
+
+		Case(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * @return something from the work, so it can't be optimized away.
+		 */
+		abstract Object run() throws Exception;
+	}
+
+	static class Result {
+		String name;
+		double opsPerSecond;
+		double bytesPerOp;
+		String error;
+	}
+
+	// results go here so the JIT can't drop the work
+	static volatile int sink;
+
+	static Result measure(Case c) {
+		Result r = new Result();
+		r.name = c.name;
+		try {
+			int h=0;
+			long end = System.nanoTime()+WARMUP;
+			while(System.nanoTime()<end) {
+				for(int i=0;i<100;++i) h += System.identityHashCode(c.run());
+			}
+
+			com.sun.management.ThreadMXBean bean = AllocationCounter.getBean();
+			long id = Thread.currentThread().getId();
+			long bytes = (bean==null) ? 0 : bean.getThreadAllocatedBytes(id);
+			long ops=0;
+			long start = System.nanoTime();
+			long now;
+			do {
+				for(int i=0;i<100;++i) h += System.identityHashCode(c.run());
+				ops+=100;
+				now = System.nanoTime();
+			} while(now-start<MEASURE);
+			r.opsPerSecond = ops*1e9/(now-start);
+			r.bytesPerOp = (bean==null) ? Double.NaN : (double)(bean.getThreadAllocatedBytes(id)-bytes)/ops;
+			sink += h;
+		} catch(Throwable e) {
+			Throwable cause = (e.getCause()!=null) ? e.getCause() : e;
+			r.error = cause.toString();
+		}
+		return r;
+	}
+
+	static Method method(Class<?> c,String name,Class<?>... params) throws NoSuchMethodException {
+		for(Class<?> k=c; k!=null; k=k.getSuperclass()) {
+			try {
+				Method m = k.getDeclaredMethod(name,params);
+				m.setAccessible(true);
+				return m;
+			} catch(NoSuchMethodException e) {}
+		}
+		throw new NoSuchMethodException(c.getName()+"."+name);
+	}
+
+	static Object field(Object o,String name) throws Exception {
+		for(Class<?> k=o.getClass(); k!=null; k=k.getSuperclass()) {
+			try {
+				Field f = k.getDeclaredField(name);
+				f.setAccessible(true);
+				return f.get(o);
+			} catch(NoSuchFieldException e) {}
+		}
+		throw new NoSuchFieldException(o.getClass().getName()+"."+name);
+	}
+
+	/**
+	 * Time target.method(args...).  The argument array is made once.
+	 */
+	static Case call(String name,final Object target,final Method m,final Object... args) {
+		return new Case(name) {
+			@Override
+			Object run() throws Exception {
+				return m.invoke(target,args);
+			}
+		};
+	}
+
+	/**
+	 * Time forward and inverse kinematics of the keyframe the robot is in now.
+	 */
+	static void addKeyframeCases(List<Case> cases,String name,Robot robot,String fk,String ik,boolean sixiStyle) throws Exception {
+		Object keyframe = field(robot,"motionNow");
+		Class<?> k = keyframe.getClass();
+		if(sixiStyle) {
+			Class<?> gl = Class.forName("com.jogamp.opengl.GL2");
+			cases.add(call(name+" FK",robot,method(robot.getClass(),fk,k,boolean.class,gl),keyframe,false,null));
+			cases.add(call(name+" IK",robot,method(robot.getClass(),ik,k,boolean.class,gl),keyframe,false,null));
+		} else {
+			cases.add(call(name+" FK",robot,method(robot.getClass(),fk,k),keyframe));
+			cases.add(call(name+" IK",robot,method(robot.getClass(),ik,k),keyframe));
+		}
+	}
+
+	static void addRobotCases(List<Case> cases,Robot robot) throws Exception {
+		String name = robot.getClass().getSimpleName();
+		String type = robot.getClass().getName();
+		if(type.endsWith(".SixiRobot")) {
+			addKeyframeCases(cases,name,robot,"forwardKinematics","inverseKinematics",true);
+			Object keyframe = field(robot,"motionNow");
+			cases.add(call(name+" IK cached",robot,method(robot.getClass(),"solveIK",keyframe.getClass()),keyframe));
+		} else if(type.endsWith(".ThorRobot")
+				|| type.endsWith(".EvilMinionRobot")
+				|| type.endsWith(".MantisRobot")
+				|| type.endsWith(".PTTPTPRobot")) {
+			addKeyframeCases(cases,name,robot,"forwardKinematics","inverseKinematics",false);
+		} else if(type.endsWith(".DeltaRobot3")) {
+			addKeyframeCases(cases,name,robot,"updateFK","updateIK",false);
+		} else if(type.contains(".arm3.")) {
+			addKeyframeCases(cases,name,robot,"FK","IK",false);
+		} else if(type.contains(".rotaryStewartPlatform.")) {
+			Object keyframe = field(robot,"motionNow");
+			cases.add(call(name+" FK",keyframe,method(keyframe.getClass(),"updateFK")));
+			cases.add(call(name+" IK",keyframe,method(keyframe.getClass(),"updateIK")));
+		} else if(type.endsWith(".Spidee")) {
+			Method get = method(robot.getClass(),"getGaitEngine");
+			final Object engine = get.invoke(robot);
+			final Method walk = method(engine.getClass(),"walk",int.class,float.class);
+			final Method solve = method(engine.getClass(),"solve",float.class);
+			final Object [] walkArgs = { field(engine,"RIPPLE"), 0.01f };
+			final Object [] solveArgs = { 0.01f };
+			cases.add(new Case(name+" legs") {
+				@Override
+				Object run() throws Exception {
+					walk.invoke(engine,walkArgs);
+					return solve.invoke(engine,solveArgs);
+				}
+			});
+		}
+	}
+
+	static void addIntersectionCases(List<Case> cases) throws Exception {
+		final Cylinder a = new Cylinder();
+		final Cylinder b = new Cylinder();
+		a.SetP1(new Vector3f(0,0,0));
+		a.SetP2(new Vector3f(10,0,0));
+		a.setRadius(1);
+		b.SetP1(new Vector3f(5,-5,1.5f));
+		b.SetP2(new Vector3f(5,5,1.5f));
+		b.setRadius(1);
+		cases.add(new Case("IntersectionTester.CylinderCylinder") {
+			@Override
+			Object run() {
+				return IntersectionTester.CylinderCylinder(a,b);
+			}
+		});
+		Vector3f dp = new Vector3f(1,2,3);
+		Vector3f dv = new Vector3f(-1,0.5f,0);
+		cases.add(call("IntersectionTester.CPATime",null,
+				method(IntersectionTester.class,"CPATime",Vector3f.class,Vector3f.class),dp,dv));
+		cases.add(call("IntersectionTester.CPADistance",null,
+				method(IntersectionTester.class,"CPADistance",Vector3f.class,Vector3f.class,Vector3f.class,Vector3f.class),
+				new Vector3f(0,0,0),new Vector3f(5,5,5),dv,dp));
+	}
+
+	@Test
+	public void benchmarkKinematics() throws Exception {
+		assumeTrue(Boolean.getBoolean("benchmark"));
+		List<Case> cases = new ArrayList<Case>();
+		List<String> skipped = new ArrayList<String>();
+		List<String> broken = new ArrayList<String>();
+
+		ServiceLoader<Entity> loader = ServiceLoader.load(Entity.class);
+		Iterator<Entity> i = loader.iterator();
+		while(true) {
+			Entity e;
+			try {
+				if(!i.hasNext()) break;
+				e = i.next();
+			} catch(ServiceConfigurationError err) {
+				broken.add(err.getMessage());
+				continue;
+			}
+			if(!(e instanceof Robot)) continue;
+			Robot robot = (Robot)e;
+			String name = robot.getClass().getSimpleName();
+			try {
+				int before = cases.size();
+				addRobotCases(cases,robot);
+				if(cases.size()==before) skipped.add(name+" has no kinematics to time");
+			} catch(Exception err) {
+				broken.add(name+": "+err);
+			}
+			try {
+				// not every robot has them.
+				cases.add(call(name+" getBoundingVolumes",robot,method(robot.getClass(),"getBoundingVolumes")));
+			} catch(NoSuchMethodException err) {}
+		}
+		addIntersectionCases(cases);
+
+		List<Result> results = new ArrayList<Result>();
+		System.out.println("Kinematics benchmarks");
+		for(Case c : cases) {
+			Result r = measure(c);
+			results.add(r);
+			if(r.error!=null) {
+				System.out.println(String.format("  %-40s failed: %s",r.name,r.error));
+			} else {
+				System.out.println(String.format("  %-40s %14.0f ops/s %10.1f B/op",r.name,r.opsPerSecond,r.bytesPerOp));
+			}
+		}
+		for(String s : skipped) System.out.println("  skipped "+s);
+		for(String s : broken) System.out.println("  broken "+s);
+
+		String csv = System.getProperty("benchmark.csv");
+		if(csv!=null) writeCSV(csv,results);
+
+		for(Result r : results) {
+			assertNull(r.name+" failed: "+r.error,r.error);
+			assertTrue(r.name,r.opsPerSecond>0);
+		}
+		assertTrue(broken.toString(),broken.isEmpty());
+	}
+
+	static void writeCSV(String file,List<Result> results) throws IOException {
+		PrintWriter out = new PrintWriter(new FileWriter(file));
+		try {
+			out.println("name,ops_per_second,bytes_per_op");
+			for(Result r : results) {
+				if(r.error!=null) continue;
+				out.println(r.name+","+r.opsPerSecond+","+r.bytesPerOp);
+			}
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,204 @@
+package com.marginallyclever.robotOverlord;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The background log writer: order, rotation, overflow, and how long a caller waits compared to opening the file
+ * for every message.
+ */
+public class LogWriterTest {
+	File dir;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("logwriter").toFile();
+	}
+
+	@After
+	public void tearDown() {
+		File [] files = dir.listFiles();
+		if(files!=null) for(File f : files) f.delete();
+		dir.delete();
+	}
+
+
+	protected List<String> readLines(File f) throws IOException {
+		return Files.readAllLines(f.toPath(),StandardCharsets.UTF_8);
+	}
+
+
+	@Test
+	public void keepsOrderOfEachThread() throws Exception {
+		File f = new File(dir,"log.html");
+		final LogWriter writer = new LogWriter(f,1<<16,0,0,new CopyOnWriteArrayList<LogListener>());
+		writer.start();
+
+		final int threads = 4;
+		final int each = 5000;
+		List<Thread> list = new ArrayList<Thread>();
+		for(int t=0;t<threads;++t) {
+			final int id = t;
+			Thread th = new Thread() {
+				@Override
+				public void run() {
+					for(int i=0;i<each;++i) writer.write(id+" "+i+"\n");
+				}
+			};
+			list.add(th);
+			th.start();
+		}
+		for(Thread th : list) th.join();
+		assertTrue(writer.flush(5000));
+		writer.stop();
+
+		assertEquals(0,writer.getDroppedCount());
+		List<String> lines = readLines(f);
+		assertEquals(threads*each,lines.size());
+		int [] next = new int[threads];
+		for(String line : lines) {
+			String [] parts = line.split(" ");
+			int id = Integer.parseInt(parts[0]);
+			assertEquals(next[id],Integer.parseInt(parts[1]));
+			next[id]++;
+		}
+	}
+
+
+	@Test
+	public void listenersHearEverything() throws Exception {
+		final List<String> heard = new CopyOnWriteArrayList<String>();
+		CopyOnWriteArrayList<LogListener> listeners = new CopyOnWriteArrayList<LogListener>();
+		listeners.add(new LogListener() {
+			@Override
+			public void logEvent(String msg) {
+				heard.add(msg);
+			}
+		});
+		LogWriter writer = new LogWriter(new File(dir,"log.html"),64,0,0,listeners);
+		writer.start();
+		for(int i=0;i<10;++i) writer.write("m"+i);
+		assertTrue(writer.flush(5000));
+		writer.stop();
+		assertEquals(10,heard.size());
+		assertEquals("m0",heard.get(0));
+		assertEquals("m9",heard.get(9));
+	}
+
+
+	@Test
+	public void clearStartsTheFileAgain() throws Exception {
+		File f = new File(dir,"log.html");
+		LogWriter writer = new LogWriter(f,64,0,0,new CopyOnWriteArrayList<LogListener>());
+		writer.start();
+		writer.write("before\n");
+		writer.clear();
+		writer.write("after\n");
+		assertTrue(writer.flush(5000));
+		writer.stop();
+		List<String> lines = readLines(f);
+		assertEquals(1,lines.size());
+		assertEquals("after",lines.get(0));
+	}
+
+
+	@Test
+	public void rotatesBySize() throws Exception {
+		File f = new File(dir,"log.html");
+		LogWriter writer = new LogWriter(f,1024,1000,2,new CopyOnWriteArrayList<LogListener>());
+		writer.start();
+		// 100 bytes each, 5000 in all: five files' worth, of which three are kept.
+		StringBuilder sb = new StringBuilder();
+		for(int i=0;i<99;++i) sb.append('x');
+		sb.append('\n');
+		for(int i=0;i<50;++i) writer.write(sb.toString());
+		assertTrue(writer.flush(5000));
+		writer.stop();
+
+		assertEquals(new File(dir,"log.1.html"),writer.getBackup(1).getCanonicalFile());
+		assertTrue(writer.getBackup(1).exists());
+		assertTrue(writer.getBackup(2).exists());
+		assertFalse(writer.getBackup(3).exists());
+		assertEquals(1000,writer.getBackup(1).length());
+		assertEquals(1000,writer.getBackup(2).length());
+		assertTrue(f.length()<1000);
+	}
+
+
+	@Test
+	public void dropsWhenFullAndSaysSo() throws Exception {
+		File f = new File(dir,"log.html");
+		LogWriter writer = new LogWriter(f,16,0,0,new CopyOnWriteArrayList<LogListener>());
+		// not started, so nothing is taken from the ring.
+		int accepted=0;
+		for(int i=0;i<100;++i) {
+			if(writer.write(i+"\n")) accepted++;
+		}
+		assertEquals(16,accepted);
+		assertEquals(84,writer.getDroppedCount());
+		assertEquals(16,writer.getBacklog());
+
+		writer.start();
+		assertTrue(writer.flush(5000));
+		writer.stop();
+		List<String> lines = readLines(f);
+		assertEquals(17,lines.size());
+		assertEquals("0",lines.get(0));
+		assertEquals("15",lines.get(15));
+		assertTrue(lines.get(16).contains("84 log messages dropped"));
+	}
+
+
+	/**
+	 * How long a caller waits for each message: the old way, opening the file each time, against the ring.
+	 */
+	@Test
+	public void benchmark() throws Exception {
+		final int count = 20000;
+		String msg = "<font color='green'>G0 X12.345 Y67.890 F3000</font>\n";
+
+		File old = new File(dir,"old.html");
+		long start = System.nanoTime();
+		for(int i=0;i<count;++i) {
+			try (Writer fileWriter = new OutputStreamWriter(new FileOutputStream(old,true),StandardCharsets.UTF_8)) {
+				PrintWriter logToFile = new PrintWriter(fileWriter);
+				logToFile.write(msg);
+				logToFile.flush();
+			}
+		}
+		long openEach = System.nanoTime()-start;
+
+		File f = new File(dir,"log.html");
+		LogWriter writer = new LogWriter(f,1<<15,0,0,new CopyOnWriteArrayList<LogListener>());
+		writer.start();
+		start = System.nanoTime();
+		for(int i=0;i<count;++i) writer.write(msg);
+		long ring = System.nanoTime()-start;
+		assertTrue(writer.flush(10000));
+		long toDisk = System.nanoTime()-start;
+		writer.stop();
+
+		assertEquals(old.length(),f.length());
+		System.out.println("Log, "+count+" messages.  open each time "+(openEach/count)+"ns/message"
+				+", ring "+(ring/count)+"ns/message"
+				+", ring to disk "+(toDisk/count)+"ns/message"
+				+", dropped "+writer.getDroppedCount());
+	}
+}
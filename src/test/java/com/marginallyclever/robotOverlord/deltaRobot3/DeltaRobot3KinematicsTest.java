@@ -0,0 +1,96 @@
+package com.marginallyclever.robotOverlord.deltaRobot3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class DeltaRobot3KinematicsTest {
+	static final double EPSILON = 0.0001;
+	
+	/**
+	 * Every position the inverse kinematics can solve should come back from the forward kinematics.
+	 * Stays away from the rim of the work envelope, where forward kinematics can pick the wrong branch.
+	 */
+	@Test
+	public void inverseThenForward() {
+		DeltaRobot3Kinematics k = new DeltaRobot3Kinematics();
+		Random r = new Random(0);
+		int solved=0;
+		for(int n=0;n<100000;++n) {
+			double x = (r.nextDouble()*2-1)*10;
+			double y = (r.nextDouble()*2-1)*10;
+			double z = r.nextDouble()*20-2;
+			if(k.inverseKinematics(x,y,z)!=DeltaRobot3Kinematics.STATUS_OK) continue;
+			// forward kinematics only finds the wrists that hang below the elbows, where the real machine works.
+			if(k.wrist[2]>k.elbow[2] || k.wrist[5]>k.elbow[5] || k.wrist[8]>k.elbow[8]) continue;
+			solved++;
+			assertEquals(DeltaRobot3Kinematics.STATUS_OK, k.forwardKinematics(k.getAngle(0),k.getAngle(1),k.getAngle(2)));
+			assertEquals(x, k.fingerX, EPSILON);
+			assertEquals(y, k.fingerY, EPSILON);
+			assertEquals(z, k.fingerZ, EPSILON);
+		}
+		assertTrue(solved>0);
+	}
+	
+	/**
+	 * The kernel must agree with DeltaRobot3.updateIK(), which fills the keyframe used for rendering.
+	 */
+	@Test
+	public void matchesKeyframe() {
+		DeltaRobot3 robot = new DeltaRobot3();
+		DeltaRobot3Keyframe keyframe = new DeltaRobot3Keyframe();
+		robot.rotateBase(keyframe,0,0);
+		robot.moveBase(keyframe,new javax.vecmath.Vector3f(1,2,3));
+		keyframe.fingerPosition.set(3,4,8);
+		assertTrue(robot.updateIK(keyframe));
+		float [] angles = { keyframe.arms[0].angle, keyframe.arms[1].angle, keyframe.arms[2].angle };
+		
+		keyframe.fingerPosition.set(0,0,0);
+		assertTrue(robot.updateFK(keyframe));
+		assertEquals(3,keyframe.fingerPosition.x,0.001f);
+		assertEquals(4,keyframe.fingerPosition.y,0.001f);
+		assertEquals(8,keyframe.fingerPosition.z,0.001f);
+		for(int i=0;i<3;++i) {
+			assertEquals(angles[i],keyframe.arms[i].angle,0.001f);
+		}
+	}
+	
+	/**
+	 * Sample a trajectory through the work envelope, the way a 1kHz motion planner would.
+	 */
+	@Test
+	public void benchmarkBatch() {
+		DeltaRobot3Kinematics k = new DeltaRobot3Kinematics();
+		final int COUNT = 100000;
+		double [] positions = new double[COUNT*3];
+		double [] angles = new double[COUNT*3];
+		double [] back = new double[COUNT*3];
+		int [] status = new int[COUNT];
+		for(int n=0;n<COUNT;++n) {
+			double t = n*Math.PI*2/COUNT;
+			positions[n*3  ] = Math.cos(t*3)*8;
+			positions[n*3+1] = Math.sin(t*2)*8;
+			positions[n*3+2] = 4+Math.sin(t*5)*2;
+		}
+		
+		// warm up
+		for(int i=0;i<5;++i) {
+			k.inverseKinematics(positions, COUNT, angles, status);
+			k.forwardKinematics(angles, COUNT, back, status);
+		}
+		
+		long start = System.nanoTime();
+		int solvedIK = k.inverseKinematics(positions, COUNT, angles, status);
+		long middle = System.nanoTime();
+		int solvedFK = k.forwardKinematics(angles, COUNT, back, status);
+		long end = System.nanoTime();
+		
+		System.out.println("DeltaRobot3 IK: "+solvedIK+"/"+COUNT+" in "+((middle-start)/COUNT)+"ns/solve");
+		System.out.println("DeltaRobot3 FK: "+solvedFK+"/"+COUNT+" in "+((end-middle)/COUNT)+"ns/solve");
+		assertEquals(COUNT,solvedIK);
+		assertEquals(COUNT,solvedFK);
+	}
+}
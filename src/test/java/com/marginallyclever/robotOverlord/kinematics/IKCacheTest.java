@@ -0,0 +1,117 @@
+package com.marginallyclever.robotOverlord.kinematics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.marginallyclever.robotOverlord.AllocationCounter;
+
+public class IKCacheTest {
+	// identity orientation at (x,y,z)
+	protected double [] pose(double x,double y,double z) {
+		return new double[] { 1,0,0, 0,1,0, 0,0,1, x,y,z };
+	}
+
+	@Test
+	public void hitsNeedTheSameRoundedTarget() {
+		IKCache cache = new IKCache(2,16);
+		double [] tool = { 0,0,5 };
+		double [] values = new double[2];
+		assertFalse(cache.get(pose(1,2,3),tool,values));
+		cache.put(pose(1,2,3),tool,new double[] { 10,20 });
+
+		// closer than the step is the same target.
+		assertTrue(cache.get(pose(1.0001,2,3),tool,values));
+		assertEquals(10,values[0],0);
+		assertEquals(20,values[1],0);
+		// further is not.
+		assertFalse(cache.get(pose(1.01,2,3),tool,values));
+		// nor is another tool.
+		assertFalse(cache.get(pose(1,2,3),new double[] { 0,0,6 },values));
+		// nor another orientation.
+		double [] turned = pose(1,2,3);
+		turned[0]=0;	turned[1]=1;	turned[3]=-1;	turned[4]=0;
+		assertFalse(cache.get(turned,tool,values));
+
+		assertEquals(1,cache.getHitCount());
+		assertEquals(4,cache.getMissCount());
+		assertEquals(0.2,cache.getHitRate(),1e-12);
+	}
+
+	@Test
+	public void missesFindNearbySeeds() {
+		IKCache cache = new IKCache(1,16);
+		double [] values = new double[1];
+		cache.put(pose(10.2,0,0),null,new double[] { 42 });
+		assertFalse(cache.get(pose(10.3,0,0),null,values));
+		assertTrue(cache.getSeed(pose(10.3,0,0),null,values));
+		assertEquals(42,values[0],0);
+		assertFalse(cache.getSeed(pose(20,0,0),null,values));
+		assertEquals(1,cache.getSeedCount());
+	}
+
+	@Test
+	public void leastRecentlyUsedIsForgotten() {
+		IKCache cache = new IKCache(1,3);
+		double [] values = new double[1];
+		for(int i=0;i<3;++i) cache.put(pose(i,0,0),null,new double[] { i });
+		// touch the oldest, so the second is forgotten next.
+		assertTrue(cache.get(pose(0,0,0),null,values));
+		cache.put(pose(3,0,0),null,new double[] { 3 });
+		assertEquals(3,cache.size());
+		assertEquals(1,cache.getEvictionCount());
+		assertTrue(cache.get(pose(0,0,0),null,values));
+		assertFalse(cache.get(pose(1,0,0),null,values));
+		assertTrue(cache.get(pose(2,0,0),null,values));
+	}
+
+	@Test
+	public void invalidateForgetsEverything() {
+		IKCache cache = new IKCache(1,16);
+		double [] values = new double[1];
+		cache.put(pose(1,0,0),null,new double[] { 1 });
+		cache.invalidate();
+		assertEquals(0,cache.size());
+		assertFalse(cache.get(pose(1,0,0),null,values));
+		assertFalse(cache.getSeed(pose(1,0,0),null,values));
+		assertEquals(1,cache.getInvalidationCount());
+	}
+
+	@Test
+	public void rejectedHitsCountAsMisses() {
+		IKCache cache = new IKCache(1,16);
+		double [] values = new double[1];
+		cache.put(pose(1,0,0),null,new double[] { 1 });
+		assertTrue(cache.get(pose(1,0,0),null,values));
+		cache.reject();
+		assertEquals(0,cache.getHitCount());
+		assertEquals(1,cache.getMissCount());
+		assertEquals(1,cache.getRejectedCount());
+	}
+
+	@Test
+	public void lookupsMakeNoGarbage() {
+		AllocationCounter.assumeSupported();
+
+		IKCache cache = new IKCache(6,1024);
+		double [] tool = { 0,0,5 };
+		double [] values = new double[6];
+		double [][] poses = new double[100][];
+		for(int i=0;i<poses.length;++i) {
+			poses[i] = pose(i,i*0.5,1);
+			cache.put(poses[i],tool,values);
+		}
+		// warm up
+		for(int i=0;i<10000;++i) cache.get(poses[i%poses.length],tool,values);
+
+		long before = AllocationCounter.getBytes();
+		for(int i=0;i<10000;++i) {
+			cache.get(poses[i%poses.length],tool,values);
+			cache.getSeed(poses[i%poses.length],tool,values);
+		}
+		long after = AllocationCounter.getBytes();
+		assertTrue("allocated "+(after-before),after-before<1024);
+	}
+}
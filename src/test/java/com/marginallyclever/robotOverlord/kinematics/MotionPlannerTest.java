@@ -0,0 +1,162 @@
+package com.marginallyclever.robotOverlord.kinematics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.marginallyclever.robotOverlord.sixiRobot.SixiRobot;
+
+public class MotionPlannerTest {
+	// the default pose of a Sixi, reaching down beside itself.
+	static final double [] START = { -45,0,188,0,-90,0 };
+	// the same, on the other side.
+	static final double [] GOAL = { 135,0,188,0,-90,0 };
+
+	/**
+	 * A Sixi in a cluttered cell.  Pillars stand on both sides of the arm so it can't swing around at working height,
+	 * a beam overhead stops it going straight up, and a few loose parts sit on the table.
+	 */
+	static KinematicChainCollisionChecker makeScene() {
+		KinematicChainCollisionChecker checker = SixiRobot.createCollisionChecker();
+		double d = 25/Math.sqrt(2);
+		checker.addObstacle( d, d,0, d, d,38,3);
+		checker.addObstacle(-d,-d,0,-d,-d,38,3);
+		checker.addObstacle(30,0,0,30,0,30,2);
+		checker.addObstacle(0,30,0,0,30,30,2);
+		checker.addObstacle(-20,-40,80,40,20,80,4);
+		checker.addSphere(-20,30,5,4);
+		checker.addSphere(25,-15,8,3);
+		checker.addSphere(-35,-5,10,3);
+		return checker;
+	}
+
+	@Test
+	public void capsuleDistance() {
+		// crossing
+		assertEquals(0,KinematicChainCollisionChecker.segmentDistanceSquared(-1,0,0,1,0,0, 0,-1,0,0,1,0),1e-12);
+		// parallel, offset
+		assertEquals(4,KinematicChainCollisionChecker.segmentDistanceSquared(0,0,0,1,0,0, 0,2,0,1,2,0),1e-12);
+		// end to end
+		assertEquals(1,KinematicChainCollisionChecker.segmentDistanceSquared(0,0,0,1,0,0, 2,0,0,3,0,0),1e-12);
+		// point to segment
+		assertEquals(9,KinematicChainCollisionChecker.segmentDistanceSquared(0,0,3,0,0,3, -1,0,0,1,0,0),1e-12);
+	}
+
+	@Test
+	public void sceneIsCluttered() {
+		KinematicChainCollisionChecker checker = makeScene();
+		assertTrue(checker.isFree(START));
+		assertTrue(checker.isFree(GOAL));
+		// swinging around the base hits a pillar either way.
+		double [] q = START.clone();
+		boolean blocked=false;
+		for(double a=START[0];a<=GOAL[0];a+=1) {
+			q[0]=a;
+			blocked |= !checker.isFree(q);
+		}
+		assertTrue(blocked);
+		blocked=false;
+		for(double a=START[0];a>=GOAL[0]-360;a-=1) {
+			q[0]=a;
+			blocked |= !checker.isFree(q);
+		}
+		assertTrue(blocked);
+	}
+
+	@Test
+	public void findsPathAroundObstacles() {
+		KinematicChain chain = SixiRobot.buildKinematicChain();
+		// one degree steps move the hand up to ~0.9 apart.  keep that much extra room so nothing is missed between checks.
+		KinematicChainCollisionChecker padded = makeScene();
+		padded.setMargin(0.9);
+		MotionPlanner planner = new MotionPlanner(chain,padded);
+		try {
+			planner.setSeed(1);
+			List<double[]> path = planner.plan(START,GOAL);
+			assertNotNull(path);
+			assertTrue(path.size()>2);
+			assertEquals(0,distance(START,path.get(0)),1e-9);
+			assertEquals(0,distance(GOAL,path.get(path.size()-1)),1e-9);
+			assertTrue(MotionPlanner.getPathLength(path)<=planner.getRawPathLength()+1e-9);
+
+			// check again, much more finely than the planner did.
+			KinematicChainCollisionChecker checker = makeScene();
+			for(int i=1;i<path.size();++i) {
+				double [] a = path.get(i-1);
+				double [] b = path.get(i);
+				double [] q = new double[6];
+				int steps = (int)Math.ceil(distance(a,b)/0.1)+1;
+				for(int k=0;k<=steps;++k) {
+					for(int j=0;j<6;++j) q[j] = a[j]+(b[j]-a[j])*k/steps;
+					assertTrue("segment "+i+" step "+k,checker.isFree(q));
+				}
+			}
+		} finally {
+			planner.shutdown();
+		}
+	}
+
+	@Test
+	public void unreachableGoalFails() {
+		KinematicChain chain = SixiRobot.buildKinematicChain();
+		KinematicChainCollisionChecker checker = makeScene();
+		// the goal is inside a ball
+		double [] goal = { 135,60,120,0,0,0 };
+		checker.addSphere(0,0,60,20);
+		assertFalse(checker.isFree(goal));
+		MotionPlanner planner = new MotionPlanner(chain,checker);
+		try {
+			planner.setTimeLimit(0.5);
+			assertEquals(null,planner.plan(START,goal));
+		} finally {
+			planner.shutdown();
+		}
+	}
+
+	/**
+	 * Not a pass/fail test.  How long planning takes in the cluttered scene, with one thread and with every core.
+	 */
+	@Test
+	public void benchmark() {
+		KinematicChain chain = SixiRobot.buildKinematicChain();
+		int cores = Runtime.getRuntime().availableProcessors();
+		for(int threads : new int[] { 1, Math.max(2,cores) }) {
+			MotionPlanner planner = new MotionPlanner(6,MotionPlanner.limits(chain,true),MotionPlanner.limits(chain,false),makeScene(),threads);
+			try {
+				// warm up
+				planner.setSeed(1000);
+				planner.plan(START,GOAL);
+
+				final int runs = 20;
+				double total=0, worst=0;
+				long checks=0;
+				int found=0;
+				for(int i=0;i<runs;++i) {
+					planner.setSeed(i);
+					if(planner.plan(START,GOAL)!=null) found++;
+					total += planner.getPlanningTime();
+					worst = Math.max(worst,planner.getPlanningTime());
+					checks += planner.getCheckCount();
+				}
+				System.out.println("MotionPlanner "+threads+" threads: "+found+"/"+runs+" found, "
+						+String.format("%.1f",total*1000/runs)+"ms average, "
+						+String.format("%.1f",worst*1000)+"ms worst, "
+						+(checks/runs)+" checks average");
+				assertTrue(found>0);
+			} finally {
+				planner.shutdown();
+			}
+		}
+	}
+
+	static double distance(double [] a,double [] b) {
+		double sum=0;
+		for(int i=0;i<a.length;++i) sum+=(b[i]-a[i])*(b[i]-a[i]);
+		return Math.sqrt(sum);
+	}
+}
@@ -0,0 +1,91 @@
+package com.marginallyclever.robotOverlord.kinematics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Test;
+
+public class ReachabilityMapTest {
+	/**
+	 * A ball of radius 2 around the base, and two small pockets that no cell corner falls in.  The one at
+	 * (3.5,0.5,0.5) is next to a cell of the ball.  The one at (-3.5,-3.5,-3.5) is not.
+	 */
+	static class PocketProbe implements ReachabilityProbe {
+		@Override
+		public boolean canReach(float x,float y,float z,float fx,float fy,float fz) {
+			if(x*x+y*y+z*z<=4) return true;
+			return inNearPocket(x,y,z) || inFarPocket(x,y,z);
+		}
+
+		boolean inNearPocket(float x,float y,float z) {
+			float dx=x-3.5f, dy=y-0.5f, dz=z-0.5f;
+			return dx*dx+dy*dy+dz*dz<=0.09f;
+		}
+
+		boolean inFarPocket(float x,float y,float z) {
+			float dx=x+3.5f, dy=y+3.5f, dz=z+3.5f;
+			return dx*dx+dy*dy+dz*dz<=0.09f;
+		}
+
+		@Override
+		public boolean isOrientable() {
+			return false;
+		}
+	}
+
+
+	@Test
+	public void notReadyMeansEverythingIsPlausible() {
+		ReachabilityMap map = new ReachabilityMap(-5,-5,-5,5,5,5,1);
+		assertTrue(map.isPlausiblyReachable(100,100,100));
+	}
+
+
+	@Test
+	public void findsPocketsWithinOneCell() {
+		ReachabilityMap map = new ReachabilityMap(-5,-5,-5,5,5,5,1);
+		PocketProbe probe = new PocketProbe();
+		map.build(probe);
+
+		// every point the probe can reach, on a grid finer than the cells, except the far pocket.
+		for(float z=-5;z<5;z+=0.1f) {
+			for(float y=-5;y<5;y+=0.1f) {
+				for(float x=-5;x<5;x+=0.1f) {
+					if(probe.canReach(x,y,z,0,0,-1) && !probe.inFarPocket(x,y,z)) {
+						assertTrue(x+","+y+","+z,map.isPlausiblyReachable(x,y,z));
+					}
+				}
+			}
+		}
+		// the pocket was only found through its neighbour.
+		assertTrue((map.getFlags(3.5f,0.5f,0.5f) & ReachabilityMap.NEAR_SINGULAR)!=0);
+		// a pocket more than a cell from any passing corner is missed.  the map is only as fine as its cells.
+		assertFalse(map.isPlausiblyReachable(-3.5f,-3.5f,-3.5f));
+		// far from anything is still refused.
+		assertFalse(map.isPlausiblyReachable(4.5f,4.5f,4.5f));
+		assertFalse(map.isPlausiblyReachable(-4.5f,0.5f,0.5f));
+	}
+
+
+	@Test
+	public void saveAndLoad() throws Exception {
+		ReachabilityMap map = new ReachabilityMap(-5,-5,-5,5,5,5,1);
+		map.build(new PocketProbe());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		map.save(out);
+
+		ReachabilityMap copy = new ReachabilityMap(-5,-5,-5,5,5,5,1);
+		assertTrue(copy.load(new ByteArrayInputStream(out.toByteArray())));
+		for(float z=-4.5f;z<5;z+=1) {
+			for(float y=-4.5f;y<5;y+=1) {
+				for(float x=-4.5f;x<5;x+=1) {
+					assertEquals(map.getFlags(x,y,z),copy.getFlags(x,y,z));
+				}
+			}
+		}
+	}
+}
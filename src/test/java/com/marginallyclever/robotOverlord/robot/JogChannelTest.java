@@ -0,0 +1,196 @@
+package com.marginallyclever.robotOverlord.robot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.marginallyclever.communications.MotionFrame;
+import com.marginallyclever.communications.MotionProtocol;
+import com.marginallyclever.communications.NetworkConnection;
+import com.marginallyclever.communications.NetworkConnectionListener;
+import com.marginallyclever.communications.TransportLayer;
+
+public class JogChannelTest {
+	/**
+	 * Keeps every line.  The test decides when the robot is ready for more.
+	 */
+	static class RecordingConnection implements NetworkConnection {
+		List<NetworkConnectionListener> listeners = new ArrayList<NetworkConnectionListener>();
+		List<String> lines = new ArrayList<String>();
+		boolean answerAtOnce;
+
+		void ready() {
+			for(NetworkConnectionListener listener : new ArrayList<NetworkConnectionListener>(listeners)) {
+				listener.sendBufferEmpty(this);
+			}
+		}
+
+		@Override
+		public void closeConnection() {}
+		@Override
+		public void openConnection(String connectionName) throws Exception {}
+		@Override
+		public void reconnect() throws Exception {}
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+		@Override
+		public String getRecentConnection() {
+			return "recording";
+		}
+		@Override
+		public void sendMessage(String msg) throws Exception {
+			lines.add(msg);
+			if(answerAtOnce) ready();
+		}
+		@Override
+		public void addListener(NetworkConnectionListener listener) {
+			listeners.add(listener);
+		}
+		@Override
+		public void removeListener(NetworkConnectionListener listener) {
+			listeners.remove(listener);
+		}
+		@Override
+		public TransportLayer getTransportLayer() {
+			return null;
+		}
+	}
+
+	static class QuietRobot extends Robot {
+		private static final long serialVersionUID = 1L;
+	}
+
+	protected RecordingConnection connection;
+
+	protected JogChannel makeChannel() {
+		Robot robot = new QuietRobot();
+		connection = new RecordingConnection();
+		robot.setConnection(connection);
+		connection.removeListener(robot);
+		JogChannel channel = new JogChannel(robot,"G0","XYZ",'F');
+		channel.setMaxRate(1e6);
+		return channel;
+	}
+
+	@Test
+	public void onlyChangedAxesAreSent() {
+		JogChannel channel = makeChannel();
+		channel.jog(new double[] { 1, 2.5, -0.125 },100);
+		assertEquals("G0 X1 Y2.5 Z-0.125 F100",connection.lines.get(0));
+		connection.ready();
+		channel.jog(new double[] { 1, 3, -0.125 },100);
+		assertEquals("G0 Y3",connection.lines.get(1));
+		connection.ready();
+		channel.jog(new double[] { 1, 3, 0.0004 },50);
+		assertEquals("G0 Z0 F50",connection.lines.get(2));
+		connection.ready();
+		// nothing changed, nothing sent.
+		channel.jog(new double[] { 1, 3, 0 },50);
+		assertEquals(3,connection.lines.size());
+	}
+
+	@Test
+	public void supersededJogsAreDropped() {
+		JogChannel channel = makeChannel();
+		for(int i=1;i<=100;++i) {
+			channel.jog(new double[] { i, 0, 0 },100);
+		}
+		// the first went out at once.  the rest wait for the robot, and only the latest is kept.
+		assertEquals(1,connection.lines.size());
+		assertEquals(2,channel.getQueueDepth());
+		assertEquals(98,channel.getDroppedCount());
+
+		connection.ready();
+		assertEquals(2,connection.lines.size());
+		assertEquals("G0 X100",connection.lines.get(1));
+		assertEquals(1,channel.getQueueDepth());
+
+		connection.ready();
+		assertEquals(0,channel.getQueueDepth());
+		assertEquals(100,channel.getJogCount());
+		assertEquals(2,channel.getSentCount());
+		assertEquals(2,channel.getAckCount());
+	}
+
+	@Test
+	public void rateIsLimited() throws InterruptedException {
+		JogChannel channel = makeChannel();
+		connection.answerAtOnce = true;
+		channel.setMaxRate(20);
+		long end = System.currentTimeMillis()+300;
+		int i=0;
+		while(System.currentTimeMillis()<end) {
+			channel.jog(new double[] { i++, 0, 0 },100);
+			channel.update();
+			Thread.sleep(1);
+		}
+		// 300ms at 20 per second is 6 lines, plus the first.
+		assertTrue(connection.lines.size()<=7);
+		assertTrue(connection.lines.size()>=2);
+		assertTrue(channel.getDroppedCount()>0);
+		// the last target is held back, not lost.
+		Thread.sleep(60);
+		channel.update();
+		assertEquals("G0 X"+(i-1),connection.lines.get(connection.lines.size()-1));
+	}
+
+	@Test
+	public void latencyIsMeasured() throws InterruptedException {
+		JogChannel channel = makeChannel();
+		channel.jog(new double[] { 1, 0, 0 },100);
+		Thread.sleep(20);
+		connection.ready();
+		assertTrue(channel.getLastLatency()>=0.019);
+		assertEquals(channel.getLastLatency(),channel.getMaxLatency(),1e-12);
+		assertEquals(channel.getLastLatency(),channel.getAverageLatency(),1e-12);
+	}
+
+	@Test
+	public void lostAnswerTimesOut() throws InterruptedException {
+		JogChannel channel = makeChannel();
+		channel.setAckTimeout(0.01);
+		channel.jog(new double[] { 1, 0, 0 },100);
+		channel.jog(new double[] { 2, 0, 0 },100);
+		assertEquals(1,connection.lines.size());
+		Thread.sleep(20);
+		channel.update();
+		assertEquals(1,channel.getTimeoutCount());
+		// after a timeout every axis is sent again, in case the lost line never arrived.
+		assertEquals("G0 X2 Y0 Z0 F100",connection.lines.get(1));
+	}
+
+	@Test
+	public void framesOnceTheFirmwareAgrees() {
+		JogChannel channel = makeChannel();
+		MotionProtocol protocol = new MotionProtocol(connection);
+		channel.setMotionProtocol(protocol);
+		protocol.negotiate();
+		assertEquals(MotionProtocol.REQUEST,connection.lines.get(0));
+
+		// G-code until the firmware answers.
+		channel.jog(new double[] { 1, 2, 3 },100);
+		assertEquals("G0 X1 Y2 Z3 F100",connection.lines.get(1));
+		// the answer comes before the cue.
+		protocol.dataAvailable(connection,MotionProtocol.REQUEST+"\r\n");
+		connection.ready();
+		assertTrue(protocol.isBinary());
+
+		channel.jog(new double[] { 1, 2.5, 3 },100);
+		MotionFrame f = MotionFrame.decode(connection.lines.get(2));
+		assertEquals(0,f.sequence);
+		assertEquals(3,f.axes);
+		assertEquals(1,f.setpoints.length);
+		assertEquals(2.5,f.setpoints[0][1],1e-9);
+		assertEquals(100,f.setpoints[0][3],1e-9);
+		connection.ready();
+		// nothing changed, nothing sent.
+		channel.jog(new double[] { 1, 2.5, 3 },100);
+		assertEquals(3,connection.lines.size());
+	}
+}
@@ -0,0 +1,288 @@
+package com.marginallyclever.robotOverlord.robot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.marginallyclever.robotOverlord.arm3.uArm.UArm;
+import com.marginallyclever.robotOverlord.arm5.EvilMinionRobot;
+import com.marginallyclever.robotOverlord.deltaRobot3.DeltaRobot3;
+import com.marginallyclever.robotOverlord.mantisRobot.MantisRobot;
+import com.marginallyclever.robotOverlord.pTTPTPRobot.PTTPTPRobot;
+import com.marginallyclever.robotOverlord.rotaryStewartPlatform.RotaryStewartPlatform;
+import com.marginallyclever.robotOverlord.sixiRobot.SixiRobot;
+import com.marginallyclever.robotOverlord.thor.ThorRobot;
+
+public class KeyframeTableTest {
+	protected File tempFile() throws IOException {
+		File f = File.createTempFile("keyframes",".rkft");
+		f.deleteOnExit();
+		return f;
+	}
+
+	// random poses the sixi can reach.  whole degrees, so floats hold them exactly.
+	protected List<RobotKeyframe> makeKeyframes(Robot robot,int n,long seed) {
+		Random r = new Random(seed);
+		List<RobotKeyframe> list = new ArrayList<RobotKeyframe>();
+		double [] v = new double[robot.getKeyframeSize()];
+		for(int i=0;i<n;++i) {
+			v[0] = r.nextInt(300)-90;
+			v[1] = r.nextInt(180);
+			v[2] = 5+r.nextInt(180);
+			v[3] = r.nextInt(355);
+			v[4] = r.nextInt(180)-90;
+			v[5] = r.nextInt(355);
+			RobotKeyframe k = robot.createKeyframe();
+			robot.setKeyframeValues(k,v);
+			list.add(k);
+		}
+		return list;
+	}
+
+	@Test
+	public void mappedRoundTrip() throws IOException {
+		SixiRobot robot = new SixiRobot();
+		List<RobotKeyframe> keyframes = makeKeyframes(robot,5000,0);
+		double [] durations = new double[keyframes.size()];
+		for(int i=0;i<durations.length;++i) durations[i] = i*0.25;
+		File file = tempFile();
+		KeyframeTable.write(file,robot,keyframes,durations,false);
+
+		KeyframeTable table = KeyframeTable.open(file);
+		assertEquals(5000,table.size());
+		assertEquals(6,table.getValueCount());
+		assertEquals(SixiRobot.class.getName(),table.getRobotType());
+		assertTrue(table.hasDurations());
+		double [] expected = new double[6];
+		double [] actual = new double[6];
+		for(int i=0;i<keyframes.size();++i) {
+			robot.getKeyframeValues(keyframes.get(i),expected);
+			table.getValues(i,actual);
+			for(int c=0;c<6;++c) assertEquals(expected[c],actual[c],0);
+			assertEquals(expected[3],table.getValue(i,3),0);
+			assertEquals(i*0.25,table.getDuration(i),0);
+		}
+		// only the keyframe asked for is made.
+		robot.getKeyframeValues(table.createKeyframe(robot,1234),actual);
+		robot.getKeyframeValues(keyframes.get(1234),expected);
+		for(int c=0;c<6;++c) assertEquals(expected[c],actual[c],0);
+	}
+
+	@Test
+	public void singlePrecisionStreamRoundTrip() throws IOException {
+		SixiRobot robot = new SixiRobot();
+		List<RobotKeyframe> keyframes = makeKeyframes(robot,100,1);
+		File file = tempFile();
+		KeyframeTable.write(file,robot,keyframes,null,true);
+		// 6 columns of 100 floats, after the header.
+		assertTrue(file.length()<KeyframeTable.HEADER_SIZE+64+6*100*4);
+
+		FileChannel channel = FileChannel.open(file.toPath(),StandardOpenOption.READ);
+		KeyframeTable table;
+		try {
+			table = KeyframeTable.read(channel);
+		} finally {
+			channel.close();
+		}
+		assertTrue(table.isSinglePrecision());
+		assertEquals(0,table.getDuration(5),0);
+		double [] expected = new double[6];
+		double [] actual = new double[6];
+		for(int i=0;i<keyframes.size();++i) {
+			robot.getKeyframeValues(keyframes.get(i),expected);
+			table.getValues(i,actual);
+			for(int c=0;c<6;++c) assertEquals(expected[c],actual[c],0);
+		}
+	}
+
+	@Test
+	public void programRoundTrip() throws IOException {
+		SixiRobot robot = new SixiRobot();
+		List<double[]> path = new ArrayList<double[]>();
+		for(int i=0;i<10;++i) path.add(new double[] { i*10, 90, 90, 0, 0, 0 });
+		RobotProgram program = robot.createProgram(path);
+		File file = tempFile();
+		KeyframeTable.write(file,robot,program,false);
+
+		RobotProgram copy = KeyframeTable.open(file).createProgram(robot);
+		assertEquals(program.size(),copy.size());
+		assertEquals(program.getInstructionCount(),copy.getInstructionCount());
+		for(int i=0;i<program.getInstructionCount();++i) {
+			RobotInstructionMove a = (RobotInstructionMove)program.getInstruction(i);
+			RobotInstructionMove b = (RobotInstructionMove)copy.getInstruction(i);
+			assertEquals(a.getDuration(),b.getDuration(),0);
+			assertTrue(b.getTarget()==copy.get(i+1));
+		}
+	}
+
+	/**
+	 * Durations follow their keyframes in a program far too big to search once per move.
+	 */
+	@Test
+	public void programLoadsLazily() throws IOException {
+		final int [] made = new int[1];
+		SixiRobot robot = new SixiRobot() {
+			private static final long serialVersionUID = 1L;
+			@Override
+			public RobotKeyframe createKeyframe() {
+				made[0]++;
+				return super.createKeyframe();
+			}
+		};
+		List<RobotKeyframe> keyframes = makeKeyframes(robot,1000,3);
+		File file = tempFile();
+		KeyframeTable.write(file,robot,keyframes,null,false);
+		KeyframeTable table = KeyframeTable.open(file);
+
+		made[0] = 0;
+		RobotProgram program = table.createProgram(robot);
+		// one to check the robot can use the table, and no more.
+		assertEquals(1,made[0]);
+		assertEquals(1000,program.size());
+		assertEquals(999,program.getInstructionCount());
+
+		RobotKeyframe k = ((RobotInstructionMove)program.getInstruction(500)).getTarget();
+		assertEquals(2,made[0]);
+		assertTrue(k==program.get(501));
+		assertEquals(2,made[0]);
+		double [] expected = new double[6];
+		double [] actual = new double[6];
+		robot.getKeyframeValues(keyframes.get(501),expected);
+		robot.getKeyframeValues(k,actual);
+		for(int c=0;c<6;++c) assertEquals(expected[c],actual[c],0);
+
+		// the robot is checked once, not once per keyframe.
+		table.createKeyframe(robot,3);
+		table.createKeyframe(robot,4);
+		assertEquals(4,made[0]);
+
+		// moves keep their keyframe when the list changes.
+		program.removeKeyframe(0);
+		// every keyframe but the one already made
+		assertEquals(4+999,made[0]);
+		assertTrue(((RobotInstructionMove)program.getInstruction(0)).getTarget()==program.get(0));
+	}
+
+	@Test
+	public void largeProgramKeepsDurations() throws IOException {
+		SixiRobot robot = new SixiRobot();
+		int n = 200000;
+		List<RobotKeyframe> keyframes = makeKeyframes(robot,n,4);
+		RobotProgram program = new RobotProgram();
+		for(RobotKeyframe k : keyframes) program.addKeyframe(k);
+		// every odd keyframe is moved to, in reverse order, then the first.
+		for(int i=n-1;i>=0;i-=2) program.addInstruction(new RobotInstructionMove(keyframes.get(i),i*0.5f));
+		program.addInstruction(new RobotInstructionMove(keyframes.get(0),7));
+
+		File file = tempFile();
+		KeyframeTable.write(file,robot,program,true);
+		KeyframeTable table = KeyframeTable.open(file);
+		assertEquals(n,table.size());
+		for(int i=1;i<n;++i) {
+			assertEquals((i%2==1) ? i*0.5f : 0,table.getDuration(i),0);
+		}
+		// a keyframe only moved to at the end still gets its duration.
+		assertEquals(7,table.getDuration(0),0);
+	}
+
+	@Test
+	public void everyArmRoundTrips() throws IOException {
+		Robot [] robots = {
+			new ThorRobot(),
+			new EvilMinionRobot(),
+			new MantisRobot(),
+			new PTTPTPRobot(),
+			new UArm(),
+			new DeltaRobot3(),
+			new RotaryStewartPlatform(),
+		};
+		for(Robot robot : robots) {
+			int size = robot.getKeyframeSize();
+			assertTrue(robot.getClass().getName(),size>0);
+			List<RobotKeyframe> keyframes = new ArrayList<RobotKeyframe>();
+			double [] v = new double[size];
+			for(int i=0;i<3;++i) {
+				for(int c=0;c<size;++c) v[c] = i*10+c;
+				RobotKeyframe k = robot.createKeyframe();
+				robot.setKeyframeValues(k,v);
+				keyframes.add(k);
+			}
+			File file = tempFile();
+			KeyframeTable.write(file,robot,keyframes,null,true);
+
+			KeyframeTable table = KeyframeTable.open(file);
+			assertEquals(robot.getClass().getName(),table.getRobotType());
+			double [] actual = new double[size];
+			robot.getKeyframeValues(table.createKeyframe(robot,2),actual);
+			for(int c=0;c<size;++c) assertEquals(robot.getClass().getName(),20+c,actual[c],0);
+		}
+	}
+
+	@Test
+	public void strangersAreRefused() throws IOException {
+		File file = tempFile();
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(new byte[64]);
+		out.close();
+		try {
+			KeyframeTable.open(file);
+			fail();
+		} catch(IOException e) {}
+
+		SixiRobot robot = new SixiRobot();
+		KeyframeTable.write(file,robot,makeKeyframes(robot,3,2),null,false);
+		// cut short
+		FileChannel channel = FileChannel.open(file.toPath(),StandardOpenOption.WRITE);
+		channel.truncate(file.length()-8);
+		channel.close();
+		try {
+			KeyframeTable.open(file);
+			fail();
+		} catch(IOException e) {}
+
+		KeyframeTable.write(file,robot,makeKeyframes(robot,3,2),null,false);
+		try {
+			KeyframeTable.open(file).createKeyframe(new JogChannelTest.QuietRobot(),0);
+			fail();
+		} catch(IllegalArgumentException e) {}
+	}
+
+	@Test
+	public void benchmarkAgainstSerialization() throws IOException {
+		SixiRobot robot = new SixiRobot();
+		int n = 100000;
+		List<RobotKeyframe> keyframes = makeKeyframes(robot,n,3);
+
+		long t0 = System.nanoTime();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(new ArrayList<RobotKeyframe>(keyframes));
+		out.close();
+		long t1 = System.nanoTime();
+		File file = tempFile();
+		KeyframeTable.write(file,robot,keyframes,null,true);
+		long t2 = System.nanoTime();
+		KeyframeTable table = KeyframeTable.open(file);
+		double sum=0;
+		for(int i=0;i<n;++i) sum += table.getValue(i,0);
+		long t3 = System.nanoTime();
+
+		System.out.println("Keyframes: serialized "+bytes.size()+" bytes in "+((t1-t0)/1000000)+"ms, "
+				+"table "+file.length()+" bytes in "+((t2-t1)/1000000)+"ms, "
+				+"opened and scanned in "+((t3-t2)/1000000)+"ms ("+sum+")");
+		assertTrue(file.length()*10<bytes.size());
+	}
+}
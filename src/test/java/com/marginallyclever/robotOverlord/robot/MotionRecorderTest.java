@@ -0,0 +1,373 @@
+package com.marginallyclever.robotOverlord.robot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import com.marginallyclever.communications.NetworkConnectionListener;
+import com.marginallyclever.robotOverlord.world.World;
+
+public class MotionRecorderTest {
+	/**
+	 * Two joints that move wherever they are told.
+	 */
+	static class TwoJointRobot extends Robot {
+		private static final long serialVersionUID = 1L;
+		double [] now = new double[2];
+		double [] future = new double[2];
+
+		@Override
+		public int getKeyframeSize() {
+			return 2;
+		}
+		@Override
+		public boolean getMotionValues(double [] now,double [] future) {
+			System.arraycopy(this.now,0,now,0,2);
+			System.arraycopy(this.future,0,future,0,2);
+			return true;
+		}
+		@Override
+		public void setMotionValues(double [] now,double [] future) {
+			System.arraycopy(now,0,this.now,0,2);
+			System.arraycopy(future,0,this.future,0,2);
+		}
+	}
+
+	/**
+	 * Holds every write until the test lets go.
+	 */
+	static class StuckStream extends OutputStream {
+		CountDownLatch release = new CountDownLatch(1);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte)b },0,1);
+		}
+		@Override
+		public void write(byte [] b,int off,int len) throws IOException {
+			try {
+				release.await();
+			} catch(InterruptedException e) {
+				throw new IOException(e);
+			}
+			bytes.write(b,off,len);
+		}
+	}
+
+	protected TwoJointRobot makeRobot(String name,JogChannelTest.RecordingConnection connection) {
+		TwoJointRobot robot = new TwoJointRobot();
+		robot.setDisplayName(name);
+		robot.setConnection(connection);
+		connection.removeListener(robot);
+		return robot;
+	}
+
+	@Test
+	public void everythingComesBack() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		MotionRecorder recorder = new MotionRecorder(bytes);
+		JogChannelTest.RecordingConnection connection = new JogChannelTest.RecordingConnection();
+		TwoJointRobot robot = makeRobot("arm",connection);
+		assertEquals(0,recorder.addRobot(robot));
+
+		robot.now[0] = 1.5;
+		robot.future[1] = -2;
+		recorder.recordTick(0.25f);
+		robot.sendLineToRobot("G0 X1 (go)");
+		recorder.dataAvailable(connection,"A1 B2");
+		assertTrue(recorder.close());
+		assertEquals(5,recorder.getRecordCount());
+		assertEquals(0,recorder.getDroppedCount());
+		assertEquals(bytes.size(),recorder.getBytesWritten());
+		// closing stops the recording.
+		robot.sendLineToRobot("G0 X2");
+		assertEquals(5,recorder.getRecordCount());
+
+		MotionLogReader reader = new MotionLogReader(new ByteArrayInputStream(bytes.toByteArray()));
+		assertTrue(reader.next());
+		assertEquals(MotionRecorder.ROBOT,reader.getType());
+		assertEquals("arm",reader.getText());
+		assertEquals(2,reader.getValueCount());
+		assertTrue(reader.next());
+		assertEquals(MotionRecorder.TICK,reader.getType());
+		assertEquals(0.25f,reader.getDelta(),0);
+		assertTrue(reader.next());
+		assertEquals(MotionRecorder.STATE,reader.getType());
+		double [] now = new double[2];
+		double [] future = new double[2];
+		reader.getValues(now,future);
+		assertEquals(1.5,now[0],0);
+		assertEquals(-2,future[1],0);
+		assertTrue(reader.next());
+		assertEquals(MotionRecorder.SENT,reader.getType());
+		assertEquals("G0 X1",reader.getText());
+		long sentAt = reader.getNanos();
+		assertTrue(reader.next());
+		assertEquals(MotionRecorder.RECEIVED,reader.getType());
+		assertEquals("A1 B2",reader.getText());
+		assertTrue(reader.getNanos()>=sentAt);
+		assertFalse(reader.next());
+	}
+
+	protected JogChannelTest.RecordingConnection makeConnection() {
+		JogChannelTest.RecordingConnection connection = new JogChannelTest.RecordingConnection();
+		// listened to from two threads here.
+		connection.listeners = new CopyOnWriteArrayList<NetworkConnectionListener>();
+		return connection;
+	}
+
+	/**
+	 * Robots are added and change connections while another thread records.  Each robot ends up heard through the
+	 * connection it has, and only that one.
+	 */
+	@Test
+	public void connectionsChangeWhileRecording() throws Exception {
+		final MotionRecorder recorder = new MotionRecorder(new OutputStream() {
+			@Override
+			public void write(int b) {}
+			@Override
+			public void write(byte [] b,int off,int len) {}
+		},1<<16);
+		final AtomicBoolean stop = new AtomicBoolean();
+		Thread ticker = new Thread() {
+			@Override
+			public void run() {
+				while(!stop.get()) recorder.recordTick(0.001f);
+			}
+		};
+		ticker.start();
+
+		List<TwoJointRobot> robots = new ArrayList<TwoJointRobot>();
+		List<JogChannelTest.RecordingConnection> old = new ArrayList<JogChannelTest.RecordingConnection>();
+		try {
+			for(int i=0;i<500;++i) {
+				TwoJointRobot robot = makeRobot("r"+i,makeConnection());
+				recorder.addRobot(robot);
+				robots.add(robot);
+				// swap some earlier robots' connections.
+				for(int j=0;j<=i;j+=1+i/8) {
+					TwoJointRobot earlier = robots.get(j);
+					old.add((JogChannelTest.RecordingConnection)earlier.getConnection());
+					JogChannelTest.RecordingConnection next = makeConnection();
+					earlier.setConnection(next);
+					next.removeListener(earlier);
+				}
+			}
+		} finally {
+			stop.set(true);
+			ticker.join();
+		}
+		recorder.recordTick(0.001f);
+
+		for(TwoJointRobot robot : robots) {
+			JogChannelTest.RecordingConnection c = (JogChannelTest.RecordingConnection)robot.getConnection();
+			int n=0;
+			for(NetworkConnectionListener listener : c.listeners) if(listener==recorder) n++;
+			assertEquals(1,n);
+		}
+		for(JogChannelTest.RecordingConnection c : old) {
+			assertFalse(c.listeners.contains(recorder));
+		}
+		assertTrue(recorder.close());
+	}
+
+	@Test
+	public void cutShortLogEndsAtLastWholeRecord() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		MotionRecorder recorder = new MotionRecorder(bytes);
+		recorder.recordTick(0.1f);
+		recorder.recordTick(0.2f);
+		recorder.close();
+		byte [] all = bytes.toByteArray();
+		byte [] cut = new byte[all.length-2];
+		System.arraycopy(all,0,cut,0,cut.length);
+
+		MotionLogReader reader = new MotionLogReader(new ByteArrayInputStream(cut));
+		assertTrue(reader.next());
+		assertFalse(reader.next());
+		assertEquals(1,reader.getRecordCount());
+	}
+
+	@Test
+	public void fullRingDropsInsteadOfWaiting() throws InterruptedException {
+		StuckStream stream = new StuckStream();
+		MotionRecorder recorder = new MotionRecorder(stream,16);
+		// give the writer time to get stuck.
+		recorder.recordTick(0);
+		Thread.sleep(50);
+		int kept=1;
+		long start = System.nanoTime();
+		for(int i=0;i<1000;++i) {
+			if(recorder.recordSent(0,"G0 X"+i)) kept++;
+		}
+		// nobody waited on the stuck stream.
+		assertTrue(System.nanoTime()-start < 1000000000L);
+		assertTrue(kept<=17);
+		assertEquals(1001-kept,recorder.getDroppedCount());
+
+		stream.release.countDown();
+		assertTrue(recorder.close());
+		assertEquals(kept,recorder.getRecordCount());
+	}
+
+	@Test
+	public void manyThreadsLoseNothingInOrder() throws Exception {
+		final int threads = 4;
+		final int lines = 20000;
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final MotionRecorder recorder = new MotionRecorder(bytes,1024);
+		final CountDownLatch go = new CountDownLatch(1);
+		List<Thread> list = new ArrayList<Thread>();
+		for(int t=0;t<threads;++t) {
+			final int id = t;
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					StringBuilder sb = new StringBuilder();
+					try {
+						go.await();
+					} catch(InterruptedException e) {
+						return;
+					}
+					for(int i=0;i<lines;++i) {
+						sb.setLength(0);
+						sb.append(i);
+						// retry until the writer catches up, so every line is kept.
+						while(!recorder.recordSent(id,sb)) Thread.yield();
+					}
+				}
+			});
+			thread.start();
+			list.add(thread);
+		}
+		go.countDown();
+		for(Thread thread : list) thread.join();
+		assertTrue(recorder.close());
+		assertEquals(threads*lines,recorder.getRecordCount());
+
+		MotionLogReader reader = new MotionLogReader(new ByteArrayInputStream(bytes.toByteArray()));
+		int [] expected = new int[threads];
+		while(reader.next()) {
+			int id = reader.getRobot();
+			assertEquals(Integer.toString(expected[id]),reader.getText());
+			expected[id]++;
+		}
+		for(int t=0;t<threads;++t) assertEquals(lines,expected[t]);
+	}
+
+	@Test
+	public void replayDrivesTheWorldAtAnySpeed() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		MotionRecorder recorder = new MotionRecorder(bytes);
+		int index = recorder.addRobot(makeRobot("arm",new JogChannelTest.RecordingConnection()));
+		// pretend the robot moved for a second, 10 poses 0.1s apart.
+		for(int i=0;i<10;++i) {
+			recorder.startNanos = System.nanoTime()-(i*100000000L-1000000L);
+			recorder.recordState(index,new double[] { i, 0 },new double[] { i+1, 0 },2);
+		}
+		recorder.close();
+
+		World world = new World();
+		TwoJointRobot copy = makeRobot("arm",new JogChannelTest.RecordingConnection());
+		world.addEntity(copy);
+		MotionReplayer replayer = new MotionReplayer(new MotionLogReader(new ByteArrayInputStream(bytes.toByteArray())));
+		// found by name.
+		replayer.setWorld(world);
+		final int [] heard = new int[1];
+		replayer.addListener(new MotionReplayer.Listener() {
+			@Override
+			public void replayed(MotionLogReader record,Robot robot) {
+				heard[0]++;
+			}
+		});
+		replayer.setSpeed(4);
+		// 0.1s at 4x is 0.4s of log: poses 0 to 4.
+		assertTrue(replayer.update(0.1));
+		assertEquals(4,copy.now[0],0);
+		assertEquals(5,copy.future[0],0);
+		assertEquals(0.4,replayer.getTime(),1e-9);
+		assertTrue(replayer.update(0.1));
+		assertEquals(8,copy.now[0],0);
+		assertFalse(replayer.update(0.1));
+		assertTrue(replayer.isFinished());
+		assertEquals(9,copy.now[0],0);
+		assertEquals(11,heard[0]);
+	}
+
+	@Test
+	public void worldRecordsRobotsAddedLater() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		MotionRecorder recorder = new MotionRecorder(bytes);
+		World world = new World();
+		TwoJointRobot before = makeRobot("before",new JogChannelTest.RecordingConnection());
+		world.addEntity(before);
+		world.setRecorder(recorder);
+		TwoJointRobot after = makeRobot("after",new JogChannelTest.RecordingConnection());
+		world.addEntity(after);
+		assertTrue(before.recorder==recorder);
+		assertTrue(after.recorder==recorder);
+		after.now[0] = 7;
+		recorder.recordTick(0.1f);
+		recorder.close();
+
+		MotionLogReader reader = new MotionLogReader(new ByteArrayInputStream(bytes.toByteArray()));
+		List<String> names = new ArrayList<String>();
+		boolean afterMoved = false;
+		double [] now = new double[2];
+		double [] future = new double[2];
+		while(reader.next()) {
+			if(reader.getType()==MotionRecorder.ROBOT) names.add(reader.getText());
+			if(reader.getType()==MotionRecorder.STATE && reader.getRobot()==1) {
+				reader.getValues(now,future);
+				afterMoved = now[0]==7;
+			}
+		}
+		assertEquals(2,names.size());
+		assertEquals("after",names.get(1));
+		assertTrue(afterMoved);
+	}
+
+	@Test
+	public void recordingIsCheap() throws InterruptedException {
+		MotionRecorder recorder = new MotionRecorder(new OutputStream() {
+			@Override
+			public void write(int b) {}
+			@Override
+			public void write(byte [] b,int off,int len) {}
+		},65536);
+		double [] now = new double[6];
+		double [] future = new double[6];
+		StringBuilder line = new StringBuilder("G0 X1.234 Y5.678 Z9.012 F100");
+		int n = 200000;
+		int dropped=0;
+		long ns=0;
+		for(int pass=0;pass<2;++pass) {
+			// the first pass warms up the compiler.
+			dropped=0;
+			long start = System.nanoTime();
+			for(int i=0;i<n;++i) {
+				now[0] = i;
+				if(!recorder.recordState(0,now,future,6)) dropped++;
+				if(!recorder.recordSent(0,line)) dropped++;
+			}
+			ns = System.nanoTime()-start;
+			while(recorder.tail!=recorder.head.get()) Thread.sleep(1);
+		}
+		recorder.close();
+		System.out.println("MotionRecorder: "+(ns/(2.0*n))+"ns per record, "+dropped+" dropped of "+(2*n));
+		assertTrue(recorder.getRecordCount()>=2*n-dropped);
+	}
+}
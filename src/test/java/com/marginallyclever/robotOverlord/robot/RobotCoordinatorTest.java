@@ -0,0 +1,272 @@
+package com.marginallyclever.robotOverlord.robot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.marginallyclever.communications.ConnectionExecutor;
+import com.marginallyclever.communications.virtual.VirtualConnection;
+import com.marginallyclever.communications.virtual.VirtualTransportLayer;
+
+public class RobotCoordinatorTest {
+	static final double RADIUS = 1;
+
+	static class PointKeyframe implements RobotKeyframe {
+		private static final long serialVersionUID = 1L;
+		double x, y;
+		PointKeyframe(double x,double y) {
+			this.x = x;
+			this.y = y;
+		}
+	}
+
+	/**
+	 * A ball that slides around a table.
+	 */
+	static class PointRobot extends Robot {
+		private static final long serialVersionUID = 1L;
+		double x, y;
+
+		PointRobot(double x,double y) {
+			this.x = x;
+			this.y = y;
+		}
+		@Override
+		public RobotKeyframe createKeyframe() {
+			return new PointKeyframe(x,y);
+		}
+		@Override
+		public int getKeyframeSize() {
+			return 2;
+		}
+		@Override
+		public void getKeyframeValues(RobotKeyframe keyframe,double [] values) {
+			values[0] = ((PointKeyframe)keyframe).x;
+			values[1] = ((PointKeyframe)keyframe).y;
+		}
+		@Override
+		public void setKeyframeValues(RobotKeyframe keyframe,double [] values) {
+			((PointKeyframe)keyframe).x = values[0];
+			((PointKeyframe)keyframe).y = values[1];
+		}
+		@Override
+		public Trajectory createTrajectory() {
+			Trajectory t = new Trajectory(2);
+			t.setLimits(0,10,20,0);
+			t.setLimits(1,10,20,0);
+			return t;
+		}
+		@Override
+		protected String getTrajectoryCommand(double [] values,double feedRate) {
+			return "G0 X"+values[0]+" Y"+values[1]+" F"+feedRate;
+		}
+		@Override
+		public int getCapsuleCount() {
+			return 1;
+		}
+		@Override
+		public int getCapsules(double [] values,double [] capsules) {
+			capsules[0]=capsules[3]=values[0];
+			capsules[1]=capsules[4]=values[1];
+			capsules[2]=capsules[5]=0;
+			capsules[6]=RADIUS;
+			return 1;
+		}
+	}
+
+	/**
+	 * A simulated robot that notes which batch each line was sent in.
+	 */
+	static class RecordingConnection extends VirtualConnection {
+		List<Integer> sentInBatch = new ArrayList<Integer>();
+		RobotCoordinator coordinator;
+
+		RecordingConnection(VirtualTransportLayer layer) {
+			super(layer);
+			getFirmware().setKeepCommands(true);
+		}
+
+		@Override
+		public void sendMessage(String msg) throws Exception {
+			synchronized(this) {
+				sentInBatch.add(coordinator.getCurrentBatch());
+			}
+			super.sendMessage(msg);
+		}
+	}
+
+	static RobotProgram program(double ... xy) {
+		RobotProgram program = new RobotProgram();
+		for(int i=0;i<xy.length;i+=2) {
+			program.addInstruction(new RobotInstructionMove(new PointKeyframe(xy[i],xy[i+1]),0));
+		}
+		return program;
+	}
+
+	/**
+	 * Two balls cross the middle of the table at the same moment unless one of them waits.
+	 */
+	static RobotCoordinator crossing(PointRobot a,PointRobot b) {
+		RobotCoordinator c = new RobotCoordinator();
+		c.setTimeStep(0.01);
+		c.setMargin(0.1);
+		c.addRobot(a,program(10,0, 0,0));
+		c.addRobot(b,program(5,5));
+		return c;
+	}
+
+	/**
+	 * Step through the schedule much more finely than the coordinator did.
+	 */
+	static boolean touches(RobotCoordinator c) {
+		double [] p = new double[2];
+		double [] q = new double[2];
+		for(double t=0;t<=c.getCycleTime();t+=0.001) {
+			for(int i=0;i<c.getRobotCount();++i) {
+				for(int j=i+1;j<c.getRobotCount();++j) {
+					c.getPose(i,t,p);
+					c.getPose(j,t,q);
+					double dx=p[0]-q[0], dy=p[1]-q[1];
+					if(dx*dx+dy*dy < 4*RADIUS*RADIUS) return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	@Test
+	public void crossingRobotsTakeTurns() {
+		RobotCoordinator c = crossing(new PointRobot(0,0),new PointRobot(5,-5));
+		assertTrue(c.plan());
+		assertFalse(touches(c));
+
+		Trajectory alone = new PointRobot(0,0).createTrajectory();
+		alone.addWaypoint(new double[] {0,0});
+		alone.addWaypoint(new double[] {10,0});
+		alone.plan();
+		double one = alone.getDuration();
+		// a's out-and-back is the longest program.  b has time to cross while a is away from the middle.
+		assertTrue(c.getCycleTime() >= one*2-1e-9);
+		assertTrue(c.getCycleTime() < one*2+alone.getDuration());
+		assertTrue(c.getFixCount(0)+c.getFixCount(1)>0);
+	}
+
+	@Test
+	public void noConflictNoDelay() {
+		RobotCoordinator c = new RobotCoordinator();
+		c.addRobot(new PointRobot(0,0),program(10,0));
+		c.addRobot(new PointRobot(0,10),program(10,10));
+		assertTrue(c.plan());
+		assertEquals(0,c.getWaitTime(0)+c.getWaitTime(1),0);
+		assertEquals(0,c.getSlowdownTime(0)+c.getSlowdownTime(1),1e-12);
+		assertEquals(c.getFinishTime(0),c.getCycleTime(),1e-12);
+	}
+
+	@Test
+	public void blockedForeverFails() {
+		RobotCoordinator c = new RobotCoordinator();
+		// b starts in a's way and parks in a's way.
+		c.addRobot(new PointRobot(0,0),program(10,0));
+		c.addRobot(new PointRobot(5,0.5),program(5,-0.5));
+		assertFalse(c.plan());
+	}
+
+	@Test
+	public void slowingDownIsAllowed() {
+		RobotCoordinator waitOnly = crossing(new PointRobot(0,0),new PointRobot(5,-5));
+		waitOnly.setMaxSlowdown(1);
+		assertTrue(waitOnly.plan());
+		assertFalse(touches(waitOnly));
+		assertEquals(0,waitOnly.getSlowdownTime(0)+waitOnly.getSlowdownTime(1),1e-12);
+
+		RobotCoordinator both = crossing(new PointRobot(0,0),new PointRobot(5,-5));
+		assertTrue(both.plan());
+		assertTrue(both.getCycleTime() <= waitOnly.getCycleTime()+1e-9);
+	}
+
+	/**
+	 * Open a simulated robot and wait for its hello, so that the cue after it isn't taken for an answer.
+	 */
+	static RecordingConnection open(RobotCoordinator c,Robot robot,String name,ConnectionExecutor executor) throws Exception {
+		VirtualTransportLayer layer = new VirtualTransportLayer();
+		layer.setBaudRate(57600);
+		layer.setLatency(0);
+		layer.setWorkTime(0.0005);
+		layer.setBootTime(0);
+		RecordingConnection connection = new RecordingConnection(layer);
+		connection.coordinator = c;
+		if(executor!=null) connection.setListenerExecutor(executor);
+		connection.openConnection(name);
+		long timeout = System.currentTimeMillis()+5000;
+		while(connection.getMetrics().getLinesReceived()<3 && System.currentTimeMillis()<timeout) Thread.sleep(1);
+		assertEquals(3,connection.getMetrics().getLinesReceived());
+		robot.setConnection(connection);
+		// the robot would send its own program.
+		connection.removeListener(robot);
+		return connection;
+	}
+
+	protected void runBatches(ConnectionExecutor executor) throws Exception {
+		PointRobot a = new PointRobot(0,0);
+		PointRobot b = new PointRobot(5,-5);
+		RobotCoordinator c = crossing(a,b);
+		assertTrue(c.plan());
+		assertTrue(c.loadBatches(0.1));
+		assertTrue(c.getBatchCount()>1);
+
+		RecordingConnection ca = open(c,a,"a",executor);
+		RecordingConnection cb = open(c,b,"b",executor);
+		try {
+			assertTrue(c.start());
+			long timeout = System.currentTimeMillis()+10000;
+			while(!c.isFinished() && System.currentTimeMillis()<timeout) Thread.sleep(5);
+			assertTrue(c.isFinished());
+			// the last answers may still be on the way.
+			timeout = System.currentTimeMillis()+5000;
+			while((ca.getStreamer().getBytesInFlight()>0 || cb.getStreamer().getBytesInFlight()>0)
+					&& System.currentTimeMillis()<timeout) Thread.sleep(1);
+		} finally {
+			ca.closeConnection();
+			cb.closeConnection();
+		}
+
+		// every line arrived, in order, and none was sent before the batch it belongs to.
+		checkLines(c,0,ca);
+		checkLines(c,1,cb);
+		assertEquals(ca.sentInBatch.size()+cb.sentInBatch.size(),c.getLinesSent());
+	}
+
+	@Test
+	public void batchesStayInStep() throws Exception {
+		runBatches(null);
+	}
+
+	@Test
+	public void batchesStayInStepWithListenersOffThePortThread() throws Exception {
+		ConnectionExecutor executor = new ConnectionExecutor(2);
+		try {
+			runBatches(executor);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	protected void checkLines(RobotCoordinator c,int robot,RecordingConnection connection) {
+		List<String> done = connection.getFirmware().getCommands();
+		int n=0;
+		for(int b=0;b<c.getBatchCount();++b) {
+			for(String line : c.getBatch(robot,b)) {
+				assertEquals(line.trim(),done.get(n));
+				assertEquals(b,(int)connection.sentInBatch.get(n));
+				n++;
+			}
+		}
+		assertEquals(n,done.size());
+		assertEquals(n,connection.sentInBatch.size());
+	}
+}
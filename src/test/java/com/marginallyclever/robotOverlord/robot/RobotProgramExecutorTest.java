@@ -0,0 +1,259 @@
+package com.marginallyclever.robotOverlord.robot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RobotProgramExecutorTest {
+	static final double EPSILON = 1e-9;
+
+	/**
+	 * A robot with one axis, described by a single number.
+	 */
+	static class LineKeyframe implements RobotKeyframe {
+		private static final long serialVersionUID = 1L;
+		double x;
+		LineKeyframe(double x) {
+			this.x = x;
+		}
+	}
+
+	static class LineRobot extends Robot {
+		private static final long serialVersionUID = 1L;
+		double x;
+
+		@Override
+		public RobotKeyframe createKeyframe() {
+			return new LineKeyframe(x);
+		}
+		@Override
+		public int getKeyframeSize() {
+			return 1;
+		}
+		@Override
+		public void getKeyframeValues(RobotKeyframe keyframe,double [] values) {
+			values[0] = ((LineKeyframe)keyframe).x;
+		}
+		@Override
+		public void setKeyframeValues(RobotKeyframe keyframe,double [] values) {
+			((LineKeyframe)keyframe).x = values[0];
+			workedOutOn = Thread.currentThread();
+		}
+		@Override
+		public void copyKeyframe(RobotKeyframe from,RobotKeyframe to) {
+			((LineKeyframe)to).x = ((LineKeyframe)from).x;
+		}
+		@Override
+		protected void sendCommandedValues(double [] values) {
+			sentOn = Thread.currentThread();
+		}
+		volatile Thread workedOutOn;
+		volatile Thread sentOn;
+		// what the simulation would do on the next frame
+		double update() {
+			LineKeyframe k = new LineKeyframe(x);
+			takeCommandedKeyframe(k);
+			x = k.x;
+			return x;
+		}
+	}
+
+	protected static RobotInstructionMove move(double x,float seconds) {
+		return new RobotInstructionMove(new LineKeyframe(x),seconds);
+	}
+
+	/**
+	 * 1 -> (2 -> 3) x3 -> 4, one second each.
+	 */
+	protected static RobotProgram makeProgram() {
+		RobotProgram program = new RobotProgram();
+		program.addInstruction(move(1,1));
+		RobotInstructionControlBlockRepeat loop = new RobotInstructionControlBlockRepeat(3);
+		loop.addInstruction(move(2,1));
+		loop.addInstruction(move(3,1));
+		program.addInstruction(loop);
+		program.addInstruction(move(4,1));
+		return program;
+	}
+
+	@Test
+	public void runsForwardThroughLoops() {
+		LineRobot robot = new LineRobot();
+		RobotProgramExecutor ex = new RobotProgramExecutor(robot,makeProgram());
+		assertEquals(8,ex.getProgramDuration(),EPSILON);
+		// move, begin, move, move, end, move
+		assertEquals(6,ex.getOperationCount());
+
+		double [] expected = { 1, 2,3, 2,3, 2,3, 4 };
+		for(int i=0;i<expected.length;++i) {
+			ex.advance(1);
+			assertEquals(expected[i],robot.update(),EPSILON);
+		}
+		assertTrue(ex.isFinished());
+		assertEquals(1,ex.getProgress(),EPSILON);
+		assertEquals(3,ex.getOperationRuns(2));
+		assertEquals(3,ex.getOperationRuns(3));
+		assertEquals(1,ex.getOperationRuns(5));
+	}
+
+	@Test
+	public void halfwayIsEased() {
+		LineRobot robot = new LineRobot();
+		RobotProgramExecutor ex = new RobotProgramExecutor(robot,makeProgram());
+		ex.advance(0.5);
+		assertEquals(0.5,robot.update(),EPSILON);
+		ex.advance(0.25);
+		assertEquals(0.84375,robot.update(),EPSILON);
+	}
+
+	@Test
+	public void stepsBackwardThroughLoops() {
+		LineRobot robot = new LineRobot();
+		RobotProgramExecutor ex = new RobotProgramExecutor(robot,makeProgram());
+		ex.advance(100);
+		assertTrue(ex.isFinished());
+		assertEquals(4,robot.update(),EPSILON);
+
+		// each step lands on the start of a move, which is where the one before it ended.
+		double [] expected = { 3, 2,3, 2,3, 2, 1, 0 };
+		for(int i=0;i<expected.length;++i) {
+			ex.stepBackward();
+			assertEquals(expected[i],robot.update(),EPSILON);
+		}
+		assertEquals(0,ex.getElapsedTime(),EPSILON);
+
+		// and forward again
+		double [] forward = { 1, 2,3, 2,3, 2,3, 4 };
+		for(int i=0;i<forward.length;++i) {
+			ex.stepForward();
+			assertEquals(forward[i],robot.update(),EPSILON);
+		}
+		assertTrue(ex.isFinished());
+	}
+
+	@Test
+	public void runsBackwardInTime() {
+		LineRobot robot = new LineRobot();
+		RobotProgramExecutor ex = new RobotProgramExecutor(robot,makeProgram());
+		ex.advance(5.5);
+		ex.advance(-2);
+		assertEquals(3.5,ex.getElapsedTime(),EPSILON);
+		// halfway through the second 2 -> 3
+		assertEquals(2.5,robot.update(),EPSILON);
+		ex.advance(2);
+		assertEquals(2.5,robot.update(),EPSILON);
+	}
+
+	@Test
+	public void foreverNeverEnds() {
+		LineRobot robot = new LineRobot();
+		RobotProgram program = new RobotProgram();
+		RobotInstructionControlBlockRepeat loop = new RobotInstructionControlBlockForever();
+		loop.addInstruction(move(5,1));
+		loop.addInstruction(move(-5,1));
+		program.addInstruction(loop);
+
+		RobotProgramExecutor ex = new RobotProgramExecutor(robot,program);
+		assertEquals(Double.POSITIVE_INFINITY,ex.getProgramDuration(),0);
+		ex.advance(1001);
+		assertFalse(ex.isFinished());
+		assertEquals(5,robot.update(),EPSILON);
+	}
+
+	@Test
+	public void repeatZeroTimesIsSkipped() {
+		LineRobot robot = new LineRobot();
+		RobotProgram program = new RobotProgram();
+		program.addInstruction(move(1,1));
+		RobotInstructionControlBlockRepeat loop = new RobotInstructionControlBlockRepeat(0);
+		loop.addInstruction(move(9,1));
+		program.addInstruction(loop);
+		program.addInstruction(move(2,1));
+
+		RobotProgramExecutor ex = new RobotProgramExecutor(robot,program);
+		assertEquals(2,ex.getProgramDuration(),EPSILON);
+		ex.advance(1);
+		assertEquals(1,robot.update(),EPSILON);
+		ex.advance(0.5);
+		// halfway from 1 to 2, never through 9
+		assertEquals(1.5,robot.update(),EPSILON);
+		assertEquals(0.75,ex.getProgress(),EPSILON);
+		ex.advance(0.5);
+		assertEquals(2,robot.update(),EPSILON);
+		assertTrue(ex.isFinished());
+		assertEquals(0,ex.getOperationRuns(2));
+
+		// and back again
+		ex.stepBackward();
+		assertEquals(1,robot.update(),EPSILON);
+		ex.stepBackward();
+		assertEquals(0,robot.update(),EPSILON);
+	}
+
+	@Test
+	public void keyframesAloneBecomeMoves() {
+		LineRobot robot = new LineRobot() {
+			private static final long serialVersionUID = 1L;
+			@Override
+			public Trajectory createTrajectory() {
+				Trajectory t = new Trajectory(1);
+				t.setLimits(0,10,100,1000);
+				return t;
+			}
+		};
+		RobotProgram program = new RobotProgram();
+		program.addKeyframe(new LineKeyframe(1));
+		program.addKeyframe(new LineKeyframe(3));
+
+		RobotProgramExecutor ex = new RobotProgramExecutor(robot,program);
+		assertEquals(2,ex.getOperationCount());
+		assertTrue(ex.getOperationDuration(0)>0);
+		assertTrue(ex.getOperationDuration(1)>ex.getOperationDuration(0));
+		ex.stepForward();
+		assertEquals(1,robot.update(),EPSILON);
+		ex.advance(100);
+		assertTrue(ex.isFinished());
+		assertEquals(3,robot.update(),EPSILON);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void keyframesAloneNeedSpeedLimits() {
+		RobotProgram program = new RobotProgram();
+		program.addKeyframe(new LineKeyframe(1));
+		new RobotProgramExecutor(new LineRobot(),program);
+	}
+
+	@Test
+	public void emptyForeverDoesNotHang() {
+		LineRobot robot = new LineRobot();
+		RobotProgram program = new RobotProgram();
+		program.addInstruction(new RobotInstructionControlBlockForever());
+		RobotProgramExecutor ex = new RobotProgramExecutor(robot,program);
+		ex.advance(1);
+		assertFalse(ex.isFinished());
+	}
+
+	@Test
+	public void runsOnSchedulerThread() throws InterruptedException {
+		LineRobot robot = new LineRobot();
+		RobotProgramExecutor ex = new RobotProgramExecutor(robot,makeProgram());
+		ex.start(0.01);
+		Thread.sleep(300);
+		ex.stop();
+		long ticks = ex.getTickCount();
+		assertTrue(ticks>0);
+		// program time is exactly one period per tick
+		assertEquals(Math.min(8,ticks*0.01),ex.getElapsedTime(),1e-6);
+		// the pose was worked out and sent by the scheduler, not by whoever draws it.
+		assertTrue(robot.workedOutOn.getName().startsWith("RobotProgramExecutor"));
+		assertTrue(robot.sentOn.getName().startsWith("RobotProgramExecutor"));
+		// let a tick already waiting for the lock finish
+		Thread.sleep(50);
+		robot.workedOutOn = null;
+		robot.update();
+		assertEquals(null,robot.workedOutOn);
+		System.out.println("RobotProgramExecutor: "+ticks+" ticks, longest "+(ex.getMaxTickTime()*1e6)+"us, latest "+(ex.getMaxLateness()*1e3)+"ms");
+	}
+}
@@ -0,0 +1,92 @@
+package com.marginallyclever.robotOverlord.robot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.marginallyclever.robotOverlord.AllocationCounter;
+
+public class TelemetryParserTest {
+	@Test
+	public void readsEveryLetter() {
+		TelemetryParser p = new TelemetryParser("ABCDE");
+		assertTrue(p.parse("A12.5 B-90 C0.25 D+3 E.5\n"));
+		assertEquals(12.5,p.getValue(0),0);
+		assertEquals(-90,p.getValue(1),0);
+		assertEquals(0.25,p.getValue(2),0);
+		assertEquals(3,p.getValue(3),0);
+		assertEquals(0.5,p.getValue(4),0);
+		assertEquals(1,p.getReportCount());
+	}
+
+	@Test
+	public void matchesParseDouble() {
+		TelemetryParser p = new TelemetryParser("A");
+		String [] samples = { "0", "-0.0", "188.0", "-45.123456", "1.0E-4", "3.4028235E38", "123456789012345678901234", "0.000000000000000000000000001" };
+		for(String s : samples) {
+			assertTrue(s,p.parse("A"+s));
+			assertEquals(s,Double.parseDouble(s),p.getValue(0),Math.abs(Double.parseDouble(s))*1e-15);
+		}
+	}
+
+	@Test
+	public void rejectsBadReports() {
+		TelemetryParser p = new TelemetryParser("ABC");
+		assertTrue(p.parse("A1 B2 C3"));
+		// not a report at all.
+		assertFalse(p.parse("HELLO WORLD! I AM ARM6 #0"));
+		assertFalse(p.parse("As far as I know"));
+		assertFalse(p.parse(""));
+		assertEquals(0,p.getErrorCount());
+		// reports gone wrong.
+		assertFalse(p.parse("A1 B2"));
+		assertFalse(p.parse("A1 B2x C3"));
+		assertFalse(p.parse("A1 B2 C1e"));
+		assertEquals(3,p.getErrorCount());
+		// the last good report is kept.
+		assertEquals(2,p.getValue(1),0);
+		assertEquals(3,p.getValue(2),0);
+		// unknown letters are skipped.
+		assertTrue(p.parse("A4 Q0 B5 T=hot C6"));
+		assertEquals(5,p.getValue(1),0);
+	}
+
+	@Test
+	public void optionalLetters() {
+		TelemetryParser p = new TelemetryParser("ABF",3);
+		assertTrue(p.parse("A1 B2 F3"));
+		assertEquals(7,p.getSeen());
+		assertTrue(p.parse("A4 B5"));
+		assertEquals(3,p.getSeen());
+		assertEquals(3,p.getValue(2),0);
+	}
+
+	@Test
+	public void readsBytes() {
+		TelemetryParser p = new TelemetryParser("AB");
+		byte [] wire = "junkA-1.5 B2\r\njunk".getBytes(StandardCharsets.US_ASCII);
+		assertTrue(p.parse(wire,4,10));
+		assertEquals(-1.5,p.getValue(0),0);
+		assertEquals(2,p.getValue(1),0);
+	}
+
+	@Test
+	public void makesNoGarbage() {
+		AllocationCounter.assumeSupported();
+
+		TelemetryParser p = new TelemetryParser("ABCDE");
+		StringBuilder line = new StringBuilder("A12.5 B-90.25 C0.125 D188 E-45.5");
+		// warm up, so the measurement doesn't count class loading or the compiler.
+		for(int i=0;i<100000;++i) p.parse(line);
+
+		long before = AllocationCounter.getBytes();
+		for(int i=0;i<100000;++i) p.parse(line);
+		long after = AllocationCounter.getBytes();
+		// a little slack for the measuring itself.
+		assertTrue((after-before)+" bytes",after-before < 1024);
+	}
+}
@@ -0,0 +1,113 @@
+package com.marginallyclever.robotOverlord.robot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TrajectoryTest {
+	static final double EPSILON = 0.0001;
+
+	protected Trajectory makeTrajectory(double jerk) {
+		Trajectory t = new Trajectory(3);
+		t.setLimits(0, 10, 20, jerk);
+		t.setLimits(1,  5, 40, jerk);
+		t.setLimits(2, 20, 10, jerk);
+		t.addWaypoint(new double[] {  0, 0, 0 });
+		t.addWaypoint(new double[] { 30,10,-5 });
+		t.addWaypoint(new double[] { 30,10,-5 });
+		t.addWaypoint(new double[] { 31,12, 0 });
+		t.addWaypoint(new double[] {-20, 0, 0 });
+		t.plan();
+		return t;
+	}
+
+	/**
+	 * A long move on one axis is a textbook trapezoid: accelerate, cruise, decelerate.
+	 */
+	@Test
+	public void trapezoidDuration() {
+		Trajectory t = new Trajectory(1);
+		t.setLimits(0, 10, 20, 0);
+		t.addWaypoint(new double[] { 0 });
+		t.addWaypoint(new double[] { 100 });
+		t.plan();
+		// 0.5s to reach 10/s, covering 2.5 each way.  95 more at 10/s.
+		assertEquals(0.5+9.5+0.5, t.getDuration(), EPSILON);
+
+		double [] p = new double[1];
+		t.sample(0.5,p);
+		assertEquals(2.5,p[0],EPSILON);
+		t.sample(5.25,p);
+		assertEquals(50,p[0],EPSILON);
+	}
+
+	@Test
+	public void passesThroughWaypoints() {
+		checkWaypoints(makeTrajectory(0));
+		checkWaypoints(makeTrajectory(200));
+	}
+
+	protected void checkWaypoints(Trajectory t) {
+		double [] p = new double[3];
+		double [] v = new double[3];
+		double [] expected = new double[3];
+		for(int w=0;w<t.getWaypointCount();++w) {
+			System.arraycopy(t.waypoints,w*3,expected,0,3);
+			t.sample(t.getWaypointTime(w),p,v);
+			for(int i=0;i<3;++i) {
+				assertEquals(expected[i],p[i],EPSILON);
+				assertEquals(0,v[i],EPSILON);
+			}
+		}
+	}
+
+	@Test
+	public void respectsLimits() {
+		checkLimits(makeTrajectory(0),false);
+		checkLimits(makeTrajectory(200),true);
+	}
+
+	/**
+	 * Step through the trajectory and differentiate numerically.
+	 */
+	protected void checkLimits(Trajectory t,boolean checkJerk) {
+		final double dt = 0.0005;
+		double [] p = new double[3];
+		double [] v = new double[3];
+		double [] lastV = new double[3];
+		double [] lastA = new double[3];
+		int steps = (int)(t.getDuration()/dt);
+		for(int n=0;n<=steps;++n) {
+			t.sample(n*dt,p,v);
+			for(int i=0;i<3;++i) {
+				assertTrue(Math.abs(v[i]) <= t.maxVelocity[i]*1.001);
+				double a = (v[i]-lastV[i])/dt;
+				if(n>0) assertTrue(Math.abs(a) <= t.maxAcceleration[i]*1.01);
+				// jerk is only finite with a jerk limit.  allow for the kink where one phase meets the next.
+				if(checkJerk && n>1) assertTrue(Math.abs(a-lastA[i])/dt <= t.maxJerk[i]*1.05+1);
+				lastV[i]=v[i];
+				lastA[i]=a;
+			}
+		}
+	}
+
+	/**
+	 * Position should be smooth - the velocity reported should match the change in position.
+	 */
+	@Test
+	public void velocityMatchesPosition() {
+		Trajectory t = makeTrajectory(200);
+		final double dt = 0.0001;
+		double [] p0 = new double[3];
+		double [] p1 = new double[3];
+		double [] v = new double[3];
+		for(double time=0;time<t.getDuration()-dt;time+=0.01) {
+			t.sample(time,p0,v);
+			t.sample(time+dt,p1);
+			for(int i=0;i<3;++i) {
+				assertEquals(v[i],(p1[i]-p0[i])/dt,0.05);
+			}
+		}
+	}
+}
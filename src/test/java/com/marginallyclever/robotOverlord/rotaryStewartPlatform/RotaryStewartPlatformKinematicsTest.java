@@ -0,0 +1,183 @@
+package com.marginallyclever.robotOverlord.rotaryStewartPlatform;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import javax.vecmath.Vector3f;
+
+import org.junit.Test;
+
+public class RotaryStewartPlatformKinematicsTest {
+	static final double EPSILON = 0.0001;
+
+	protected RotaryStewartPlatformKeyframe makeKeyframe() {
+		RotaryStewartPlatformKeyframe keyframe = new RotaryStewartPlatformKeyframe(new RotaryStewartPlatform2Dimensions());
+		keyframe.moveBase(new Vector3f());
+		keyframe.rotateBase(0,0);
+		return keyframe;
+	}
+
+	/**
+	 * The kernel must agree with RotaryStewartPlatformKeyframe.updateIK(), which fills the keyframe used for rendering.
+	 */
+	@Test
+	public void matchesKeyframe() {
+		RotaryStewartPlatformKeyframe keyframe = makeKeyframe();
+		RotaryStewartPlatformKinematics k = keyframe.getKinematics();
+		Random r = new Random(0);
+		int solved=0;
+		for(int n=0;n<1000;++n) {
+			keyframe.fingerPosition.set(r.nextFloat()*4-2, r.nextFloat()*4-2, r.nextFloat()*4-2);
+			keyframe.rotationAngleU = r.nextFloat()*20-10;
+			keyframe.rotationAngleV = r.nextFloat()*20-10;
+			keyframe.rotationAngleW = r.nextFloat()*20-10;
+			if(!keyframe.updateIK()) continue;
+			assertEquals(RotaryStewartPlatformKinematics.STATUS_OK, k.inverseKinematics(
+					keyframe.fingerPosition.x, keyframe.fingerPosition.y, keyframe.fingerPosition.z,
+					keyframe.rotationAngleU, keyframe.rotationAngleV, keyframe.rotationAngleW));
+			solved++;
+			for(int i=0;i<6;++i) {
+				assertEquals(keyframe.arms[i].angle, k.getAngle(i), 0.01);
+			}
+		}
+		assertTrue(solved>900);
+	}
+
+	/**
+	 * Every pose the inverse kinematics can solve should come back from the forward kinematics, starting from home.
+	 */
+	@Test
+	public void inverseThenForward() {
+		RotaryStewartPlatformKinematics k = makeKeyframe().getKinematics();
+		Random r = new Random(1);
+		double [] angles = new double[6];
+		double [] pose = new double[6];
+		int solved=0;
+		int worstIterations=0;
+		for(int n=0;n<10000;++n) {
+			double x = r.nextDouble()*4-2;
+			double y = r.nextDouble()*4-2;
+			double z = r.nextDouble()*4-2;
+			double u = r.nextDouble()*20-10;
+			double v = r.nextDouble()*20-10;
+			double w = r.nextDouble()*20-10;
+			if(k.inverseKinematics(x,y,z,u,v,w)!=RotaryStewartPlatformKinematics.STATUS_OK) continue;
+			for(int i=0;i<6;++i) angles[i]=k.getAngle(i);
+
+			k.setPose(0,0,0,0,0,0);
+			assertEquals(RotaryStewartPlatformKinematics.STATUS_OK, k.forwardKinematics(angles));
+			k.getPose(pose);
+			assertEquals(x, pose[0], EPSILON);
+			assertEquals(y, pose[1], EPSILON);
+			assertEquals(z, pose[2], EPSILON);
+			assertEquals(u, pose[3], EPSILON);
+			assertEquals(v, pose[4], EPSILON);
+			assertEquals(w, pose[5], EPSILON);
+			worstIterations = Math.max(worstIterations,k.getIterations());
+			solved++;
+		}
+		System.out.println("RotaryStewartPlatform FK from home: "+solved+" poses, at most "+worstIterations+" iterations");
+		assertTrue(solved>9000);
+	}
+
+	/**
+	 * RotaryStewartPlatformKeyframe.updateFK() should undo updateIK().
+	 */
+	@Test
+	public void keyframeForward() {
+		RotaryStewartPlatformKeyframe keyframe = makeKeyframe();
+		keyframe.fingerPosition.set(1,-1,0.5f);
+		keyframe.rotationAngleU = 5;
+		keyframe.rotationAngleV = -3;
+		keyframe.rotationAngleW = 8;
+		assertTrue(keyframe.updateIK());
+
+		keyframe.fingerPosition.set(0,0,0);
+		keyframe.rotationAngleU = 0;
+		keyframe.rotationAngleV = 0;
+		keyframe.rotationAngleW = 0;
+		assertTrue(keyframe.updateFK());
+		assertEquals(1,keyframe.fingerPosition.x,0.001f);
+		assertEquals(-1,keyframe.fingerPosition.y,0.001f);
+		assertEquals(0.5f,keyframe.fingerPosition.z,0.001f);
+		assertEquals(5,keyframe.rotationAngleU,0.001f);
+		assertEquals(-3,keyframe.rotationAngleV,0.001f);
+		assertEquals(8,keyframe.rotationAngleW,0.001f);
+	}
+
+	/**
+	 * Follow a path the way the simulation would, each solve starting from the last.
+	 */
+	@Test
+	public void benchmarkBatch() {
+		RotaryStewartPlatformKinematics k = makeKeyframe().getKinematics();
+		final int COUNT = 100000;
+		double [] poses = new double[COUNT*6];
+		double [] angles = new double[COUNT*6];
+		double [] back = new double[COUNT*6];
+		int [] status = new int[COUNT];
+		for(int n=0;n<COUNT;++n) {
+			double t = n*Math.PI*2/COUNT;
+			poses[n*6  ] = Math.cos(t*3)*1.5;
+			poses[n*6+1] = Math.sin(t*2)*1.5;
+			poses[n*6+2] = Math.sin(t*5);
+			poses[n*6+3] = Math.sin(t*7)*8;
+			poses[n*6+4] = Math.cos(t*4)*8;
+			poses[n*6+5] = Math.sin(t*3)*8;
+		}
+
+		// warm up
+		for(int i=0;i<5;++i) {
+			k.inverseKinematics(poses, COUNT, angles, status);
+			k.setPose(poses[0],poses[1],poses[2],poses[3],poses[4],poses[5]);
+			k.forwardKinematics(angles, COUNT, back, status);
+		}
+
+		long start = System.nanoTime();
+		int solvedIK = k.inverseKinematics(poses, COUNT, angles, status);
+		long middle = System.nanoTime();
+		k.setPose(poses[0],poses[1],poses[2],poses[3],poses[4],poses[5]);
+		int solvedFK = k.forwardKinematics(angles, COUNT, back, status);
+		long end = System.nanoTime();
+
+		System.out.println("RotaryStewartPlatform IK: "+solvedIK+"/"+COUNT+" in "+((middle-start)/COUNT)+"ns/solve");
+		System.out.println("RotaryStewartPlatform FK: "+solvedFK+"/"+COUNT+" in "+((end-middle)/COUNT)+"ns/solve");
+		assertEquals(COUNT,solvedIK);
+		assertEquals(COUNT,solvedFK);
+		for(int i=0;i<COUNT*6;++i) {
+			assertEquals(poses[i],back[i],EPSILON);
+		}
+	}
+
+	/**
+	 * An angle report from the machine moves the simulated platform to the pose those angles make.
+	 */
+	@Test
+	public void reportedAnglesMoveThePlatform() {
+		RotaryStewartPlatform robot = new RotaryStewartPlatform();
+		RotaryStewartPlatformKeyframe target = new RotaryStewartPlatformKeyframe(new RotaryStewartPlatform2Dimensions());
+		target.set(robot.motionNow);
+		target.fingerPosition.x += 1;
+		target.fingerPosition.z -= 0.5f;
+		target.rotationAngleU += 3;
+		assertTrue(target.updateIK());
+
+		StringBuilder report = new StringBuilder();
+		for(int i=0;i<6;++i) report.append((char)('A'+i)).append(target.arms[i].angle).append(' ');
+		// nothing is read before the hello.
+		robot.dataAvailable(null,report.toString());
+		robot.updateFK(0);
+		assertEquals(0,robot.motionNow.fingerPosition.x,EPSILON);
+
+		robot.isPortConfirmed = true;
+		robot.dataAvailable(null,"not a report");
+		robot.dataAvailable(null,report.toString());
+		robot.updateFK(0);
+		assertEquals(target.fingerPosition.x,robot.motionNow.fingerPosition.x,0.001);
+		assertEquals(target.fingerPosition.y,robot.motionNow.fingerPosition.y,0.001);
+		assertEquals(target.fingerPosition.z,robot.motionNow.fingerPosition.z,0.001);
+		assertEquals(target.rotationAngleU,robot.motionNow.rotationAngleU,0.001);
+	}
+}
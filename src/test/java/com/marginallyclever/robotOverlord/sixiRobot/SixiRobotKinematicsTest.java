@@ -0,0 +1,223 @@
+package com.marginallyclever.robotOverlord.sixiRobot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import javax.vecmath.Vector3f;
+
+import com.marginallyclever.robotOverlord.kinematics.DampedLeastSquaresSolver;
+import com.marginallyclever.robotOverlord.kinematics.IKCache;
+import com.marginallyclever.robotOverlord.kinematics.KinematicChain;
+import com.marginallyclever.robotOverlord.sixiRobot.tool.SixiToolGripper;
+
+public class SixiRobotKinematicsTest {
+	static final float EPSILON = 0.001f;
+	
+	// random angles within the limits of the arm
+	private void randomAngles(Random r,KinematicChain chain,double [] q) {
+		for(int i=0;i<q.length;++i) {
+			double min=chain.getMin(i);
+			double max=chain.getMax(i);
+			q[i] = min + (max-min)*r.nextDouble();
+		}
+	}
+	
+	private void setAngles(SixiRobotKeyframe k,double [] q) {
+		k.angle0=(float)q[0];
+		k.angle1=(float)q[1];
+		k.angle2=(float)q[2];
+		k.angle3=(float)q[3];
+		k.angle4=(float)q[4];
+		k.angle5=(float)q[5];
+	}
+	
+	@Test
+	public void chainMatchesForwardKinematics() {
+		SixiRobot robot = new SixiRobot();
+		SixiRobotKeyframe keyframe = new SixiRobotKeyframe();
+		KinematicChain chain = SixiRobot.buildKinematicChain();
+		double [] q = new double[6];
+		double [] pose = new double[KinematicChain.POSE_SIZE];
+		Random r = new Random(0);
+		
+		for(int j=0;j<1000;++j) {
+			randomAngles(r,chain,q);
+			setAngles(keyframe,q);
+			robot.forwardKinematics(keyframe, false, null);
+			chain.forwardKinematics(q, pose);
+			
+			assertEquals(keyframe.fingerPosition.x, pose[ 9], EPSILON);
+			assertEquals(keyframe.fingerPosition.y, pose[10], EPSILON);
+			assertEquals(keyframe.fingerPosition.z, pose[11], EPSILON);
+			assertEquals(keyframe.fingerForward.x, pose[6], EPSILON);
+			assertEquals(keyframe.fingerForward.y, pose[7], EPSILON);
+			assertEquals(keyframe.fingerForward.z, pose[8], EPSILON);
+			assertEquals(keyframe.fingerRight.x, -pose[0], EPSILON);
+			assertEquals(keyframe.fingerRight.y, -pose[1], EPSILON);
+			assertEquals(keyframe.fingerRight.z, -pose[2], EPSILON);
+		}
+	}
+	
+	/**
+	 * Solve for targets made by moving every joint a few degrees from a random starting pose.
+	 * This is what happens when jogging.
+	 */
+	@Test
+	public void dampedLeastSquaresNearbyTargets() {
+		KinematicChain chain = SixiRobot.buildKinematicChain();
+		DampedLeastSquaresSolver solver = new DampedLeastSquaresSolver(chain);
+		double [] start = new double[6];
+		double [] goal = new double[6];
+		double [] q = new double[6];
+		double [] target = new double[KinematicChain.POSE_SIZE];
+		Random r = new Random(1);
+		
+		int success=0;
+		final int TOTAL=1000;
+		for(int j=0;j<TOTAL;++j) {
+			randomAngles(r,chain,start);
+			for(int i=0;i<6;++i) goal[i] = start[i] + (r.nextDouble()*2-1)*5;
+			chain.clampToLimits(goal);
+			chain.forwardKinematics(goal, target);
+			System.arraycopy(start, 0, q, 0, 6);
+			if(solver.solve(q, target)) success++;
+		}
+		System.out.println("DLS nearby targets: "+success+"/"+TOTAL);
+		assertTrue(success>TOTAL*0.95);
+	}
+	
+	/**
+	 * Sweep a grid of positions in front of the arm with the finger pointing down, warm starting each solve from
+	 * the previous solution the way a program would.  Reports solve time and success rate.
+	 */
+	@Test
+	public void benchmarkGrid() {
+		KinematicChain chain = SixiRobot.buildKinematicChain();
+		DampedLeastSquaresSolver solver = new DampedLeastSquaresSolver(chain);
+		double [] q = new double[6];
+		double [] home = { 0, 45, 135, 0, 0, 0 };
+		// finger pointing straight down
+		double [] target = {
+				0, 1, 0,
+				1, 0, 0,
+				0, 0,-1,
+				0, 0, 0 };
+		
+		int success=0, total=0, iterations=0;
+		long start = System.nanoTime();
+		System.arraycopy(home, 0, q, 0, 6);
+		for(int x=10;x<=40;x+=2) {
+			for(int y=-20;y<=20;y+=2) {
+				for(int z=0;z<=30;z+=5) {
+					target[ 9]=x;
+					target[10]=y;
+					target[11]=z;
+					if(solver.solve(q, target)) success++;
+					else System.arraycopy(home, 0, q, 0, 6);
+					iterations+=solver.getIterations();
+					total++;
+				}
+			}
+		}
+		long elapsed = System.nanoTime()-start;
+		System.out.println("DLS grid: "+success+"/"+total+" reached, "
+				+(elapsed/total/1000)+"us/solve, "
+				+((float)iterations/total)+" iterations/solve");
+	}
+	
+	/**
+	 * Repeat the same targets from the same starting poses.  The cache must give exactly what the solver gives, and
+	 * every target solved once must be remembered the second time.
+	 */
+	@Test
+	public void cachedSolutionsMatchTheSolver() {
+		SixiRobot robot = new SixiRobot();
+		KinematicChain chain = SixiRobot.buildKinematicChain();
+		double [] q = new double[6];
+		Random r = new Random(2);
+		final int TOTAL=200;
+		SixiRobotKeyframe [] targets = new SixiRobotKeyframe[TOTAL];
+		SixiRobotKeyframe [] starts = new SixiRobotKeyframe[TOTAL];
+		for(int j=0;j<TOTAL;++j) {
+			randomAngles(r,chain,q);
+			targets[j] = new SixiRobotKeyframe();
+			setAngles(targets[j],q);
+			robot.forwardKinematics(targets[j],false,null);
+			// start a few degrees away, as a program would.
+			for(int i=0;i<6;++i) q[i] += (r.nextDouble()*2-1)*5;
+			starts[j] = new SixiRobotKeyframe();
+			setAngles(starts[j],q);
+			robot.forwardKinematics(starts[j],false,null);
+		}
+		
+		SixiRobotKeyframe solved = new SixiRobotKeyframe();
+		SixiRobotKeyframe cached = new SixiRobotKeyframe();
+		// what solveIK() gave the first time, to compare with the second.
+		SixiRobotKeyframe [] first = new SixiRobotKeyframe[TOTAL];
+		IKCache cache = robot.getIKCache();
+		int compared=0;
+		int cachedOnce=0;
+		for(int pass=0;pass<2;++pass) {
+			for(int j=0;j<TOTAL;++j) {
+				solved.set(starts[j]);
+				solved.fingerPosition.set(targets[j].fingerPosition);
+				solved.fingerForward.set(targets[j].fingerForward);
+				solved.fingerRight.set(targets[j].fingerRight);
+				cached.set(solved);
+				
+				boolean ok = robot.inverseKinematics(solved,false,null);
+				boolean cachedOk = robot.solveIK(cached);
+				if(pass==0) {
+					if(cachedOk) {
+						cachedOnce++;
+						first[j] = new SixiRobotKeyframe();
+						first[j].set(cached);
+					}
+				} else {
+					// the same target from the same start gives the same answer, whether solved or remembered.
+					assertEquals(first[j]!=null,cachedOk);
+					if(cachedOk) assertSameAngles(first[j],cached);
+				}
+				if(!ok) continue;
+				assertTrue(cachedOk);
+				assertSameAngles(solved,cached);
+				compared++;
+			}
+			if(pass==0) {
+				// nothing seen before, so nothing remembered.
+				assertEquals(0,cache.getHitCount());
+				assertEquals(TOTAL,cache.getMissCount());
+			}
+		}
+		assertTrue(compared>TOTAL);
+		// every solution found the first time is used the second time, and only those.
+		assertEquals(cachedOnce,cache.getHitCount());
+		assertEquals(0,cache.getRejectedCount());
+		assertEquals(TOTAL+(TOTAL-cachedOnce),cache.getMissCount());
+		
+		// the finger is where it was, whatever the tool.
+		int size = cache.size();
+		robot.setTool(new SixiToolGripper());
+		assertEquals(size,cache.size());
+		assertEquals(0,cache.getInvalidationCount());
+		
+		robot.moveBase(new Vector3f());
+		assertEquals(0,cache.size());
+		assertEquals(1,cache.getInvalidationCount());
+	}
+
+	protected void assertSameAngles(SixiRobotKeyframe expected,SixiRobotKeyframe actual) {
+		assertEquals(expected.angle0,actual.angle0,0);
+		assertEquals(expected.angle1,actual.angle1,0);
+		assertEquals(expected.angle2,actual.angle2,0);
+		assertEquals(expected.angle3,actual.angle3,0);
+		assertEquals(expected.angle4,actual.angle4,0);
+		assertEquals(expected.angle5,actual.angle5,0);
+		assertTrue(expected.elbow.epsilonEquals(actual.elbow,0));
+		assertTrue(expected.wrist.epsilonEquals(actual.wrist,0));
+	}
+}
@@ -0,0 +1,97 @@
+package com.marginallyclever.robotOverlord.sixiRobot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SixiRobotTelemetryTest {
+	protected void waitForWorker(SixiRobotTelemetry telemetry,long reports) throws InterruptedException {
+		long timeout = System.currentTimeMillis()+5000;
+		while(telemetry.getFKCount()+telemetry.getSkippedCount()<reports && System.currentTimeMillis()<timeout) {
+			Thread.sleep(1);
+		}
+	}
+
+	@Test
+	public void reportsAreSolvedInTheWorker() throws InterruptedException {
+		SixiRobot robot = new SixiRobot();
+		SixiRobotKeyframe start = new SixiRobotKeyframe();
+		start.angle0 = -45;
+		SixiRobotTelemetry telemetry = new SixiRobotTelemetry(robot,start);
+		try {
+			SixiRobotKeyframe keyframe = new SixiRobotKeyframe();
+			keyframe.set(start);
+			assertFalse(telemetry.apply(keyframe));
+
+			assertTrue(telemetry.accept("A10 B-90 C5 D188 E-20"));
+			assertFalse(telemetry.accept("HELLO WORLD! I AM ARM6 #0"));
+			waitForWorker(telemetry,1);
+			assertTrue(telemetry.apply(keyframe));
+			assertFalse(telemetry.apply(keyframe));
+
+			SixiRobotKeyframe expected = new SixiRobotKeyframe();
+			expected.angle0 = -45;
+			expected.angle1 = -20;
+			expected.angle2 = 188;
+			expected.angle3 = 5;
+			expected.angle4 = -90;
+			expected.angle5 = 10;
+			robot.forwardKinematics(expected,false,null);
+			assertEquals(expected.angle1,keyframe.angle1,0);
+			assertEquals(expected.angle5,keyframe.angle5,0);
+			assertTrue(expected.fingerPosition.epsilonEquals(keyframe.fingerPosition,1e-6f));
+			assertEquals(expected.ikU,keyframe.ikU,1e-6);
+		} finally {
+			telemetry.close();
+		}
+	}
+
+	@Test
+	public void baseComesFromTheKeyframe() throws InterruptedException {
+		SixiRobot robot = new SixiRobot();
+		SixiRobotTelemetry telemetry = new SixiRobotTelemetry(robot,new SixiRobotKeyframe());
+		try {
+			SixiRobotKeyframe keyframe = new SixiRobotKeyframe();
+			// the base was jogged, and the firmware doesn't report it.
+			keyframe.angle0 = 30;
+			telemetry.accept("A0 B-90 C0 D188 E0");
+			waitForWorker(telemetry,1);
+			assertTrue(telemetry.apply(keyframe));
+			assertEquals(30,keyframe.angle0,0);
+
+			SixiRobotKeyframe expected = new SixiRobotKeyframe();
+			expected.set(keyframe);
+			robot.forwardKinematics(expected,false,null);
+			assertTrue(expected.fingerPosition.epsilonEquals(keyframe.fingerPosition,1e-6f));
+		} finally {
+			telemetry.close();
+		}
+	}
+
+	@Test
+	public void floodIsCoalesced() throws InterruptedException {
+		SixiRobot robot = new SixiRobot();
+		SixiRobotTelemetry telemetry = new SixiRobotTelemetry(robot,new SixiRobotKeyframe());
+		try {
+			StringBuilder line = new StringBuilder();
+			int n=20000;
+			for(int i=0;i<n;++i) {
+				line.setLength(0);
+				line.append("A0 B-90 C0 D188 E").append(i%90);
+				assertTrue(telemetry.accept(line));
+			}
+			waitForWorker(telemetry,n);
+			assertEquals(n,telemetry.getReportCount());
+			// every report was either solved, or replaced by a newer one before the worker got to it.
+			assertEquals(n,telemetry.getFKCount()+telemetry.getSkippedCount());
+
+			SixiRobotKeyframe keyframe = new SixiRobotKeyframe();
+			assertTrue(telemetry.apply(keyframe));
+			assertEquals((n-1)%90,keyframe.angle1,0);
+		} finally {
+			telemetry.close();
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package com.marginallyclever.robotOverlord.spidee;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.marginallyclever.robotOverlord.AllocationCounter;
+
+public class SpideeGaitEngineTest {
+	static final float DT = 1.0f/30.0f;
+
+	/**
+	 * Stand up, then start walking forward.
+	 */
+	protected Spidee standingSpidee() {
+		Spidee robot = new Spidee();
+		robot.setMoveMode(Spidee.MoveModes.MOVE_MODE_STANDUP);
+		for(int i=0;i<300;++i) robot.prepareMove(DT);
+		robot.buttons[Spidee.BUTTONS_Y_NEG]=1;
+		return robot;
+	}
+
+	@Test
+	public void everyLegSwingsOncePerCycle() {
+		for(int g=0;g<SpideeGaitEngine.BEATS.length;++g) {
+			int beats = SpideeGaitEngine.BEATS[g];
+			float [] reach = SpideeGaitEngine.REACH[g];
+			int n = reach.length-1;
+			int swing=0;
+			for(int i=0;i<n;++i) {
+				if(reach[i]>=0) swing++;
+			}
+			// one beat of the cycle, plus the touch down sample.
+			assertEquals(n/beats+1,swing);
+			assertEquals(0,reach[0],0);
+			assertEquals(1,reach[SpideeGaitEngine.RESOLUTION],1e-6);
+			assertEquals(1,SpideeGaitEngine.LIFT[g][SpideeGaitEngine.RESOLUTION/2],1e-6);
+		}
+	}
+
+	@Test
+	public void tripodKeepsThreeFeetDown() {
+		Spidee robot = standingSpidee();
+		SpideeGaitEngine engine = robot.getGaitEngine();
+		robot.gait_cycle = 0;
+		for(int i=0;i<120;++i) {
+			engine.walk(SpideeGaitEngine.TRIPOD,DT);
+			engine.solve(DT);
+			int up=0;
+			int upOdd=0;
+			for(int j=0;j<6;++j) {
+				if(robot.legs[j].ankle_joint.pos.z>0) {
+					up++;
+					if(j%2==1) upOdd++;
+				}
+			}
+			assertTrue(up<=3);
+			// the lifted legs are all from the same tripod.
+			assertTrue(upOdd==0 || upOdd==up);
+		}
+	}
+
+	@Test
+	public void walkingMovesTheBody() {
+		Spidee robot = standingSpidee();
+		robot.setMoveMode(Spidee.MoveModes.MOVE_MODE_RIPPLE);
+		float y0 = robot.body.pos.y;
+		for(int i=0;i<300;++i) robot.prepareMove(DT);
+		assertTrue(robot.body.pos.y > y0+1);
+	}
+
+	@Test
+	public void onlyChangedServosAreSent() {
+		Spidee robot = standingSpidee();
+		SpideeGaitEngine engine = robot.getGaitEngine();
+		engine.solve(DT);
+		assertTrue(engine.updateServos());
+		assertTrue(engine.getFrameLength()>0);
+		assertFalse(engine.updateServos());
+		assertEquals(0,engine.getFrameLength());
+
+		robot.legs[2].knee_joint.angle = robot.legs[2].knee_joint.last_angle+5;
+		assertTrue(engine.updateServos());
+		assertEquals(2,engine.getFrameLength());
+		assertEquals((byte)robot.legs[2].knee_joint.servo_address,engine.getFrame()[0]);
+		assertEquals(2,engine.getFrameCount());
+	}
+
+	@Test
+	public void walksWithoutGarbage() {
+		AllocationCounter.assumeSupported();
+
+		Spidee robot = standingSpidee();
+		SpideeGaitEngine engine = robot.getGaitEngine();
+		for(int i=0;i<20000;++i) tick(engine,i);
+
+		long before = AllocationCounter.getBytes();
+		for(int i=0;i<20000;++i) tick(engine,i);
+		long after = AllocationCounter.getBytes();
+		assertTrue((after-before)+" bytes",after-before < 1024);
+	}
+
+	protected void tick(SpideeGaitEngine engine,int i) {
+		engine.walk(i%3,DT);
+		engine.solve(DT);
+		engine.updateServos();
+	}
+
+	@Test
+	public void benchmark() {
+		String [] names = { "ripple", "wave", "tripod" };
+		for(int g=0;g<names.length;++g) {
+			Spidee robot = standingSpidee();
+			SpideeGaitEngine engine = robot.getGaitEngine();
+			for(int i=0;i<50000;++i) {
+				engine.walk(g,DT);
+				engine.solve(DT);
+				engine.updateServos();
+			}
+			int COUNT=200000;
+			long frames = engine.getFrameCount();
+			long start = System.nanoTime();
+			for(int i=0;i<COUNT;++i) {
+				engine.walk(g,DT);
+				engine.solve(DT);
+				engine.updateServos();
+			}
+			long end = System.nanoTime();
+			double seconds = (end-start)/1e9;
+			System.out.println("Spidee "+names[g]+" gait: "+(long)(COUNT/seconds)+" ticks/s, "
+					+(engine.getFrameCount()-frames)+"/"+COUNT+" ticks sent a frame");
+			// far faster than the 30 ticks a second the app needs.
+			assertTrue(COUNT/seconds > 1000);
+		}
+	}
+}